@@ -31,4 +31,6 @@ module org.veary.persist {
 
     requires transitive java.sql;
     requires java.naming;
+    requires transitive java.management;
+    requires jdk.jfr;
 }
@@ -0,0 +1,50 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist;
+
+/**
+ * File formats supported by {@link Query#export(java.nio.file.Path, ExportFormat)}.
+ *
+ * @author Marc L. Veary
+ * @since 1.0
+ */
+public enum ExportFormat {
+
+    /**
+     * RFC 4180 comma separated values in UTF-8, with a header line of column labels and CRLF
+     * line endings. {@code NULL} is written as an empty field.
+     */
+    CSV,
+
+    /**
+     * A length-prefixed binary format. The file starts with the magic bytes {@code VPX1}, the
+     * column count as an int, and each column label as an int byte length followed by UTF-8
+     * bytes. Each row is an int byte length followed by one value per column: a type tag byte
+     * ({@code 0} null, {@code 1} boolean, {@code 5} long, {@code 7} double, {@code 8} UTF-8
+     * string, {@code 9} bytes) and the value, with strings and bytes prefixed by an int length.
+     * All numbers are big-endian.
+     */
+    BINARY
+}
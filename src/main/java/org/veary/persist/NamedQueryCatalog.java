@@ -0,0 +1,202 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * A set of named SQL statements, optionally with the entity interface each query's rows are
+ * mapped to, for registration with
+ * {@link PersistenceManagerFactory#registerNamedQueries(NamedQueryCatalog)}.
+ *
+ * <p>A catalog may be built in code or loaded from a properties file, in either the plain or
+ * the XML format of {@link Properties}. Each key is a query name and each value its SQL. A key
+ * ending in {@value #ENTITY_SUFFIX} gives the fully qualified name of the entity interface for
+ * the query of the same name without the suffix:
+ *
+ * <pre>
+ * account.byName=SELECT * FROM debs.account WHERE name = :name
+ * account.byName.entity=com.example.Account
+ * </pre>
+ *
+ * @author Marc L. Veary
+ * @since 1.0
+ */
+public final class NamedQueryCatalog {
+
+    /**
+     * The suffix of a properties key naming a query's entity interface.
+     */
+    public static final String ENTITY_SUFFIX = ".entity"; //$NON-NLS-1$
+
+    private static final String XML_EXTENSION = ".xml"; //$NON-NLS-1$
+
+    private final Map<String, String> queries = new LinkedHashMap<>();
+    private final Map<String, Class<?>> entities = new LinkedHashMap<>();
+
+    private NamedQueryCatalog() {
+    }
+
+    /**
+     * Returns a new, empty catalog.
+     *
+     * @return {@link NamedQueryCatalog}
+     */
+    public static NamedQueryCatalog newInstance() {
+        return new NamedQueryCatalog();
+    }
+
+    /**
+     * Returns a catalog of the queries in the given properties. Entity interfaces are loaded
+     * with the given class loader.
+     *
+     * @param properties {@link Properties}
+     * @param loader the {@code ClassLoader} for entity interfaces
+     * @return {@link NamedQueryCatalog}
+     * @throws IllegalArgumentException if an entity interface cannot be loaded, or is given
+     *     for a query which is not defined
+     */
+    public static NamedQueryCatalog fromProperties(Properties properties, ClassLoader loader) {
+        final NamedQueryCatalog catalog = new NamedQueryCatalog();
+        final Set<String> names = new TreeSet<>(properties.stringPropertyNames());
+        for (final String name : names) {
+            if (!name.endsWith(ENTITY_SUFFIX)) {
+                catalog.add(name, properties.getProperty(name));
+            }
+        }
+        for (final String name : names) {
+            if (name.endsWith(ENTITY_SUFFIX)) {
+                final String query = name.substring(0, name.length() - ENTITY_SUFFIX.length());
+                if (!catalog.queries.containsKey(query)) {
+                    throw new IllegalArgumentException("Entity given for unknown query: " + name);
+                }
+                final String type = properties.getProperty(name).trim();
+                try {
+                    catalog.entities.put(query, Class.forName(type, false, loader));
+                } catch (final ClassNotFoundException e) {
+                    throw new IllegalArgumentException("Entity interface not found: " + type, e);
+                }
+            }
+        }
+        return catalog;
+    }
+
+    /**
+     * Returns a catalog of the queries in the given resource, read relative to the given
+     * class. A resource whose name ends in {@code .xml} is read with
+     * {@link Properties#loadFromXML(InputStream)}. Entity interfaces are loaded with the
+     * class's loader.
+     *
+     * @param anchor the class relative to which the resource is found
+     * @param resource the resource name
+     * @return {@link NamedQueryCatalog}
+     * @throws UncheckedIOException if the resource cannot be read
+     */
+    public static NamedQueryCatalog fromResource(Class<?> anchor, String resource) {
+        final Properties properties = new Properties();
+        try (InputStream in = anchor.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new UncheckedIOException(new IOException("Resource not found: " + resource));
+            }
+            if (resource.endsWith(XML_EXTENSION)) {
+                properties.loadFromXML(in);
+            } else {
+                properties.load(in);
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return fromProperties(properties, anchor.getClassLoader());
+    }
+
+    /**
+     * Adds a query whose result is not mapped to an entity, or a write statement.
+     *
+     * @param name the unique name of the query
+     * @param sql the SQL, which may use positional or named parameters
+     * @return the current {@code NamedQueryCatalog}
+     */
+    public NamedQueryCatalog add(String name, String sql) {
+        Objects.requireNonNull(name, "Query name cannot be null.");
+        Objects.requireNonNull(sql, "SQL cannot be null.");
+        if (this.queries.putIfAbsent(name, sql.trim()) != null) {
+            throw new IllegalArgumentException("Duplicate query name: " + name);
+        }
+        return this;
+    }
+
+    /**
+     * Adds a query whose rows are mapped to the given entity interface.
+     *
+     * @param name the unique name of the query
+     * @param sql the SQL, which may use positional or named parameters
+     * @param entityInterface the interface of the entity to be returned
+     * @return the current {@code NamedQueryCatalog}
+     */
+    public NamedQueryCatalog add(String name, String sql, Class<?> entityInterface) {
+        Objects.requireNonNull(entityInterface, "Class interface parameter is null.");
+        add(name, sql);
+        this.entities.put(name, entityInterface);
+        return this;
+    }
+
+    /**
+     * Returns the names of the queries, in the order they were added.
+     *
+     * @return unmodifiable {@code Set<String>}
+     */
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(this.queries.keySet());
+    }
+
+    /**
+     * Returns the SQL of the named query.
+     *
+     * @param name the query name
+     * @return the SQL, or {@code null} if there is no such query
+     */
+    public String getSql(String name) {
+        return this.queries.get(name);
+    }
+
+    /**
+     * Returns the entity interface of the named query.
+     *
+     * @param name the query name
+     * @return the entity interface, or {@code null} if the query's rows are not mapped
+     */
+    public Class<?> getEntityInterface(String name) {
+        return this.entities.get(name);
+    }
+}
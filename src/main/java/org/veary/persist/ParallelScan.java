@@ -0,0 +1,63 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist;
+
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+
+/**
+ * A SELECT query whose result is split into ranges of a numeric or temporal column, with each
+ * range read at the same time on its own connection.
+ *
+ * <p>The minimum and maximum of the split column are queried first and the range between them
+ * divided into equal sub-ranges. Rows where the split column is {@code NULL} are read with the
+ * first partition.
+ *
+ * @author Marc L. Veary
+ * @since 1.0
+ * @see QueryManager#createParallelScan(SqlStatement, Class, String, int)
+ */
+public interface ParallelScan {
+
+    /**
+     * Runs the scan, passing each partition's entities to its own consumer. Each consumer is
+     * only ever called from the thread reading its partition, so it need not be thread-safe.
+     * This method returns when every partition has been read.
+     *
+     * @param consumerFactory returns the consumer for the given partition number, starting at 0
+     * @return the total number of rows read
+     */
+    long forEachPartition(IntFunction<? extends Consumer<Object>> consumerFactory);
+
+    /**
+     * Runs the scan and returns the entities of all partitions as a single stream, in no
+     * particular order. Partitions are read ahead of the consumer only as far as a bounded
+     * buffer allows. Closing the stream before it is exhausted cancels the scan.
+     *
+     * @return {@code Stream<Object>}
+     */
+    Stream<Object> stream();
+}
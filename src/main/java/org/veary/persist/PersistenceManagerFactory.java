@@ -24,18 +24,47 @@
 
 package org.veary.persist;
 
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.sql.DataSource;
 
+import org.veary.persist.exceptions.PersistenceException;
+import org.veary.persist.internal.PersistenceContext;
+import org.veary.persist.internal.QueryDiagnosticsImpl;
 import org.veary.persist.internal.QueryManagerImpl;
+import org.veary.persist.internal.RepeatedQueryDetector;
+import org.veary.persist.internal.ReplicaRoutingDataSource;
+import org.veary.persist.internal.ThreadLocalTransactionManager;
 import org.veary.persist.internal.TransactionManagerImpl;
+import org.veary.persist.internal.TransactionRunner;
+import org.veary.persist.internal.WriteBehindBufferImpl;
 
 /**
  * <b>Purpose:</b> factory for all the manager classes.
  *
  * <p><b>Notes:</b> annotated for JSR 330
  *
+ * <p>The factory may be given read replicas in addition to the primary {@code DataSource}.
+ * Managers from {@link #createQueryManager()} then read from the replicas, while managers from
+ * {@link #createTransactionManager()} and {@link #createPrimaryQueryManager()} always use the
+ * primary.
+ *
+ * <p>The results of queries marked {@linkplain Query#setCacheable(boolean) cacheable} are held
+ * by the factory. A factory constructed with a {@link ResultCacheSnapshot} loads the snapshot
+ * file at startup, so that a restarted node starts warm, and {@link #saveResultCache()} writes
+ * it again, typically at shutdown.
+ *
  * @author Marc L. Veary
  * @since 1.0
  * @see QueryManager
@@ -45,7 +74,14 @@ import org.veary.persist.internal.TransactionManagerImpl;
 @Singleton
 public final class PersistenceManagerFactory {
 
+    private static final Duration DEFAULT_EJECT_DURATION = Duration.ofSeconds(30);
+
     private final DataSource ds;
+    private final DataSource readDs;
+    private final TransactionManager sharedTxManager;
+    private final PersistenceContext context = new PersistenceContext();
+    private ResultCacheSnapshot snapshot;
+    private ObjectName mbeanName;
 
     /**
      * Constructor.
@@ -55,15 +91,80 @@ public final class PersistenceManagerFactory {
     @Inject
     public PersistenceManagerFactory(DataSource ds) {
         this.ds = ds;
+        this.readDs = ds;
+        this.sharedTxManager = new ThreadLocalTransactionManager(ds, this.context);
     }
 
     /**
-     * Returns a new instance of the {@link QueryManager}.
+     * Constructor which warms the result cache from a snapshot. A missing or unreadable
+     * snapshot, one written by a different version, or one older than the snapshot's maximum
+     * age is ignored, and the factory starts with an empty cache.
+     *
+     * @param ds {@code DataSource}
+     * @param snapshot the result cache snapshot to load now and to save with
+     *     {@link #saveResultCache()}
+     */
+    public PersistenceManagerFactory(DataSource ds, ResultCacheSnapshot snapshot) {
+        this(ds);
+        this.snapshot = Objects.requireNonNull(snapshot);
+        loadResultCache(snapshot.getFile(), snapshot.getVersion(), snapshot.getMaxAge());
+    }
+
+    /**
+     * Constructor for a primary database with read replicas. A replica which fails to provide
+     * a connection is ejected for 30 seconds.
+     *
+     * @param primary the primary {@code DataSource}
+     * @param replicas the replica {@code DataSource}s. If empty, all reads use the primary.
+     * @param selection how the replica for each new connection is chosen
+     */
+    public PersistenceManagerFactory(DataSource primary, List<DataSource> replicas,
+        ReplicaSelection selection) {
+        this(primary, replicas, selection, DEFAULT_EJECT_DURATION);
+    }
+
+    /**
+     * Constructor for a primary database with read replicas.
+     *
+     * @param primary the primary {@code DataSource}
+     * @param replicas the replica {@code DataSource}s. If empty, all reads use the primary.
+     * @param selection how the replica for each new connection is chosen
+     * @param ejectFor how long a replica which fails to provide a connection is excluded
+     * @throws NullPointerException if the primary, the list of replicas or any replica is
+     *     {@code null}
+     */
+    public PersistenceManagerFactory(DataSource primary, List<DataSource> replicas,
+        ReplicaSelection selection, Duration ejectFor) {
+        this.ds = Objects.requireNonNull(primary, "Primary DataSource parameter is null.");
+        Objects.requireNonNull(replicas, "Replicas parameter is null.");
+        for (final DataSource replica : replicas) {
+            Objects.requireNonNull(replica, "Replica DataSource parameter is null.");
+        }
+        this.readDs = replicas.isEmpty()
+            ? primary
+            : new ReplicaRoutingDataSource(primary, replicas, selection, ejectFor);
+        this.sharedTxManager = new ThreadLocalTransactionManager(primary, this.context);
+    }
+
+    /**
+     * Returns a new instance of the {@link QueryManager}. If read replicas have been
+     * configured, its queries are run on a replica.
      *
      * @return new instance of {@link QueryManager}
      */
     public QueryManager createQueryManager() {
-        return new QueryManagerImpl(this.ds);
+        return new QueryManagerImpl(this.readDs, this.context);
+    }
+
+    /**
+     * Returns a new instance of the {@link QueryManager} whose queries are always run on the
+     * primary {@code DataSource}. Use this when a read must see the results of a recently
+     * committed transaction.
+     *
+     * @return new instance of {@link QueryManager}
+     */
+    public QueryManager createPrimaryQueryManager() {
+        return new QueryManagerImpl(this.ds, this.context);
     }
 
     /**
@@ -72,7 +173,297 @@ public final class PersistenceManagerFactory {
      * @return new instance of {@link TransactionManager}
      */
     public TransactionManager createTransactionManager() {
-        return new TransactionManagerImpl(this.ds);
+        return new TransactionManagerImpl(this.ds, this.context);
+    }
+
+    /**
+     * Validates and registers the catalog's named queries. Intended to be called at startup:
+     * each statement is prepared against the primary {@code DataSource}, which checks it and
+     * records its result columns, and its parsed form and entity mapper are cached so that the
+     * first requests which use it do not pay for them. If any statement is invalid, none are
+     * registered.
+     *
+     * @param catalog {@link NamedQueryCatalog}
+     * @return the number of queries registered
+     * @throws org.veary.persist.exceptions.PersistenceException listing every invalid query
+     * @see QueryManager#createNamedQuery(String, java.util.Map)
+     */
+    public int registerNamedQueries(NamedQueryCatalog catalog) {
+        return this.context.getNamedQueries().register(this.ds, catalog);
+    }
+
+    /**
+     * Returns a new {@link SqlStatement} for a registered named query, for use with
+     * positional parameters or with a {@link TransactionManager}.
+     *
+     * @param name the query name
+     * @return a new {@link SqlStatement}
+     * @throws IllegalArgumentException if there is no such query
+     */
+    public SqlStatement getNamedStatement(String name) {
+        return SqlStatement.newInstance(this.context.getNamedQueries().get(name).getSql());
+    }
+
+    /**
+     * Returns this factory's thread-safe {@link TransactionManager}. The same instance is
+     * returned on every call and may be shared by any number of threads; each thread has its
+     * own transaction, which is begun, committed and rolled back independently of the others.
+     *
+     * @return the shared {@link TransactionManager}
+     */
+    public TransactionManager getSharedTransactionManager() {
+        return this.sharedTxManager;
+    }
+
+    /**
+     * Runs the work in a transaction on the primary {@code DataSource}, retrying it with
+     * {@link RetryPolicy#defaults()} if it fails with a transient error such as a deadlock or
+     * serialization failure.
+     *
+     * @param <T> the type of the result
+     * @param work the unit of work. It may be called more than once, so must not have side
+     *     effects outside the transaction.
+     * @return the result of the successful attempt
+     * @see #inTransaction(RetryPolicy, Function)
+     */
+    public <T> T inTransaction(Function<? super TransactionManager, T> work) {
+        return inTransaction(RetryPolicy.defaults(), work);
+    }
+
+    /**
+     * Runs the work in a transaction on the primary {@code DataSource}, retrying it as the
+     * policy allows.
+     *
+     * <p>The transaction is begun before the work is called. When the work returns, the
+     * transaction is committed if anything was persisted (unless the work committed or
+     * rolled it back itself), otherwise it is rolled back. If the work throws, the transaction
+     * is rolled back and, if the policy's classifier accepts the exception, the work is retried
+     * after a randomised exponential backoff. Retries are also limited by a budget shared by
+     * all the transactions of this factory, so that a database which is failing rather than
+     * contended is not flooded with retries.
+     *
+     * @param <T> the type of the result
+     * @param policy {@link RetryPolicy}
+     * @param work the unit of work. It may be called more than once, so must not have side
+     *     effects outside the transaction.
+     * @return the result of the successful attempt
+     */
+    public <T> T inTransaction(RetryPolicy policy, Function<? super TransactionManager, T> work) {
+        return new TransactionRunner(this.ds, this.context).run(policy, work);
+    }
+
+    /**
+     * Returns a new {@link WriteBehindBuffer}, which writes to the primary {@code DataSource}.
+     * The buffer's writer threads are started immediately and run until it is closed.
+     *
+     * @param capacity the maximum number of queued statements
+     * @param maxBatchSize the maximum number of statements committed in one transaction
+     * @param maxDelay the longest a statement waits for its batch to fill before it is written.
+     *     Must be positive.
+     * @param writers the number of writer threads
+     * @return new instance of {@link WriteBehindBuffer}
+     */
+    public WriteBehindBuffer createWriteBehindBuffer(int capacity, int maxBatchSize,
+        Duration maxDelay, int writers) {
+        return new WriteBehindBufferImpl(this.ds, capacity, maxBatchSize, maxDelay, writers,
+            this.context);
+    }
+
+    /**
+     * Enables query diagnostics for this factory's {@link QueryManager}s, replacing any
+     * diagnostics already enabled. Intended for tests and development.
+     *
+     * @param scanRowThreshold a full table scan of a table estimated to hold more rows than
+     *     this is logged as a warning
+     * @return the new {@link QueryDiagnostics}
+     */
+    public QueryDiagnostics enableQueryDiagnostics(long scanRowThreshold) {
+        final QueryDiagnosticsImpl diagnostics = new QueryDiagnosticsImpl(scanRowThreshold);
+        this.context.setDiagnostics(diagnostics);
+        return diagnostics;
+    }
+
+    /**
+     * Disables query diagnostics.
+     */
+    public void disableQueryDiagnostics() {
+        this.context.setDiagnostics(null);
+    }
+
+    /**
+     * Returns the query diagnostics, if enabled.
+     *
+     * @return {@link QueryDiagnostics}, or {@code null} if diagnostics are disabled
+     */
+    public QueryDiagnostics getQueryDiagnostics() {
+        return this.context.getDiagnostics();
+    }
+
+    /**
+     * Enables detection of repeated queries for this factory's managers, replacing any
+     * detection already enabled. Statements are checked within each {@link QueryScope} opened
+     * with {@link #openScope(String)}, and within each transaction begun outside of a scope.
+     *
+     * @param threshold the number of distinct statements, by SQL text and parameters, a SQL
+     *     shape may run as in one scope before it is reported
+     * @param strict {@code true} to throw a
+     *     {@link org.veary.persist.exceptions.RepeatedQueryException} from the statement which
+     *     crosses the threshold, as in tests; {@code false} to log a warning
+     */
+    public void enableRepeatedQueryDetection(int threshold, boolean strict) {
+        this.context.setRepeatedQueryDetector(new RepeatedQueryDetector(threshold, strict));
+    }
+
+    /**
+     * Disables detection of repeated queries.
+     */
+    public void disableRepeatedQueryDetection() {
+        this.context.setRepeatedQueryDetector(null);
+    }
+
+    /**
+     * Opens a {@link QueryScope} on the current thread. If repeated query detection is not
+     * enabled, the scope does nothing.
+     *
+     * @param name describes the scope, such as the request being handled
+     * @return {@link QueryScope}
+     */
+    public QueryScope openScope(String name) {
+        final RepeatedQueryDetector detector = this.context.getRepeatedQueryDetector();
+        if (detector == null) {
+            return new QueryScope() {
+
+                @Override
+                public List<String> getFindings() {
+                    return Collections.emptyList();
+                }
+
+                @Override
+                public void close() {
+                    // detection is disabled
+                }
+            };
+        }
+        return detector.open(name);
+    }
+
+    /**
+     * Sets how long cached query results are kept after they are read from the database. The
+     * default is ten minutes.
+     *
+     * @param ttl {@link Duration}
+     */
+    public void setResultCacheTtl(Duration ttl) {
+        this.context.getResultCache().setTtl(ttl);
+    }
+
+    /**
+     * Removes all cached query results.
+     */
+    public void clearResultCache() {
+        this.context.getResultCache().clear();
+    }
+
+    /**
+     * Writes the unexpired cached query results to a snapshot file, in a compact binary
+     * format. The file is replaced atomically.
+     *
+     * @param file the snapshot file
+     * @param version the application's version. A snapshot is only loaded by the same version.
+     * @param compress {@code true} to GZIP compress the snapshot
+     * @return the number of results written
+     */
+    public int saveResultCache(Path file, String version, boolean compress) {
+        return this.context.getResultCache().save(file, version, compress);
+    }
+
+    /**
+     * Writes the unexpired cached query results to the snapshot given to the constructor.
+     *
+     * @return the number of results written
+     * @throws IllegalStateException if the factory was constructed without a snapshot
+     */
+    public int saveResultCache() {
+        if (this.snapshot == null) {
+            throw new IllegalStateException("No result cache snapshot has been configured.");
+        }
+        return saveResultCache(this.snapshot.getFile(), this.snapshot.getVersion(),
+            this.snapshot.isCompressed());
+    }
+
+    /**
+     * Loads a snapshot written by {@link #saveResultCache} into the result cache. Intended to
+     * be called at startup. A missing or unreadable file, a snapshot written by a different
+     * {@code version}, or one older than {@code maxAge} is ignored; results which would
+     * already have expired are skipped.
+     *
+     * @param file the snapshot file
+     * @param version the application's version
+     * @param maxAge the oldest snapshot accepted
+     * @return the number of results loaded
+     */
+    public int loadResultCache(Path file, String version, Duration maxAge) {
+        return this.context.getResultCache().load(file, version, maxAge);
+    }
+
+    /**
+     * Returns the live statistics of this factory's managers.
+     *
+     * @return {@link PersistenceStatisticsMXBean}
+     */
+    public PersistenceStatisticsMXBean getStatistics() {
+        return this.context.getStatistics();
+    }
+
+    /**
+     * Returns the statistics of this factory's statements, aggregated by SQL shape.
+     *
+     * @return {@link StatementStatistics}
+     */
+    public StatementStatistics getStatementStatistics() {
+        return this.context.getStatementStatistics();
+    }
+
+    /**
+     * Registers this factory's statistics with the platform MBean server, under the name
+     * {@code org.veary.persist:type=PersistenceManagerFactory,name=<name>}. Any earlier
+     * registration of this factory is removed first.
+     *
+     * @param name identifies this factory among others in the same JVM
+     * @return the {@link ObjectName} registered
+     * @throws PersistenceException if the name is invalid or already registered
+     */
+    public synchronized ObjectName registerMBean(String name) {
+        unregisterMBean();
+        try {
+            final ObjectName objectName = new ObjectName(
+                "org.veary.persist:type=PersistenceManagerFactory,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this.context.getStatistics(),
+                objectName);
+            this.mbeanName = objectName;
+            return objectName;
+        } catch (JMException e) {
+            throw new PersistenceException(e);
+        }
+    }
+
+    /**
+     * Removes this factory's statistics from the platform MBean server, if registered.
+     */
+    public synchronized void unregisterMBean() {
+        if (this.mbeanName == null) {
+            return;
+        }
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(this.mbeanName)) {
+                server.unregisterMBean(this.mbeanName);
+            }
+        } catch (JMException e) {
+            throw new PersistenceException(e);
+        } finally {
+            this.mbeanName = null;
+        }
     }
 
     /**
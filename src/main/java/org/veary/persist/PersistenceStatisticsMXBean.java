@@ -0,0 +1,185 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist;
+
+/**
+ * Live statistics of one {@link PersistenceManagerFactory}, for monitoring through JMX.
+ *
+ * <p>Counters are cumulative from the creation of the factory. Latencies are measured from
+ * acquiring the connection (for queries) or from preparing the statement (for persists) until
+ * the result has been read, and are reported in milliseconds. Percentiles are estimated from
+ * a logarithmic histogram and are within 12.5% of the true value.
+ *
+ * @author Marc L. Veary
+ * @since 1.0
+ * @see PersistenceManagerFactory#registerMBean(String)
+ */
+public interface PersistenceStatisticsMXBean {
+
+    /**
+     * Latency statistics of one kind of operation.
+     */
+    interface Latency {
+
+        /**
+         * Returns the number of operations measured.
+         *
+         * @return long
+         */
+        long getCount();
+
+        /**
+         * Returns the mean latency.
+         *
+         * @return milliseconds
+         */
+        double getMeanMillis();
+
+        /**
+         * Returns the median latency.
+         *
+         * @return milliseconds
+         */
+        double getP50Millis();
+
+        /**
+         * Returns the 95th percentile latency.
+         *
+         * @return milliseconds
+         */
+        double getP95Millis();
+
+        /**
+         * Returns the 99th percentile latency.
+         *
+         * @return milliseconds
+         */
+        double getP99Millis();
+
+        /**
+         * Returns the largest latency.
+         *
+         * @return milliseconds
+         */
+        double getMaxMillis();
+    }
+
+    /**
+     * Returns the number of queries executed, including those answered from the result cache.
+     *
+     * @return long
+     */
+    long getQueryCount();
+
+    /**
+     * Returns the number of {@code persist} and {@code persistBatch} calls.
+     *
+     * @return long
+     */
+    long getPersistCount();
+
+    /**
+     * Returns the number of transactions committed.
+     *
+     * @return long
+     */
+    long getCommitCount();
+
+    /**
+     * Returns the number of transactions rolled back, whether by the caller or after an error.
+     *
+     * @return long
+     */
+    long getRollbackCount();
+
+    /**
+     * Returns the number of operations which failed with a database error.
+     *
+     * @return long
+     */
+    long getErrorCount();
+
+    /**
+     * Returns the number of connections currently held by the factory's managers.
+     *
+     * @return int
+     */
+    int getConnectionsInUse();
+
+    /**
+     * Returns the number of threads currently waiting for the {@code DataSource} to provide a
+     * connection.
+     *
+     * @return int
+     */
+    int getConnectionsWaiting();
+
+    /**
+     * Returns the fraction of statements whose metadata was already known to the factory.
+     *
+     * @return between 0 and 1, or 0 if nothing has been parsed
+     */
+    double getStatementCacheHitRate();
+
+    /**
+     * Returns the fraction of cacheable queries answered from the result cache.
+     *
+     * @return between 0 and 1, or 0 if no cacheable query has run
+     */
+    double getResultCacheHitRate();
+
+    /**
+     * Returns the latency of queries.
+     *
+     * @return {@link Latency}
+     */
+    Latency getQueryLatency();
+
+    /**
+     * Returns the latency of persists.
+     *
+     * @return {@link Latency}
+     */
+    Latency getPersistLatency();
+
+    /**
+     * Returns the latency of commits.
+     *
+     * @return {@link Latency}
+     */
+    Latency getCommitLatency();
+
+    /**
+     * Returns the latency of rollbacks.
+     *
+     * @return {@link Latency}
+     */
+    Latency getRollbackLatency();
+
+    /**
+     * Resets the latency histograms, leaving the counters unchanged.
+     */
+    void resetLatencies();
+}
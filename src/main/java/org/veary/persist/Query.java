@@ -24,7 +24,9 @@
 
 package org.veary.persist;
 
+import java.nio.file.Path;
 import java.util.List;
+import java.util.Optional;
 
 /**
  * Handles SQL statement which return 0 or more results..
@@ -52,10 +54,142 @@ public interface Query {
      */
     Object getSingleResult();
 
+    /**
+     * Executes this SELECT query and tests if it returns any row. The driver is asked for at
+     * most one row, and no further rows are read.
+     *
+     * <p>This does not require, or affect, a prior call to {@link #execute()}.
+     *
+     * @return {@code true} if there is at least one row
+     */
+    boolean exists();
+
+    /**
+     * Executes this SELECT query and returns the result for its first row: an entity, or the
+     * value of the first column if the query has no entity interface. The driver is asked for
+     * at most one row.
+     *
+     * <p>This does not require, or affect, a prior call to {@link #execute()}.
+     *
+     * @return {@code Optional<Object>}, empty if the query returned no rows
+     */
+    Optional<Object> findFirst();
+
+    /**
+     * As {@link #getSingleResult()}, but executes this SELECT query itself, asks the driver
+     * for at most two rows, and signals an empty result with an empty {@code Optional} rather
+     * than an exception.
+     *
+     * @return {@code Optional<Object>}, empty if the query returned no rows
+     * @throws org.veary.persist.exceptions.NonUniqueResultException if the query returned
+     *     more than one row
+     */
+    Optional<Object> findSingleResult();
+
+    /**
+     * Executes this SELECT query, which must return exactly one row, and returns its first
+     * column as a {@code long}. Intended for counts and single ids; the value is read from
+     * the driver without creating a row {@code Map} or boxing. A SQL {@code NULL} is returned
+     * as 0.
+     *
+     * <p>This does not require, or affect, a prior call to {@link #execute()}.
+     *
+     * @return long
+     * @throws org.veary.persist.exceptions.NoResultException if the query returned no rows
+     * @throws org.veary.persist.exceptions.NonUniqueResultException if the query returned
+     *     more than one row
+     */
+    long getSingleLong();
+
+    /**
+     * Executes this SELECT query and returns the first column of every row as a {@code long}.
+     * Values are read from the driver straight into a growable array, without creating row
+     * {@code Map}s or boxing. A SQL {@code NULL} is returned as 0.
+     *
+     * <p>This does not require, or affect, a prior call to {@link #execute()}.
+     *
+     * @return {@code long[]}, empty if the query returned no rows
+     */
+    long[] getLongArray();
+
+    /**
+     * Executes this SELECT query and returns the first column of every row as an {@code int}.
+     * As {@link #getLongArray()}.
+     *
+     * @return {@code int[]}, empty if the query returned no rows
+     */
+    int[] getIntArray();
+
+    /**
+     * Executes this SELECT query and returns the first column of every row as a
+     * {@code String}, without creating row {@code Map}s.
+     *
+     * <p>This does not require, or affect, a prior call to {@link #execute()}.
+     *
+     * @return unmodifiable {@code List<String>}, empty if the query returned no rows
+     */
+    List<String> getStringList();
+
+    /**
+     * Executes this SELECT query and maps each row with the given mapper. Integral, floating
+     * point and boolean columns are read from the driver as primitives into column buffers,
+     * and are passed to the mapper without boxing.
+     *
+     * <p>This does not require, or affect, a prior call to {@link #execute()}. The result
+     * cache and memory limit do not apply.
+     *
+     * @param <T> the type of object the rows are mapped to
+     * @param mapper {@link RowMapper}
+     * @return unmodifiable {@code List<T>}, empty if the query returned no rows
+     */
+    <T> List<T> map(RowMapper<T> mapper);
+
     /**
      * Returns the query's results as a List.
      *
      * @return unmodifiable {@link List}. Cannot be {@code null}
      */
     List<Object> getResultList();
+
+    /**
+     * Sets the estimated amount of heap the results of this query may occupy. Once a result
+     * grows beyond this limit its rows are moved to a memory-mapped temporary file and read
+     * back as they are accessed, so that a large result cannot exhaust the heap. By default
+     * there is no limit.
+     *
+     * <p>Must be called before {@link #execute()}.
+     *
+     * @param bytes the limit in bytes
+     * @return the current {@code Query} object
+     */
+    Query setResultMemoryLimit(long bytes);
+
+    /**
+     * Marks this query's results as cacheable. A cacheable query whose SQL and parameters
+     * match a previously executed cacheable query is answered from the factory's result cache
+     * until the cached result expires. Cached results are not invalidated by writes, so this
+     * is intended for reference data which changes rarely. Results which were moved to a
+     * temporary file by {@link #setResultMemoryLimit(long)} are not cached.
+     *
+     * <p>Queries from managers which were not created by a {@link PersistenceManagerFactory}
+     * are never cached. Must be called before {@link #execute()}.
+     *
+     * @param cacheable {@code true} to use the result cache
+     * @return the current {@code Query} object
+     */
+    Query setCacheable(boolean cacheable);
+
+    /**
+     * Executes this SELECT query and writes its results directly to the given file, replacing
+     * any existing content. Rows are streamed from the driver into a reusable direct buffer and
+     * written through a {@code FileChannel}; integral and boolean columns are encoded without
+     * creating intermediate objects, and no entities or row {@code Map}s are created.
+     *
+     * <p>This does not require, or affect, a prior call to {@link #execute()}.
+     *
+     * @param file the file to write
+     * @param format {@link ExportFormat}
+     * @return the number of rows written
+     */
+    long export(Path file, ExportFormat format);
 }
@@ -0,0 +1,73 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist;
+
+import java.util.List;
+
+/**
+ * Development-time diagnostics of the queries run by a factory's {@link QueryManager}s.
+ *
+ * <p>When diagnostics are enabled, the first execution of each distinct SQL shape also runs
+ * the database's EXPLAIN statement with the same parameters. The plan is kept, and a warning
+ * is logged if it reads a table of more than the configured number of rows with a full table
+ * scan, or if a statement with a WHERE or JOIN clause uses no index at all. H2 and PostgreSQL
+ * plans are analysed; for other databases only execution counts are kept.
+ *
+ * <p>EXPLAIN costs an extra round trip per shape, so diagnostics are intended for tests and
+ * development rather than production.
+ *
+ * @author Marc L. Veary
+ * @since 1.0
+ * @see PersistenceManagerFactory#enableQueryDiagnostics(long)
+ */
+public interface QueryDiagnostics {
+
+    /**
+     * Returns the plans captured so far, most frequently executed first.
+     *
+     * @return unmodifiable {@code List<QueryPlan>}
+     */
+    List<QueryPlan> getPlans();
+
+    /**
+     * Returns the plan captured for the shape of the given SQL.
+     *
+     * @param sql a SQL statement
+     * @return {@link QueryPlan}, or {@code null} if no query of that shape has run
+     */
+    QueryPlan getPlan(String sql);
+
+    /**
+     * Returns the plans which raised warnings.
+     *
+     * @return unmodifiable {@code List<QueryPlan>}
+     */
+    List<QueryPlan> getWarnings();
+
+    /**
+     * Discards all captured plans and counts.
+     */
+    void reset();
+}
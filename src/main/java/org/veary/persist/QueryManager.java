@@ -24,6 +24,10 @@
 
 package org.veary.persist;
 
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+
 public interface QueryManager {
 
     /**
@@ -36,4 +40,87 @@ public interface QueryManager {
     Query createQuery(SqlStatement statement, Class<?> entityInterface);
 
     Query createQuery(SqlStatement statement);
+
+    /**
+     * Creates a {@code Query} from a named query registered with
+     * {@link PersistenceManagerFactory#registerNamedQueries(NamedQueryCatalog)}. The query
+     * returns the entity interface given in the catalog, if any.
+     *
+     * @param name the query name
+     * @param parameters the values of the query's named parameters
+     * @return an instance of a {@link Query} object
+     * @throws IllegalArgumentException if there is no such query, or it has no parameter of
+     *     one of the given names
+     * @throws NullPointerException if {@code parameters} is {@code null}
+     */
+    Query createNamedQuery(String name, Map<String, ?> parameters);
+
+    /**
+     * Creates a {@code ReusableQuery}, which keeps its prepared statement across executions.
+     * The statement's parameters are the initial parameters of the query.
+     *
+     * @param statement the SELECT {@link SqlStatement}
+     * @param entityInterface the interface of the entity to be returned
+     * @return an instance of a {@link ReusableQuery} object, which must be closed
+     */
+    ReusableQuery createReusableQuery(SqlStatement statement, Class<?> entityInterface);
+
+    /**
+     * Creates a {@code ReusableQuery} whose results are the values of its first column.
+     *
+     * @param statement the SELECT {@link SqlStatement}
+     * @return an instance of a {@link ReusableQuery} object, which must be closed
+     * @see #createReusableQuery(SqlStatement, Class)
+     */
+    ReusableQuery createReusableQuery(SqlStatement statement);
+
+    /**
+     * Creates an empty {@code QueryPipeline}, to which independent SELECT statements are added
+     * and then executed in as few round trips as the driver allows.
+     *
+     * @return an instance of a {@link QueryPipeline} object
+     */
+    QueryPipeline createPipeline();
+
+    /**
+     * Creates a {@code ParallelScan} which reads the results of the SELECT statement in
+     * {@code partitions} ranges of the split column at the same time, each on its own
+     * connection.
+     *
+     * @param statement the SELECT {@link SqlStatement}
+     * @param entityInterface the interface of the entity to be returned
+     * @param splitColumn the name of a numeric or temporal column in the statement's result,
+     *     ideally indexed
+     * @param partitions the number of ranges to read concurrently
+     * @return an instance of a {@link ParallelScan} object
+     */
+    ParallelScan createParallelScan(SqlStatement statement, Class<?> entityInterface,
+        String splitColumn, int partitions);
+
+    /**
+     * Creates a {@code Flow.Publisher} of the entities returned by the SELECT statement. Each
+     * subscriber gets its own connection and cursor, from which rows are read only as the
+     * subscriber requests them, so the result is never held in memory. The connection is
+     * released when the rows are exhausted, on error, or when the subscription is cancelled.
+     *
+     * <p>Rows are read and published on a shared pool of daemon threads.
+     *
+     * @param statement the SELECT {@link SqlStatement}
+     * @param entityInterface the interface of the entity to be published
+     * @return a {@link Flow.Publisher}
+     */
+    Flow.Publisher<Object> createPublisher(SqlStatement statement, Class<?> entityInterface);
+
+    /**
+     * Creates a {@code Flow.Publisher} of the entities returned by the SELECT statement, whose
+     * rows are read and published on the given executor.
+     *
+     * @param statement the SELECT {@link SqlStatement}
+     * @param entityInterface the interface of the entity to be published
+     * @param executor the {@link Executor} on which rows are read and published
+     * @return a {@link Flow.Publisher}
+     * @see #createPublisher(SqlStatement, Class)
+     */
+    Flow.Publisher<Object> createPublisher(SqlStatement statement, Class<?> entityInterface,
+        Executor executor);
 }
@@ -0,0 +1,77 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist;
+
+import java.util.List;
+
+/**
+ * Several independent SELECT statements executed together, so that a page needing a number
+ * of small lookups costs one round trip to the database rather than one per lookup.
+ *
+ * <p>If the driver reports support for multiple result sets, the statements are sent as one
+ * statement, separated by semicolons, and its results are read in turn. Otherwise, or if the
+ * driver rejects the combined statement, they are run one after another on a single
+ * connection. Once a combined statement has been rejected, the factory runs all later
+ * pipelines one statement at a time.
+ *
+ * @author Marc L. Veary
+ * @since 1.0
+ * @see QueryManager#createPipeline()
+ */
+public interface QueryPipeline {
+
+    /**
+     * Adds a statement whose results are entities.
+     *
+     * @param statement the SELECT {@link SqlStatement}
+     * @param entityInterface the interface of the entity to be returned
+     * @return the current {@code QueryPipeline} object
+     */
+    QueryPipeline add(SqlStatement statement, Class<?> entityInterface);
+
+    /**
+     * Adds a statement whose results are the values of its first column.
+     *
+     * @param statement the SELECT {@link SqlStatement}
+     * @return the current {@code QueryPipeline} object
+     */
+    QueryPipeline add(SqlStatement statement);
+
+    /**
+     * Returns the number of statements added.
+     *
+     * @return int
+     */
+    int size();
+
+    /**
+     * Executes the statements.
+     *
+     * @return unmodifiable {@code List} holding, for each statement in the order added, the
+     *     unmodifiable list of its results. A statement which returned no rows has an empty
+     *     list.
+     */
+    List<List<Object>> execute();
+}
@@ -0,0 +1,80 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist;
+
+import java.util.List;
+
+/**
+ * The execution plan captured by {@link QueryDiagnostics} for one SQL shape, together with
+ * the number of times queries of that shape have run.
+ *
+ * @author Marc L. Veary
+ * @since 1.0
+ */
+public interface QueryPlan {
+
+    /**
+     * Returns the SQL shape: the statement with its literals and parameter lists replaced by
+     * single placeholders.
+     *
+     * @return {@code String}
+     */
+    String getShape();
+
+    /**
+     * Returns the plan, as reported by the database's EXPLAIN statement.
+     *
+     * @return {@code String}, or {@code null} if the plan could not be captured
+     */
+    String getPlan();
+
+    /**
+     * Returns the number of times queries of this shape have been executed.
+     *
+     * @return long
+     */
+    long getExecutionCount();
+
+    /**
+     * Returns the tables the plan reads with a full table scan.
+     *
+     * @return unmodifiable {@code List<String>}
+     */
+    List<String> getScannedTables();
+
+    /**
+     * Tests if the plan uses any index.
+     *
+     * @return {@code true} if an index is used
+     */
+    boolean isIndexUsed();
+
+    /**
+     * Returns the problems found in the plan, each of which was also logged as a warning.
+     *
+     * @return unmodifiable {@code List<String>}
+     */
+    List<String> getWarnings();
+}
@@ -0,0 +1,64 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist;
+
+import java.util.List;
+
+/**
+ * A unit of work, such as the handling of one request, within which repeated queries are
+ * detected. A scope belongs to the thread which opened it and covers the statements that
+ * thread runs until the scope is closed.
+ *
+ * <p>Within a scope, statements are grouped by SQL shape. A shape which runs with more
+ * distinct parameter values than the configured threshold, typically a query issued once per
+ * row of an earlier result (the "N+1" pattern), is reported once, with the call site of the
+ * statement which crossed the threshold. Scopes may be nested; statements are counted in the
+ * innermost open scope only.
+ *
+ * <pre>
+ * try (QueryScope scope = factory.openScope("GET /accounts")) {
+ *     ...
+ * }
+ * </pre>
+ *
+ * @author Marc L. Veary
+ * @since 1.0
+ * @see PersistenceManagerFactory#enableRepeatedQueryDetection(int, boolean)
+ */
+public interface QueryScope extends AutoCloseable {
+
+    /**
+     * Returns a description of each repeated query found so far in this scope.
+     *
+     * @return unmodifiable {@code List<String>}
+     */
+    List<String> getFindings();
+
+    /**
+     * Ends this scope.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,116 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Where and how a {@link PersistenceManagerFactory} keeps its result cache snapshot. A factory
+ * constructed with a snapshot loads it at startup, so that a restarted node starts warm, and
+ * writes it again with {@link PersistenceManagerFactory#saveResultCache()}.
+ *
+ * <p>Instances are immutable.
+ *
+ * @author Marc L. Veary
+ * @since 1.0
+ */
+public final class ResultCacheSnapshot {
+
+    private final Path file;
+    private final String version;
+    private final Duration maxAge;
+    private final boolean compressed;
+
+    private ResultCacheSnapshot(Path file, String version, Duration maxAge,
+        boolean compressed) {
+        this.file = Objects.requireNonNull(file, "File cannot be null.");
+        this.version = Objects.requireNonNull(version, "Version cannot be null.");
+        this.maxAge = Objects.requireNonNull(maxAge, "Maximum age cannot be null.");
+        if (maxAge.isNegative()) {
+            throw new IllegalArgumentException("Maximum age cannot be negative.");
+        }
+        this.compressed = compressed;
+    }
+
+    /**
+     * Returns an uncompressed snapshot setting.
+     *
+     * @param file the snapshot file
+     * @param version the application's version. A snapshot is only loaded by the same version.
+     * @param maxAge the oldest snapshot accepted at startup
+     * @return {@link ResultCacheSnapshot}
+     */
+    public static ResultCacheSnapshot newInstance(Path file, String version, Duration maxAge) {
+        return new ResultCacheSnapshot(file, version, maxAge, false);
+    }
+
+    /**
+     * Returns a copy of this setting which GZIP compresses the snapshot.
+     *
+     * @param compress {@code true} to compress the snapshot
+     * @return {@link ResultCacheSnapshot}
+     */
+    public ResultCacheSnapshot withCompression(boolean compress) {
+        return new ResultCacheSnapshot(this.file, this.version, this.maxAge, compress);
+    }
+
+    /**
+     * Returns the snapshot file.
+     *
+     * @return {@link Path}
+     */
+    public Path getFile() {
+        return this.file;
+    }
+
+    /**
+     * Returns the application's version.
+     *
+     * @return {@code String}
+     */
+    public String getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Returns the oldest snapshot accepted at startup.
+     *
+     * @return {@link Duration}
+     */
+    public Duration getMaxAge() {
+        return this.maxAge;
+    }
+
+    /**
+     * Returns {@code true} if the snapshot is GZIP compressed.
+     *
+     * @return boolean
+     */
+    public boolean isCompressed() {
+        return this.compressed;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist;
+
+import java.sql.SQLException;
+import java.sql.SQLTransientException;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+/**
+ * Describes how a transaction run by
+ * {@link PersistenceManagerFactory#inTransaction(RetryPolicy, java.util.function.Function)} is
+ * retried when it fails with a transient error.
+ *
+ * <p>Before each retry the caller sleeps for a random time between zero and the smaller of
+ * {@code maxDelay} and {@code baseDelay * 2^(retry - 1)} (exponential backoff with full
+ * jitter), so that transactions which conflicted with each other do not collide again.
+ *
+ * <p>Instances are immutable.
+ *
+ * @author Marc L. Veary
+ * @since 1.0
+ */
+public final class RetryPolicy {
+
+    private static final String SQLSTATE_SERIALIZATION_FAILURE = "40001"; //$NON-NLS-1$
+    private static final String SQLSTATE_DEADLOCK = "40P01"; //$NON-NLS-1$
+    private static final RetryPolicy DEFAULTS = new RetryPolicy(5, Duration.ofMillis(10),
+        Duration.ofSeconds(1), RetryPolicy::isTransient);
+
+    private final int maxAttempts;
+    private final Duration baseDelay;
+    private final Duration maxDelay;
+    private final Predicate<Throwable> classifier;
+
+    private RetryPolicy(int maxAttempts, Duration baseDelay, Duration maxDelay,
+        Predicate<Throwable> classifier) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("Maximum attempts must be at least 1.");
+        }
+        if (baseDelay.isNegative() || maxDelay.isNegative()) {
+            throw new IllegalArgumentException("Delays cannot be negative.");
+        }
+        this.maxAttempts = maxAttempts;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.classifier = Objects.requireNonNull(classifier, "Classifier cannot be null.");
+    }
+
+    /**
+     * Returns the default policy: at most 5 attempts, with a base delay of 10ms and a maximum
+     * delay of 1s, retrying the errors accepted by {@link #isTransient(Throwable)}.
+     *
+     * @return {@link RetryPolicy}
+     */
+    public static RetryPolicy defaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * Returns a policy which retries the errors accepted by {@link #isTransient(Throwable)}.
+     *
+     * @param maxAttempts the maximum number of attempts, including the first
+     * @param baseDelay the upper bound of the delay before the first retry
+     * @param maxDelay the upper bound of the delay before any retry
+     * @return {@link RetryPolicy}
+     */
+    public static RetryPolicy newInstance(int maxAttempts, Duration baseDelay,
+        Duration maxDelay) {
+        return new RetryPolicy(maxAttempts, baseDelay, maxDelay, RetryPolicy::isTransient);
+    }
+
+    /**
+     * Returns a copy of this policy which retries the errors accepted by the given classifier.
+     *
+     * @param classifier tests the exception thrown by a failed attempt
+     * @return {@link RetryPolicy}
+     */
+    public RetryPolicy withClassifier(Predicate<Throwable> classifier) {
+        return new RetryPolicy(this.maxAttempts, this.baseDelay, this.maxDelay, classifier);
+    }
+
+    /**
+     * Returns {@code true} if the exception, or any of its causes, is a
+     * {@link SQLTransientException} (which includes lock timeouts and transaction rollbacks
+     * chosen by the database) or an {@link SQLException} with the SQLState {@code 40001}
+     * (serialization failure) or {@code 40P01} (deadlock detected).
+     *
+     * @param error the exception thrown by a failed attempt
+     * @return {@code true} if the transaction may succeed if retried
+     */
+    public static boolean isTransient(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLTransientException) {
+                return true;
+            }
+            if (cause instanceof SQLException) {
+                final String state = ((SQLException) cause).getSQLState();
+                if (SQLSTATE_SERIALIZATION_FAILURE.equals(state)
+                    || SQLSTATE_DEADLOCK.equals(state)) {
+                    return true;
+                }
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the maximum number of attempts, including the first.
+     *
+     * @return int
+     */
+    public int getMaxAttempts() {
+        return this.maxAttempts;
+    }
+
+    /**
+     * Returns the upper bound of the delay before the first retry.
+     *
+     * @return {@link Duration}
+     */
+    public Duration getBaseDelay() {
+        return this.baseDelay;
+    }
+
+    /**
+     * Returns the upper bound of the delay before any retry.
+     *
+     * @return {@link Duration}
+     */
+    public Duration getMaxDelay() {
+        return this.maxDelay;
+    }
+
+    /**
+     * Tests whether a failed attempt may be retried.
+     *
+     * @param error the exception thrown by the failed attempt
+     * @return {@code true} if the transaction may be retried
+     */
+    public boolean isRetryable(Throwable error) {
+        return this.classifier.test(error);
+    }
+}
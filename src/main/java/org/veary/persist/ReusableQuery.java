@@ -0,0 +1,110 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * A SELECT query which can be executed many times with different parameters, keeping its
+ * connection and {@code PreparedStatement} between executions so that the statement is only
+ * prepared once. Intended for lookups in tight loops.
+ *
+ * <p>The connection is acquired on the first execution and held until {@link #close()}, so a
+ * {@code ReusableQuery} should be closed promptly, ideally with try-with-resources. If an
+ * execution fails with a database error, the connection is released and acquired again by
+ * the next execution. Parameters keep their values between executions until changed.
+ *
+ * <p>An instance is not thread-safe.
+ *
+ * @author Marc L. Veary
+ * @since 1.0
+ * @see QueryManager#createReusableQuery(SqlStatement, Class)
+ */
+public interface ReusableQuery extends AutoCloseable {
+
+    /**
+     * Sets the value of the designated parameter for subsequent executions.
+     *
+     * @param index the first parameter is 1, the second is 2, ...
+     * @param value the parameter value
+     * @return the current {@code ReusableQuery} object
+     */
+    ReusableQuery setParameter(int index, Object value);
+
+    /**
+     * Sets the value of every occurrence of the designated named parameter for subsequent
+     * executions.
+     *
+     * @param name the name of the parameter without the leading colon
+     * @param value the parameter value
+     * @return the current {@code ReusableQuery} object
+     */
+    ReusableQuery setParameter(String name, Object value);
+
+    /**
+     * Executes the query with the current parameters and returns its results: entities, or
+     * the values of the first column if the query has no entity interface.
+     *
+     * @return unmodifiable {@code List<Object>}, empty if the query returned no rows
+     * @throws IllegalStateException if this query has been closed
+     */
+    List<Object> getResultList();
+
+    /**
+     * Executes the query with the current parameters and returns the result for its first
+     * row. The driver is asked for at most one row.
+     *
+     * @return {@code Optional<Object>}, empty if the query returned no rows
+     * @throws IllegalStateException if this query has been closed
+     */
+    Optional<Object> findFirst();
+
+    /**
+     * Executes the query with the current parameters and maps each row with the given mapper,
+     * as {@link Query#map(RowMapper)}.
+     *
+     * @param <T> the type of object the rows are mapped to
+     * @param mapper {@link RowMapper}
+     * @return unmodifiable {@code List<T>}, empty if the query returned no rows
+     * @throws IllegalStateException if this query has been closed
+     */
+    <T> List<T> map(RowMapper<T> mapper);
+
+    /**
+     * Returns the number of times the statement has been prepared. This is 1 after any number
+     * of successful executions, unless the connection was lost.
+     *
+     * @return int
+     */
+    int getPrepareCount();
+
+    /**
+     * Closes the {@code PreparedStatement} and releases the connection. Closing an already
+     * closed query has no effect.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,167 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist;
+
+/**
+ * Read access to one row of a query's results, used by a {@link RowMapper}.
+ *
+ * <p>Integral, floating point and boolean columns are held in primitive buffers, so reading
+ * them with {@link #getLong(int)}, {@link #getInt(int)}, {@link #getDouble(int)} or
+ * {@link #getBoolean(int)} does not box. Other columns are held as the objects returned by
+ * the driver. As with JDBC, a SQL {@code NULL} read as a primitive is returned as 0 or
+ * {@code false}, and {@link #wasNull()} reports whether the last column read was
+ * {@code NULL}.
+ *
+ * <p>Columns are numbered from 1. Labels are matched case-insensitively; resolving a label
+ * once with {@link #findColumn(String)} avoids a lookup per row.
+ *
+ * <p>A {@code RowReader} is only valid during the call to {@link RowMapper#map(RowReader)}
+ * it is passed to.
+ *
+ * @author Marc L. Veary
+ * @since 1.0
+ */
+public interface RowReader {
+
+    /**
+     * Returns the number of columns.
+     *
+     * @return int
+     */
+    int getColumnCount();
+
+    /**
+     * Returns the number of the column with the given label.
+     *
+     * @param label the column label
+     * @return the column number, starting at 1
+     * @throws IllegalArgumentException if there is no such column
+     */
+    int findColumn(String label);
+
+    /**
+     * Returns the value of the column as a {@code long}.
+     *
+     * @param column the column number
+     * @return long
+     */
+    long getLong(int column);
+
+    /**
+     * Returns the value of the column as a {@code long}.
+     *
+     * @param label the column label
+     * @return long
+     */
+    long getLong(String label);
+
+    /**
+     * Returns the value of the column as an {@code int}.
+     *
+     * @param column the column number
+     * @return int
+     */
+    int getInt(int column);
+
+    /**
+     * Returns the value of the column as an {@code int}.
+     *
+     * @param label the column label
+     * @return int
+     */
+    int getInt(String label);
+
+    /**
+     * Returns the value of the column as a {@code double}.
+     *
+     * @param column the column number
+     * @return double
+     */
+    double getDouble(int column);
+
+    /**
+     * Returns the value of the column as a {@code double}.
+     *
+     * @param label the column label
+     * @return double
+     */
+    double getDouble(String label);
+
+    /**
+     * Returns the value of the column as a {@code boolean}. A numeric value is {@code true}
+     * if it is not 0.
+     *
+     * @param column the column number
+     * @return boolean
+     */
+    boolean getBoolean(int column);
+
+    /**
+     * Returns the value of the column as a {@code boolean}.
+     *
+     * @param label the column label
+     * @return boolean
+     */
+    boolean getBoolean(String label);
+
+    /**
+     * Returns the value of the column as a {@code String}.
+     *
+     * @param column the column number
+     * @return {@code String}, or {@code null} if the value is {@code NULL}
+     */
+    String getString(int column);
+
+    /**
+     * Returns the value of the column as a {@code String}.
+     *
+     * @param label the column label
+     * @return {@code String}, or {@code null} if the value is {@code NULL}
+     */
+    String getString(String label);
+
+    /**
+     * Returns the value of the column as an object. Primitive columns are boxed.
+     *
+     * @param column the column number
+     * @return {@code Object}, or {@code null} if the value is {@code NULL}
+     */
+    Object getObject(int column);
+
+    /**
+     * Returns the value of the column as an object. Primitive columns are boxed.
+     *
+     * @param label the column label
+     * @return {@code Object}, or {@code null} if the value is {@code NULL}
+     */
+    Object getObject(String label);
+
+    /**
+     * Tests if the last column read was {@code NULL}.
+     *
+     * @return {@code true} if it was {@code NULL}
+     */
+    boolean wasNull();
+}
@@ -0,0 +1,105 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist;
+
+/**
+ * A snapshot of the statistics kept by {@link StatementStatistics} for one SQL shape.
+ *
+ * <p>Times are measured from preparing the statement until its results have been read, and
+ * are reported in milliseconds. Percentiles are estimated from a logarithmic histogram and
+ * are within 12.5% of the true value.
+ *
+ * @author Marc L. Veary
+ * @since 1.0
+ */
+public interface ShapeStatistics {
+
+    /**
+     * Returns the SQL shape: the statement with its literals and parameter lists replaced by
+     * single placeholders.
+     *
+     * @return {@code String}
+     */
+    String getShape();
+
+    /**
+     * Returns the number of times statements of this shape have been executed. Each statement
+     * of a batch counts as one execution, taking an equal share of the batch's time.
+     *
+     * @return long
+     */
+    long getCalls();
+
+    /**
+     * Returns the total time spent executing statements of this shape.
+     *
+     * @return milliseconds
+     */
+    double getTotalMillis();
+
+    /**
+     * Returns the shortest execution time.
+     *
+     * @return milliseconds
+     */
+    double getMinMillis();
+
+    /**
+     * Returns the longest execution time.
+     *
+     * @return milliseconds
+     */
+    double getMaxMillis();
+
+    /**
+     * Returns the mean execution time.
+     *
+     * @return milliseconds
+     */
+    double getMeanMillis();
+
+    /**
+     * Returns an estimate of the execution time below which the given fraction of executions
+     * fell.
+     *
+     * @param fraction between 0 and 1, such as 0.99 for the 99th percentile
+     * @return milliseconds
+     */
+    double getPercentileMillis(double fraction);
+
+    /**
+     * Returns the total number of rows returned or affected.
+     *
+     * @return long
+     */
+    long getRows();
+
+    /**
+     * Returns the number of executions which failed with a database error.
+     *
+     * @return long
+     */
+    long getErrors();
+}
@@ -0,0 +1,326 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.ToIntFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.sql.DataSource;
+
+import org.veary.persist.exceptions.NoResultException;
+import org.veary.persist.exceptions.PersistenceException;
+
+/**
+ * <b>Purpose:</b> factory for managers over data partitioned across several databases
+ * (shards).
+ *
+ * <p>Each shard has its own {@link PersistenceManagerFactory}. Work for a single shard key is
+ * routed to the shard which owns it, while queries without a shard key can be run on every
+ * shard in parallel with the results merged into a single stream. Each shard's results are
+ * read in full before they are merged, so a scatter-gather query holds the results of every
+ * shard in memory; a query whose results do not fit should be run on each shard in turn.
+ *
+ * <p>A factory which created its own thread pool shuts it down when it is closed.
+ *
+ * <pre>
+ * ShardedPersistenceManagerFactory&lt;Long&gt; factory =
+ *     new ShardedPersistenceManagerFactory&lt;&gt;(List.of(shardOne, shardTwo),
+ *         customerId -&gt; Long.hashCode(customerId));
+ *
+ * Query query = factory.createQueryManager(customerId).createQuery(statement, Account.class);
+ *
+ * Stream&lt;Object&gt; all = factory.queryAllShards(
+ *     SqlStatement.newInstance("SELECT * FROM debs.account ORDER BY id"), Account.class,
+ *     Comparator.comparing(a -&gt; ((Account) a).getId()));
+ * </pre>
+ *
+ * @author Marc L. Veary
+ * @since 1.0
+ * @param <K> the type of the shard key
+ */
+public final class ShardedPersistenceManagerFactory<K> implements AutoCloseable {
+
+    private final List<PersistenceManagerFactory> shards;
+    private final ToIntFunction<? super K> shardKeyFunction;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+
+    /**
+     * Constructor. Scatter-gather queries are run on a dedicated pool of daemon threads, one
+     * per shard, which is shut down by {@link #close()}.
+     *
+     * @param shards the {@code DataSource} of each shard
+     * @param shardKeyFunction maps a shard key to an int, which is reduced modulo the number of
+     *     shards to select the owning shard
+     */
+    public ShardedPersistenceManagerFactory(List<DataSource> shards,
+        ToIntFunction<? super K> shardKeyFunction) {
+        this(shards, shardKeyFunction, Executors.newFixedThreadPool(
+            Math.max(1, shards.size()), runnable -> {
+                final Thread thread = new Thread(runnable, "persist-shard-query"); //$NON-NLS-1$
+                thread.setDaemon(true);
+                return thread;
+            }), true);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param shards the {@code DataSource} of each shard
+     * @param shardKeyFunction maps a shard key to an int, which is reduced modulo the number of
+     *     shards to select the owning shard
+     * @param executor runs the per-shard queries of scatter-gather queries. It belongs to the
+     *     caller and is not shut down by {@link #close()}.
+     */
+    public ShardedPersistenceManagerFactory(List<DataSource> shards,
+        ToIntFunction<? super K> shardKeyFunction, ExecutorService executor) {
+        this(shards, shardKeyFunction, executor, false);
+    }
+
+    private ShardedPersistenceManagerFactory(List<DataSource> shards,
+        ToIntFunction<? super K> shardKeyFunction, ExecutorService executor,
+        boolean ownsExecutor) {
+        Objects.requireNonNull(shards, "Shards parameter is null.");
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is required.");
+        }
+        final List<PersistenceManagerFactory> factories = new ArrayList<>(shards.size());
+        for (final DataSource ds : shards) {
+            factories.add(new PersistenceManagerFactory(
+                Objects.requireNonNull(ds, "Shard DataSource is null.")));
+        }
+        this.shards = Collections.unmodifiableList(factories);
+        this.shardKeyFunction = Objects.requireNonNull(shardKeyFunction,
+            "Shard key function is null.");
+        this.executor = Objects.requireNonNull(executor, "Executor is null.");
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    /**
+     * Returns the number of shards.
+     *
+     * @return int
+     */
+    public int getShardCount() {
+        return this.shards.size();
+    }
+
+    /**
+     * Returns the index of the shard which owns the given key.
+     *
+     * @param key the shard key
+     * @return int from 0 to {@code getShardCount() - 1}
+     */
+    public int shardFor(K key) {
+        return Math.floorMod(this.shardKeyFunction.applyAsInt(key), this.shards.size());
+    }
+
+    /**
+     * Returns the factory for the shard which owns the given key.
+     *
+     * @param key the shard key
+     * @return {@link PersistenceManagerFactory}
+     */
+    public PersistenceManagerFactory getShard(K key) {
+        return this.shards.get(shardFor(key));
+    }
+
+    /**
+     * Returns a new instance of the {@link QueryManager} for the shard which owns the given
+     * key.
+     *
+     * @param key the shard key
+     * @return new instance of {@link QueryManager}
+     */
+    public QueryManager createQueryManager(K key) {
+        return getShard(key).createQueryManager();
+    }
+
+    /**
+     * Returns a new instance of the {@link TransactionManager} for the shard which owns the
+     * given key.
+     *
+     * @param key the shard key
+     * @return new instance of {@link TransactionManager}
+     */
+    public TransactionManager createTransactionManager(K key) {
+        return getShard(key).createTransactionManager();
+    }
+
+    /**
+     * Runs the SELECT statement on every shard in parallel and returns the results of each
+     * shard in turn. The stream yields the first shard's results as soon as they are available,
+     * without waiting for the other shards. Each shard's results are held in memory.
+     *
+     * @param statement the SELECT {@link SqlStatement}
+     * @param entityInterface the interface of the entity to be returned
+     * @return {@code Stream<Object>} of the entities from all shards
+     */
+    public Stream<Object> queryAllShards(SqlStatement statement, Class<?> entityInterface) {
+        final List<Future<List<Object>>> futures = scatter(statement, entityInterface);
+        return futures.stream().flatMap(future -> gather(future, futures).stream());
+    }
+
+    /**
+     * Runs the SELECT statement on every shard in parallel and merges the results of the
+     * shards in the order given by the comparator. The statement's ORDER BY clause must sort
+     * each shard's results in the same order, so that a k-way merge produces the overall
+     * order. The merge starts once every shard's results have been read into memory.
+     *
+     * @param statement the SELECT {@link SqlStatement}, ordered consistently with
+     *     {@code comparator}
+     * @param entityInterface the interface of the entity to be returned
+     * @param comparator the order of the entities
+     * @return {@code Stream<Object>} of the entities from all shards, in order
+     */
+    public Stream<Object> queryAllShards(SqlStatement statement, Class<?> entityInterface,
+        Comparator<Object> comparator) {
+        Objects.requireNonNull(comparator, "Comparator is null.");
+        final List<Future<List<Object>>> futures = scatter(statement, entityInterface);
+        final Iterator<Object> merged = new Iterator<>() {
+
+            private PriorityQueue<Head> heads;
+
+            @Override
+            public boolean hasNext() {
+                return !heads().isEmpty();
+            }
+
+            @Override
+            public Object next() {
+                final Head head = heads().poll();
+                if (head == null) {
+                    throw new NoSuchElementException();
+                }
+                final Object value = head.value;
+                if (head.rest.hasNext()) {
+                    head.value = head.rest.next();
+                    this.heads.add(head);
+                }
+                return value;
+            }
+
+            private PriorityQueue<Head> heads() {
+                if (this.heads == null) {
+                    this.heads = new PriorityQueue<>(futures.size(),
+                        (a, b) -> comparator.compare(a.value, b.value));
+                    for (final Future<List<Object>> future : futures) {
+                        final Iterator<Object> rest = gather(future, futures).iterator();
+                        if (rest.hasNext()) {
+                            this.heads.add(new Head(rest.next(), rest));
+                        }
+                    }
+                }
+                return this.heads;
+            }
+        };
+
+        return StreamSupport.stream(
+            Spliterators.spliteratorUnknownSize(merged, Spliterator.ORDERED), false);
+    }
+
+    /**
+     * Shuts down the thread pool created by the two-argument constructor. Queries already
+     * submitted run to completion. An executor given to the constructor is left running.
+     */
+    @Override
+    public void close() {
+        if (this.ownsExecutor) {
+            this.executor.shutdown();
+        }
+    }
+
+    private List<Future<List<Object>>> scatter(SqlStatement statement,
+        Class<?> entityInterface) {
+        Objects.requireNonNull(statement, "SqlStatement parameter is null.");
+        Objects.requireNonNull(entityInterface, "Class interface parameter is null.");
+
+        final List<Future<List<Object>>> futures = new ArrayList<>(this.shards.size());
+        for (final PersistenceManagerFactory shard : this.shards) {
+            futures.add(this.executor.submit(() -> {
+                try {
+                    return shard.createQueryManager().createQuery(statement, entityInterface)
+                        .execute().getResultList();
+                } catch (final NoResultException e) {
+                    return Collections.<Object>emptyList();
+                }
+            }));
+        }
+        return futures;
+    }
+
+    private static List<Object> gather(Future<List<Object>> future,
+        List<Future<List<Object>>> all) {
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel(all);
+            throw new PersistenceException(e);
+        } catch (final ExecutionException | CancellationException e) {
+            cancel(all);
+            if (e.getCause() instanceof PersistenceException) {
+                throw (PersistenceException) e.getCause();
+            }
+            throw new PersistenceException(e.getCause() == null ? e : e.getCause());
+        }
+    }
+
+    private static void cancel(List<Future<List<Object>>> futures) {
+        for (final Future<List<Object>> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * The next unconsumed result of one shard.
+     */
+    private static final class Head {
+
+        private Object value;
+        private final Iterator<Object> rest;
+
+        Head(Object value, Iterator<Object> rest) {
+            this.value = value;
+            this.rest = rest;
+        }
+    }
+}
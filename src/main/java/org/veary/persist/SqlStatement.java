@@ -24,15 +24,42 @@
 
 package org.veary.persist;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
+import org.veary.persist.internal.ParsedSql;
+
 /**
  * Represents a parameterized SQL statement used to populate a {@code PreparedStatement} object
  * internally.
  *
+ * <p>IN parameters may be given either as JDBC positional placeholders ({@code ?}) or as named
+ * placeholders ({@code :name}). A named placeholder may appear more than once, in which case
+ * {@link #setParameter(String, Object)} binds the value to every occurrence. Each distinct SQL
+ * text is parsed only once and the result shared between all instances.
+ *
+ * <pre>
+ * SqlStatement statement = SqlStatement.newInstance(
+ *     "SELECT * FROM debs.account WHERE id = :accountId OR parent_id = :accountId");
+ * statement.setParameter("accountId", Long.valueOf(1));
+ * </pre>
+ *
+ * <p>A collection may be bound to a placeholder with {@link #setParameterList(String,
+ * Collection)}, in which case the placeholder is expanded to one placeholder per value. To
+ * keep the number of distinct statements seen by the driver and database small, the expansion
+ * is padded up to a power of two by repeating the last value.
+ *
+ * <pre>
+ * SqlStatement statement = SqlStatement.newInstance(
+ *     "SELECT * FROM debs.account WHERE id IN (:ids)");
+ * statement.setParameterList("ids", List.of(1L, 2L, 3L)); // IN (?, ?, ?, ?)
+ * </pre>
+ *
  * @author Marc L. Veary
  * @since 1.0
  */
@@ -47,9 +74,42 @@ public interface SqlStatement {
      */
     SqlStatement setParameter(int index, Object value);
 
+    /**
+     * Sets the value of every occurrence of the designated named parameter using the given
+     * object.
+     *
+     * @param name the name of the parameter without the leading colon
+     * @param value the object containing the input parameter value
+     * @return the value of the {@code SqlStatement} itself
+     */
+    SqlStatement setParameter(String name, Object value);
+
+    /**
+     * Sets the designated parameter to a list of values, expanding its placeholder into one
+     * placeholder per value. The number of placeholders is padded up to a power of two (or
+     * above 1024, a multiple of 1024) by repeating the last value, so that lists of similar
+     * size share the same SQL text.
+     *
+     * @param index the first parameter is 1, the second is 2, ...
+     * @param values the non-empty collection of values
+     * @return the value of the {@code SqlStatement} itself
+     */
+    SqlStatement setParameterList(int index, Collection<?> values);
+
+    /**
+     * Sets every occurrence of the designated named parameter to a list of values, expanding
+     * each occurrence as described by {@link #setParameterList(int, Collection)}.
+     *
+     * @param name the name of the parameter without the leading colon
+     * @param values the non-empty collection of values
+     * @return the value of the {@code SqlStatement} itself
+     */
+    SqlStatement setParameterList(String name, Collection<?> values);
+
     /**
      * Returns the set parameters as a {@code Map<Integer, Object>}. The key indicates the index
-     * position and the value the Object to be set.
+     * position and the value the Object to be set. When collection parameters are present the
+     * indexes refer to the expanded statement returned by {@link #toString()}.
      *
      * @return {@code Map<Integer, Object>}
      */
@@ -74,9 +134,12 @@ public interface SqlStatement {
             throw new IllegalArgumentException("String parameter must be non-empty.");
         }
 
+        final ParsedSql parsed = ParsedSql.of(statement);
+
         return new SqlStatement() {
 
             private Map<Integer, Object> params = new HashMap<>();
+            private Map<Integer, List<Object>> lists = new HashMap<>();
 
             @Override
             public SqlStatement setParameter(int index, Object value) {
@@ -85,30 +148,119 @@ public interface SqlStatement {
                 }
                 this.params.put(Integer.valueOf(index),
                     Objects.requireNonNull(value, "Object parameter is null."));
+                this.lists.remove(Integer.valueOf(index));
+                return this;
+            }
+
+            @Override
+            public SqlStatement setParameter(String name, Object value) {
+                Objects.requireNonNull(name, "Parameter name is null.");
+                final int[] indices = parsed.getIndices(name);
+                if (indices.length == 0) {
+                    throw new IllegalArgumentException("Unknown parameter name: " + name);
+                }
+                Objects.requireNonNull(value, "Object parameter is null.");
+                for (final int index : indices) {
+                    this.params.put(Integer.valueOf(index), value);
+                    this.lists.remove(Integer.valueOf(index));
+                }
+                return this;
+            }
+
+            @Override
+            public SqlStatement setParameterList(int index, Collection<?> values) {
+                if (index < 1 || index > parsed.getPlaceholderCount()) {
+                    throw new IllegalArgumentException(
+                        "Parameter index out of range: " + index);
+                }
+                final List<Object> list = toList(values);
+                this.params.remove(Integer.valueOf(index));
+                this.lists.put(Integer.valueOf(index), list);
+                return this;
+            }
+
+            @Override
+            public SqlStatement setParameterList(String name, Collection<?> values) {
+                Objects.requireNonNull(name, "Parameter name is null.");
+                final int[] indices = parsed.getIndices(name);
+                if (indices.length == 0) {
+                    throw new IllegalArgumentException("Unknown parameter name: " + name);
+                }
+                final List<Object> list = toList(values);
+                for (final int index : indices) {
+                    this.params.remove(Integer.valueOf(index));
+                    this.lists.put(Integer.valueOf(index), list);
+                }
                 return this;
             }
 
             /**
              * Returns an SQL statement that may contain zero or more '?' IN parameter
-             * placeholders.
+             * placeholders. Any named placeholders will have been replaced with '?'.
              *
              * @return {@code String}
              */
             @Override
             public String toString() {
-                return statement;
+                if (this.lists.isEmpty()) {
+                    return parsed.getSql();
+                }
+
+                final int[] widths = new int[parsed.getPlaceholderCount()];
+                for (int i = 0; i < widths.length; i++) {
+                    final List<Object> list = this.lists.get(Integer.valueOf(i + 1));
+                    widths[i] = list == null ? 1 : ParsedSql.bucketSize(list.size());
+                }
+                return parsed.expand(widths);
             }
 
             @Override
             public Map<Integer, Object> getParameters() {
-                return Collections.unmodifiableMap(this.params);
+                if (this.lists.isEmpty()) {
+                    return Collections.unmodifiableMap(this.params);
+                }
+
+                final Map<Integer, Object> expanded = new HashMap<>();
+                int jdbcIndex = 1;
+                for (int i = 1; i <= parsed.getPlaceholderCount(); i++) {
+                    final Integer ordinal = Integer.valueOf(i);
+                    final List<Object> list = this.lists.get(ordinal);
+                    if (list == null) {
+                        final Object value = this.params.get(ordinal);
+                        if (value != null) {
+                            expanded.put(Integer.valueOf(jdbcIndex), value);
+                        }
+                        jdbcIndex++;
+                        continue;
+                    }
+
+                    final int width = ParsedSql.bucketSize(list.size());
+                    final int last = list.size() - 1;
+                    for (int j = 0; j < width; j++) {
+                        expanded.put(Integer.valueOf(jdbcIndex++), list.get(Math.min(j, last)));
+                    }
+                }
+                return Collections.unmodifiableMap(expanded);
             }
 
             @Override
             public SqlStatement clearParameters() {
                 this.params = new HashMap<>();
+                this.lists = new HashMap<>();
                 return this;
             }
+
+            private List<Object> toList(Collection<?> values) {
+                Objects.requireNonNull(values, "Collection parameter is null.");
+                if (values.isEmpty()) {
+                    throw new IllegalArgumentException("Collection parameter must be non-empty.");
+                }
+                final List<Object> list = new ArrayList<>(values.size());
+                for (final Object value : values) {
+                    list.add(Objects.requireNonNull(value, "Object parameter is null."));
+                }
+                return Collections.unmodifiableList(list);
+            }
         };
     }
 }
@@ -0,0 +1,80 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist;
+
+import java.util.List;
+
+/**
+ * Statistics of the statements run by a factory's managers, aggregated by SQL shape in the
+ * manner of PostgreSQL's {@code pg_stat_statements}.
+ *
+ * <p>Statistics are always collected. At most a fixed number of shapes is kept: when a new
+ * shape would exceed it, the least frequently executed shapes are discarded. Recording is
+ * lock-free, so collection is cheap enough to leave running in production.
+ *
+ * @author Marc L. Veary
+ * @since 1.0
+ * @see PersistenceManagerFactory#getStatementStatistics()
+ */
+public interface StatementStatistics {
+
+    /**
+     * Returns a snapshot of the statistics of every shape kept, in no particular order.
+     *
+     * @return unmodifiable {@code List<ShapeStatistics>}
+     */
+    List<ShapeStatistics> snapshot();
+
+    /**
+     * Returns a snapshot of the statistics of the shapes with the greatest total execution
+     * time, greatest first.
+     *
+     * @param limit the maximum number of shapes returned
+     * @return unmodifiable {@code List<ShapeStatistics>}
+     */
+    List<ShapeStatistics> getTop(int limit);
+
+    /**
+     * Returns a snapshot of the statistics of the shape of the given SQL.
+     *
+     * @param sql a SQL statement
+     * @return {@link ShapeStatistics}, or {@code null} if no statement of that shape is kept
+     */
+    ShapeStatistics get(String sql);
+
+    /**
+     * Formats the shapes with the greatest total execution time as a table, one line per
+     * shape, suitable for logging.
+     *
+     * @param limit the maximum number of shapes included
+     * @return {@code String}
+     */
+    String dump(int limit);
+
+    /**
+     * Discards all statistics.
+     */
+    void reset();
+}
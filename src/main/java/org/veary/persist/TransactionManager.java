@@ -24,6 +24,8 @@
 
 package org.veary.persist;
 
+import java.util.List;
+
 /**
  * <b>Purpose:</b> defines the methods for using JDBC transactions.
  *
@@ -42,6 +44,12 @@ public interface TransactionManager {
      */
     void commit();
 
+    /**
+     * Discards all the persisted sql statements and ends the transaction. A transaction is
+     * also rolled back, and ended, when one of its statements fails.
+     */
+    void rollback();
+
     /**
      * Persists the designated {@code SqlStatement} to the JDBC driver.
      *
@@ -50,6 +58,36 @@ public interface TransactionManager {
      */
     Long persist(SqlStatement statement);
 
+    /**
+     * Persists the designated {@code SqlStatement}s to the JDBC driver as batches. Consecutive
+     * statements with the same SQL text are sent together in a single JDBC batch.
+     *
+     * @param statements {@code List<SqlStatement>}
+     * @return {@code List<Long>} the generated Id for each statement, in the same order as the
+     *     input, otherwise 0
+     * @throws org.veary.persist.exceptions.PersistenceException if a statement fails, or if
+     *     the driver returns generated keys for only some of the rows of a batch
+     */
+    List<Long> persistBatch(List<SqlStatement> statements);
+
+    /**
+     * Persists the designated {@code SqlStatement}s to the JDBC driver as batches, optionally
+     * rewriting runs of identical single-row {@code INSERT ... VALUES (?, ...)} statements into
+     * multi-row {@code INSERT ... VALUES (...), (...), ...} statements. The number of rows per
+     * statement is limited so that the database's IN parameter limit is not exceeded.
+     *
+     * <p>This is much faster with drivers which execute a JDBC batch as one round trip per
+     * row. Statements which cannot be rewritten are sent as an ordinary JDBC batch.
+     *
+     * @param statements {@code List<SqlStatement>}
+     * @param rewriteInserts {@code true} to rewrite single-row INSERT statements
+     * @return {@code List<Long>} the generated Id for each statement, in the same order as the
+     *     input, otherwise 0
+     * @throws org.veary.persist.exceptions.PersistenceException if a statement fails, or if
+     *     the driver returns generated keys for only some of the rows of a batch
+     */
+    List<Long> persistBatch(List<SqlStatement> statements, boolean rewriteInserts);
+
     /**
      * Returns the row count for SQL Data Manipulation Language (DML) statements, or 0 for SQL
      * statements that return nothing.
@@ -0,0 +1,71 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Accepts write statements from any number of threads and persists them asynchronously, in
+ * batches, so that many small writes share one transaction and one commit.
+ *
+ * <p>Submitted statements are held in a bounded queue and drained by one or more writer
+ * threads. A writer commits a batch once it holds the maximum batch size, or once the oldest
+ * statement has waited for the maximum delay. If a batch fails, its statements are retried one
+ * per transaction so that only the failing statements are reported as failed.
+ *
+ * <p>Statements in the same batch are executed in submission order; statements from
+ * different batches may be committed in any order when there is more than one writer.
+ *
+ * @author Marc L. Veary
+ * @since 1.0
+ * @see PersistenceManagerFactory#createWriteBehindBuffer(int, int, java.time.Duration, int)
+ */
+public interface WriteBehindBuffer extends AutoCloseable {
+
+    /**
+     * Queues the statement for writing.
+     *
+     * @param statement the INSERT, UPDATE or DELETE {@link SqlStatement}
+     * @return a future which completes with the generated Id (otherwise 0) once the statement
+     *     has been committed, or exceptionally with a {@code PersistenceException} if it could
+     *     not be
+     * @throws IllegalStateException if the buffer is full or closed
+     */
+    CompletableFuture<Long> submit(SqlStatement statement);
+
+    /**
+     * Returns the number of statements queued and not yet taken by a writer.
+     *
+     * @return int
+     */
+    int getPendingCount();
+
+    /**
+     * Stops accepting statements, writes those already queued and waits for the writer
+     * threads to finish.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,195 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.internal;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * A concurrent cache holding at most a fixed number of entries.
+ *
+ * <p>Lookups are lock-free. When an insertion takes the cache over its maximum size, arbitrary
+ * entries are evicted until it is back within bounds. This is intended for values which are
+ * cheap to recompute but are requested far more often than they change, such as parsed SQL.
+ *
+ * @author Marc L. Veary
+ * @since 1.0
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ */
+public final class BoundedCache<K, V> {
+
+    private final ConcurrentMap<K, V> map;
+    private final int maxSize;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Constructor.
+     *
+     * @param maxSize the maximum number of entries held. Must be greater than 0.
+     */
+    public BoundedCache(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Maximum size must be greater than 0.");
+        }
+        this.maxSize = maxSize;
+        this.map = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns the value associated with the given key, computing and storing it with the given
+     * function if it is not present.
+     *
+     * @param key the key. Cannot be {@code null}.
+     * @param loader computes the value for a missing key. Cannot return {@code null}.
+     * @return the cached value
+     */
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        V value = this.map.get(Objects.requireNonNull(key));
+        if (value != null) {
+            this.hits.increment();
+            return value;
+        }
+
+        this.misses.increment();
+        value = this.map.computeIfAbsent(key, loader);
+        if (this.map.size() > this.maxSize) {
+            evict();
+        }
+        return value;
+    }
+
+    /**
+     * Stores the given value unless the key is already present. Unlike
+     * {@link #get(Object, Function)}, the value is computed by the caller before the call, so
+     * a slow computation does not hold up other keys.
+     *
+     * @param key the key. Cannot be {@code null}.
+     * @param value the value. Cannot be {@code null}.
+     * @return the value now associated with the key: the existing value if there was one,
+     *     otherwise {@code value}
+     */
+    public V putIfAbsent(K key, V value) {
+        final V existing = this.map.putIfAbsent(Objects.requireNonNull(key),
+            Objects.requireNonNull(value));
+        if (existing != null) {
+            return existing;
+        }
+        if (this.map.size() > this.maxSize) {
+            evict();
+        }
+        return value;
+    }
+
+    /**
+     * Returns the value associated with the given key.
+     *
+     * @param key the key
+     * @return the value or {@code null} if the key is not present
+     */
+    public V getIfPresent(K key) {
+        return this.map.get(key);
+    }
+
+    /**
+     * Stores the given value, replacing any existing value for the key.
+     *
+     * @param key the key. Cannot be {@code null}.
+     * @param value the value. Cannot be {@code null}.
+     */
+    public void put(K key, V value) {
+        this.map.put(Objects.requireNonNull(key), Objects.requireNonNull(value));
+        if (this.map.size() > this.maxSize) {
+            evict();
+        }
+    }
+
+    /**
+     * Removes the entry for the given key if present.
+     *
+     * @param key the key
+     */
+    public void remove(K key) {
+        this.map.remove(key);
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public void clear() {
+        this.map.clear();
+    }
+
+    /**
+     * Returns the number of entries currently held.
+     *
+     * @return int
+     */
+    public int size() {
+        return this.map.size();
+    }
+
+    /**
+     * Returns a read-only view of the entries currently held.
+     *
+     * @return {@code Map<K, V>}
+     */
+    public Map<K, V> asMap() {
+        return Collections.unmodifiableMap(this.map);
+    }
+
+    /**
+     * Returns the number of lookups which found an existing entry.
+     *
+     * @return long
+     */
+    public long getHitCount() {
+        return this.hits.sum();
+    }
+
+    /**
+     * Returns the number of lookups which had to compute a new entry.
+     *
+     * @return long
+     */
+    public long getMissCount() {
+        return this.misses.sum();
+    }
+
+    private void evict() {
+        final Iterator<K> iter = this.map.keySet().iterator();
+        while (this.map.size() > this.maxSize && iter.hasNext()) {
+            iter.next();
+            iter.remove();
+        }
+    }
+}
@@ -0,0 +1,357 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.internal;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.veary.persist.RowReader;
+import org.veary.persist.exceptions.PersistenceException;
+
+/**
+ * The rows of a result held column by column. Integral and boolean columns are held in
+ * {@code long} arrays and floating point columns in {@code double} arrays, with a bit set
+ * marking their {@code NULL}s; other columns are held as the driver's objects.
+ *
+ * <p>The instance is also the {@link RowReader} passed to a {@code RowMapper}: it reads
+ * from the row selected with {@link #moveTo(int)}.
+ *
+ * @author Marc L. Veary
+ * @since 1.0
+ */
+public final class ColumnarRows implements RowReader {
+
+    private static final int KIND_LONG = 0;
+    private static final int KIND_DOUBLE = 1;
+    private static final int KIND_BOOLEAN = 2;
+    private static final int KIND_OBJECT = 3;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final String[] labels;
+    private final int[] sqlTypes;
+    private final int[] kinds;
+    private final long[][] longs;
+    private final double[][] doubles;
+    private final Object[][] objects;
+    private final BitSet[] nulls;
+    private int size;
+    private int row;
+    private boolean lastNull;
+
+    private ColumnarRows(ResultSetMetaData md) throws SQLException {
+        this.labels = EntityMapper.columnLabels(md);
+        final int columns = this.labels.length;
+        this.sqlTypes = new int[columns];
+        this.kinds = new int[columns];
+        this.longs = new long[columns][];
+        this.doubles = new double[columns][];
+        this.objects = new Object[columns][];
+        this.nulls = new BitSet[columns];
+        for (int i = 0; i < columns; i++) {
+            this.sqlTypes[i] = md.getColumnType(i + 1);
+            this.kinds[i] = kindOf(this.sqlTypes[i]);
+            switch (this.kinds[i]) {
+                case KIND_LONG:
+                case KIND_BOOLEAN:
+                    this.longs[i] = new long[INITIAL_CAPACITY];
+                    this.nulls[i] = new BitSet();
+                    break;
+                case KIND_DOUBLE:
+                    this.doubles[i] = new double[INITIAL_CAPACITY];
+                    this.nulls[i] = new BitSet();
+                    break;
+                default:
+                    this.objects[i] = new Object[INITIAL_CAPACITY];
+            }
+        }
+    }
+
+    /**
+     * Reads every remaining row of the result set.
+     *
+     * @param rset the {@link ResultSet} positioned before the first row
+     * @return {@link ColumnarRows}
+     * @throws SQLException if a database access error occurs
+     */
+    public static ColumnarRows read(ResultSet rset) throws SQLException {
+        final ColumnarRows rows = new ColumnarRows(rset.getMetaData());
+        while (rset.next()) {
+            rows.append(rset);
+        }
+        return rows;
+    }
+
+    /**
+     * Returns the number of rows.
+     *
+     * @return int
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Selects the row read by the {@link RowReader} methods.
+     *
+     * @param index the row, starting at 0
+     */
+    public void moveTo(int index) {
+        if (index < 0 || index >= this.size) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        this.row = index;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return this.labels.length;
+    }
+
+    @Override
+    public int findColumn(String label) {
+        for (int i = 0; i < this.labels.length; i++) {
+            if (this.labels[i].equalsIgnoreCase(label)) {
+                return i + 1;
+            }
+        }
+        throw new IllegalArgumentException(
+            Messages.getString("ColumnarRows.error_msg_unknown_column") + ' ' + label); //$NON-NLS-1$
+    }
+
+    @Override
+    public long getLong(int column) {
+        final int c = index(column);
+        switch (this.kinds[c]) {
+            case KIND_LONG:
+            case KIND_BOOLEAN:
+                this.lastNull = this.nulls[c].get(this.row);
+                return this.longs[c][this.row];
+            case KIND_DOUBLE:
+                this.lastNull = this.nulls[c].get(this.row);
+                return (long) this.doubles[c][this.row];
+            default:
+                final Number value = number(c);
+                return value == null ? 0 : value.longValue();
+        }
+    }
+
+    @Override
+    public long getLong(String label) {
+        return getLong(findColumn(label));
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public int getInt(String label) {
+        return getInt(findColumn(label));
+    }
+
+    @Override
+    public double getDouble(int column) {
+        final int c = index(column);
+        switch (this.kinds[c]) {
+            case KIND_LONG:
+            case KIND_BOOLEAN:
+                this.lastNull = this.nulls[c].get(this.row);
+                return this.longs[c][this.row];
+            case KIND_DOUBLE:
+                this.lastNull = this.nulls[c].get(this.row);
+                return this.doubles[c][this.row];
+            default:
+                final Number value = number(c);
+                return value == null ? 0 : value.doubleValue();
+        }
+    }
+
+    @Override
+    public double getDouble(String label) {
+        return getDouble(findColumn(label));
+    }
+
+    @Override
+    public boolean getBoolean(int column) {
+        final int c = index(column);
+        if (this.kinds[c] == KIND_OBJECT && this.objects[c][this.row] instanceof Boolean) {
+            this.lastNull = false;
+            return ((Boolean) this.objects[c][this.row]).booleanValue();
+        }
+        return getDouble(column) != 0;
+    }
+
+    @Override
+    public boolean getBoolean(String label) {
+        return getBoolean(findColumn(label));
+    }
+
+    @Override
+    public String getString(int column) {
+        final Object value = getObject(column);
+        return value == null ? null : value.toString();
+    }
+
+    @Override
+    public String getString(String label) {
+        return getString(findColumn(label));
+    }
+
+    @Override
+    public Object getObject(int column) {
+        final int c = index(column);
+        if (this.kinds[c] == KIND_OBJECT) {
+            final Object value = this.objects[c][this.row];
+            this.lastNull = value == null;
+            return value;
+        }
+
+        this.lastNull = this.nulls[c].get(this.row);
+        if (this.lastNull) {
+            return null;
+        }
+        switch (this.kinds[c]) {
+            case KIND_BOOLEAN:
+                return Boolean.valueOf(this.longs[c][this.row] != 0);
+            case KIND_DOUBLE:
+                return this.sqlTypes[c] == Types.REAL
+                    ? (Object) Float.valueOf((float) this.doubles[c][this.row])
+                    : (Object) Double.valueOf(this.doubles[c][this.row]);
+            default:
+                return this.sqlTypes[c] == Types.BIGINT
+                    ? (Object) Long.valueOf(this.longs[c][this.row])
+                    : (Object) Integer.valueOf((int) this.longs[c][this.row]);
+        }
+    }
+
+    @Override
+    public Object getObject(String label) {
+        return getObject(findColumn(label));
+    }
+
+    @Override
+    public boolean wasNull() {
+        return this.lastNull;
+    }
+
+    private void append(ResultSet rset) throws SQLException {
+        if (this.size == capacity()) {
+            grow();
+        }
+        for (int i = 0; i < this.kinds.length; i++) {
+            switch (this.kinds[i]) {
+                case KIND_LONG:
+                    this.longs[i][this.size] = rset.getLong(i + 1);
+                    break;
+                case KIND_BOOLEAN:
+                    this.longs[i][this.size] = rset.getBoolean(i + 1) ? 1 : 0;
+                    break;
+                case KIND_DOUBLE:
+                    this.doubles[i][this.size] = rset.getDouble(i + 1);
+                    break;
+                default:
+                    this.objects[i][this.size] = rset.getObject(i + 1);
+                    continue;
+            }
+            if (rset.wasNull()) {
+                this.nulls[i].set(this.size);
+            }
+        }
+        this.size++;
+    }
+
+    private int capacity() {
+        if (this.kinds.length == 0) {
+            return Integer.MAX_VALUE;
+        }
+        switch (this.kinds[0]) {
+            case KIND_LONG:
+            case KIND_BOOLEAN:
+                return this.longs[0].length;
+            case KIND_DOUBLE:
+                return this.doubles[0].length;
+            default:
+                return this.objects[0].length;
+        }
+    }
+
+    private void grow() {
+        final int capacity = capacity() * 2;
+        for (int i = 0; i < this.kinds.length; i++) {
+            if (this.longs[i] != null) {
+                this.longs[i] = Arrays.copyOf(this.longs[i], capacity);
+            } else if (this.doubles[i] != null) {
+                this.doubles[i] = Arrays.copyOf(this.doubles[i], capacity);
+            } else {
+                this.objects[i] = Arrays.copyOf(this.objects[i], capacity);
+            }
+        }
+    }
+
+    private int index(int column) {
+        if (column < 1 || column > this.labels.length) {
+            throw new IllegalArgumentException(
+                Messages.getString("ColumnarRows.error_msg_column_index") + ' ' + column); //$NON-NLS-1$
+        }
+        return column - 1;
+    }
+
+    private Number number(int c) {
+        final Object value = this.objects[c][this.row];
+        this.lastNull = value == null;
+        if (value == null || value instanceof Number) {
+            return (Number) value;
+        }
+        if (value instanceof Boolean) {
+            return Integer.valueOf(((Boolean) value).booleanValue() ? 1 : 0);
+        }
+        throw new PersistenceException(
+            Messages.getString("ColumnarRows.error_msg_not_numeric") + ' ' + this.labels[c]); //$NON-NLS-1$
+    }
+
+    private static int kindOf(int sqlType) {
+        switch (sqlType) {
+            case Types.BIGINT:
+            case Types.INTEGER:
+            case Types.SMALLINT:
+            case Types.TINYINT:
+                return KIND_LONG;
+            case Types.DOUBLE:
+            case Types.FLOAT:
+            case Types.REAL:
+                return KIND_DOUBLE;
+            case Types.BOOLEAN:
+            case Types.BIT:
+                return KIND_BOOLEAN;
+            default:
+                return KIND_OBJECT;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.internal;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.veary.persist.exceptions.PersistenceException;
+
+/**
+ * <h2>Purpose:</h2> creates entity instances from result rows through the entity interface's
+ * static factory method.
+ *
+ * <p>The entity interface must declare a <b>static method</b> with the signature:
+ *
+ * <pre>
+ * newInstance(Map&lt;String, Object&gt;)
+ * </pre>
+ *
+ * <p>The factory method is looked up once, when the mapper is created, and the mapper is
+ * cached for the lifetime of the entity interface.
+ *
+ * @author Marc L. Veary
+ * @since 1.0
+ */
+public final class EntityMapper {
+
+    private static final String ENTITY_FACTORY_METHOD = "newInstance"; //$NON-NLS-1$
+    private static final ClassValue<EntityMapper> MAPPERS = new ClassValue<>() {
+
+        @Override
+        protected EntityMapper computeValue(Class<?> type) {
+            return new EntityMapper(type);
+        }
+    };
+
+    private final Class<?> entityInterface;
+    private final Method staticFactory;
+
+    private EntityMapper(Class<?> entityInterface) {
+        this.entityInterface = entityInterface;
+        try {
+            this.staticFactory = entityInterface.getDeclaredMethod(ENTITY_FACTORY_METHOD,
+                Map.class);
+        } catch (NoSuchMethodException | SecurityException e) {
+            throw new PersistenceException(
+                String.format("Error accessing %s.newInstance(): %s - cause: %s",
+                    entityInterface.getName(),
+                    e, e.getCause()));
+        }
+    }
+
+    /**
+     * Returns a mapper for the given entity interface.
+     *
+     * @param entityInterface the interface declaring the static factory method
+     * @return {@code EntityMapper}
+     * @throws PersistenceException if the interface does not declare the factory method
+     */
+    public static EntityMapper of(Class<?> entityInterface) {
+        return MAPPERS.get(Objects.requireNonNull(entityInterface));
+    }
+
+    /**
+     * Returns the entity interface.
+     *
+     * @return {@code Class<?>}
+     */
+    public Class<?> getEntityInterface() {
+        return this.entityInterface;
+    }
+
+    /**
+     * Creates a new entity instance from the given row.
+     *
+     * @param row {@code Map} result row from the query
+     * @return {@link Object}
+     */
+    public Object map(Map<String, Object> row) {
+        try {
+            return this.staticFactory.invoke(this.entityInterface, row);
+        } catch (IllegalAccessException | IllegalArgumentException
+            | InvocationTargetException e) {
+            throw new PersistenceException(
+                String.format("Error invoking %s.newInstance(): %s - cause: %s",
+                    this.entityInterface.getName(),
+                    e, e.getCause()));
+        }
+    }
+
+    /**
+     * Returns the upper case label of every column in the result set, indexed from 0.
+     *
+     * @param md {@link ResultSetMetaData}
+     * @return {@code String[]}
+     * @throws SQLException if a database access error occurs
+     */
+    public static String[] columnLabels(ResultSetMetaData md) throws SQLException {
+        final String[] labels = new String[md.getColumnCount()];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = md.getColumnLabel(i + 1).toUpperCase();
+        }
+        return labels;
+    }
+
+    /**
+     * Reads the current row of the result set into a {@code Map} keyed by column label, which
+     * iterates in column order.
+     *
+     * @param rset {@link ResultSet} positioned on a row
+     * @param labels the labels returned by {@link #columnLabels(ResultSetMetaData)}
+     * @return {@code Map<String, Object>}
+     * @throws SQLException if a database access error occurs
+     */
+    public static Map<String, Object> readRow(ResultSet rset, String[] labels)
+        throws SQLException {
+        final Map<String, Object> row = new LinkedHashMap<>();
+        for (int i = 0; i < labels.length; i++) {
+            row.put(labels[i], rset.getObject(i + 1));
+        }
+        return row;
+    }
+}
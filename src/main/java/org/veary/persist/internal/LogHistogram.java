@@ -0,0 +1,204 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.internal;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A concurrent histogram of non-negative values, such as durations in nanoseconds, held in a
+ * fixed amount of memory.
+ *
+ * <p>Values are counted in logarithmic buckets: each power of two is split into eight
+ * sub-buckets, so a percentile read from the histogram is within 12.5% of the recorded value
+ * whatever its magnitude. Recording is lock-free.
+ *
+ * @author Marc L. Veary
+ * @since 1.0
+ */
+public final class LogHistogram {
+
+    private static final int SUB_BITS = 3;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BITS + 1) * SUB_COUNT;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Records a value. Negative values are recorded as 0.
+     *
+     * @param value the value
+     */
+    public void record(long value) {
+        record(value, 1);
+    }
+
+    /**
+     * Records a value the given number of times. Negative values are recorded as 0.
+     *
+     * @param value the value
+     * @param times how many times it is recorded. Must be greater than 0.
+     */
+    public void record(long value, int times) {
+        final long v = Math.max(value, 0);
+        this.buckets.addAndGet(indexOf(v), times);
+        this.count.add(times);
+        this.sum.add(v * times);
+        this.min.accumulate(v);
+        this.max.accumulate(v);
+    }
+
+    /**
+     * Returns the number of values recorded.
+     *
+     * @return long
+     */
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    /**
+     * Returns the sum of the values recorded.
+     *
+     * @return long
+     */
+    public long getSum() {
+        return this.sum.sum();
+    }
+
+    /**
+     * Returns the smallest value recorded.
+     *
+     * @return long, or 0 if nothing has been recorded
+     */
+    public long getMin() {
+        final long value = this.min.get();
+        return value == Long.MAX_VALUE ? 0 : value;
+    }
+
+    /**
+     * Returns the largest value recorded.
+     *
+     * @return long, or 0 if nothing has been recorded
+     */
+    public long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * Returns the mean of the values recorded.
+     *
+     * @return double, or 0 if nothing has been recorded
+     */
+    public double getMean() {
+        final long n = getCount();
+        return n == 0 ? 0 : (double) getSum() / n;
+    }
+
+    /**
+     * Returns an estimate of the value below which the given fraction of the recorded values
+     * fall. The estimate is the upper bound of the bucket holding that value, capped at the
+     * largest value recorded.
+     *
+     * @param fraction between 0 and 1, such as 0.99 for the 99th percentile
+     * @return long, or 0 if nothing has been recorded
+     */
+    public long getPercentile(double fraction) {
+        final long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = this.buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        final long rank = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Returns a copy of this histogram. Values recorded concurrently with the copy may be
+     * partly included.
+     *
+     * @return {@link LogHistogram}
+     */
+    public LogHistogram copy() {
+        final LogHistogram copy = new LogHistogram();
+        for (int i = 0; i < BUCKETS; i++) {
+            copy.buckets.set(i, this.buckets.get(i));
+        }
+        copy.count.add(getCount());
+        copy.sum.add(getSum());
+        copy.min.accumulate(this.min.get());
+        copy.max.accumulate(getMax());
+        return copy;
+    }
+
+    /**
+     * Discards all recorded values. Values recorded concurrently with a reset may be partly
+     * retained.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            this.buckets.set(i, 0);
+        }
+        this.count.reset();
+        this.sum.reset();
+        this.min.reset();
+        this.max.reset();
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        final int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        final int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+        return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    private static long upperBoundOf(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        final int shift = index / SUB_COUNT - 1;
+        final long lower = (long) (SUB_COUNT + index % SUB_COUNT) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
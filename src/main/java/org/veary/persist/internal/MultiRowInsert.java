@@ -0,0 +1,173 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.internal;
+
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <h2>Purpose:</h2> rewrites a single-row {@code INSERT ... VALUES (?, ?)} statement into a
+ * multi-row {@code INSERT ... VALUES (?, ?), (?, ?), ...} statement.
+ *
+ * <p>Some drivers execute a JDBC batch as one round trip per row. Sending several rows in a
+ * single statement avoids this, provided the total number of IN parameters stays within the
+ * limit imposed by the database.
+ *
+ * @author Marc L. Veary
+ * @since 1.0
+ */
+public final class MultiRowInsert {
+
+    private static final Pattern INSERT_VALUES = Pattern.compile(
+        "^\\s*(INSERT\\s+INTO\\s+.+?\\s+VALUES)\\s*(\\(.*\\))\\s*;?\\s*$", //$NON-NLS-1$
+        Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    /**
+     * The largest number of rows placed in one statement, whatever the parameter limit. This is
+     * the limit of a SQL Server table value constructor.
+     */
+    static final int MAX_ROWS = 1000;
+
+    private static final int DEFAULT_MAX_PARAMETERS = 32767;
+
+    private final String prefix;
+    private final String tuple;
+    private final int parametersPerRow;
+    private final Map<Integer, String> statements = new ConcurrentHashMap<>();
+
+    private MultiRowInsert(String prefix, String tuple, int parametersPerRow) {
+        this.prefix = prefix;
+        this.tuple = tuple;
+        this.parametersPerRow = parametersPerRow;
+    }
+
+    /**
+     * Returns a rewriter for the given statement.
+     *
+     * @param sql the single-row INSERT statement with {@code ?} placeholders
+     * @return {@code MultiRowInsert}, or {@code null} if the statement is not a single-row
+     *     {@code INSERT ... VALUES (...)} with at least one placeholder
+     */
+    public static MultiRowInsert of(String sql) {
+        final Matcher matcher = INSERT_VALUES.matcher(sql);
+        if (!matcher.matches() || !isSingleTuple(matcher.group(2))) {
+            return null;
+        }
+
+        final int count = ParsedSql.of(matcher.group(2)).getPlaceholderCount();
+        if (count == 0) {
+            return null;
+        }
+        return new MultiRowInsert(matcher.group(1), matcher.group(2), count);
+    }
+
+    /**
+     * Returns the number of IN parameters in one row.
+     *
+     * @return int
+     */
+    public int getParametersPerRow() {
+        return this.parametersPerRow;
+    }
+
+    /**
+     * Returns the number of rows to put in each statement so that the parameter limit of the
+     * database is not exceeded.
+     *
+     * @param maxParameters the maximum number of IN parameters per statement
+     * @return int, at least 1
+     */
+    public int getRowsPerStatement(int maxParameters) {
+        return Math.max(1, Math.min(MAX_ROWS, maxParameters / this.parametersPerRow));
+    }
+
+    /**
+     * Returns the statement inserting the given number of rows.
+     *
+     * @param rows the number of rows
+     * @return {@code String}
+     */
+    public String getSql(int rows) {
+        return this.statements.computeIfAbsent(Integer.valueOf(rows), key -> {
+            final StringBuilder sb = new StringBuilder(
+                this.prefix.length() + (this.tuple.length() + 2) * rows);
+            sb.append(this.prefix).append(' ').append(this.tuple);
+            for (int i = 1; i < rows; i++) {
+                sb.append(", ").append(this.tuple);
+            }
+            return sb.toString();
+        });
+    }
+
+    /**
+     * Returns the maximum number of IN parameters the connected database accepts in a single
+     * statement, based on its product name.
+     *
+     * @param metaData {@link DatabaseMetaData}
+     * @return int
+     * @throws SQLException if a database access error occurs
+     */
+    public static int getMaxParameters(DatabaseMetaData metaData) throws SQLException {
+        final String product = metaData.getDatabaseProductName().toLowerCase(Locale.ROOT);
+        if (product.contains("sql server")) { //$NON-NLS-1$
+            return 2099;
+        }
+        if (product.contains("sqlite")) { //$NON-NLS-1$
+            return 999;
+        }
+        if (product.contains("mysql") || product.contains("mariadb")) { //$NON-NLS-1$ //$NON-NLS-2$
+            return 65535;
+        }
+        return DEFAULT_MAX_PARAMETERS;
+    }
+
+    private static boolean isSingleTuple(String tuple) {
+        int depth = 0;
+        char quote = 0;
+        for (int i = 0; i < tuple.length(); i++) {
+            final char ch = tuple.charAt(i);
+            if (quote != 0) {
+                if (ch == quote) {
+                    quote = 0;
+                }
+            } else if (ch == '\'' || ch == '"') {
+                quote = ch;
+            } else if (ch == '(') {
+                depth++;
+            } else if (ch == ')') {
+                depth--;
+                if (depth == 0 && i != tuple.length() - 1) {
+                    return false;
+                }
+            }
+        }
+        return depth == 0 && quote == 0;
+    }
+}
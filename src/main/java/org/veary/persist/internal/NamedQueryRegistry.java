@@ -0,0 +1,191 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.internal;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.sql.DataSource;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.veary.persist.NamedQueryCatalog;
+import org.veary.persist.exceptions.PersistenceException;
+
+/**
+ * <h2>Purpose:</h2> holds the named queries registered with a factory, each validated by
+ * preparing it against the database.
+ *
+ * <p>Registering a catalog prepares every statement on one connection, which checks its
+ * syntax and the tables and columns it refers to, and records its result columns. The number
+ * of parameters is checked against the driver's count where the driver supports it, and each
+ * entity interface is checked for its static factory method. Parsing the SQL and looking up
+ * the entity mapper also fills the shared caches used when the query is run, and what was
+ * learned is added to the factory's {@link StatementMetadataCache}, so that the first run of
+ * each query finds its result columns.
+ *
+ * @author Marc L. Veary
+ * @since 1.0
+ */
+public final class NamedQueryRegistry {
+
+    private static final Logger LOG = LogManager.getLogger(NamedQueryRegistry.class);
+    private static final String REGISTER_STR = "named query registration"; //$NON-NLS-1$
+
+    private final Map<String, StatementMetadata> queries = new ConcurrentHashMap<>();
+    private final StatementMetadataCache statementMetadata;
+    private final PersistenceStatistics statistics;
+
+    /**
+     * Constructor.
+     *
+     * @param statementMetadata the factory's {@link StatementMetadataCache}
+     * @param statistics the factory's {@link PersistenceStatistics}, in which the connection
+     *     used to validate a catalog is counted
+     */
+    public NamedQueryRegistry(StatementMetadataCache statementMetadata,
+        PersistenceStatistics statistics) {
+        this.statementMetadata = statementMetadata;
+        this.statistics = statistics;
+    }
+
+    /**
+     * Validates and registers every query in the catalog. If any query is invalid, none are
+     * registered.
+     *
+     * @param ds the {@link DataSource} to prepare the statements against
+     * @param catalog {@link NamedQueryCatalog}
+     * @return the number of queries registered
+     * @throws PersistenceException listing every invalid query
+     */
+    public int register(DataSource ds, NamedQueryCatalog catalog) {
+        final Map<String, StatementMetadata> prepared = new LinkedHashMap<>();
+        final List<StatementMetadata> statements = new ArrayList<>();
+        final List<String> errors = new ArrayList<>();
+
+        try (Connection conn = this.statistics.acquire(ds, REGISTER_STR)) {
+            try {
+                for (final String name : catalog.getNames()) {
+                    final String error = prepare(conn, name, catalog, prepared, statements);
+                    if (error != null) {
+                        errors.add(name + ": " + error); //$NON-NLS-1$
+                    }
+                }
+            } finally {
+                this.statistics.release();
+            }
+        } catch (final SQLException e) {
+            if (e.getCause() == null) {
+                throw new PersistenceException(e);
+            }
+            throw new PersistenceException(e.getCause());
+        }
+
+        if (!errors.isEmpty()) {
+            throw new PersistenceException(
+                Messages.getString("NamedQueryRegistry.error_msg_invalid") //$NON-NLS-1$
+                    + ' ' + String.join("; ", errors)); //$NON-NLS-1$
+        }
+
+        this.queries.putAll(prepared);
+        for (final StatementMetadata statement : statements) {
+            this.statementMetadata.putIfAbsent(statement);
+        }
+        LOG.debug("Registered {} named queries", Integer.valueOf(prepared.size())); //$NON-NLS-1$
+        return prepared.size();
+    }
+
+    /**
+     * Returns the named query.
+     *
+     * @param name the query name
+     * @return {@link StatementMetadata}
+     * @throws IllegalArgumentException if there is no such query
+     */
+    public StatementMetadata get(String name) {
+        final StatementMetadata metadata = this.queries.get(name);
+        if (metadata == null) {
+            throw new IllegalArgumentException(
+                Messages.getString("NamedQueryRegistry.error_msg_unknown") + ' ' + name); //$NON-NLS-1$
+        }
+        return metadata;
+    }
+
+    /**
+     * Prepares one query, adding its metadata to {@code prepared} under its name and to
+     * {@code statements} under the SQL text it is run as.
+     *
+     * @return a description of the problem, or {@code null} if the query is valid
+     */
+    private static String prepare(Connection conn, String name, NamedQueryCatalog catalog,
+        Map<String, StatementMetadata> prepared, List<StatementMetadata> statements) {
+        final String sql = catalog.getSql(name);
+        final Class<?> entityInterface = catalog.getEntityInterface(name);
+        final ParsedSql parsed = ParsedSql.of(sql);
+
+        String[] labels = null;
+        try (PreparedStatement stmt = conn.prepareStatement(parsed.getSql())) {
+            final ResultSetMetaData md = stmt.getMetaData();
+            if (md != null) {
+                labels = EntityMapper.columnLabels(md);
+            }
+            try {
+                final int count = stmt.getParameterMetaData().getParameterCount();
+                if (count != parsed.getPlaceholderCount()) {
+                    return "expected " + parsed.getPlaceholderCount() //$NON-NLS-1$
+                        + " parameters, driver reports " + count; //$NON-NLS-1$
+                }
+            } catch (final SQLFeatureNotSupportedException e) {
+                // the driver cannot count parameters
+            }
+        } catch (final SQLException e) {
+            return e.getMessage();
+        }
+
+        EntityMapper mapper = null;
+        if (entityInterface != null) {
+            if (labels == null) {
+                return "an entity interface is given but the statement returns no rows"; //$NON-NLS-1$
+            }
+            try {
+                mapper = EntityMapper.of(entityInterface);
+            } catch (final PersistenceException e) {
+                return e.getMessage();
+            }
+        }
+
+        prepared.put(name, new StatementMetadata(name, sql, labels, mapper));
+        statements.add(new StatementMetadata(parsed.getSql(), parsed.getSql(), labels, mapper));
+        return null;
+    }
+}
@@ -0,0 +1,467 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.internal;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.LongFunction;
+import java.util.function.ToLongFunction;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.sql.DataSource;
+
+import org.veary.persist.ParallelScan;
+import org.veary.persist.SqlStatement;
+import org.veary.persist.exceptions.PersistenceException;
+
+/**
+ * Concrete implementation of {@link ParallelScan}.
+ *
+ * <p>The statement is wrapped as a derived table so that the split column can be referenced by
+ * its result label, for example:
+ *
+ * <pre>
+ * SELECT * FROM (SELECT ...) scan_source WHERE id &gt;= ? AND id &lt; ?
+ * </pre>
+ *
+ * <p>The partitions are run as tasks on the factory's scan executor, which starts a thread for
+ * each task that finds no idle one, so that each partition has its own thread and pooled
+ * connection. Each statement is recorded with the factory's statistics and diagnostics, like
+ * any other query.
+ *
+ * @author Marc L. Veary
+ * @since 1.0
+ */
+public final class ParallelScanImpl implements ParallelScan {
+
+    private static final String SELECT_STR = "SELECT"; //$NON-NLS-1$
+    private static final String QUERY_STR = "query"; //$NON-NLS-1$
+    private static final Pattern IDENTIFIER = Pattern
+        .compile("[A-Za-z_][A-Za-z0-9_$]*|\"[^\"]+\""); //$NON-NLS-1$
+    private static final int FETCH_SIZE = 1000;
+    private static final int QUEUE_CAPACITY = 4096;
+    private static final long OFFER_TIMEOUT_MS = 100;
+    private static final Object END = new Object();
+
+    private final DataSource ds;
+    private final SqlStatement statement;
+    private final EntityMapper mapper;
+    private final String splitColumn;
+    private final int partitions;
+    private final PersistenceContext context;
+
+    /**
+     * Constructor.
+     *
+     * @param ds {@link DataSource}
+     * @param statement the SELECT {@link SqlStatement}
+     * @param entityInterface the interface of the entity to be returned
+     * @param splitColumn the label of the numeric or temporal column to split on
+     * @param partitions the number of partitions
+     * @param context the factory's {@link PersistenceContext}
+     */
+    public ParallelScanImpl(DataSource ds, SqlStatement statement, Class<?> entityInterface,
+        String splitColumn, int partitions, PersistenceContext context) {
+        this.ds = Objects.requireNonNull(ds,
+            Messages.getString("QueryImpl.error_msg_ds_null")); //$NON-NLS-1$
+        this.statement = Objects.requireNonNull(statement,
+            Messages.getString("QueryImpl.error_msg_statement_null")); //$NON-NLS-1$
+        this.mapper = EntityMapper.of(Objects.requireNonNull(entityInterface,
+            Messages.getString("QueryImpl.error_msg_iface_null"))); //$NON-NLS-1$
+        if (splitColumn == null || !IDENTIFIER.matcher(splitColumn).matches()) {
+            throw new IllegalArgumentException(
+                Messages.getString("ParallelScanImpl.error_msg_split_column")); //$NON-NLS-1$
+        }
+        if (partitions < 1) {
+            throw new IllegalArgumentException(
+                Messages.getString("ParallelScanImpl.error_msg_partitions")); //$NON-NLS-1$
+        }
+        if (!statement.toString().toUpperCase().startsWith(SELECT_STR)) {
+            throw new IllegalStateException(
+                Messages.getString("QueryImpl.error_msg_incorrect_query_type")); //$NON-NLS-1$
+        }
+        this.splitColumn = splitColumn;
+        this.partitions = partitions;
+        this.context = Objects.requireNonNull(context);
+    }
+
+    @Override
+    public long forEachPartition(IntFunction<? extends Consumer<Object>> consumerFactory) {
+        Objects.requireNonNull(consumerFactory);
+        final Object[] bounds = findBoundaries();
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        final LongAdder rows = new LongAdder();
+        final List<Future<?>> tasks = new ArrayList<>(bounds.length + 1);
+        for (int i = 0; i <= bounds.length; i++) {
+            final int partition = i;
+            tasks.add(this.context.getScanExecutor().submit(() -> readPartition(bounds,
+                partition, consumerFactory.apply(partition), rows, cancelled)));
+        }
+
+        RuntimeException failure = null;
+        for (final Future<?> task : tasks) {
+            try {
+                task.get();
+            } catch (final ExecutionException e) {
+                cancelled.set(true);
+                if (failure == null) {
+                    failure = unwrap(e);
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancelled.set(true);
+                if (failure == null) {
+                    failure = new PersistenceException(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return rows.sum();
+    }
+
+    @Override
+    public Stream<Object> stream() {
+        final Object[] bounds = findBoundaries();
+        final int count = bounds.length + 1;
+        final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        final LongAdder rows = new LongAdder();
+        final List<Future<?>> tasks = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            final int partition = i;
+            tasks.add(this.context.getScanExecutor().submit(() -> {
+                try {
+                    readPartition(bounds, partition, entity -> offer(queue, entity, cancelled),
+                        rows, cancelled);
+                } catch (final RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                    cancelled.set(true);
+                } finally {
+                    offer(queue, END, cancelled);
+                }
+            }));
+        }
+
+        final Iterator<Object> iter = new Iterator<>() {
+
+            private int remaining = count;
+            private Object next;
+
+            @Override
+            public boolean hasNext() {
+                while (this.next == null && this.remaining > 0) {
+                    final Object item = take(queue);
+                    if (item == END) {
+                        this.remaining--;
+                        final RuntimeException e = failure.get();
+                        if (e != null) {
+                            throw e;
+                        }
+                    } else {
+                        this.next = item;
+                    }
+                }
+                return this.next != null;
+            }
+
+            @Override
+            public Object next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final Object item = this.next;
+                this.next = null;
+                return item;
+            }
+        };
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iter,
+            Spliterator.NONNULL), false).onClose(() -> {
+                cancelled.set(true);
+                queue.clear();
+                for (final Future<?> task : tasks) {
+                    task.cancel(true);
+                }
+            });
+    }
+
+    /**
+     * Finds the minimum and maximum of the split column and divides the range between them
+     * into at most {@code partitions} sub-ranges.
+     *
+     * @return the boundaries between partitions, in ascending order. Empty if there is only
+     *     one partition.
+     */
+    private Object[] findBoundaries() {
+        final RepeatedQueryDetector detector = this.context.getRepeatedQueryDetector();
+        if (detector != null) {
+            detector.record(this.statement.toString(), this.statement.getParameters());
+        }
+
+        final String sql = String.format("SELECT MIN(%s), MAX(%s) FROM (%s) scan_source", //$NON-NLS-1$
+            this.splitColumn, this.splitColumn, this.statement.toString());
+        final Object[] range = execute(sql, new ArrayList<>(0), rset -> {
+            rset.next();
+            return new Object[] { rset.getObject(1), rset.getObject(2) };
+        }, values -> 1);
+
+        final Object min = range[0];
+        final Object max = range[1];
+        if (min == null || max == null || this.partitions == 1) {
+            return new Object[0];
+        }
+        return split(min, max);
+    }
+
+    private Object[] split(Object min, Object max) {
+        final long low;
+        final long high;
+        final LongFunction<Object> toParameter;
+        if (min instanceof Number) {
+            low = toBigDecimal(min).setScale(0, RoundingMode.FLOOR).longValue();
+            high = toBigDecimal(max).setScale(0, RoundingMode.CEILING).longValue();
+            toParameter = Long::valueOf;
+        } else if (min instanceof java.util.Date) {
+            low = ((java.util.Date) min).getTime();
+            high = ((java.util.Date) max).getTime();
+            toParameter = Timestamp::new;
+        } else if (min instanceof LocalDate) {
+            low = ((LocalDate) min).toEpochDay();
+            high = ((LocalDate) max).toEpochDay();
+            toParameter = LocalDate::ofEpochDay;
+        } else if (min instanceof LocalDateTime) {
+            low = ((LocalDateTime) min).toEpochSecond(ZoneOffset.UTC);
+            high = ((LocalDateTime) max).toEpochSecond(ZoneOffset.UTC);
+            toParameter = seconds -> LocalDateTime.ofEpochSecond(seconds, 0, ZoneOffset.UTC);
+        } else {
+            throw new PersistenceException(
+                Messages.getString("ParallelScanImpl.error_msg_split_type")); //$NON-NLS-1$
+        }
+
+        final BigInteger start = BigInteger.valueOf(low);
+        final BigInteger span = BigInteger.valueOf(high).subtract(start);
+        final BigInteger divisor = BigInteger.valueOf(this.partitions);
+        final TreeSet<Long> boundaries = new TreeSet<>();
+        for (int i = 1; i < this.partitions; i++) {
+            final long boundary = start
+                .add(span.multiply(BigInteger.valueOf(i)).divide(divisor)).longValue();
+            if (boundary > low) {
+                boundaries.add(Long.valueOf(boundary));
+            }
+        }
+
+        final Object[] result = new Object[boundaries.size()];
+        int i = 0;
+        for (final Long boundary : boundaries) {
+            result[i++] = toParameter.apply(boundary.longValue());
+        }
+        return result;
+    }
+
+    private void readPartition(Object[] bounds, int partition, Consumer<Object> consumer,
+        LongAdder rows, AtomicBoolean cancelled) {
+        final StringBuilder sql = new StringBuilder("SELECT * FROM (") //$NON-NLS-1$
+            .append(this.statement.toString()).append(") scan_source"); //$NON-NLS-1$
+        final List<Object> params = new ArrayList<>(2);
+        if (bounds.length > 0) {
+            sql.append(" WHERE "); //$NON-NLS-1$
+            if (partition == 0) {
+                sql.append('(').append(this.splitColumn).append(" < ? OR ") //$NON-NLS-1$
+                    .append(this.splitColumn).append(" IS NULL)"); //$NON-NLS-1$
+                params.add(bounds[0]);
+            } else if (partition == bounds.length) {
+                sql.append(this.splitColumn).append(" >= ?"); //$NON-NLS-1$
+                params.add(bounds[partition - 1]);
+            } else {
+                sql.append(this.splitColumn).append(" >= ? AND ") //$NON-NLS-1$
+                    .append(this.splitColumn).append(" < ?"); //$NON-NLS-1$
+                params.add(bounds[partition - 1]);
+                params.add(bounds[partition]);
+            }
+        }
+
+        execute(sql.toString(), params, rset -> {
+            final String[] labels = EntityMapper.columnLabels(rset.getMetaData());
+            long count = 0;
+            while (!cancelled.get() && rset.next()) {
+                consumer.accept(this.mapper.map(EntityMapper.readRow(rset, labels)));
+                rows.increment();
+                count++;
+            }
+            return Long.valueOf(count);
+        }, Long::longValue);
+    }
+
+    /**
+     * Runs one statement of the scan, recording it with the factory's statistics and
+     * diagnostics.
+     *
+     * @param sql the SQL text, which wraps the scanned statement
+     * @param bounds the parameters bound after the scanned statement's own
+     * @param reader reads the results
+     * @param counter returns the number of rows read
+     * @return the results
+     */
+    private <R> R execute(String sql, List<Object> bounds, ResultReader<R> reader,
+        ToLongFunction<R> counter) {
+        final Map<Integer, Object> params = new HashMap<>(this.statement.getParameters());
+        int index = this.context.getStatementMetadata().get(this.statement.toString())
+            .getPlaceholderCount();
+        for (final Object bound : bounds) {
+            params.put(Integer.valueOf(++index), bound);
+        }
+
+        final PersistenceStatistics statistics = this.context.getStatistics();
+        final long start = System.nanoTime();
+        long rows = 0;
+        boolean failed = false;
+        try (Connection conn = statistics.acquire(this.ds, QUERY_STR)) {
+            try {
+                final QueryDiagnosticsImpl diagnostics = this.context.getDiagnostics();
+                if (diagnostics != null) {
+                    diagnostics.record(conn, sql, params);
+                }
+                final R result = executeOn(conn, sql, params, reader, counter);
+                rows = counter.applyAsLong(result);
+                return result;
+            } finally {
+                statistics.release();
+            }
+        } catch (final SQLException e) {
+            failed = true;
+            statistics.recordError();
+            if (e.getCause() == null) {
+                throw new PersistenceException(e);
+            }
+            throw new PersistenceException(e.getCause());
+        } finally {
+            final long nanos = System.nanoTime() - start;
+            statistics.record(PersistenceStatistics.Operation.QUERY, nanos);
+            this.context.getStatementStatistics().record(sql, nanos, rows, failed);
+        }
+    }
+
+    private static <R> R executeOn(Connection conn, String sql, Map<Integer, Object> params,
+        ResultReader<R> reader, ToLongFunction<R> counter) throws SQLException {
+        final StatementEvent event = new StatementEvent();
+        event.begin();
+        long rows = -1;
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            for (final Map.Entry<Integer, Object> param : params.entrySet()) {
+                stmt.setObject(param.getKey().intValue(), param.getValue());
+            }
+            stmt.setFetchSize(FETCH_SIZE);
+
+            try (ResultSet rset = stmt.executeQuery()) {
+                final R result = reader.read(rset);
+                rows = counter.applyAsLong(result);
+                return result;
+            }
+        } finally {
+            event.complete(sql, QUERY_STR, rows);
+        }
+    }
+
+    private static RuntimeException unwrap(ExecutionException e) {
+        if (e.getCause() instanceof RuntimeException) {
+            return (RuntimeException) e.getCause();
+        }
+        if (e.getCause() instanceof Error) {
+            throw (Error) e.getCause();
+        }
+        return new PersistenceException(e.getCause());
+    }
+
+    private static void offer(BlockingQueue<Object> queue, Object item,
+        AtomicBoolean cancelled) {
+        try {
+            while (!queue.offer(item, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                if (cancelled.get() && item != END) {
+                    return;
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancelled.set(true);
+        }
+    }
+
+    private static Object take(BlockingQueue<Object> queue) {
+        try {
+            return queue.take();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PersistenceException(e);
+        }
+    }
+
+    private static BigDecimal toBigDecimal(Object number) {
+        if (number instanceof BigDecimal) {
+            return (BigDecimal) number;
+        }
+        if (number instanceof BigInteger) {
+            return new BigDecimal((BigInteger) number);
+        }
+        if (number instanceof Double || number instanceof Float) {
+            return BigDecimal.valueOf(((Number) number).doubleValue());
+        }
+        return BigDecimal.valueOf(((Number) number).longValue());
+    }
+}
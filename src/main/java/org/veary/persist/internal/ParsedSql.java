@@ -0,0 +1,282 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <h2>Purpose:</h2> the result of scanning an SQL statement for IN parameter placeholders.
+ *
+ * <p>Both JDBC positional placeholders ({@code ?}) and named placeholders ({@code :name}) are
+ * recognised. Each placeholder is given an ordinal in the order it appears, starting at 1, and
+ * the named placeholders are rewritten as {@code ?} so that the statement can be passed to
+ * {@code Connection.prepareStatement(String)}. Placeholders inside string literals, quoted
+ * identifiers and comments are ignored, as is the PostgreSQL {@code ::} cast operator.
+ *
+ * <p>Instances are immutable and are shared through a bounded cache keyed by the original SQL
+ * text, so each distinct statement is only scanned once.
+ *
+ * @author Marc L. Veary
+ * @since 1.0
+ */
+public final class ParsedSql {
+
+    private static final int CACHE_SIZE = 2048;
+    private static final BoundedCache<String, ParsedSql> CACHE = new BoundedCache<>(CACHE_SIZE);
+    private static final int[] NO_INDICES = new int[0];
+    private static final int MAX_POWER_OF_TWO_BUCKET = 1024;
+
+    private final String sql;
+    private final String[] fragments;
+    private final String[] names;
+    private final Map<String, int[]> nameIndices;
+    private final Map<String, String> expansions = new ConcurrentHashMap<>();
+
+    private ParsedSql(String sql, List<String> fragments, List<String> names) {
+        this.sql = sql;
+        this.fragments = fragments.toArray(new String[0]);
+        this.names = names.toArray(new String[0]);
+
+        final Map<String, List<Integer>> positions = new HashMap<>();
+        for (int i = 0; i < this.names.length; i++) {
+            if (this.names[i] != null) {
+                positions.computeIfAbsent(this.names[i], k -> new ArrayList<>())
+                    .add(Integer.valueOf(i + 1));
+            }
+        }
+
+        final Map<String, int[]> indices = new HashMap<>();
+        for (final Map.Entry<String, List<Integer>> entry : positions.entrySet()) {
+            indices.put(entry.getKey(),
+                entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+        }
+        this.nameIndices = Collections.unmodifiableMap(indices);
+    }
+
+    /**
+     * Returns the parsed form of the given SQL statement, scanning it only if it has not been
+     * seen before.
+     *
+     * @param text the SQL statement
+     * @return {@code ParsedSql}
+     */
+    public static ParsedSql of(String text) {
+        return CACHE.get(Objects.requireNonNull(text), ParsedSql::parse);
+    }
+
+    /**
+     * Returns the shared cache of parsed statements.
+     *
+     * @return {@code BoundedCache}
+     */
+    public static BoundedCache<String, ParsedSql> cache() {
+        return CACHE;
+    }
+
+    /**
+     * Returns the statement with every named placeholder replaced by {@code ?}.
+     *
+     * @return {@code String}
+     */
+    public String getSql() {
+        return this.sql;
+    }
+
+    /**
+     * Returns the total number of placeholders, positional and named.
+     *
+     * @return int
+     */
+    public int getPlaceholderCount() {
+        return this.names.length;
+    }
+
+    /**
+     * Returns the name of the placeholder at the given ordinal.
+     *
+     * @param ordinal the first placeholder is 1, the second is 2, ...
+     * @return the name, or {@code null} if the placeholder is positional
+     */
+    public String getName(int ordinal) {
+        return this.names[ordinal - 1];
+    }
+
+    /**
+     * Returns the text which precedes the placeholder at the given ordinal. The text following
+     * the last placeholder is at ordinal {@code getPlaceholderCount() + 1}.
+     *
+     * @param ordinal the first placeholder is 1, the second is 2, ...
+     * @return {@code String}
+     */
+    public String getFragment(int ordinal) {
+        return this.fragments[ordinal - 1];
+    }
+
+    /**
+     * Returns the ordinals of every occurrence of the named placeholder.
+     *
+     * @param name the placeholder name without the leading colon
+     * @return the ordinals in ascending order, or an empty array if the name does not appear.
+     *     The returned array is shared and must not be modified.
+     */
+    public int[] getIndices(String name) {
+        return this.nameIndices.getOrDefault(name, NO_INDICES);
+    }
+
+    /**
+     * Tests if the statement contains any named placeholders.
+     *
+     * @return {@code true} if at least one named placeholder is present
+     */
+    public boolean hasNamedParameters() {
+        return !this.nameIndices.isEmpty();
+    }
+
+    /**
+     * Returns the statement with the placeholder at each ordinal repeated the given number of
+     * times, separated by commas. This is used to expand collection parameters, for example
+     * {@code IN (?)} into {@code IN (?, ?, ?, ?)}. The result is cached, so callers should
+     * keep the number of distinct widths small (see {@link #bucketSize(int)}).
+     *
+     * @param widths the number of placeholders for each ordinal. The array length must equal
+     *     {@link #getPlaceholderCount()} and every element must be at least 1.
+     * @return {@code String}
+     */
+    public String expand(int[] widths) {
+        if (widths.length != this.names.length) {
+            throw new IllegalArgumentException("Width count does not match placeholder count.");
+        }
+        return this.expansions.computeIfAbsent(Arrays.toString(widths), key -> {
+            final StringBuilder sb = new StringBuilder(this.sql.length() + widths.length * 3);
+            for (int i = 0; i < widths.length; i++) {
+                sb.append(this.fragments[i]).append('?');
+                for (int j = 1; j < widths[i]; j++) {
+                    sb.append(", ?");
+                }
+            }
+            return sb.append(this.fragments[widths.length]).toString();
+        });
+    }
+
+    /**
+     * Returns the number of placeholders a collection parameter of the given size is padded to.
+     * Sizes are rounded up to the next power of two, or above 1024 to the next multiple of
+     * 1024, which bounds the number of distinct statement shapes produced by variable length
+     * IN lists.
+     *
+     * @param size the number of values. Must be at least 1.
+     * @return int
+     */
+    public static int bucketSize(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Size must be at least 1.");
+        }
+        if (size > MAX_POWER_OF_TWO_BUCKET) {
+            return (size + MAX_POWER_OF_TWO_BUCKET - 1) / MAX_POWER_OF_TWO_BUCKET
+                * MAX_POWER_OF_TWO_BUCKET;
+        }
+        return size == 1 ? 1 : Integer.highestOneBit(size - 1) << 1;
+    }
+
+    private static ParsedSql parse(String text) {
+        final List<String> fragments = new ArrayList<>();
+        final List<String> names = new ArrayList<>();
+        final StringBuilder sql = new StringBuilder(text.length());
+        final int length = text.length();
+
+        int fragmentStart = 0;
+        int pos = 0;
+        while (pos < length) {
+            final char ch = text.charAt(pos);
+            if (ch == '\'' || ch == '"' || ch == '`') {
+                pos = skipQuoted(text, pos, ch);
+            } else if (ch == '-' && startsWith(text, pos, "--")) {
+                pos = skipTo(text, pos + 2, "\n");
+            } else if (ch == '/' && startsWith(text, pos, "/*")) {
+                pos = skipTo(text, pos + 2, "*/");
+            } else if (ch == ':' && startsWith(text, pos, "::")) {
+                pos += 2;
+            } else if (ch == ':' && pos + 1 < length
+                && Character.isJavaIdentifierStart(text.charAt(pos + 1))) {
+                int end = pos + 2;
+                while (end < length && Character.isJavaIdentifierPart(text.charAt(end))) {
+                    end++;
+                }
+                final String fragment = text.substring(fragmentStart, pos);
+                fragments.add(fragment);
+                names.add(text.substring(pos + 1, end));
+                sql.append(fragment).append('?');
+                fragmentStart = end;
+                pos = end;
+            } else if (ch == '?') {
+                final String fragment = text.substring(fragmentStart, pos);
+                fragments.add(fragment);
+                names.add(null);
+                sql.append(fragment).append('?');
+                fragmentStart = pos + 1;
+                pos++;
+            } else {
+                pos++;
+            }
+        }
+
+        final String tail = text.substring(fragmentStart);
+        fragments.add(tail);
+        sql.append(tail);
+
+        return new ParsedSql(names.isEmpty() ? text : sql.toString(), fragments, names);
+    }
+
+    private static int skipQuoted(String text, int start, char quote) {
+        int pos = start + 1;
+        while (pos < text.length()) {
+            if (text.charAt(pos) == quote) {
+                if (pos + 1 < text.length() && text.charAt(pos + 1) == quote) {
+                    pos += 2;
+                    continue;
+                }
+                return pos + 1;
+            }
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int skipTo(String text, int start, String terminator) {
+        final int end = text.indexOf(terminator, start);
+        return end < 0 ? text.length() : end + terminator.length();
+    }
+
+    private static boolean startsWith(String text, int pos, String prefix) {
+        return text.startsWith(prefix, pos);
+    }
+}
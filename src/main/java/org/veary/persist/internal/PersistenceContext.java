@@ -0,0 +1,201 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.internal;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * <h2>Purpose:</h2> state shared by all the managers created by one
+ * {@code PersistenceManagerFactory}.
+ *
+ * @author Marc L. Veary
+ * @since 1.0
+ */
+public final class PersistenceContext {
+
+    private static final int DEFAULT_CACHE_ENTRIES = 1024;
+    private static final Duration DEFAULT_CACHE_TTL = Duration.ofMinutes(10);
+    private static final int DEFAULT_STATEMENT_SHAPES = 1000;
+    private static final int DEFAULT_STATEMENT_ENTRIES = 2048;
+
+    private final ResultCache resultCache;
+    private final RetryBudget retryBudget = new RetryBudget();
+    private final StatementMetadataCache statementMetadata =
+        new StatementMetadataCache(DEFAULT_STATEMENT_ENTRIES);
+    private final PersistenceStatistics statistics =
+        new PersistenceStatistics(this.statementMetadata);
+    private final NamedQueryRegistry namedQueries =
+        new NamedQueryRegistry(this.statementMetadata, this.statistics);
+    private final StatementStatisticsImpl statementStatistics =
+        new StatementStatisticsImpl(DEFAULT_STATEMENT_SHAPES);
+    private final ExecutorService scanExecutor = Executors.newCachedThreadPool(runnable -> {
+        final Thread thread = new Thread(runnable, "persist-parallel-scan"); //$NON-NLS-1$
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile QueryDiagnosticsImpl diagnostics;
+    private volatile RepeatedQueryDetector repeatedQueryDetector;
+    private volatile boolean pipeliningUnsupported;
+
+    /**
+     * Constructor.
+     */
+    public PersistenceContext() {
+        this(new ResultCache(DEFAULT_CACHE_ENTRIES, DEFAULT_CACHE_TTL));
+    }
+
+    private PersistenceContext(ResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * Returns a context for managers created outside of a factory. Such a context has no
+     * result cache, since it cannot know which {@code DataSource} it would be shared with.
+     *
+     * @return {@link PersistenceContext}
+     */
+    public static PersistenceContext standalone() {
+        return new PersistenceContext(null);
+    }
+
+    /**
+     * Returns the cache for the results of cacheable queries.
+     *
+     * @return {@link ResultCache}, or {@code null} if results are not cached
+     */
+    public ResultCache getResultCache() {
+        return this.resultCache;
+    }
+
+    /**
+     * Returns the budget limiting transaction retries.
+     *
+     * @return {@link RetryBudget}
+     */
+    public RetryBudget getRetryBudget() {
+        return this.retryBudget;
+    }
+
+    /**
+     * Returns the named queries registered with the factory.
+     *
+     * @return {@link NamedQueryRegistry}
+     */
+    public NamedQueryRegistry getNamedQueries() {
+        return this.namedQueries;
+    }
+
+    /**
+     * Returns the metadata learned about the statements run by the factory's managers.
+     *
+     * @return {@link StatementMetadataCache}
+     */
+    public StatementMetadataCache getStatementMetadata() {
+        return this.statementMetadata;
+    }
+
+    /**
+     * Returns the statistics reported through JMX.
+     *
+     * @return {@link PersistenceStatistics}
+     */
+    public PersistenceStatistics getStatistics() {
+        return this.statistics;
+    }
+
+    /**
+     * Returns the statistics aggregated by SQL shape.
+     *
+     * @return {@link StatementStatisticsImpl}
+     */
+    public StatementStatisticsImpl getStatementStatistics() {
+        return this.statementStatistics;
+    }
+
+    /**
+     * Returns the executor which runs the partitions of parallel scans. Its daemon threads are
+     * started as needed and end after a minute without work.
+     *
+     * @return {@link ExecutorService}
+     */
+    public ExecutorService getScanExecutor() {
+        return this.scanExecutor;
+    }
+
+    /**
+     * Tests if query pipelines may send their statements as one combined statement.
+     *
+     * @return {@code false} once the database has failed to run a combined statement
+     */
+    public boolean isPipeliningSupported() {
+        return !this.pipeliningUnsupported;
+    }
+
+    /**
+     * Records that the database cannot run a combined statement, so that later pipelines run
+     * their statements one at a time.
+     */
+    public void setPipeliningUnsupported() {
+        this.pipeliningUnsupported = true;
+    }
+
+    /**
+     * Returns the query diagnostics.
+     *
+     * @return {@link QueryDiagnosticsImpl}, or {@code null} if diagnostics are disabled
+     */
+    public QueryDiagnosticsImpl getDiagnostics() {
+        return this.diagnostics;
+    }
+
+    /**
+     * Enables or disables query diagnostics.
+     *
+     * @param diagnostics {@link QueryDiagnosticsImpl}, or {@code null} to disable them
+     */
+    public void setDiagnostics(QueryDiagnosticsImpl diagnostics) {
+        this.diagnostics = diagnostics;
+    }
+
+    /**
+     * Returns the repeated query detector.
+     *
+     * @return {@link RepeatedQueryDetector}, or {@code null} if detection is disabled
+     */
+    public RepeatedQueryDetector getRepeatedQueryDetector() {
+        return this.repeatedQueryDetector;
+    }
+
+    /**
+     * Enables or disables repeated query detection.
+     *
+     * @param detector {@link RepeatedQueryDetector}, or {@code null} to disable detection
+     */
+    public void setRepeatedQueryDetector(RepeatedQueryDetector detector) {
+        this.repeatedQueryDetector = detector;
+    }
+}
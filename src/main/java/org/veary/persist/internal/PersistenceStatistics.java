@@ -0,0 +1,268 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.internal;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.sql.DataSource;
+
+import org.veary.persist.PersistenceStatisticsMXBean;
+
+/**
+ * Concrete implementation of {@link PersistenceStatisticsMXBean}. The managers report to it
+ * through the {@link PersistenceContext} they share.
+ *
+ * @author Marc L. Veary
+ * @since 1.0
+ */
+public final class PersistenceStatistics implements PersistenceStatisticsMXBean {
+
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * The kinds of operation whose count and latency are recorded.
+     */
+    public enum Operation {
+        /** A query. */
+        QUERY,
+        /** A {@code persist} or {@code persistBatch} call. */
+        PERSIST,
+        /** A commit. */
+        COMMIT,
+        /** A rollback. */
+        ROLLBACK
+    }
+
+    private final LongAdder[] counts = new LongAdder[Operation.values().length];
+    private final LogHistogram[] latencies = new LogHistogram[Operation.values().length];
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder resultCacheHits = new LongAdder();
+    private final LongAdder resultCacheMisses = new LongAdder();
+    private final AtomicInteger inUse = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final StatementMetadataCache statementMetadata;
+
+    /**
+     * Constructor.
+     *
+     * @param statementMetadata the factory's {@link StatementMetadataCache}
+     */
+    public PersistenceStatistics(StatementMetadataCache statementMetadata) {
+        this.statementMetadata = statementMetadata;
+        for (int i = 0; i < this.counts.length; i++) {
+            this.counts[i] = new LongAdder();
+            this.latencies[i] = new LogHistogram();
+        }
+    }
+
+    /**
+     * Obtains a connection from the given {@code DataSource}, counting the caller as waiting
+     * until it is provided and the connection as in use until {@link #release()} is called.
+     *
+     * @param ds {@link DataSource}
+     * @param purpose what the connection is for, as reported to Flight Recorder
+     * @return {@link Connection}
+     * @throws SQLException if a database access error occurs
+     */
+    public Connection acquire(DataSource ds, String purpose) throws SQLException {
+        final ConnectionAcquireEvent event = new ConnectionAcquireEvent();
+        event.begin();
+        this.waiting.incrementAndGet();
+        final Connection conn;
+        try {
+            conn = ds.getConnection();
+        } finally {
+            this.waiting.decrementAndGet();
+        }
+        this.inUse.incrementAndGet();
+        event.purpose = purpose;
+        event.commit();
+        return conn;
+    }
+
+    /**
+     * Records that a connection obtained through {@link #acquire(DataSource, String)} has been
+     * closed.
+     */
+    public void release() {
+        this.inUse.decrementAndGet();
+    }
+
+    /**
+     * Records a completed operation.
+     *
+     * @param operation {@link Operation}
+     * @param nanos how long it took
+     */
+    public void record(Operation operation, long nanos) {
+        this.counts[operation.ordinal()].increment();
+        this.latencies[operation.ordinal()].record(nanos);
+    }
+
+    /**
+     * Records a query answered from the result cache.
+     */
+    public void recordResultCacheHit() {
+        this.counts[Operation.QUERY.ordinal()].increment();
+        this.resultCacheHits.increment();
+    }
+
+    /**
+     * Records a cacheable query which was not found in the result cache.
+     */
+    public void recordResultCacheMiss() {
+        this.resultCacheMisses.increment();
+    }
+
+    /**
+     * Records an operation which failed with a database error.
+     */
+    public void recordError() {
+        this.errors.increment();
+    }
+
+    @Override
+    public long getQueryCount() {
+        return this.counts[Operation.QUERY.ordinal()].sum();
+    }
+
+    @Override
+    public long getPersistCount() {
+        return this.counts[Operation.PERSIST.ordinal()].sum();
+    }
+
+    @Override
+    public long getCommitCount() {
+        return this.counts[Operation.COMMIT.ordinal()].sum();
+    }
+
+    @Override
+    public long getRollbackCount() {
+        return this.counts[Operation.ROLLBACK.ordinal()].sum();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return this.errors.sum();
+    }
+
+    @Override
+    public int getConnectionsInUse() {
+        return this.inUse.get();
+    }
+
+    @Override
+    public int getConnectionsWaiting() {
+        return this.waiting.get();
+    }
+
+    @Override
+    public double getStatementCacheHitRate() {
+        return rate(this.statementMetadata.getHitCount(), this.statementMetadata.getMissCount());
+    }
+
+    @Override
+    public double getResultCacheHitRate() {
+        return rate(this.resultCacheHits.sum(), this.resultCacheMisses.sum());
+    }
+
+    @Override
+    public Latency getQueryLatency() {
+        return snapshot(Operation.QUERY);
+    }
+
+    @Override
+    public Latency getPersistLatency() {
+        return snapshot(Operation.PERSIST);
+    }
+
+    @Override
+    public Latency getCommitLatency() {
+        return snapshot(Operation.COMMIT);
+    }
+
+    @Override
+    public Latency getRollbackLatency() {
+        return snapshot(Operation.ROLLBACK);
+    }
+
+    @Override
+    public void resetLatencies() {
+        for (final LogHistogram histogram : this.latencies) {
+            histogram.reset();
+        }
+    }
+
+    private Latency snapshot(Operation operation) {
+        final LogHistogram histogram = this.latencies[operation.ordinal()];
+        final long count = histogram.getCount();
+        final double mean = histogram.getMean() / NANOS_PER_MILLI;
+        final double p50 = histogram.getPercentile(0.50) / NANOS_PER_MILLI;
+        final double p95 = histogram.getPercentile(0.95) / NANOS_PER_MILLI;
+        final double p99 = histogram.getPercentile(0.99) / NANOS_PER_MILLI;
+        final double max = histogram.getMax() / NANOS_PER_MILLI;
+        return new Latency() {
+
+            @Override
+            public long getCount() {
+                return count;
+            }
+
+            @Override
+            public double getMeanMillis() {
+                return mean;
+            }
+
+            @Override
+            public double getP50Millis() {
+                return p50;
+            }
+
+            @Override
+            public double getP95Millis() {
+                return p95;
+            }
+
+            @Override
+            public double getP99Millis() {
+                return p99;
+            }
+
+            @Override
+            public double getMaxMillis() {
+                return max;
+            }
+        };
+    }
+
+    private static double rate(long hits, long misses) {
+        final long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.internal;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.veary.persist.QueryDiagnostics;
+import org.veary.persist.QueryPlan;
+
+/**
+ * Concrete implementation of {@link QueryDiagnostics}.
+ *
+ * <p>Plans are keyed by {@link SqlShape} and held in a {@link BoundedCache}, so that an
+ * application generating unbounded numbers of shapes cannot exhaust the heap.
+ *
+ * @author Marc L. Veary
+ * @since 1.0
+ */
+public final class QueryDiagnosticsImpl implements QueryDiagnostics {
+
+    private static final Logger LOG = LogManager.getLogger(QueryDiagnosticsImpl.class);
+    private static final int MAX_SHAPES = 2048;
+    private static final Pattern FILTERED = Pattern
+        .compile("\\b(WHERE|JOIN)\\b", Pattern.CASE_INSENSITIVE); //$NON-NLS-1$
+
+    private final BoundedCache<String, PlanRecord> plans = new BoundedCache<>(MAX_SHAPES);
+    private final long scanRowThreshold;
+
+    /**
+     * Constructor.
+     *
+     * @param scanRowThreshold a full scan of a table estimated to hold more rows than this is
+     *     reported
+     */
+    public QueryDiagnosticsImpl(long scanRowThreshold) {
+        this.scanRowThreshold = scanRowThreshold;
+    }
+
+    /**
+     * Records an execution of the statement, capturing its plan on the connection if this is
+     * the first execution of its shape. Never throws: a plan which cannot be captured is
+     * recorded as {@code null}.
+     *
+     * @param conn the {@link Connection} the statement is about to run on
+     * @param sql the SQL text, as sent to the driver
+     * @param params the statement's parameters
+     */
+    public void record(Connection conn, String sql, Map<Integer, Object> params) {
+        final String shape = SqlShape.of(sql);
+        PlanRecord record = this.plans.getIfPresent(shape);
+        if (record == null) {
+            // captured outside the map, since EXPLAIN is a round trip to the database; a
+            // shape first run on several threads at once may be explained more than once
+            final PlanRecord captured = capture(conn, shape, sql, params);
+            record = this.plans.putIfAbsent(shape, captured);
+            if (record == captured) {
+                for (final String warning : captured.getWarnings()) {
+                    LOG.warn("Query plan: {} for: {}\n{}", warning, shape, //$NON-NLS-1$
+                        captured.getPlan());
+                }
+            }
+        }
+        record.executions.increment();
+    }
+
+    @Override
+    public List<QueryPlan> getPlans() {
+        final List<QueryPlan> list = new ArrayList<>(this.plans.asMap().values());
+        list.sort(Comparator.comparingLong(QueryPlan::getExecutionCount).reversed());
+        return Collections.unmodifiableList(list);
+    }
+
+    @Override
+    public QueryPlan getPlan(String sql) {
+        return this.plans.getIfPresent(SqlShape.of(sql));
+    }
+
+    @Override
+    public List<QueryPlan> getWarnings() {
+        final List<QueryPlan> list = new ArrayList<>();
+        for (final QueryPlan plan : getPlans()) {
+            if (!plan.getWarnings().isEmpty()) {
+                list.add(plan);
+            }
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    @Override
+    public void reset() {
+        this.plans.clear();
+    }
+
+    private PlanRecord capture(Connection conn, String shape, String sql,
+        Map<Integer, Object> params) {
+        final Dialect dialect;
+        try {
+            dialect = Dialect.of(conn.getMetaData().getDatabaseProductName());
+        } catch (final SQLException e) {
+            LOG.debug("Cannot identify database for EXPLAIN: {}", e.toString()); //$NON-NLS-1$
+            return new PlanRecord(shape, null, Collections.emptyList(), false,
+                Collections.emptyList());
+        }
+        if (dialect == null) {
+            return new PlanRecord(shape, null, Collections.emptyList(), false,
+                Collections.emptyList());
+        }
+
+        final String plan;
+        try (PreparedStatement stmt = conn.prepareStatement("EXPLAIN " + sql)) { //$NON-NLS-1$
+            for (final Map.Entry<Integer, Object> param : params.entrySet()) {
+                stmt.setObject(param.getKey().intValue(), param.getValue());
+            }
+            try (ResultSet rset = stmt.executeQuery()) {
+                final StringBuilder text = new StringBuilder();
+                while (rset.next()) {
+                    if (text.length() > 0) {
+                        text.append('\n');
+                    }
+                    text.append(rset.getString(1));
+                }
+                plan = text.toString();
+            }
+        } catch (final SQLException e) {
+            LOG.debug("EXPLAIN failed for {}: {}", shape, e.toString()); //$NON-NLS-1$
+            return new PlanRecord(shape, null, Collections.emptyList(), false,
+                Collections.emptyList());
+        }
+
+        final List<String> scanned = new ArrayList<>();
+        final boolean indexUsed = dialect.analyze(plan, scanned);
+        final List<String> warnings = new ArrayList<>();
+        for (final String table : scanned) {
+            final long rows = dialect.estimateRows(conn, table, plan);
+            if (rows > this.scanRowThreshold) {
+                warnings.add(String.format("full scan of %s (about %d rows)", table, //$NON-NLS-1$
+                    Long.valueOf(rows)));
+            }
+        }
+        if (!indexUsed && !scanned.isEmpty() && FILTERED.matcher(shape).find()) {
+            warnings.add("no index used"); //$NON-NLS-1$
+        }
+        return new PlanRecord(shape, plan, scanned, indexUsed, warnings);
+    }
+
+    /**
+     * The databases whose plans are understood.
+     */
+    private enum Dialect {
+
+        /**
+         * H2 marks each table in the plan with a comment naming the index used, such as
+         * {@code /* PUBLIC.PRIMARY_KEY_E: ID = ?1 *\/}, or {@code tableScan}.
+         */
+        H2 {
+
+            private final Pattern tableComment = Pattern.compile(
+                "/\\*\\s*([A-Za-z0-9_$.\"]+?)(\\.tableScan)?(\\s*:[^*]*)?\\s*\\*/"); //$NON-NLS-1$
+
+            @Override
+            boolean analyze(String plan, List<String> scanned) {
+                boolean indexUsed = false;
+                final Matcher matcher = this.tableComment.matcher(plan);
+                while (matcher.find()) {
+                    if (matcher.group(2) != null) {
+                        scanned.add(matcher.group(1));
+                    } else if (matcher.group(1).indexOf('.') > 0) {
+                        indexUsed = true;
+                    }
+                }
+                return indexUsed;
+            }
+
+            @Override
+            long estimateRows(Connection conn, String table, String plan) {
+                final int dot = table.lastIndexOf('.');
+                try (PreparedStatement stmt = conn.prepareStatement(
+                    "SELECT ROW_COUNT_ESTIMATE FROM INFORMATION_SCHEMA.TABLES " //$NON-NLS-1$
+                        + "WHERE TABLE_SCHEMA = ? AND TABLE_NAME = ?")) { //$NON-NLS-1$
+                    stmt.setString(1, dot < 0 ? "PUBLIC" : table.substring(0, dot)); //$NON-NLS-1$
+                    stmt.setString(2, table.substring(dot + 1));
+                    try (ResultSet rset = stmt.executeQuery()) {
+                        return rset.next() ? rset.getLong(1) : -1;
+                    }
+                } catch (final SQLException e) {
+                    return -1;
+                }
+            }
+        },
+
+        /**
+         * PostgreSQL reports a {@code Seq Scan on table (cost=... rows=N ...)} node for each
+         * full scan.
+         */
+        POSTGRESQL {
+
+            private final Pattern seqScan = Pattern
+                .compile("Seq Scan on (\\S+)[^\\n]*?rows=(\\d+)"); //$NON-NLS-1$
+
+            @Override
+            boolean analyze(String plan, List<String> scanned) {
+                final Matcher matcher = this.seqScan.matcher(plan);
+                while (matcher.find()) {
+                    scanned.add(matcher.group(1));
+                }
+                return plan.contains("Index Scan") || plan.contains("Index Only Scan"); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+
+            @Override
+            long estimateRows(Connection conn, String table, String plan) {
+                final Matcher matcher = this.seqScan.matcher(plan);
+                while (matcher.find()) {
+                    if (matcher.group(1).equals(table)) {
+                        return Long.parseLong(matcher.group(2));
+                    }
+                }
+                return -1;
+            }
+        };
+
+        /**
+         * Adds the tables read by full scan to {@code scanned}.
+         *
+         * @return {@code true} if the plan uses an index
+         */
+        abstract boolean analyze(String plan, List<String> scanned);
+
+        /**
+         * Returns the estimated number of rows in the table, or -1 if unknown.
+         */
+        abstract long estimateRows(Connection conn, String table, String plan);
+
+        static Dialect of(String productName) {
+            final String name = productName.toUpperCase(Locale.ROOT);
+            if (name.contains("H2")) { //$NON-NLS-1$
+                return H2;
+            }
+            if (name.contains("POSTGRESQL")) { //$NON-NLS-1$
+                return POSTGRESQL;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * The plan of one shape.
+     */
+    private static final class PlanRecord implements QueryPlan {
+
+        private final String shape;
+        private final String plan;
+        private final List<String> scanned;
+        private final boolean indexUsed;
+        private final List<String> warnings;
+        private final LongAdder executions = new LongAdder();
+
+        PlanRecord(String shape, String plan, List<String> scanned, boolean indexUsed,
+            List<String> warnings) {
+            this.shape = shape;
+            this.plan = plan;
+            this.scanned = Collections.unmodifiableList(scanned);
+            this.indexUsed = indexUsed;
+            this.warnings = Collections.unmodifiableList(warnings);
+        }
+
+        @Override
+        public String getShape() {
+            return this.shape;
+        }
+
+        @Override
+        public String getPlan() {
+            return this.plan;
+        }
+
+        @Override
+        public long getExecutionCount() {
+            return this.executions.sum();
+        }
+
+        @Override
+        public List<String> getScannedTables() {
+            return this.scanned;
+        }
+
+        @Override
+        public boolean isIndexUsed() {
+            return this.indexUsed;
+        }
+
+        @Override
+        public List<String> getWarnings() {
+            return this.warnings;
+        }
+
+        @Override
+        public String toString() {
+            return this.shape + " x" + getExecutionCount(); //$NON-NLS-1$
+        }
+    }
+}
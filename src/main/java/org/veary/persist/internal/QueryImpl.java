@@ -24,23 +24,29 @@
 
 package org.veary.persist.internal;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.function.ToIntFunction;
 
 import javax.sql.DataSource;
 
+import org.veary.persist.ExportFormat;
 import org.veary.persist.Query;
+import org.veary.persist.RowMapper;
 import org.veary.persist.SqlStatement;
 import org.veary.persist.exceptions.NoResultException;
 import org.veary.persist.exceptions.NonUniqueResultException;
@@ -54,14 +60,21 @@ import org.veary.persist.exceptions.PersistenceException;
  */
 public final class QueryImpl implements Query {
 
-    private static final String SELECT_STR = "SELECT";
-    private static final String ENTITY_FACTORY_METHOD = "newInstance";
+    private static final String QUERY_STR = "query"; //$NON-NLS-1$
+    private static final String EXPORT_STR = "export"; //$NON-NLS-1$
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int EXPORT_FETCH_SIZE = 1000;
+    private static final String MYSQL_PRODUCT = "MySQL"; //$NON-NLS-1$
 
     private final DataSource ds;
     private final SqlStatement statement;
+    private final PersistenceContext context;
     private Class<?> entityInterface;
 
     private List<Map<String, Object>> internalResult;
+    private long memoryLimit = Long.MAX_VALUE;
+    private boolean cacheable;
+    private StatementMetadata metadata;
 
     /**
      * Constructor.
@@ -87,6 +100,7 @@ public final class QueryImpl implements Query {
             Messages.getString("QueryImpl.error_msg_statement_null")); //$NON-NLS-1$
         this.entityInterface = Objects.requireNonNull(entityInterface,
             Messages.getString("QueryImpl.error_msg_iface_null")); //$NON-NLS-1$
+        this.context = PersistenceContext.standalone();
     }
 
     /**
@@ -96,40 +110,148 @@ public final class QueryImpl implements Query {
      * @param statement {@link SqlStatement}
      */
     public QueryImpl(DataSource ds, SqlStatement statement) {
+        this(ds, statement, null, PersistenceContext.standalone());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param ds {@link DataSource}
+     * @param statement {@link SqlStatement}
+     * @param entityInterface the interface of a class which is to be created (by Reflection)
+     *     and returned as the result(s), or {@code null} if the query returns a single value
+     * @param context the {@link PersistenceContext} of the creating manager
+     */
+    public QueryImpl(DataSource ds, SqlStatement statement, Class<?> entityInterface,
+        PersistenceContext context) {
         this.ds = Objects.requireNonNull(ds,
             Messages.getString("QueryImpl.error_msg_ds_null")); //$NON-NLS-1$
         this.statement = Objects.requireNonNull(statement,
             Messages.getString("QueryImpl.error_msg_statement_null")); //$NON-NLS-1$
+        this.entityInterface = entityInterface;
+        this.context = context;
     }
 
     @Override
     public Query execute() {
-        if (!this.statement.toString().toUpperCase().startsWith(SELECT_STR)) {
-            throw new IllegalStateException(
-                Messages.getString("QueryImpl.error_msg_incorrect_query_type")); //$NON-NLS-1$
+        requireSelect();
+
+        final PersistenceStatistics statistics = this.context.getStatistics();
+        final ResultCache cache = this.cacheable ? this.context.getResultCache() : null;
+        if (cache != null) {
+            final List<Map<String, Object>> cached = cache.get(this.statement);
+            if (cached != null) {
+                statistics.recordResultCacheHit();
+                this.internalResult = cached;
+                return this;
+            }
+            statistics.recordResultCacheMiss();
         }
 
-        try (Connection conn = this.ds.getConnection()) {
-            try (PreparedStatement stmt = conn.prepareStatement(this.statement.toString())) {
+        this.internalResult = run(this::processResultSet, List::size);
 
-                for (final Map.Entry<Integer, Object> param : this.statement.getParameters()
-                    .entrySet()) {
-                    stmt.setObject(param.getKey().intValue(), param.getValue());
-                }
+        if (cache != null && !(this.internalResult instanceof SpillableRowList
+            && ((SpillableRowList) this.internalResult).isSpilled())) {
+            this.internalResult = cache.put(this.statement, this.internalResult);
+        }
 
-                try (ResultSet rset = stmt.executeQuery()) {
-                    this.internalResult = processResultSet(rset);
-                }
+        return this;
+    }
+
+    /**
+     * Runs the statement, recording it with the factory's statistics and detectors, and reads
+     * its results.
+     *
+     * @param reader reads the results
+     * @param counter returns the number of rows read
+     * @return the results
+     */
+    private <R> R run(ResultReader<R> reader, ToIntFunction<R> counter) {
+        return run(reader, counter, 0);
+    }
+
+    /**
+     * Runs the statement, recording it with the factory's statistics and detectors, and reads
+     * its results.
+     *
+     * @param reader reads the results
+     * @param counter returns the number of rows read
+     * @param maxRows the most rows the driver is to return, or 0 for no limit
+     * @return the results
+     */
+    private <R> R run(ResultReader<R> reader, ToIntFunction<R> counter, int maxRows) {
+        final RepeatedQueryDetector detector = this.context.getRepeatedQueryDetector();
+        if (detector != null) {
+            detector.record(this.statement.toString(), this.statement.getParameters());
+        }
 
+        final PersistenceStatistics statistics = this.context.getStatistics();
+        final String sql = this.statement.toString();
+        final long start = System.nanoTime();
+        long rows = 0;
+        boolean failed = false;
+        try (Connection conn = statistics.acquire(this.ds, QUERY_STR)) {
+            try {
+                final R result = executeOn(conn, sql, reader, counter, maxRows);
+                rows = counter.applyAsInt(result);
+                return result;
+            } finally {
+                statistics.release();
             }
         } catch (final SQLException e) {
-            if (e.getCause() == null) {
-                throw new PersistenceException(e);
-            }
-            throw new PersistenceException(e.getCause());
+            failed = true;
+            statistics.recordError();
+            throw new PersistenceException(e);
+        } finally {
+            final long nanos = System.nanoTime() - start;
+            statistics.record(PersistenceStatistics.Operation.QUERY, nanos);
+            this.context.getStatementStatistics().record(sql, nanos, rows, failed);
         }
+    }
 
-        return this;
+    /**
+     * Runs the statement on the given connection and reads its results.
+     *
+     * @param conn {@link Connection}
+     * @param sql the statement's SQL text
+     * @param reader reads the results
+     * @param counter returns the number of rows read
+     * @param maxRows the most rows the driver is to return, or 0 for no limit
+     * @return the results
+     * @throws SQLException if a database access error occurs
+     */
+    private <R> R executeOn(Connection conn, String sql, ResultReader<R> reader,
+        ToIntFunction<R> counter, int maxRows) throws SQLException {
+        final QueryDiagnosticsImpl diagnostics = this.context.getDiagnostics();
+        if (diagnostics != null) {
+            diagnostics.record(conn, sql, this.statement.getParameters());
+        }
+
+        final StatementEvent event = new StatementEvent();
+        event.begin();
+        long rows = -1;
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            for (final Map.Entry<Integer, Object> param : this.statement.getParameters()
+                .entrySet()) {
+                stmt.setObject(param.getKey().intValue(), param.getValue());
+            }
+            if (maxRows > 0) {
+                stmt.setMaxRows(maxRows);
+            }
+
+            try (ResultSet rset = stmt.executeQuery()) {
+                final R result = reader.read(rset);
+                rows = counter.applyAsInt(result);
+                return result;
+            } catch (final NoResultException e) {
+                rows = 0;
+                throw e;
+            }
+
+        } finally {
+            event.complete(sql, QUERY_STR, rows);
+        }
     }
 
     @Override
@@ -145,11 +267,90 @@ public final class QueryImpl implements Query {
         }
 
         if (this.entityInterface == null) {
-            Map<String, Object> result = this.internalResult.get(0);
-            return result.values().toArray()[0];
+            // rows iterate in column order, so this is column 1
+            return this.internalResult.get(0).values().iterator().next();
         }
 
-        return getNewInstance(getStaticFactoryMethod(), this.internalResult.get(0));
+        final EntityMappingEvent event = new EntityMappingEvent();
+        event.begin();
+        final Object entity = mapper().map(this.internalResult.get(0));
+        event.entity = this.entityInterface;
+        event.count = 1;
+        event.commit();
+        return entity;
+    }
+
+    @Override
+    public boolean exists() {
+        requireSelect();
+        return run(rset -> Boolean.valueOf(rset.next()), found -> found.booleanValue() ? 1 : 0, 1)
+            .booleanValue();
+    }
+
+    @Override
+    public Optional<Object> findFirst() {
+        requireSelect();
+        final List<Object> results = run(
+            rset -> readResults(rset, 1, this.entityInterface, this.metadata), List::size, 1);
+        return results.isEmpty() ? Optional.empty() : Optional.of(results.get(0));
+    }
+
+    @Override
+    public Optional<Object> findSingleResult() {
+        requireSelect();
+        final List<Object> results = run(
+            rset -> readResults(rset, 2, this.entityInterface, this.metadata), List::size, 2);
+        if (results.size() > 1) {
+            throw new NonUniqueResultException(
+                Messages.getString("QueryImpl.error_msg_too_many_results")); //$NON-NLS-1$
+        }
+        return results.isEmpty() ? Optional.empty() : Optional.of(results.get(0));
+    }
+
+    @Override
+    public long getSingleLong() {
+        requireSelect();
+        return run(QueryImpl::readSingleLong, values -> values.length)[0];
+    }
+
+    @Override
+    public long[] getLongArray() {
+        requireSelect();
+        return run(QueryImpl::readLongs, values -> values.length);
+    }
+
+    @Override
+    public int[] getIntArray() {
+        requireSelect();
+        return run(QueryImpl::readInts, values -> values.length);
+    }
+
+    @Override
+    public List<String> getStringList() {
+        requireSelect();
+        return run(QueryImpl::readStrings, List::size);
+    }
+
+    @Override
+    public <T> List<T> map(RowMapper<T> mapper) {
+        Objects.requireNonNull(mapper,
+            Messages.getString("QueryImpl.error_msg_mapper_null")); //$NON-NLS-1$
+        requireSelect();
+
+        final ColumnarRows rows = run(ColumnarRows::read, ColumnarRows::size);
+
+        final EntityMappingEvent event = new EntityMappingEvent();
+        event.begin();
+        final List<T> list = new ArrayList<>(rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            rows.moveTo(i);
+            list.add(mapper.map(rows));
+        }
+        event.entity = mapper.getClass();
+        event.count = list.size();
+        event.commit();
+
+        return Collections.unmodifiableList(list);
     }
 
     @Override
@@ -163,77 +364,274 @@ public final class QueryImpl implements Query {
             throw new UnsupportedOperationException();
         }
 
+        final EntityMapper mapper = mapper();
+        if (this.internalResult instanceof SpillableRowList
+            && ((SpillableRowList) this.internalResult).isSpilled()) {
+            final List<Map<String, Object>> rows = this.internalResult;
+            return new AbstractList<>() {
+
+                @Override
+                public Object get(int index) {
+                    return mapper.map(rows.get(index));
+                }
+
+                @Override
+                public int size() {
+                    return rows.size();
+                }
+            };
+        }
+
+        final EntityMappingEvent event = new EntityMappingEvent();
+        event.begin();
         final List<Object> list = new ArrayList<>(this.internalResult.size());
         for (Map<String, Object> dataMap : this.internalResult) {
-            list.add(getNewInstance(getStaticFactoryMethod(), dataMap));
+            list.add(mapper.map(dataMap));
         }
+        event.entity = this.entityInterface;
+        event.count = list.size();
+        event.commit();
 
         return Collections.unmodifiableList(list);
     }
 
+    @Override
+    public Query setResultMemoryLimit(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException(
+                Messages.getString("QueryImpl.error_msg_negative_limit")); //$NON-NLS-1$
+        }
+        this.memoryLimit = bytes;
+        return this;
+    }
+
+    @Override
+    public Query setCacheable(boolean cacheable) {
+        this.cacheable = cacheable;
+        return this;
+    }
+
+    @Override
+    public long export(Path file, ExportFormat format) {
+        Objects.requireNonNull(file, Messages.getString("QueryImpl.error_msg_file_null")); //$NON-NLS-1$
+        Objects.requireNonNull(format, Messages.getString("QueryImpl.error_msg_format_null")); //$NON-NLS-1$
+        requireSelect();
+
+        final PersistenceStatistics statistics = this.context.getStatistics();
+        try (Connection conn = statistics.acquire(this.ds, EXPORT_STR)) {
+            try (PreparedStatement stmt = conn.prepareStatement(this.statement.toString());
+                FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+
+                for (final Map.Entry<Integer, Object> param : this.statement.getParameters()
+                    .entrySet()) {
+                    stmt.setObject(param.getKey().intValue(), param.getValue());
+                }
+
+                final boolean restoreAutoCommit = streamResults(conn, stmt);
+                try (ResultSet rset = stmt.executeQuery()) {
+                    return ResultExporter.export(rset, channel, format);
+                } finally {
+                    if (restoreAutoCommit) {
+                        conn.rollback();
+                        conn.setAutoCommit(true);
+                    }
+                }
+            } finally {
+                statistics.release();
+            }
+        } catch (final SQLException e) {
+            if (e.getCause() == null) {
+                throw new PersistenceException(e);
+            }
+            throw new PersistenceException(e.getCause());
+        } catch (final IOException e) {
+            throw new PersistenceException(e);
+        }
+    }
+
     /**
-     * Process the given {@link ResultSet} into an {@code List<Map<String, Object>>}.
+     * Asks the driver to stream the statement's result rather than read all of it into memory
+     * first. MySQL streams only with a fetch size of {@code Integer.MIN_VALUE}; PostgreSQL
+     * honours the fetch size only outside auto-commit mode.
+     *
+     * @param conn {@link Connection}
+     * @param stmt {@link PreparedStatement}
+     * @return {@code true} if auto-commit was turned off and must be restored
+     * @throws SQLException if a database access error occurs
+     */
+    private static boolean streamResults(Connection conn, PreparedStatement stmt)
+        throws SQLException {
+        if (MYSQL_PRODUCT.equals(conn.getMetaData().getDatabaseProductName())) {
+            stmt.setFetchSize(Integer.MIN_VALUE);
+            return false;
+        }
+        stmt.setFetchSize(EXPORT_FETCH_SIZE);
+        if (!conn.getAutoCommit()) {
+            return false;
+        }
+        conn.setAutoCommit(false);
+        return true;
+    }
+
+    /**
+     * Returns the mapper for the entity interface, through the statement's metadata once the
+     * query has been executed.
+     *
+     * @return {@link EntityMapper}
+     */
+    private EntityMapper mapper() {
+        return this.metadata == null
+            ? EntityMapper.of(this.entityInterface)
+            : this.metadata.getMapper(this.entityInterface);
+    }
+
+    /**
+     * Throws {@code IllegalStateException} if the statement is not a SELECT, and looks up the
+     * statement's metadata.
+     */
+    private void requireSelect() {
+        this.metadata = this.context.getStatementMetadata().get(this.statement.toString());
+        if (!this.metadata.isSelect()) {
+            throw new IllegalStateException(
+                Messages.getString("QueryImpl.error_msg_incorrect_query_type")); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Reads at most the given number of rows as results: entities, or the values of the first
+     * column if there is no entity interface. Unlike {@link #processResultSet(ResultSet)}, no
+     * rows is not an error.
      *
      * @param rset {@code ResultSet}
-     * @return a {@code List<Map<String, Object>>}. Cannot return {@code null}.
+     * @param limit the most rows to read
+     * @param entityInterface the entity interface, or {@code null}
+     * @param metadata the statement's {@link StatementMetadata}
+     * @return {@code List<Object>}
      * @throws SQLException if a database access error occurs
-     * @throws NoResultException if this {@code Query} did not return any results
      */
-    private List<Map<String, Object>> processResultSet(ResultSet rset) throws SQLException {
-        if (!rset.isBeforeFirst()) {
+    static List<Object> readResults(ResultSet rset, int limit, Class<?> entityInterface,
+        StatementMetadata metadata) throws SQLException {
+        final List<Object> results = new ArrayList<>(Math.min(limit, INITIAL_CAPACITY));
+        if (entityInterface == null) {
+            while (results.size() < limit && rset.next()) {
+                results.add(rset.getObject(1));
+            }
+            return results;
+        }
+
+        final String[] labels = metadata.getColumnLabels(rset.getMetaData());
+        final EntityMapper mapper = metadata.getMapper(entityInterface);
+        while (results.size() < limit && rset.next()) {
+            results.add(mapper.map(EntityMapper.readRow(rset, labels)));
+        }
+        return results;
+    }
+
+    /**
+     * Reads the first column of the only row as a {@code long}.
+     *
+     * @param rset {@code ResultSet}
+     * @return a one element array holding the value
+     * @throws SQLException if a database access error occurs
+     * @throws NoResultException if there are no rows
+     * @throws NonUniqueResultException if there is more than one row
+     */
+    private static long[] readSingleLong(ResultSet rset) throws SQLException {
+        if (!rset.next()) {
             throw new NoResultException(
                 Messages.getString("QueryImpl.error_msg_no_results")); //$NON-NLS-1$
         }
+        final long[] value = { rset.getLong(1) };
+        if (rset.next()) {
+            throw new NonUniqueResultException(
+                Messages.getString("QueryImpl.error_msg_too_many_results")); //$NON-NLS-1$
+        }
+        return value;
+    }
 
-        final ResultSetMetaData md = rset.getMetaData();
-        final List<Map<String, Object>> list = new ArrayList<>();
-
-        final int columns = md.getColumnCount();
+    /**
+     * Reads the first column of every row as a {@code long}.
+     *
+     * @param rset {@code ResultSet}
+     * @return {@code long[]}
+     * @throws SQLException if a database access error occurs
+     */
+    private static long[] readLongs(ResultSet rset) throws SQLException {
+        long[] values = new long[INITIAL_CAPACITY];
+        int size = 0;
         while (rset.next()) {
-            final Map<String, Object> row = new HashMap<>();
-            for (int i = 1; i <= columns; i++) {
-                row.put(md.getColumnLabel(i).toUpperCase(), rset.getObject(i));
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
             }
-            list.add(row);
+            values[size++] = rset.getLong(1);
         }
+        return Arrays.copyOf(values, size);
+    }
 
-        return list;
+    /**
+     * Reads the first column of every row as an {@code int}.
+     *
+     * @param rset {@code ResultSet}
+     * @return {@code int[]}
+     * @throws SQLException if a database access error occurs
+     */
+    private static int[] readInts(ResultSet rset) throws SQLException {
+        int[] values = new int[INITIAL_CAPACITY];
+        int size = 0;
+        while (rset.next()) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = rset.getInt(1);
+        }
+        return Arrays.copyOf(values, size);
     }
 
     /**
-     * Ensures that the Constructor declared {@code Class<?> entityInterface} parameter has a
-     * declared <b>static method</b> named <b>newInstance</b> and takes a single parameter of
-     * type {@code Map}.
+     * Reads the first column of every row as a {@code String}.
      *
-     * @return {@link Method}
+     * @param rset {@code ResultSet}
+     * @return unmodifiable {@code List<String>}
+     * @throws SQLException if a database access error occurs
      */
-    private Method getStaticFactoryMethod() {
-        try {
-            return this.entityInterface.getDeclaredMethod(ENTITY_FACTORY_METHOD, Map.class);
-        } catch (NoSuchMethodException | SecurityException e) {
-            throw new PersistenceException(
-                String.format("Error accessing %s.newInstance(): %s - cause: %s",
-                    this.entityInterface.getName(),
-                    e, e.getCause()));
+    private static List<String> readStrings(ResultSet rset) throws SQLException {
+        final List<String> values = new ArrayList<>();
+        while (rset.next()) {
+            values.add(rset.getString(1));
         }
+        return Collections.unmodifiableList(values);
     }
 
     /**
-     * Invokes the method returned by {@link #getStaticFactoryMethod()}.
+     * Process the given {@link ResultSet} into an {@code List<Map<String, Object>>}.
      *
-     * @param staticFactory {@link Method}
-     * @param result {@code Map} result from the query
-     * @return {@link Object}
+     * @param rset {@code ResultSet}
+     * @return a {@code List<Map<String, Object>>}. Cannot return {@code null}.
+     * @throws SQLException if a database access error occurs
+     * @throws NoResultException if this {@code Query} did not return any results
      */
-    private Object getNewInstance(Method staticFactory, Map<String, Object> result) {
-        try {
-            return staticFactory.invoke(this.entityInterface, result);
-        } catch (IllegalAccessException | IllegalArgumentException
-            | InvocationTargetException e) {
-            throw new PersistenceException(
-                String.format("Error invoking %s.newInstance(): %s - cause: %s",
-                    this.entityInterface.getName(),
-                    e, e.getCause()));
+    private List<Map<String, Object>> processResultSet(ResultSet rset) throws SQLException {
+        if (!rset.isBeforeFirst()) {
+            throw new NoResultException(
+                Messages.getString("QueryImpl.error_msg_no_results")); //$NON-NLS-1$
+        }
+
+        final String[] labels = this.metadata.getColumnLabels(rset.getMetaData());
+        if (this.memoryLimit != Long.MAX_VALUE) {
+            final SpillableRowList list = new SpillableRowList(labels, this.memoryLimit);
+            while (rset.next()) {
+                list.append(EntityMapper.readRow(rset, labels));
+            }
+            list.finish();
+            return list;
         }
+
+        final List<Map<String, Object>> list = new ArrayList<>();
+        while (rset.next()) {
+            list.add(EntityMapper.readRow(rset, labels));
+        }
+
+        return list;
     }
 }
@@ -24,12 +24,18 @@
 
 package org.veary.persist.internal;
 
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
 
 import javax.sql.DataSource;
 
+import org.veary.persist.ParallelScan;
 import org.veary.persist.Query;
 import org.veary.persist.QueryManager;
+import org.veary.persist.QueryPipeline;
+import org.veary.persist.ReusableQuery;
 import org.veary.persist.SqlStatement;
 
 /**
@@ -41,6 +47,7 @@ import org.veary.persist.SqlStatement;
 public final class QueryManagerImpl implements QueryManager {
 
     private final DataSource ds;
+    private final PersistenceContext context;
 
     /**
      * Constructor.
@@ -48,8 +55,19 @@ public final class QueryManagerImpl implements QueryManager {
      * @param ds {@link DataSource}
      */
     public QueryManagerImpl(DataSource ds) {
+        this(ds, PersistenceContext.standalone());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param ds {@link DataSource}
+     * @param context the {@link PersistenceContext} shared with the factory's other managers
+     */
+    public QueryManagerImpl(DataSource ds, PersistenceContext context) {
         this.ds = Objects.requireNonNull(ds,
             Messages.getString("QueryManagerImpl.error_msg_ds_null"));
+        this.context = context;
     }
 
     @Override
@@ -57,12 +75,78 @@ public final class QueryManagerImpl implements QueryManager {
         return new QueryImpl(this.ds, Objects.requireNonNull(statement,
             Messages.getString("QueryManagerImpl.error_msg_statement_null")),
             Objects.requireNonNull(entityInterface,
-                Messages.getString("QueryManagerImpl.error_msg_iface_null")));
+                Messages.getString("QueryManagerImpl.error_msg_iface_null")), this.context);
+    }
+
+    @Override
+    public ReusableQuery createReusableQuery(SqlStatement statement,
+        Class<?> entityInterface) {
+        return new ReusableQueryImpl(this.ds, Objects.requireNonNull(statement,
+            Messages.getString("QueryManagerImpl.error_msg_statement_null")),
+            Objects.requireNonNull(entityInterface,
+                Messages.getString("QueryManagerImpl.error_msg_iface_null")), this.context);
+    }
+
+    @Override
+    public ReusableQuery createReusableQuery(SqlStatement statement) {
+        return new ReusableQueryImpl(this.ds, Objects.requireNonNull(statement,
+            Messages.getString("QueryManagerImpl.error_msg_statement_null")), null,
+            this.context);
+    }
+
+    @Override
+    public QueryPipeline createPipeline() {
+        return new QueryPipelineImpl(this.ds, this.context);
     }
 
     @Override
     public Query createQuery(SqlStatement statement) {
         return new QueryImpl(this.ds, Objects.requireNonNull(statement,
-            Messages.getString("QueryManagerImpl.error_msg_statement_null")));
+            Messages.getString("QueryManagerImpl.error_msg_statement_null")), null,
+            this.context);
+    }
+
+    @Override
+    public Query createNamedQuery(String name, Map<String, ?> parameters) {
+        Objects.requireNonNull(parameters,
+            Messages.getString("QueryManagerImpl.error_msg_params_null"));
+        final StatementMetadata metadata = this.context.getNamedQueries().get(name);
+        final SqlStatement statement = SqlStatement.newInstance(metadata.getSql());
+        for (final Map.Entry<String, ?> param : parameters.entrySet()) {
+            statement.setParameter(param.getKey(), param.getValue());
+        }
+
+        final EntityMapper mapper = metadata.getMapper();
+        return new QueryImpl(this.ds, statement,
+            mapper == null ? null : mapper.getEntityInterface(), this.context);
+    }
+
+    @Override
+    public ParallelScan createParallelScan(SqlStatement statement, Class<?> entityInterface,
+        String splitColumn, int partitions) {
+        return new ParallelScanImpl(this.ds, Objects.requireNonNull(statement,
+            Messages.getString("QueryManagerImpl.error_msg_statement_null")),
+            Objects.requireNonNull(entityInterface,
+                Messages.getString("QueryManagerImpl.error_msg_iface_null")),
+            splitColumn, partitions, this.context);
+    }
+
+    @Override
+    public Flow.Publisher<Object> createPublisher(SqlStatement statement,
+        Class<?> entityInterface) {
+        return new QueryPublisher(this.ds, Objects.requireNonNull(statement,
+            Messages.getString("QueryManagerImpl.error_msg_statement_null")),
+            Objects.requireNonNull(entityInterface,
+                Messages.getString("QueryManagerImpl.error_msg_iface_null")), this.context);
+    }
+
+    @Override
+    public Flow.Publisher<Object> createPublisher(SqlStatement statement,
+        Class<?> entityInterface, Executor executor) {
+        return new QueryPublisher(this.ds, Objects.requireNonNull(statement,
+            Messages.getString("QueryManagerImpl.error_msg_statement_null")),
+            Objects.requireNonNull(entityInterface,
+                Messages.getString("QueryManagerImpl.error_msg_iface_null")),
+            executor, this.context);
     }
 }
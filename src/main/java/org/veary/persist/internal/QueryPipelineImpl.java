@@ -0,0 +1,230 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.internal;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import javax.sql.DataSource;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.veary.persist.QueryPipeline;
+import org.veary.persist.SqlStatement;
+import org.veary.persist.exceptions.PersistenceException;
+
+/**
+ * Concrete implementation of {@link QueryPipeline}.
+ *
+ * @author Marc L. Veary
+ * @since 1.0
+ */
+public final class QueryPipelineImpl implements QueryPipeline {
+
+    private static final Logger LOG = LogManager.getLogger(QueryPipelineImpl.class);
+    private static final String PIPELINE_STR = "pipeline"; //$NON-NLS-1$
+    private static final String SEPARATOR = ";\n"; //$NON-NLS-1$
+
+    private final DataSource ds;
+    private final PersistenceContext context;
+    private final List<SqlStatement> statements = new ArrayList<>();
+    private final List<Class<?>> entityInterfaces = new ArrayList<>();
+
+    /**
+     * Constructor.
+     *
+     * @param ds {@link DataSource}
+     * @param context the {@link PersistenceContext} of the creating manager
+     */
+    public QueryPipelineImpl(DataSource ds, PersistenceContext context) {
+        this.ds = Objects.requireNonNull(ds,
+            Messages.getString("QueryImpl.error_msg_ds_null")); //$NON-NLS-1$
+        this.context = context;
+    }
+
+    @Override
+    public QueryPipeline add(SqlStatement statement, Class<?> entityInterface) {
+        return addStatement(statement, Objects.requireNonNull(entityInterface,
+            Messages.getString("QueryImpl.error_msg_iface_null"))); //$NON-NLS-1$
+    }
+
+    @Override
+    public QueryPipeline add(SqlStatement statement) {
+        return addStatement(statement, null);
+    }
+
+    @Override
+    public int size() {
+        return this.statements.size();
+    }
+
+    @Override
+    public List<List<Object>> execute() {
+        if (this.statements.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        final RepeatedQueryDetector detector = this.context.getRepeatedQueryDetector();
+        final String[] sql = new String[this.statements.size()];
+        for (int i = 0; i < sql.length; i++) {
+            sql[i] = this.statements.get(i).toString();
+            if (detector != null) {
+                detector.record(sql[i], this.statements.get(i).getParameters());
+            }
+        }
+
+        final PersistenceStatistics statistics = this.context.getStatistics();
+        final String combined = String.join(SEPARATOR, sql);
+        final StatementEvent event = new StatementEvent();
+        event.begin();
+        final long start = System.nanoTime();
+        final List<List<Object>> results = new ArrayList<>(sql.length);
+        long rows = -1;
+        try (Connection conn = statistics.acquire(this.ds, PIPELINE_STR)) {
+            try {
+                boolean combinedFailed = false;
+                if (sql.length > 1 && this.context.isPipeliningSupported()
+                    && conn.getMetaData().supportsMultipleResultSets()) {
+                    combinedFailed = !executeCombined(conn, combined, sql, results);
+                }
+                executeSequentially(conn, sql, results);
+                if (combinedFailed) {
+                    this.context.setPipeliningUnsupported();
+                }
+            } finally {
+                statistics.release();
+            }
+            rows = 0;
+            for (final List<Object> result : results) {
+                rows += result.size();
+            }
+        } catch (final SQLException e) {
+            statistics.recordError();
+            if (e.getCause() == null) {
+                throw new PersistenceException(e);
+            }
+            throw new PersistenceException(e.getCause());
+        } finally {
+            final long nanos = System.nanoTime() - start;
+            event.complete(combined, PIPELINE_STR, rows);
+            statistics.record(PersistenceStatistics.Operation.QUERY, nanos);
+            this.context.getStatementStatistics().record(combined, nanos, Math.max(rows, 0),
+                rows < 0);
+        }
+
+        return Collections.unmodifiableList(results);
+    }
+
+    private QueryPipeline addStatement(SqlStatement statement, Class<?> entityInterface) {
+        Objects.requireNonNull(statement,
+            Messages.getString("QueryImpl.error_msg_statement_null")); //$NON-NLS-1$
+        if (!this.context.getStatementMetadata().get(statement.toString()).isSelect()) {
+            throw new IllegalStateException(
+                Messages.getString("QueryImpl.error_msg_incorrect_query_type")); //$NON-NLS-1$
+        }
+        this.statements.add(statement);
+        this.entityInterfaces.add(entityInterface);
+        return this;
+    }
+
+    /**
+     * Runs all the statements as one combined statement and reads as many of their result
+     * sets as the driver returns.
+     *
+     * @param conn {@link Connection}
+     * @param combined the statements' SQL joined by semicolons
+     * @param sql the SQL of each statement
+     * @param results the results of each statement read are appended to this list
+     * @return {@code true} if a result set was read for every statement
+     * @throws SQLException if a result set could not be read
+     */
+    private boolean executeCombined(Connection conn, String combined, String[] sql,
+        List<List<Object>> results) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(combined)) {
+            int offset = 0;
+            for (int i = 0; i < sql.length; i++) {
+                for (final Map.Entry<Integer, Object> param : this.statements.get(i)
+                    .getParameters().entrySet()) {
+                    pstmt.setObject(offset + param.getKey().intValue(), param.getValue());
+                }
+                offset += this.context.getStatementMetadata().get(sql[i]).getPlaceholderCount();
+            }
+
+            boolean isResultSet = pstmt.execute();
+            while (results.size() < sql.length) {
+                if (isResultSet) {
+                    try (ResultSet rset = pstmt.getResultSet()) {
+                        results.add(read(results.size(), sql[results.size()], rset));
+                    }
+                } else if (pstmt.getUpdateCount() == -1) {
+                    break;
+                }
+                isResultSet = pstmt.getMoreResults();
+            }
+        } catch (final SQLException e) {
+            if (!results.isEmpty()) {
+                throw e;
+            }
+            LOG.debug("Combined statement rejected, running one at a time: {}", e.toString()); //$NON-NLS-1$
+            return false;
+        }
+        return results.size() == sql.length;
+    }
+
+    /**
+     * Runs each statement for which there are no results yet, one after another.
+     *
+     * @param conn {@link Connection}
+     * @param sql the SQL of each statement
+     * @param results the results of each statement run are appended to this list
+     * @throws SQLException if a database access error occurs
+     */
+    private void executeSequentially(Connection conn, String[] sql, List<List<Object>> results)
+        throws SQLException {
+        for (int i = results.size(); i < sql.length; i++) {
+            try (PreparedStatement pstmt = conn.prepareStatement(sql[i])) {
+                for (final Map.Entry<Integer, Object> param : this.statements.get(i)
+                    .getParameters().entrySet()) {
+                    pstmt.setObject(param.getKey().intValue(), param.getValue());
+                }
+                try (ResultSet rset = pstmt.executeQuery()) {
+                    results.add(read(i, sql[i], rset));
+                }
+            }
+        }
+    }
+
+    private List<Object> read(int index, String sql, ResultSet rset) throws SQLException {
+        return Collections.unmodifiableList(QueryImpl.readResults(rset, Integer.MAX_VALUE,
+            this.entityInterfaces.get(index), this.context.getStatementMetadata().get(sql)));
+    }
+}
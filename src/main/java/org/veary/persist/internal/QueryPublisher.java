@@ -0,0 +1,303 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.internal;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.veary.persist.SqlStatement;
+import org.veary.persist.exceptions.PersistenceException;
+
+/**
+ * <h2>Purpose:</h2> a {@link Flow.Publisher} of the entities returned by a SELECT statement.
+ *
+ * <p>Each subscription opens its own connection and cursor when the subscriber first requests
+ * rows, and reads only as many rows as have been requested. The connection is closed when the
+ * rows are exhausted, on an error, or when the subscription is cancelled. The cursor is read
+ * with auto-commit turned off, since some drivers otherwise read the whole result at once, and
+ * auto-commit is restored before the connection is closed. The connection is counted in the
+ * factory's statistics while it is open.
+ *
+ * <p>All reads, and all signals to the subscriber, happen on the publisher's executor, one at
+ * a time for a given subscription.
+ *
+ * @author Marc L. Veary
+ * @since 1.0
+ */
+public final class QueryPublisher implements Flow.Publisher<Object> {
+
+    private static final String SELECT_STR = "SELECT"; //$NON-NLS-1$
+    private static final String PUBLISHER_STR = "publisher"; //$NON-NLS-1$
+    private static final int FETCH_SIZE = 256;
+    private static final ExecutorService DEFAULT_EXECUTOR = Executors.newCachedThreadPool(r -> {
+        final Thread thread = new Thread(r, "query-publisher"); //$NON-NLS-1$
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final DataSource ds;
+    private final SqlStatement statement;
+    private final EntityMapper mapper;
+    private final Executor executor;
+    private final PersistenceContext context;
+
+    /**
+     * Constructor. Subscriptions are served by a shared pool of daemon threads.
+     *
+     * @param ds {@link DataSource}
+     * @param statement the SELECT {@link SqlStatement}
+     * @param entityInterface the interface of the entity to be published
+     * @param context the {@link PersistenceContext} of the creating manager
+     */
+    public QueryPublisher(DataSource ds, SqlStatement statement, Class<?> entityInterface,
+        PersistenceContext context) {
+        this(ds, statement, entityInterface, DEFAULT_EXECUTOR, context);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param ds {@link DataSource}
+     * @param statement the SELECT {@link SqlStatement}
+     * @param entityInterface the interface of the entity to be published
+     * @param executor the {@link Executor} on which rows are read and published
+     * @param context the {@link PersistenceContext} of the creating manager
+     */
+    public QueryPublisher(DataSource ds, SqlStatement statement, Class<?> entityInterface,
+        Executor executor, PersistenceContext context) {
+        this.ds = Objects.requireNonNull(ds,
+            Messages.getString("QueryImpl.error_msg_ds_null")); //$NON-NLS-1$
+        this.statement = Objects.requireNonNull(statement,
+            Messages.getString("QueryImpl.error_msg_statement_null")); //$NON-NLS-1$
+        this.mapper = EntityMapper.of(Objects.requireNonNull(entityInterface,
+            Messages.getString("QueryImpl.error_msg_iface_null"))); //$NON-NLS-1$
+        this.executor = Objects.requireNonNull(executor,
+            Messages.getString("QueryPublisher.error_msg_executor_null")); //$NON-NLS-1$
+        this.context = Objects.requireNonNull(context);
+        if (!statement.toString().toUpperCase().startsWith(SELECT_STR)) {
+            throw new IllegalStateException(
+                Messages.getString("QueryImpl.error_msg_incorrect_query_type")); //$NON-NLS-1$
+        }
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Object> subscriber) {
+        Objects.requireNonNull(subscriber);
+        final RowSubscription subscription = new RowSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+    }
+
+    /**
+     * The subscription for one subscriber. Requests and cancellation only record the change
+     * and schedule {@link #drain()}, which is serialised by {@code wip} so that the cursor is
+     * only ever used by one thread at a time.
+     */
+    private final class RowSubscription implements Flow.Subscription, Runnable {
+
+        private final Flow.Subscriber<? super Object> subscriber;
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+
+        private volatile Throwable invalidRequest;
+        private boolean done;
+        private Connection conn;
+        private PreparedStatement stmt;
+        private ResultSet rset;
+        private String[] labels;
+        private boolean restoreAutoCommit;
+
+        RowSubscription(Flow.Subscriber<? super Object> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                this.invalidRequest = new IllegalArgumentException(
+                    Messages.getString("QueryPublisher.error_msg_request")); //$NON-NLS-1$
+            } else {
+                long current;
+                long next;
+                do {
+                    current = this.requested.get();
+                    if (current == Long.MAX_VALUE) {
+                        break;
+                    }
+                    next = current + n;
+                    if (next < 0) {
+                        next = Long.MAX_VALUE;
+                    }
+                } while (!this.requested.compareAndSet(current, next));
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            if (this.cancelled.compareAndSet(false, true)) {
+                schedule();
+            }
+        }
+
+        @Override
+        public void run() {
+            drain();
+        }
+
+        private void schedule() {
+            if (this.wip.getAndIncrement() == 0) {
+                QueryPublisher.this.executor.execute(this);
+            }
+        }
+
+        private void drain() {
+            int missed = 1;
+            do {
+                if (this.done) {
+                    return;
+                }
+                if (this.cancelled.get()) {
+                    this.done = true;
+                    close();
+                    return;
+                }
+                if (this.invalidRequest != null) {
+                    fail(this.invalidRequest);
+                    return;
+                }
+
+                final long demand = this.requested.get();
+                long emitted = 0;
+                try {
+                    while (emitted != demand) {
+                        if (this.cancelled.get()) {
+                            this.done = true;
+                            close();
+                            return;
+                        }
+                        if (this.rset == null) {
+                            open();
+                        }
+                        if (!this.rset.next()) {
+                            this.done = true;
+                            close();
+                            this.subscriber.onComplete();
+                            return;
+                        }
+                        final Map<String, Object> row = EntityMapper.readRow(this.rset,
+                            this.labels);
+                        this.subscriber.onNext(QueryPublisher.this.mapper.map(row));
+                        emitted++;
+                    }
+                } catch (final SQLException e) {
+                    fail(e.getCause() == null
+                        ? new PersistenceException(e)
+                        : new PersistenceException(e.getCause()));
+                    return;
+                } catch (final RuntimeException e) {
+                    fail(e);
+                    return;
+                }
+
+                if (emitted != 0 && demand != Long.MAX_VALUE) {
+                    this.requested.addAndGet(-emitted);
+                }
+                missed = this.wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void open() throws SQLException {
+            final SqlStatement sql = QueryPublisher.this.statement;
+            this.conn = QueryPublisher.this.context.getStatistics()
+                .acquire(QueryPublisher.this.ds, PUBLISHER_STR);
+            if (this.conn.getAutoCommit()) {
+                // PostgreSQL honours the fetch size only outside auto-commit mode
+                this.conn.setAutoCommit(false);
+                this.restoreAutoCommit = true;
+            }
+            this.stmt = this.conn.prepareStatement(sql.toString());
+            this.stmt.setFetchSize(FETCH_SIZE);
+            for (final Map.Entry<Integer, Object> param : sql.getParameters().entrySet()) {
+                this.stmt.setObject(param.getKey().intValue(), param.getValue());
+            }
+            this.rset = this.stmt.executeQuery();
+            this.labels = EntityMapper.columnLabels(this.rset.getMetaData());
+        }
+
+        private void fail(Throwable error) {
+            this.done = true;
+            close();
+            this.subscriber.onError(error);
+        }
+
+        private void close() {
+            // the subscriber has already been signalled, or has cancelled, so failures to
+            // close are ignored
+            closeQuietly(this.rset);
+            closeQuietly(this.stmt);
+            if (this.conn != null && this.restoreAutoCommit) {
+                try {
+                    this.conn.rollback();
+                    this.conn.setAutoCommit(true);
+                } catch (final SQLException e) {
+                    // the connection is closed regardless
+                }
+            }
+            if (this.conn != null) {
+                closeQuietly(this.conn);
+                QueryPublisher.this.context.getStatistics().release();
+            }
+            this.rset = null;
+            this.stmt = null;
+            this.conn = null;
+            this.restoreAutoCommit = false;
+        }
+    }
+
+    private static void closeQuietly(AutoCloseable resource) {
+        if (resource == null) {
+            return;
+        }
+        try {
+            resource.close();
+        } catch (final Exception e) {
+            // see RowSubscription.close()
+        }
+    }
+}
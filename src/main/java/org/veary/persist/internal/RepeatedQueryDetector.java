@@ -0,0 +1,188 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.veary.persist.QueryScope;
+import org.veary.persist.exceptions.RepeatedQueryException;
+
+/**
+ * <h2>Purpose:</h2> detects the same SQL shape being run many times with different
+ * parameters within one {@link QueryScope}.
+ *
+ * <p>The open scopes of each thread are held in a {@code ThreadLocal}, so recording a
+ * statement takes no locks. A scope keeps, for each shape, the distinct statements seen until
+ * the threshold is crossed. A statement is its SQL text with its parameters, so that values
+ * written inline, which the shape replaces with '?', still make statements distinct. The call site, found with a {@link StackWalker}, is only
+ * captured for the statement which crosses the threshold.
+ *
+ * @author Marc L. Veary
+ * @since 1.0
+ */
+public final class RepeatedQueryDetector {
+
+    private static final Logger LOG = LogManager.getLogger(RepeatedQueryDetector.class);
+    private static final String API_PACKAGE = "org.veary.persist"; //$NON-NLS-1$
+    private static final String INTERNAL_PACKAGE = "org.veary.persist.internal"; //$NON-NLS-1$
+    private static final StackWalker WALKER = StackWalker.getInstance();
+
+    private final int threshold;
+    private final boolean strict;
+    private final ThreadLocal<Scope> current = new ThreadLocal<>();
+
+    /**
+     * Constructor.
+     *
+     * @param threshold the number of distinct statements, by SQL text and parameters, a shape
+     *     may run as in one scope before it is reported
+     * @param strict {@code true} to throw {@link RepeatedQueryException} rather than log a
+     *     warning
+     */
+    public RepeatedQueryDetector(int threshold, boolean strict) {
+        if (threshold < 1) {
+            throw new IllegalArgumentException(
+                Messages.getString("RepeatedQueryDetector.error_msg_threshold")); //$NON-NLS-1$
+        }
+        this.threshold = threshold;
+        this.strict = strict;
+    }
+
+    /**
+     * Opens a scope on the current thread.
+     *
+     * @param name describes the scope in reports
+     * @return {@link QueryScope}
+     */
+    public QueryScope open(String name) {
+        final Scope scope = new Scope(name, this.current.get());
+        this.current.set(scope);
+        return scope;
+    }
+
+    /**
+     * Tests if a scope is open on the current thread.
+     *
+     * @return {@code true} if a scope is open
+     */
+    public boolean hasScope() {
+        return this.current.get() != null;
+    }
+
+    /**
+     * Records a statement run on the current thread. Does nothing if no scope is open.
+     *
+     * @param sql the SQL text
+     * @param params the statement's parameters
+     * @throws RepeatedQueryException in strict mode, if the statement's shape crosses the
+     *     threshold
+     */
+    public void record(String sql, Map<Integer, Object> params) {
+        final Scope scope = this.current.get();
+        if (scope != null) {
+            scope.record(sql, params);
+        }
+    }
+
+    private static String callSite() {
+        return WALKER.walk(frames -> frames
+            .filter(frame -> {
+                final String name = frame.getClassName();
+                final int dot = name.lastIndexOf('.');
+                final String pkg = dot < 0 ? "" : name.substring(0, dot); //$NON-NLS-1$
+                return !API_PACKAGE.equals(pkg) && !INTERNAL_PACKAGE.equals(pkg);
+            })
+            .findFirst()
+            .map(StackWalker.StackFrame::toStackTraceElement)
+            .map(StackTraceElement::toString)
+            .orElse("unknown")); //$NON-NLS-1$
+    }
+
+    /**
+     * The statements run in one scope, by shape.
+     */
+    private final class Scope implements QueryScope {
+
+        private final String name;
+        private final Scope parent;
+        private final Map<String, Set<Map.Entry<String, Map<Integer, Object>>>> shapes =
+            new HashMap<>();
+        private final List<String> findings = new ArrayList<>();
+        private boolean closed;
+
+        Scope(String name, Scope parent) {
+            this.name = name;
+            this.parent = parent;
+        }
+
+        void record(String sql, Map<Integer, Object> params) {
+            final String shape = SqlShape.of(sql);
+            final Set<Map.Entry<String, Map<Integer, Object>>> seen = this.shapes
+                .computeIfAbsent(shape, k -> new HashSet<>());
+            final int limit = RepeatedQueryDetector.this.threshold;
+            if (seen.size() > limit || !seen.add(Map.entry(sql, new HashMap<>(params)))
+                || seen.size() <= limit) {
+                return;
+            }
+
+            final String finding = String.format(
+                "%s: query run more than %d times with different parameters at %s: %s", //$NON-NLS-1$
+                this.name, Integer.valueOf(limit), callSite(), shape);
+            this.findings.add(finding);
+            if (RepeatedQueryDetector.this.strict) {
+                throw new RepeatedQueryException(finding);
+            }
+            LOG.warn(finding);
+        }
+
+        @Override
+        public List<String> getFindings() {
+            return Collections.unmodifiableList(this.findings);
+        }
+
+        @Override
+        public void close() {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            if (RepeatedQueryDetector.this.current.get() == this) {
+                if (this.parent == null) {
+                    RepeatedQueryDetector.this.current.remove();
+                } else {
+                    RepeatedQueryDetector.this.current.set(this.parent);
+                }
+            }
+        }
+    }
+}
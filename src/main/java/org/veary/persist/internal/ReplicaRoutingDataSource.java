@@ -0,0 +1,235 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.internal;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.apache.logging.log4j.LogManager;
+import org.veary.persist.ReplicaSelection;
+
+/**
+ * <h2>Purpose:</h2> a {@link DataSource} which hands out connections to one of several read
+ * replicas.
+ *
+ * <p>A replica whose {@code getConnection()} fails is ejected for a fixed period, during which
+ * no connections are requested from it. If every replica is ejected, connections are taken
+ * from the primary.
+ *
+ * @author Marc L. Veary
+ * @since 1.0
+ */
+public final class ReplicaRoutingDataSource implements DataSource {
+
+    private static final org.apache.logging.log4j.Logger LOG = LogManager
+        .getLogger(ReplicaRoutingDataSource.class);
+
+    private final DataSource primary;
+    private final Replica[] replicas;
+    private final ReplicaSelection selection;
+    private final long ejectNanos;
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * Constructor.
+     *
+     * @param primary the primary {@link DataSource}, used when no replica is available
+     * @param replicas the replica {@code DataSource}s
+     * @param selection {@link ReplicaSelection}
+     * @param ejectFor how long a failed replica is excluded from selection
+     */
+    public ReplicaRoutingDataSource(DataSource primary, List<DataSource> replicas,
+        ReplicaSelection selection, Duration ejectFor) {
+        this.primary = Objects.requireNonNull(primary,
+            Messages.getString("ReplicaRoutingDataSource.error_msg_primary_null")); //$NON-NLS-1$
+        Objects.requireNonNull(replicas,
+            Messages.getString("ReplicaRoutingDataSource.error_msg_replicas_null")); //$NON-NLS-1$
+        this.replicas = new Replica[replicas.size()];
+        for (int i = 0; i < this.replicas.length; i++) {
+            this.replicas[i] = new Replica(Objects.requireNonNull(replicas.get(i),
+                Messages.getString("ReplicaRoutingDataSource.error_msg_replicas_null"))); //$NON-NLS-1$
+        }
+        this.selection = Objects.requireNonNull(selection);
+        this.ejectNanos = ejectFor.toNanos();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        for (int attempt = 0; attempt < this.replicas.length; attempt++) {
+            final Replica replica = select();
+            if (replica == null) {
+                break;
+            }
+
+            try {
+                return replica.open();
+            } catch (final SQLException e) {
+                replica.eject(System.nanoTime() + this.ejectNanos);
+                LOG.warn("Replica ejected after connection failure: {}", e.getMessage());
+            }
+        }
+        return this.primary.getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return this.primary.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        this.primary.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        this.primary.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return this.primary.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return this.primary.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        return this.primary.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || this.primary.isWrapperFor(iface);
+    }
+
+    /**
+     * Returns the number of replicas not currently ejected.
+     *
+     * @return int
+     */
+    public int getHealthyReplicaCount() {
+        final long now = System.nanoTime();
+        int count = 0;
+        for (final Replica replica : this.replicas) {
+            if (replica.isHealthy(now)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private Replica select() {
+        final long now = System.nanoTime();
+        if (this.selection == ReplicaSelection.ROUND_ROBIN) {
+            final int start = Math.floorMod(this.next.getAndIncrement(), this.replicas.length);
+            for (int i = 0; i < this.replicas.length; i++) {
+                final Replica replica = this.replicas[(start + i) % this.replicas.length];
+                if (replica.isHealthy(now)) {
+                    return replica;
+                }
+            }
+            return null;
+        }
+
+        Replica best = null;
+        for (final Replica replica : this.replicas) {
+            if (replica.isHealthy(now)
+                && (best == null || replica.outstanding.get() < best.outstanding.get())) {
+                best = replica;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * A single replica with its health and load.
+     */
+    private final class Replica {
+
+        private final DataSource ds;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private volatile long ejectedUntil;
+        private volatile boolean ejected;
+
+        Replica(DataSource ds) {
+            this.ds = ds;
+        }
+
+        boolean isHealthy(long now) {
+            return !this.ejected || now - this.ejectedUntil >= 0;
+        }
+
+        void eject(long until) {
+            this.ejectedUntil = until;
+            this.ejected = true;
+        }
+
+        Connection open() throws SQLException {
+            final Connection conn = this.ds.getConnection();
+            this.ejected = false;
+            if (ReplicaRoutingDataSource.this.selection != ReplicaSelection.LEAST_OUTSTANDING) {
+                return conn;
+            }
+
+            this.outstanding.incrementAndGet();
+            final AtomicBoolean closed = new AtomicBoolean();
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+                    if ("close".equals(method.getName()) && closed.compareAndSet(false, true)) { //$NON-NLS-1$
+                        this.outstanding.decrementAndGet();
+                    }
+                    try {
+                        return method.invoke(conn, args);
+                    } catch (final InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+        }
+    }
+}
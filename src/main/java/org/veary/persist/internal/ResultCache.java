@@ -0,0 +1,493 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.veary.persist.SqlStatement;
+import org.veary.persist.exceptions.PersistenceException;
+
+/**
+ * <h2>Purpose:</h2> caches the rows of cacheable queries, keyed by SQL text and parameter
+ * values, and saves and restores them to a local snapshot file.
+ *
+ * <p>Entries expire a fixed time after they were read from the database. The time is kept in
+ * a snapshot, so restored entries expire when they would have done in the process which saved
+ * them.
+ *
+ * <h2>Snapshot format:</h2> the magic bytes {@code VPRC}, an int format version and a flag
+ * byte (1 if the remainder is GZIP compressed). Then the application version string, the
+ * snapshot time in epoch milliseconds and the entry count, followed by each entry: the SQL,
+ * the parameters, the creation time, the column labels and the rows. Values are encoded with
+ * {@link RowCodec}; strings are an int byte length followed by UTF-8 bytes. Results holding a
+ * value which {@code RowCodec} would serialize are not saved, and a snapshot holding one is
+ * ignored, so loading a snapshot never runs Java deserialization. Every length and count read
+ * from a snapshot is checked against the size of the file and a fixed maximum before it
+ * is used, and a snapshot holding one which is out of range is ignored as corrupt.
+ *
+ * @author Marc L. Veary
+ * @since 1.0
+ */
+public final class ResultCache {
+
+    private static final Logger LOG = LogManager.getLogger(ResultCache.class);
+    private static final byte[] MAGIC = { 'V', 'P', 'R', 'C' };
+    private static final int FORMAT_VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_LENGTH = 16 * 1024 * 1024;
+
+    private final BoundedCache<Key, Entry> entries;
+    private volatile long ttlMillis;
+
+    /**
+     * Constructor.
+     *
+     * @param maxEntries the maximum number of cached results
+     * @param ttl how long a result is kept after it is read from the database
+     */
+    public ResultCache(int maxEntries, Duration ttl) {
+        this.entries = new BoundedCache<>(maxEntries);
+        setTtl(ttl);
+    }
+
+    /**
+     * Sets how long a result is kept after it is read from the database.
+     *
+     * @param ttl {@link Duration}
+     */
+    public void setTtl(Duration ttl) {
+        if (ttl.isNegative()) {
+            throw new IllegalArgumentException("TTL cannot be negative.");
+        }
+        this.ttlMillis = ttl.toMillis();
+    }
+
+    /**
+     * Returns the cached rows for the statement, if present and not expired.
+     *
+     * @param statement {@link SqlStatement}
+     * @return the rows, or {@code null}
+     */
+    public List<Map<String, Object>> get(SqlStatement statement) {
+        final Key key = Key.of(statement);
+        final Entry entry = this.entries.getIfPresent(key);
+        if (entry == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() - entry.created > this.ttlMillis) {
+            this.entries.remove(key);
+            return null;
+        }
+        return entry.rows;
+    }
+
+    /**
+     * Caches the rows for the statement.
+     *
+     * @param statement {@link SqlStatement}
+     * @param rows the rows, which must not be empty
+     * @return an unmodifiable copy of the rows, as cached
+     */
+    public List<Map<String, Object>> put(SqlStatement statement,
+        List<Map<String, Object>> rows) {
+        final String[] labels = rows.get(0).keySet().toArray(new String[0]);
+        final Entry entry = new Entry(labels, copy(rows), System.currentTimeMillis());
+        this.entries.put(Key.of(statement), entry);
+        return entry.rows;
+    }
+
+    /**
+     * Removes all cached results.
+     */
+    public void clear() {
+        this.entries.clear();
+    }
+
+    /**
+     * Returns the number of cached results.
+     *
+     * @return int
+     */
+    public int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * Writes every unexpired result to the given file. The file is written to a temporary
+     * file first and then moved into place.
+     *
+     * @param file the snapshot file
+     * @param version the application's version, checked when the snapshot is loaded
+     * @param compress {@code true} to GZIP compress the entries
+     * @return the number of results written
+     */
+    public int save(Path file, String version, boolean compress) {
+        final long now = System.currentTimeMillis();
+        final List<Map.Entry<Key, Entry>> live = new ArrayList<>();
+        int skipped = 0;
+        for (final Map.Entry<Key, Entry> entry : this.entries.asMap().entrySet()) {
+            if (now - entry.getValue().created > this.ttlMillis) {
+                continue;
+            }
+            if (isPortable(entry.getKey(), entry.getValue())) {
+                live.add(entry);
+            } else {
+                skipped++;
+            }
+        }
+        if (skipped > 0) {
+            LOG.debug("Not saving {} cached results holding serializable values", //$NON-NLS-1$
+                Integer.valueOf(skipped));
+        }
+
+        final Path dir = file.toAbsolutePath().getParent();
+        try {
+            final Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp"); //$NON-NLS-1$
+            try (OutputStream raw = new BufferedOutputStream(Files.newOutputStream(tmp),
+                BUFFER_SIZE)) {
+                final DataOutputStream header = new DataOutputStream(raw);
+                header.write(MAGIC);
+                header.writeInt(FORMAT_VERSION);
+                header.writeByte(compress ? 1 : 0);
+                header.flush();
+
+                final OutputStream body = compress ? new GZIPOutputStream(raw, BUFFER_SIZE) : raw;
+                final DataOutputStream out = new DataOutputStream(body);
+                writeString(out, version);
+                out.writeLong(now);
+                out.writeInt(live.size());
+
+                final RowCodec codec = new RowCodec();
+                for (final Map.Entry<Key, Entry> entry : live) {
+                    writeEntry(out, codec, entry.getKey(), entry.getValue());
+                }
+                out.flush();
+                if (body instanceof GZIPOutputStream) {
+                    ((GZIPOutputStream) body).finish();
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } catch (final IOException e) {
+            throw new PersistenceException(e);
+        }
+        return live.size();
+    }
+
+    /**
+     * Loads the results in the given snapshot file into this cache. A missing file, a file of
+     * a different format or application version, or a snapshot older than {@code maxAge} is
+     * ignored. Entries which have already expired are skipped.
+     *
+     * @param file the snapshot file
+     * @param version the application's version, which must match the snapshot's
+     * @param maxAge the oldest snapshot accepted
+     * @return the number of results loaded
+     */
+    public int load(Path file, String version, Duration maxAge) {
+        if (!Files.isRegularFile(file)) {
+            return 0;
+        }
+
+        try (InputStream raw = new BufferedInputStream(Files.newInputStream(file),
+            BUFFER_SIZE)) {
+            final DataInputStream header = new DataInputStream(raw);
+            final byte[] magic = new byte[MAGIC.length];
+            header.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC) || header.readInt() != FORMAT_VERSION) {
+                LOG.warn("Ignoring result cache snapshot {}: unknown format", file); //$NON-NLS-1$
+                return 0;
+            }
+            final boolean compressed = header.readByte() == 1;
+            final long limit = compressed ? MAX_LENGTH : Math.min(MAX_LENGTH, Files.size(file));
+
+            final DataInputStream in = new DataInputStream(
+                compressed ? new GZIPInputStream(raw, BUFFER_SIZE) : raw);
+            final String snapshotVersion = readString(in, limit);
+            if (!Objects.equals(snapshotVersion, version)) {
+                LOG.info("Ignoring result cache snapshot {}: version {} does not match {}", //$NON-NLS-1$
+                    file, snapshotVersion, version);
+                return 0;
+            }
+
+            final long now = System.currentTimeMillis();
+            final long snapshotTime = in.readLong();
+            if (now - snapshotTime > maxAge.toMillis()) {
+                LOG.info("Ignoring result cache snapshot {}: older than {}", file, maxAge); //$NON-NLS-1$
+                return 0;
+            }
+
+            int loaded = 0;
+            final int count = readLength(in, limit);
+            for (int i = 0; i < count; i++) {
+                final Key key = readKey(in, limit);
+                final Entry entry = readEntry(in, limit);
+                if (now - entry.created <= this.ttlMillis) {
+                    this.entries.put(key, entry);
+                    loaded++;
+                }
+            }
+            return loaded;
+        } catch (final IOException | RuntimeException e) {
+            LOG.warn("Ignoring unreadable result cache snapshot {}", file, e); //$NON-NLS-1$
+            return 0;
+        }
+    }
+
+    /**
+     * Returns {@code true} if every parameter and column value of the entry can be encoded
+     * without Java serialization. Only such entries are saved, since a snapshot is read back
+     * from a file which could have been altered.
+     *
+     * @param key the entry's key
+     * @param entry the entry
+     * @return boolean
+     */
+    private static boolean isPortable(Key key, Entry entry) {
+        for (final Object param : key.params) {
+            if (!RowCodec.isPortable(param)) {
+                return false;
+            }
+        }
+        for (final Map<String, Object> row : entry.rows) {
+            for (final Object value : row.values()) {
+                if (!RowCodec.isPortable(value)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static void writeEntry(DataOutputStream out, RowCodec codec, Key key, Entry entry)
+        throws IOException {
+        writeString(out, key.sql);
+        writeValues(out, codec, key.params);
+
+        out.writeLong(entry.created);
+        out.writeInt(entry.labels.length);
+        for (final String label : entry.labels) {
+            writeString(out, label);
+        }
+        out.writeInt(entry.rows.size());
+        final Object[] values = new Object[entry.labels.length];
+        for (final Map<String, Object> row : entry.rows) {
+            for (int i = 0; i < values.length; i++) {
+                values[i] = row.get(entry.labels[i]);
+            }
+            writeValues(out, codec, values);
+        }
+    }
+
+    private static Key readKey(DataInputStream in, long limit) throws IOException {
+        final String sql = readString(in, limit);
+        return new Key(sql, readValues(in, limit));
+    }
+
+    private static Entry readEntry(DataInputStream in, long limit) throws IOException {
+        final long created = in.readLong();
+        final int columns = readLength(in, limit);
+        final List<String> labelList = new ArrayList<>();
+        for (int i = 0; i < columns; i++) {
+            labelList.add(readString(in, limit));
+        }
+        final String[] labels = labelList.toArray(new String[0]);
+
+        final int count = readLength(in, limit);
+        final List<Map<String, Object>> rows = new ArrayList<>();
+        for (int r = 0; r < count; r++) {
+            final Object[] values = readValues(in, limit);
+            if (values.length != labels.length) {
+                throw new StreamCorruptedException("Row width " + values.length); //$NON-NLS-1$
+            }
+            final Map<String, Object> row = new LinkedHashMap<>();
+            for (int i = 0; i < labels.length; i++) {
+                row.put(labels[i], values[i]);
+            }
+            rows.add(Collections.unmodifiableMap(row));
+        }
+        return new Entry(labels, Collections.unmodifiableList(rows), created);
+    }
+
+    private static void writeValues(DataOutputStream out, RowCodec codec, Object[] values)
+        throws IOException {
+        final ByteBuffer encoded = codec.encode(values);
+        out.writeInt(values.length);
+        out.writeInt(encoded.remaining());
+        out.write(encoded.array(), encoded.arrayOffset() + encoded.position(),
+            encoded.remaining());
+    }
+
+    private static Object[] readValues(DataInputStream in, long limit) throws IOException {
+        final int count = readLength(in, limit);
+        final byte[] bytes = readBytes(in, limit);
+        if (count > bytes.length) {
+            // every value takes at least its tag byte
+            throw new StreamCorruptedException("Value count " + count); //$NON-NLS-1$
+        }
+        return RowCodec.decodePortable(ByteBuffer.wrap(bytes), count);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in, long limit) throws IOException {
+        return new String(readBytes(in, limit), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a length-prefixed byte array. The array grows as the bytes are read, so a length
+     * which passes the checks but overstates the data still fails without a large allocation.
+     *
+     * @param in the snapshot
+     * @param limit the largest length accepted
+     * @return {@code byte[]}
+     * @throws IOException if the length is out of range or the snapshot ends early
+     */
+    private static byte[] readBytes(DataInputStream in, long limit) throws IOException {
+        final int length = readLength(in, limit);
+        final byte[] bytes = in.readNBytes(length);
+        if (bytes.length != length) {
+            throw new EOFException();
+        }
+        return bytes;
+    }
+
+    /**
+     * Reads a length or count, rejecting one which a snapshot of this size cannot hold.
+     *
+     * @param in the snapshot
+     * @param limit the largest value accepted
+     * @return int
+     * @throws IOException if the value is out of range
+     */
+    private static int readLength(DataInputStream in, long limit) throws IOException {
+        final int length = in.readInt();
+        if (length < 0 || length > limit) {
+            throw new StreamCorruptedException("Length " + length); //$NON-NLS-1$
+        }
+        return length;
+    }
+
+    private static List<Map<String, Object>> copy(List<Map<String, Object>> rows) {
+        final List<Map<String, Object>> list = new ArrayList<>(rows.size());
+        for (final Map<String, Object> row : rows) {
+            list.add(Collections.unmodifiableMap(new LinkedHashMap<>(row)));
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    /**
+     * The SQL text and parameter values of a query.
+     */
+    private static final class Key {
+
+        private final String sql;
+        private final Object[] params;
+        private final int hash;
+
+        Key(String sql, Object[] params) {
+            this.sql = sql;
+            this.params = params;
+            this.hash = 31 * sql.hashCode() + Arrays.deepHashCode(params);
+        }
+
+        static Key of(SqlStatement statement) {
+            final String sql = statement.toString();
+            final Map<Integer, Object> parameters = statement.getParameters();
+            int count = 0;
+            for (final Integer index : parameters.keySet()) {
+                count = Math.max(count, index.intValue());
+            }
+            final Object[] params = new Object[count];
+            for (final Map.Entry<Integer, Object> param : parameters.entrySet()) {
+                params[param.getKey().intValue() - 1] = param.getValue();
+            }
+            return new Key(sql, params);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return this.hash == other.hash && this.sql.equals(other.sql)
+                && Arrays.deepEquals(this.params, other.params);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+
+    /**
+     * A cached result.
+     */
+    private static final class Entry {
+
+        private final String[] labels;
+        private final List<Map<String, Object>> rows;
+        private final long created;
+
+        Entry(String[] labels, List<Map<String, Object>> rows, long created) {
+            this.labels = labels;
+            this.rows = rows;
+            this.created = created;
+        }
+    }
+}
@@ -0,0 +1,407 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.internal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+
+import org.veary.persist.ExportFormat;
+
+/**
+ * <h2>Purpose:</h2> writes a {@link ResultSet} to a {@link FileChannel} in one of the
+ * {@link ExportFormat}s.
+ *
+ * <p>Values are encoded straight into a direct {@link ByteBuffer} which is reused by every
+ * export on the same thread. Integral and boolean columns are read with the primitive
+ * {@code ResultSet} getters and formatted in place, as are floating point columns; other
+ * columns are read as strings or bytes.
+ *
+ * @author Marc L. Veary
+ * @since 1.0
+ */
+public final class ResultExporter {
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final ThreadLocal<ByteBuffer> BUFFERS = ThreadLocal
+        .withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+    private static final byte[] MAGIC = { 'V', 'P', 'X', '1' };
+    private static final byte[] TRUE = "true".getBytes(StandardCharsets.US_ASCII); //$NON-NLS-1$
+    private static final byte[] FALSE = "false".getBytes(StandardCharsets.US_ASCII); //$NON-NLS-1$
+    private static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE)
+        .getBytes(StandardCharsets.US_ASCII);
+
+    private static final int KIND_LONG = 0;
+    private static final int KIND_DOUBLE = 1;
+    private static final int KIND_BOOLEAN = 2;
+    private static final int KIND_BYTES = 3;
+    private static final int KIND_STRING = 4;
+
+    private final FileChannel channel;
+    private final ExportFormat format;
+    private final byte[] digits = new byte[20];
+    private final StringBuilder text = new StringBuilder(32);
+    private ByteBuffer buffer;
+    private int rowStart;
+
+    private ResultExporter(FileChannel channel, ExportFormat format) {
+        this.channel = channel;
+        this.format = format;
+        this.buffer = BUFFERS.get();
+        this.buffer.clear();
+    }
+
+    /**
+     * Writes every remaining row of the result set to the channel.
+     *
+     * @param rset the {@link ResultSet} positioned before the first row
+     * @param channel the {@link FileChannel} to write to
+     * @param format {@link ExportFormat}
+     * @return the number of rows written
+     * @throws SQLException if a database access error occurs
+     * @throws IOException if an I/O error occurs
+     */
+    public static long export(ResultSet rset, FileChannel channel, ExportFormat format)
+        throws SQLException, IOException {
+        return new ResultExporter(channel, format).run(rset);
+    }
+
+    private long run(ResultSet rset) throws SQLException, IOException {
+        final ResultSetMetaData md = rset.getMetaData();
+        final int columns = md.getColumnCount();
+        final int[] kinds = new int[columns];
+        for (int i = 0; i < columns; i++) {
+            kinds[i] = kindOf(md.getColumnType(i + 1));
+        }
+
+        writeHeader(md, columns);
+
+        long rows = 0;
+        final boolean csv = this.format == ExportFormat.CSV;
+        while (rset.next()) {
+            this.rowStart = this.buffer.position();
+            if (csv) {
+                writeCsvRow(rset, kinds);
+            } else {
+                writeBinaryRow(rset, kinds);
+            }
+            rows++;
+        }
+
+        this.rowStart = this.buffer.position();
+        flush();
+        return rows;
+    }
+
+    private void writeHeader(ResultSetMetaData md, int columns)
+        throws SQLException, IOException {
+        if (this.format == ExportFormat.CSV) {
+            for (int i = 1; i <= columns; i++) {
+                if (i > 1) {
+                    ensure(1).put((byte) ',');
+                }
+                writeCsvString(md.getColumnLabel(i));
+            }
+            ensure(2).put((byte) '\r').put((byte) '\n');
+        } else {
+            ensure(8).put(MAGIC).putInt(columns);
+            for (int i = 1; i <= columns; i++) {
+                writeUtf8WithLength(md.getColumnLabel(i));
+            }
+        }
+    }
+
+    private void writeCsvRow(ResultSet rset, int[] kinds) throws SQLException, IOException {
+        for (int i = 0; i < kinds.length; i++) {
+            if (i > 0) {
+                ensure(1).put((byte) ',');
+            }
+            final int column = i + 1;
+            switch (kinds[i]) {
+                case KIND_LONG:
+                    final long longValue = rset.getLong(column);
+                    if (!rset.wasNull()) {
+                        writeLongDigits(longValue);
+                    }
+                    break;
+                case KIND_DOUBLE:
+                    final double doubleValue = rset.getDouble(column);
+                    if (!rset.wasNull()) {
+                        writeDoubleDigits(doubleValue);
+                    }
+                    break;
+                case KIND_BOOLEAN:
+                    final boolean boolValue = rset.getBoolean(column);
+                    if (!rset.wasNull()) {
+                        final byte[] literal = boolValue ? TRUE : FALSE;
+                        ensure(literal.length).put(literal);
+                    }
+                    break;
+                default:
+                    final String text = rset.getString(column);
+                    if (text != null) {
+                        writeCsvString(text);
+                    }
+                    break;
+            }
+        }
+        ensure(2).put((byte) '\r').put((byte) '\n');
+    }
+
+    private void writeBinaryRow(ResultSet rset, int[] kinds) throws SQLException, IOException {
+        ensure(4).putInt(0);
+        for (int i = 0; i < kinds.length; i++) {
+            final int column = i + 1;
+            switch (kinds[i]) {
+                case KIND_LONG:
+                    final long longValue = rset.getLong(column);
+                    if (rset.wasNull()) {
+                        ensure(1).put(RowCodec.NULL);
+                    } else {
+                        ensure(9).put(RowCodec.LONG).putLong(longValue);
+                    }
+                    break;
+                case KIND_DOUBLE:
+                    final double doubleValue = rset.getDouble(column);
+                    if (rset.wasNull()) {
+                        ensure(1).put(RowCodec.NULL);
+                    } else {
+                        ensure(9).put(RowCodec.DOUBLE).putDouble(doubleValue);
+                    }
+                    break;
+                case KIND_BOOLEAN:
+                    final boolean boolValue = rset.getBoolean(column);
+                    if (rset.wasNull()) {
+                        ensure(1).put(RowCodec.NULL);
+                    } else {
+                        ensure(2).put(RowCodec.BOOLEAN).put((byte) (boolValue ? 1 : 0));
+                    }
+                    break;
+                case KIND_BYTES:
+                    final byte[] bytes = rset.getBytes(column);
+                    if (bytes == null) {
+                        ensure(1).put(RowCodec.NULL);
+                    } else {
+                        ensure(5 + bytes.length).put(RowCodec.BYTES).putInt(bytes.length)
+                            .put(bytes);
+                    }
+                    break;
+                default:
+                    final String text = rset.getString(column);
+                    if (text == null) {
+                        ensure(1).put(RowCodec.NULL);
+                    } else {
+                        ensure(1).put(RowCodec.STRING);
+                        writeUtf8WithLength(text);
+                    }
+                    break;
+            }
+        }
+        this.buffer.putInt(this.rowStart, this.buffer.position() - this.rowStart - 4);
+    }
+
+    private void writeLongDigits(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            ensure(MIN_LONG.length).put(MIN_LONG);
+            return;
+        }
+
+        long remaining = Math.abs(value);
+        int pos = this.digits.length;
+        do {
+            this.digits[--pos] = (byte) ('0' + remaining % 10);
+            remaining /= 10;
+        } while (remaining != 0);
+
+        final ByteBuffer buf = ensure(this.digits.length - pos + 1);
+        if (value < 0) {
+            buf.put((byte) '-');
+        }
+        buf.put(this.digits, pos, this.digits.length - pos);
+    }
+
+    /**
+     * Writes the value as {@link Double#toString(double)} would, through a reused builder so
+     * that no {@code String} is created per value.
+     *
+     * @param value the value
+     * @throws IOException if the buffer could not be flushed
+     */
+    private void writeDoubleDigits(double value) throws IOException {
+        this.text.setLength(0);
+        this.text.append(value);
+        final ByteBuffer buf = ensure(this.text.length());
+        for (int i = 0; i < this.text.length(); i++) {
+            buf.put((byte) this.text.charAt(i));
+        }
+    }
+
+    private void writeCsvString(String text) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < text.length() && !quote; i++) {
+            final char ch = text.charAt(i);
+            quote = ch == ',' || ch == '"' || ch == '\r' || ch == '\n';
+        }
+
+        final ByteBuffer buf = ensure(text.length() * 3 + 2);
+        if (quote) {
+            buf.put((byte) '"');
+        }
+        for (int i = 0; i < text.length(); i++) {
+            final char ch = text.charAt(i);
+            if (ch == '"') {
+                buf.put((byte) '"');
+            }
+            i = putUtf8(buf, text, i);
+        }
+        if (quote) {
+            buf.put((byte) '"');
+        }
+    }
+
+    private void writeUtf8WithLength(String text) throws IOException {
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            final char ch = text.charAt(i);
+            if (ch < 0x80) {
+                length++;
+            } else if (ch < 0x800) {
+                length += 2;
+            } else if (Character.isSurrogate(ch)) {
+                if (Character.isHighSurrogate(ch) && i + 1 < text.length()
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    length += 4;
+                    i++;
+                } else {
+                    length++;
+                }
+            } else {
+                length += 3;
+            }
+        }
+
+        final ByteBuffer buf = ensure(4 + length).putInt(length);
+        for (int i = 0; i < text.length(); i++) {
+            i = putUtf8(buf, text, i);
+        }
+    }
+
+    /**
+     * Encodes the character at the given index as UTF-8. Unpaired surrogates are encoded as
+     * {@code ?}.
+     *
+     * @return the index of the last character consumed
+     */
+    private static int putUtf8(ByteBuffer buf, String text, int index) {
+        final char ch = text.charAt(index);
+        if (ch < 0x80) {
+            buf.put((byte) ch);
+        } else if (ch < 0x800) {
+            buf.put((byte) (0xC0 | ch >> 6)).put((byte) (0x80 | ch & 0x3F));
+        } else if (Character.isSurrogate(ch)) {
+            if (Character.isHighSurrogate(ch) && index + 1 < text.length()
+                && Character.isLowSurrogate(text.charAt(index + 1))) {
+                final int cp = Character.toCodePoint(ch, text.charAt(index + 1));
+                buf.put((byte) (0xF0 | cp >> 18)).put((byte) (0x80 | cp >> 12 & 0x3F))
+                    .put((byte) (0x80 | cp >> 6 & 0x3F)).put((byte) (0x80 | cp & 0x3F));
+                return index + 1;
+            }
+            buf.put((byte) '?');
+        } else {
+            buf.put((byte) (0xE0 | ch >> 12)).put((byte) (0x80 | ch >> 6 & 0x3F))
+                .put((byte) (0x80 | ch & 0x3F));
+        }
+        return index;
+    }
+
+    /**
+     * Ensures the buffer has room for the given number of bytes, writing out completed rows
+     * or, if the current row alone does not fit, growing the buffer.
+     *
+     * @param bytes the number of bytes about to be written
+     * @return the buffer
+     * @throws IOException if an I/O error occurs
+     */
+    private ByteBuffer ensure(int bytes) throws IOException {
+        if (this.buffer.remaining() >= bytes) {
+            return this.buffer;
+        }
+
+        flush();
+        if (this.buffer.remaining() < bytes) {
+            final int needed = this.buffer.position() + bytes;
+            final ByteBuffer larger = ByteBuffer
+                .allocateDirect(Math.max(needed, this.buffer.capacity() * 2));
+            this.buffer.flip();
+            larger.put(this.buffer);
+            this.buffer = larger;
+        }
+        return this.buffer;
+    }
+
+    /**
+     * Writes everything before the start of the current row to the channel and moves the
+     * partial row to the start of the buffer.
+     */
+    private void flush() throws IOException {
+        final int end = this.buffer.position();
+        this.buffer.position(0).limit(this.rowStart);
+        while (this.buffer.hasRemaining()) {
+            this.channel.write(this.buffer);
+        }
+        this.buffer.limit(end).position(this.rowStart);
+        this.buffer.compact();
+        this.rowStart = 0;
+    }
+
+    private static int kindOf(int sqlType) {
+        switch (sqlType) {
+            case Types.BIGINT:
+            case Types.INTEGER:
+            case Types.SMALLINT:
+            case Types.TINYINT:
+                return KIND_LONG;
+            case Types.DOUBLE:
+            case Types.FLOAT:
+            case Types.REAL:
+                return KIND_DOUBLE;
+            case Types.BOOLEAN:
+            case Types.BIT:
+                return KIND_BOOLEAN;
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+            case Types.BLOB:
+                return KIND_BYTES;
+            default:
+                return KIND_STRING;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.internal;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <h2>Purpose:</h2> limits retries across all the transactions of a factory, so that when the
+ * database is overloaded, rather than briefly contended, retries do not multiply the load.
+ *
+ * <p>The budget holds up to {@value #MAX_TOKENS} tokens. Each retry takes one token and each
+ * successful transaction returns a tenth of one. Retries are refused while the budget is at
+ * or below half. With sustained failures retries stop; once transactions succeed again the
+ * budget refills.
+ *
+ * @author Marc L. Veary
+ * @since 1.0
+ */
+public final class RetryBudget {
+
+    private static final int MAX_TOKENS = 100;
+    private static final int SCALE = 10;
+    private static final int MAX = MAX_TOKENS * SCALE;
+
+    private final AtomicInteger tokens = new AtomicInteger(MAX);
+
+    /**
+     * Takes a token for a retry, if the budget allows one.
+     *
+     * @return {@code true} if the retry may go ahead
+     */
+    public boolean tryRetry() {
+        int current;
+        do {
+            current = this.tokens.get();
+            if (current <= MAX / 2) {
+                return false;
+            }
+        } while (!this.tokens.compareAndSet(current, current - SCALE));
+        return true;
+    }
+
+    /**
+     * Records a successful transaction.
+     */
+    public void onSuccess() {
+        int current;
+        do {
+            current = this.tokens.get();
+            if (current >= MAX) {
+                return;
+            }
+        } while (!this.tokens.compareAndSet(current, current + 1));
+    }
+}
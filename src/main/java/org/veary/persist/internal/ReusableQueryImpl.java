@@ -0,0 +1,257 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.internal;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.ToIntFunction;
+
+import javax.sql.DataSource;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.veary.persist.ReusableQuery;
+import org.veary.persist.RowMapper;
+import org.veary.persist.SqlStatement;
+import org.veary.persist.exceptions.PersistenceException;
+
+/**
+ * Concrete implementation of {@link ReusableQuery}.
+ *
+ * @author Marc L. Veary
+ * @since 1.0
+ */
+public final class ReusableQueryImpl implements ReusableQuery {
+
+    private static final Logger LOG = LogManager.getLogger(ReusableQueryImpl.class);
+    private static final String QUERY_STR = "query"; //$NON-NLS-1$
+    private static final String PURPOSE = "reusable query"; //$NON-NLS-1$
+
+    private final DataSource ds;
+    private final SqlStatement statement;
+    private final Class<?> entityInterface;
+    private final PersistenceContext context;
+    private Connection conn;
+    private PreparedStatement pstmt;
+    private String preparedSql;
+    private int prepareCount;
+    private boolean closed;
+
+    /**
+     * Constructor.
+     *
+     * @param ds {@link DataSource}
+     * @param statement the SELECT {@link SqlStatement}, which holds the query's parameters
+     * @param entityInterface the interface of the entity to be returned, or {@code null} if
+     *     the query returns the values of its first column
+     * @param context the {@link PersistenceContext} of the creating manager
+     */
+    public ReusableQueryImpl(DataSource ds, SqlStatement statement, Class<?> entityInterface,
+        PersistenceContext context) {
+        this.ds = Objects.requireNonNull(ds,
+            Messages.getString("QueryImpl.error_msg_ds_null")); //$NON-NLS-1$
+        this.statement = Objects.requireNonNull(statement,
+            Messages.getString("QueryImpl.error_msg_statement_null")); //$NON-NLS-1$
+        this.context = context;
+        if (!context.getStatementMetadata().get(statement.toString()).isSelect()) {
+            throw new IllegalStateException(
+                Messages.getString("QueryImpl.error_msg_incorrect_query_type")); //$NON-NLS-1$
+        }
+        this.entityInterface = entityInterface;
+    }
+
+    @Override
+    public ReusableQuery setParameter(int index, Object value) {
+        this.statement.setParameter(index, value);
+        return this;
+    }
+
+    @Override
+    public ReusableQuery setParameter(String name, Object value) {
+        this.statement.setParameter(name, value);
+        return this;
+    }
+
+    @Override
+    public List<Object> getResultList() {
+        return Collections.unmodifiableList(execute(rset -> QueryImpl.readResults(rset,
+            Integer.MAX_VALUE, this.entityInterface, metadata()), List::size, 0));
+    }
+
+    @Override
+    public Optional<Object> findFirst() {
+        final List<Object> results = execute(
+            rset -> QueryImpl.readResults(rset, 1, this.entityInterface, metadata()),
+            List::size, 1);
+        return results.isEmpty() ? Optional.empty() : Optional.of(results.get(0));
+    }
+
+    @Override
+    public <T> List<T> map(RowMapper<T> mapper) {
+        Objects.requireNonNull(mapper,
+            Messages.getString("QueryImpl.error_msg_mapper_null")); //$NON-NLS-1$
+        final ColumnarRows rows = execute(ColumnarRows::read, ColumnarRows::size, 0);
+        final List<T> list = new ArrayList<>(rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            rows.moveTo(i);
+            list.add(mapper.map(rows));
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    @Override
+    public int getPrepareCount() {
+        return this.prepareCount;
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+        release();
+    }
+
+    /**
+     * Returns the metadata of the statement's current SQL text.
+     *
+     * @return {@link StatementMetadata}
+     */
+    private StatementMetadata metadata() {
+        return this.context.getStatementMetadata().get(this.statement.toString());
+    }
+
+    /**
+     * Executes the prepared statement with the current parameters, preparing it first if
+     * necessary, and reads its results.
+     *
+     * @param reader reads the results
+     * @param counter returns the number of rows read
+     * @param maxRows the most rows the driver is to return, or 0 for no limit
+     * @return the results
+     */
+    private <R> R execute(ResultReader<R> reader, ToIntFunction<R> counter, int maxRows) {
+        if (this.closed) {
+            throw new IllegalStateException(
+                Messages.getString("ReusableQueryImpl.error_msg_closed")); //$NON-NLS-1$
+        }
+
+        final Map<Integer, Object> params = this.statement.getParameters();
+        final RepeatedQueryDetector detector = this.context.getRepeatedQueryDetector();
+        if (detector != null) {
+            detector.record(this.statement.toString(), params);
+        }
+
+        final PersistenceStatistics statistics = this.context.getStatistics();
+        final String sql = this.statement.toString();
+        final StatementEvent event = new StatementEvent();
+        event.begin();
+        final long start = System.nanoTime();
+        long rows = -1;
+        try {
+            prepare(sql, params);
+            this.pstmt.clearParameters();
+            for (final Map.Entry<Integer, Object> param : params.entrySet()) {
+                this.pstmt.setObject(param.getKey().intValue(), param.getValue());
+            }
+            this.pstmt.setMaxRows(maxRows);
+
+            try (ResultSet rset = this.pstmt.executeQuery()) {
+                final R result = reader.read(rset);
+                rows = counter.applyAsInt(result);
+                return result;
+            }
+        } catch (final SQLException e) {
+            statistics.recordError();
+            release();
+            if (e.getCause() == null) {
+                throw new PersistenceException(e);
+            }
+            throw new PersistenceException(e.getCause());
+        } finally {
+            final long nanos = System.nanoTime() - start;
+            event.complete(sql, QUERY_STR, rows);
+            statistics.record(PersistenceStatistics.Operation.QUERY, nanos);
+            this.context.getStatementStatistics().record(sql, nanos, Math.max(rows, 0),
+                rows < 0);
+        }
+    }
+
+    /**
+     * Acquires the connection and prepares the statement, unless they are already held and
+     * the statement's SQL has not changed.
+     */
+    private void prepare(String sql, Map<Integer, Object> params) throws SQLException {
+        if (this.conn == null) {
+            this.conn = this.context.getStatistics().acquire(this.ds, PURPOSE);
+        }
+
+        final QueryDiagnosticsImpl diagnostics = this.context.getDiagnostics();
+        if (diagnostics != null) {
+            diagnostics.record(this.conn, sql, params);
+        }
+
+        if (this.pstmt == null || !sql.equals(this.preparedSql)) {
+            if (this.pstmt != null) {
+                this.pstmt.close();
+            }
+            this.pstmt = this.conn.prepareStatement(sql);
+            this.preparedSql = sql;
+            this.prepareCount++;
+        }
+    }
+
+    /**
+     * Closes the prepared statement and releases the connection, if held. Failures are
+     * logged, since neither is needed any more.
+     */
+    private void release() {
+        if (this.pstmt != null) {
+            try {
+                this.pstmt.close();
+            } catch (final SQLException e) {
+                LOG.error("Close failed: ", e);
+            }
+            this.pstmt = null;
+            this.preparedSql = null;
+        }
+        if (this.conn != null) {
+            try {
+                this.conn.close();
+            } catch (final SQLException e) {
+                LOG.error("Close failed: ", e);
+            } finally {
+                this.conn = null;
+                this.context.getStatistics().release();
+            }
+        }
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.UUID;
+
+import org.veary.persist.exceptions.PersistenceException;
+
+/**
+ * <h2>Purpose:</h2> a compact binary encoding of result rows.
+ *
+ * <p>A row is encoded as a sequence of column values, each a one byte type tag followed by the
+ * value in big-endian order. Strings and byte arrays are length-prefixed. Types without a
+ * dedicated tag fall back to Java serialization, which {@link #decode(ByteBuffer, int)} limits
+ * to the classes of the {@code java.base} and {@code java.sql} modules and
+ * {@link #decodePortable(ByteBuffer, int)} refuses altogether.
+ *
+ * <p>An instance holds a reusable buffer and is not thread-safe.
+ *
+ * @author Marc L. Veary
+ * @since 1.0
+ */
+public final class RowCodec {
+
+    static final byte NULL = 0;
+    static final byte BOOLEAN = 1;
+    static final byte BYTE = 2;
+    static final byte SHORT = 3;
+    static final byte INT = 4;
+    static final byte LONG = 5;
+    static final byte FLOAT = 6;
+    static final byte DOUBLE = 7;
+    static final byte STRING = 8;
+    static final byte BYTES = 9;
+    static final byte BIG_DECIMAL = 10;
+    static final byte BIG_INTEGER = 11;
+    static final byte DATE = 12;
+    static final byte TIME = 13;
+    static final byte TIMESTAMP = 14;
+    static final byte LOCAL_DATE = 15;
+    static final byte LOCAL_TIME = 16;
+    static final byte LOCAL_DATE_TIME = 17;
+    static final byte UUID_TAG = 18;
+    static final byte SERIALIZED = 19;
+
+    private static final int INITIAL_CAPACITY = 256;
+    private static final ObjectInputFilter JDK_TYPES = ObjectInputFilter.Config
+        .createFilter("maxdepth=20;java.base/*;java.sql/*;!*"); //$NON-NLS-1$
+
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+
+    /**
+     * Encodes the given column values.
+     *
+     * @param values the column values in column order
+     * @return a buffer positioned at the start of the encoded row, with its limit at the end.
+     *     The buffer is reused by the next call.
+     */
+    public ByteBuffer encode(Object[] values) {
+        this.buffer.clear();
+        for (final Object value : values) {
+            write(value);
+        }
+        this.buffer.flip();
+        return this.buffer;
+    }
+
+    /**
+     * Decodes a row from the buffer's current position, advancing the position past it.
+     *
+     * @param buf the buffer
+     * @param columns the number of columns in the row
+     * @return the column values in column order
+     */
+    public static Object[] decode(ByteBuffer buf, int columns) {
+        return decode(buf, columns, true);
+    }
+
+    /**
+     * Decodes a row from the buffer's current position, as {@link #decode(ByteBuffer, int)},
+     * but refuses serialized values. Use this for data which may have been altered outside
+     * the process, such as a file which outlives it.
+     *
+     * @param buf the buffer
+     * @param columns the number of columns in the row
+     * @return the column values in column order
+     * @throws PersistenceException if the row holds a serialized value
+     */
+    public static Object[] decodePortable(ByteBuffer buf, int columns) {
+        return decode(buf, columns, false);
+    }
+
+    /**
+     * Returns {@code true} if the value is {@code null} or of a type with a dedicated tag, and
+     * so is encoded without Java serialization.
+     *
+     * @param value the column value
+     * @return boolean
+     */
+    public static boolean isPortable(Object value) {
+        return value == null || value instanceof Integer || value instanceof Long
+            || value instanceof String || value instanceof BigDecimal
+            || value instanceof Boolean || value instanceof Double
+            || value instanceof Timestamp || value instanceof java.sql.Date
+            || value instanceof Time || value instanceof Short || value instanceof Byte
+            || value instanceof Float || value instanceof byte[]
+            || value instanceof BigInteger || value instanceof LocalDate
+            || value instanceof LocalTime || value instanceof LocalDateTime
+            || value instanceof UUID;
+    }
+
+    /**
+     * Returns a rough estimate of the heap used by the given value when held in a result row,
+     * including its map entry.
+     *
+     * @param value the column value
+     * @return the estimated size in bytes
+     */
+    public static long estimateSize(Object value) {
+        final int entry = 48;
+        if (value == null) {
+            return entry;
+        }
+        if (value instanceof String) {
+            return entry + 40 + ((String) value).length();
+        }
+        if (value instanceof byte[]) {
+            return entry + 16 + ((byte[]) value).length;
+        }
+        if (value instanceof BigDecimal || value instanceof BigInteger) {
+            return entry + 64;
+        }
+        return entry + 24;
+    }
+
+    private void write(Object value) {
+        if (value == null) {
+            ensure(1).put(NULL);
+        } else if (value instanceof Integer) {
+            ensure(5).put(INT).putInt(((Integer) value).intValue());
+        } else if (value instanceof Long) {
+            ensure(9).put(LONG).putLong(((Long) value).longValue());
+        } else if (value instanceof String) {
+            writeBytes(STRING, ((String) value).getBytes(StandardCharsets.UTF_8));
+        } else if (value instanceof BigDecimal) {
+            final BigDecimal decimal = (BigDecimal) value;
+            final byte[] unscaled = decimal.unscaledValue().toByteArray();
+            ensure(9 + unscaled.length).put(BIG_DECIMAL).putInt(decimal.scale())
+                .putInt(unscaled.length).put(unscaled);
+        } else if (value instanceof Boolean) {
+            ensure(2).put(BOOLEAN).put((byte) (((Boolean) value).booleanValue() ? 1 : 0));
+        } else if (value instanceof Double) {
+            ensure(9).put(DOUBLE).putDouble(((Double) value).doubleValue());
+        } else if (value instanceof Timestamp) {
+            final Timestamp ts = (Timestamp) value;
+            ensure(13).put(TIMESTAMP).putLong(ts.getTime()).putInt(ts.getNanos());
+        } else if (value instanceof java.sql.Date) {
+            ensure(9).put(DATE).putLong(((java.sql.Date) value).getTime());
+        } else if (value instanceof Time) {
+            ensure(9).put(TIME).putLong(((Time) value).getTime());
+        } else if (value instanceof Short) {
+            ensure(3).put(SHORT).putShort(((Short) value).shortValue());
+        } else if (value instanceof Byte) {
+            ensure(2).put(BYTE).put(((Byte) value).byteValue());
+        } else if (value instanceof Float) {
+            ensure(5).put(FLOAT).putFloat(((Float) value).floatValue());
+        } else if (value instanceof byte[]) {
+            writeBytes(BYTES, (byte[]) value);
+        } else if (value instanceof BigInteger) {
+            writeBytes(BIG_INTEGER, ((BigInteger) value).toByteArray());
+        } else if (value instanceof LocalDate) {
+            ensure(9).put(LOCAL_DATE).putLong(((LocalDate) value).toEpochDay());
+        } else if (value instanceof LocalTime) {
+            ensure(9).put(LOCAL_TIME).putLong(((LocalTime) value).toNanoOfDay());
+        } else if (value instanceof LocalDateTime) {
+            final LocalDateTime ldt = (LocalDateTime) value;
+            ensure(17).put(LOCAL_DATE_TIME).putLong(ldt.toLocalDate().toEpochDay())
+                .putLong(ldt.toLocalTime().toNanoOfDay());
+        } else if (value instanceof UUID) {
+            final UUID uuid = (UUID) value;
+            ensure(17).put(UUID_TAG).putLong(uuid.getMostSignificantBits())
+                .putLong(uuid.getLeastSignificantBits());
+        } else if (value instanceof Serializable) {
+            writeBytes(SERIALIZED, serialize(value));
+        } else {
+            throw new PersistenceException(
+                "Cannot encode column value of type " + value.getClass().getName());
+        }
+    }
+
+    private void writeBytes(byte tag, byte[] bytes) {
+        ensure(5 + bytes.length).put(tag).putInt(bytes.length).put(bytes);
+    }
+
+    private ByteBuffer ensure(int bytes) {
+        if (this.buffer.remaining() < bytes) {
+            final int capacity = Math.max(this.buffer.capacity() * 2,
+                this.buffer.position() + bytes);
+            final ByteBuffer larger = ByteBuffer.allocate(capacity);
+            this.buffer.flip();
+            larger.put(this.buffer);
+            this.buffer = larger;
+        }
+        return this.buffer;
+    }
+
+    private static Object[] decode(ByteBuffer buf, int columns, boolean allowSerialized) {
+        final Object[] values = new Object[columns];
+        for (int i = 0; i < columns; i++) {
+            values[i] = read(buf, allowSerialized);
+        }
+        return values;
+    }
+
+    private static Object read(ByteBuffer buf, boolean allowSerialized) {
+        final byte tag = buf.get();
+        switch (tag) {
+            case NULL:
+                return null;
+            case BOOLEAN:
+                return Boolean.valueOf(buf.get() != 0);
+            case BYTE:
+                return Byte.valueOf(buf.get());
+            case SHORT:
+                return Short.valueOf(buf.getShort());
+            case INT:
+                return Integer.valueOf(buf.getInt());
+            case LONG:
+                return Long.valueOf(buf.getLong());
+            case FLOAT:
+                return Float.valueOf(buf.getFloat());
+            case DOUBLE:
+                return Double.valueOf(buf.getDouble());
+            case STRING:
+                return new String(readBytes(buf), StandardCharsets.UTF_8);
+            case BYTES:
+                return readBytes(buf);
+            case BIG_DECIMAL:
+                final int scale = buf.getInt();
+                return new BigDecimal(new BigInteger(readBytes(buf)), scale);
+            case BIG_INTEGER:
+                return new BigInteger(readBytes(buf));
+            case DATE:
+                return new java.sql.Date(buf.getLong());
+            case TIME:
+                return new Time(buf.getLong());
+            case TIMESTAMP:
+                final Timestamp ts = new Timestamp(buf.getLong());
+                ts.setNanos(buf.getInt());
+                return ts;
+            case LOCAL_DATE:
+                return LocalDate.ofEpochDay(buf.getLong());
+            case LOCAL_TIME:
+                return LocalTime.ofNanoOfDay(buf.getLong());
+            case LOCAL_DATE_TIME:
+                return LocalDateTime.of(LocalDate.ofEpochDay(buf.getLong()),
+                    LocalTime.ofNanoOfDay(buf.getLong()));
+            case UUID_TAG:
+                return new UUID(buf.getLong(), buf.getLong());
+            case SERIALIZED:
+                if (!allowSerialized) {
+                    throw new PersistenceException(
+                        Messages.getString("RowCodec.error_msg_serialized")); //$NON-NLS-1$
+                }
+                return deserialize(readBytes(buf));
+            default:
+                throw new PersistenceException("Unknown column type tag: " + tag);
+        }
+    }
+
+    private static byte[] readBytes(ByteBuffer buf) {
+        final byte[] bytes = new byte[buf.getInt()];
+        buf.get(bytes);
+        return bytes;
+    }
+
+    private static byte[] serialize(Object value) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(value);
+        } catch (final IOException e) {
+            throw new PersistenceException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] bytes) {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            in.setObjectInputFilter(JDK_TYPES);
+            return in.readObject();
+        } catch (final IOException | ClassNotFoundException e) {
+            throw new PersistenceException(e);
+        }
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.internal;
+
+import java.io.IOException;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.veary.persist.exceptions.PersistenceException;
+
+/**
+ * <h2>Purpose:</h2> a list of result rows which moves its contents to a memory-mapped
+ * temporary file once their estimated heap size exceeds a limit.
+ *
+ * <p>Rows are held on the heap until the limit is reached. From then on every row, including
+ * those already held, is written to the file in the {@link RowCodec} format, and each call to
+ * {@link #get(int)} decodes a new row {@code Map} from the mapped file. The file is deleted when
+ * the list is no longer reachable.
+ *
+ * <p>Rows are added with {@link #append(Map)} and the list must be {@link #finish()}ed before
+ * it is read. After that the list is read-only and safe for concurrent reads.
+ *
+ * @author Marc L. Veary
+ * @since 1.0
+ */
+public final class SpillableRowList extends AbstractList<Map<String, Object>>
+    implements RandomAccess {
+
+    private static final Logger LOG = LogManager.getLogger(SpillableRowList.class);
+    private static final Cleaner CLEANER = Cleaner.create();
+    private static final int STAGING_SIZE = 64 * 1024;
+    private static final long SEGMENT_SIZE = 1L << 30;
+
+    private final String[] labels;
+    private final long memoryLimit;
+    private final RowCodec codec = new RowCodec();
+
+    private List<Map<String, Object>> memory = new ArrayList<>();
+    private long memoryUsed;
+    private int size;
+
+    private FileChannel channel;
+    private ByteBuffer staging;
+    private long fileOffset;
+    private long[] offsets;
+    private long[] segmentStarts;
+    private int segmentCount;
+    private MappedByteBuffer[] segments;
+
+    /**
+     * Constructor.
+     *
+     * @param labels the column labels, in column order
+     * @param memoryLimit the estimated heap size in bytes above which rows are moved to disk
+     */
+    public SpillableRowList(String[] labels, long memoryLimit) {
+        this.labels = labels.clone();
+        this.memoryLimit = memoryLimit;
+    }
+
+    /**
+     * Adds a row to the end of the list.
+     *
+     * @param row the row, keyed by the column labels
+     */
+    public void append(Map<String, Object> row) {
+        if (this.channel == null) {
+            this.memory.add(row);
+            for (final Object value : row.values()) {
+                this.memoryUsed += RowCodec.estimateSize(value);
+            }
+            if (this.memoryUsed > this.memoryLimit) {
+                spill();
+            }
+        } else {
+            write(row);
+        }
+        this.size++;
+    }
+
+    /**
+     * Completes the list, making it readable.
+     */
+    public void finish() {
+        if (this.channel == null || this.segments != null) {
+            return;
+        }
+
+        try {
+            flush();
+            this.segments = new MappedByteBuffer[this.segmentCount];
+            for (int i = 0; i < this.segmentCount; i++) {
+                final long start = this.segmentStarts[i];
+                final long end = i + 1 < this.segmentCount
+                    ? this.segmentStarts[i + 1]
+                    : this.fileOffset;
+                this.segments[i] = this.channel.map(FileChannel.MapMode.READ_ONLY, start,
+                    end - start);
+            }
+        } catch (final IOException e) {
+            throw new PersistenceException(e);
+        }
+        this.staging = null;
+    }
+
+    /**
+     * Tests if the rows have been moved to disk.
+     *
+     * @return {@code true} if the rows are held in a temporary file
+     */
+    public boolean isSpilled() {
+        return this.channel != null;
+    }
+
+    @Override
+    public Map<String, Object> get(int index) {
+        if (this.channel == null) {
+            return this.memory.get(index);
+        }
+        if (index < 0 || index >= this.size) {
+            throw new IndexOutOfBoundsException("Index: " + index);
+        }
+        if (this.segments == null) {
+            throw new IllegalStateException("List has not been finished.");
+        }
+
+        final long offset = this.offsets[index];
+        int segment = Arrays.binarySearch(this.segmentStarts, 0, this.segmentCount, offset);
+        if (segment < 0) {
+            segment = -segment - 2;
+        }
+        final ByteBuffer buf = this.segments[segment].duplicate();
+        buf.position((int) (offset - this.segmentStarts[segment]));
+
+        final Object[] values = RowCodec.decode(buf, this.labels.length);
+        final Map<String, Object> row = new LinkedHashMap<>();
+        for (int i = 0; i < values.length; i++) {
+            row.put(this.labels[i], values[i]);
+        }
+        return row;
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    private void spill() {
+        try {
+            final Path file = Files.createTempFile("veary-persist-", ".rows"); //$NON-NLS-1$ //$NON-NLS-2$
+            this.channel = FileChannel.open(file, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+            CLEANER.register(this, new Cleanup(this.channel, file));
+            LOG.debug("Result exceeded {} bytes, spilling rows to {}", //$NON-NLS-1$
+                Long.valueOf(this.memoryLimit), file);
+        } catch (final IOException e) {
+            throw new PersistenceException(e);
+        }
+
+        this.staging = ByteBuffer.allocateDirect(STAGING_SIZE);
+        this.offsets = new long[Math.max(1024, this.memory.size() * 2)];
+        this.segmentStarts = new long[] { 0 };
+        this.segmentCount = 1;
+
+        final List<Map<String, Object>> held = this.memory;
+        this.memory = null;
+        int index = 0;
+        for (final Map<String, Object> row : held) {
+            write(row, index++);
+        }
+    }
+
+    private void write(Map<String, Object> row) {
+        write(row, this.size);
+    }
+
+    private void write(Map<String, Object> row, int index) {
+        final Object[] values = new Object[this.labels.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = row.get(this.labels[i]);
+        }
+        final ByteBuffer encoded = this.codec.encode(values);
+        final int length = encoded.remaining();
+
+        if (this.fileOffset + length
+            - this.segmentStarts[this.segmentCount - 1] > SEGMENT_SIZE) {
+            if (this.segmentCount == this.segmentStarts.length) {
+                this.segmentStarts = Arrays.copyOf(this.segmentStarts, this.segmentCount * 2);
+            }
+            this.segmentStarts[this.segmentCount++] = this.fileOffset;
+        }
+
+        if (index == this.offsets.length) {
+            this.offsets = Arrays.copyOf(this.offsets, this.offsets.length * 2);
+        }
+        this.offsets[index] = this.fileOffset;
+        this.fileOffset += length;
+
+        try {
+            if (this.staging.remaining() < length) {
+                flush();
+            }
+            if (length > this.staging.capacity()) {
+                while (encoded.hasRemaining()) {
+                    this.channel.write(encoded);
+                }
+            } else {
+                this.staging.put(encoded);
+            }
+        } catch (final IOException e) {
+            throw new PersistenceException(e);
+        }
+    }
+
+    private void flush() throws IOException {
+        this.staging.flip();
+        while (this.staging.hasRemaining()) {
+            this.channel.write(this.staging);
+        }
+        this.staging.clear();
+    }
+
+    /**
+     * Closes and deletes the temporary file. Must not refer to the list itself.
+     */
+    private static final class Cleanup implements Runnable {
+
+        private final FileChannel channel;
+        private final Path file;
+
+        Cleanup(FileChannel channel, Path file) {
+            this.channel = channel;
+            this.file = file;
+        }
+
+        @Override
+        public void run() {
+            try {
+                this.channel.close();
+                Files.deleteIfExists(this.file);
+            } catch (final IOException e) {
+                LOG.warn("Failed to delete result file {}", this.file, e); //$NON-NLS-1$
+            }
+        }
+    }
+}
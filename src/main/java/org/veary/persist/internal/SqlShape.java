@@ -0,0 +1,195 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.internal;
+
+import java.util.Objects;
+
+/**
+ * <h2>Purpose:</h2> reduces a SQL statement to its shape, so that statements which differ only
+ * in their parameter values can be grouped.
+ *
+ * <p>String and numeric literals become {@code ?}, the list of an {@code IN}, such as the
+ * expansion of a collection parameter, becomes a single {@code ?}, runs of whitespace become
+ * a single space and comments are removed. Other lists, such as those of {@code VALUES} or a
+ * select list, keep one {@code ?} per item, since their length changes what is run. Quoted
+ * identifiers are kept as written. For example both
+ *
+ * <pre>
+ * SELECT * FROM account WHERE id IN (?, ?, ?) AND name = 'CASH'
+ * SELECT *  FROM account WHERE id IN (?) AND name = 'BANK'
+ * </pre>
+ *
+ * <p>have the shape {@code SELECT * FROM account WHERE id IN (?) AND name = ?}.
+ *
+ * @author Marc L. Veary
+ * @since 1.0
+ */
+public final class SqlShape {
+
+    private static final BoundedCache<String, String> CACHE = new BoundedCache<>(2048);
+
+    private SqlShape() {
+    }
+
+    /**
+     * Returns the shape of the given SQL statement, normalising it only if it has not been
+     * seen before.
+     *
+     * @param sql the SQL statement
+     * @return the normalised SQL
+     */
+    public static String of(String sql) {
+        return CACHE.get(Objects.requireNonNull(sql), SqlShape::normalize);
+    }
+
+    private static String normalize(String sql) {
+        final StringBuilder out = new StringBuilder(sql.length());
+        final int length = sql.length();
+        int i = 0;
+        while (i < length) {
+            final char c = sql.charAt(i);
+            if (c == '\'') {
+                i = skipQuoted(sql, i, '\'');
+                appendPlaceholder(out);
+            } else if (c == '"' || c == '`') {
+                final int end = skipQuoted(sql, i, c);
+                out.append(sql, i, end);
+                i = end;
+            } else if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+                while (i < length && sql.charAt(i) != '\n') {
+                    i++;
+                }
+                appendSpace(out);
+            } else if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+                final int end = sql.indexOf("*/", i + 2); //$NON-NLS-1$
+                i = end < 0 ? length : end + 2;
+                appendSpace(out);
+            } else if (Character.isWhitespace(c)) {
+                i++;
+                appendSpace(out);
+            } else if (Character.isDigit(c) && !isIdentifierPart(out)) {
+                while (i < length && (Character.isLetterOrDigit(sql.charAt(i))
+                    || sql.charAt(i) == '.')) {
+                    i++;
+                }
+                appendPlaceholder(out);
+            } else if (c == '?') {
+                i++;
+                appendPlaceholder(out);
+            } else {
+                out.append(c);
+                i++;
+            }
+        }
+
+        int end = out.length();
+        while (end > 0 && out.charAt(end - 1) == ' ') {
+            end--;
+        }
+        out.setLength(end);
+        return out.toString();
+    }
+
+    /**
+     * Returns the index after the closing quote, treating a doubled quote as an escape.
+     */
+    private static int skipQuoted(String sql, int start, char quote) {
+        int i = start + 1;
+        while (i < sql.length()) {
+            if (sql.charAt(i) == quote) {
+                if (i + 1 < sql.length() && sql.charAt(i + 1) == quote) {
+                    i += 2;
+                    continue;
+                }
+                return i + 1;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Appends a placeholder, unless it would extend the list of an {@code IN}. Earlier items of
+     * the list have already been collapsed, so such a list is always {@code IN (?} so far.
+     */
+    private static void appendPlaceholder(StringBuilder out) {
+        int i = skipSpaces(out, out.length() - 1);
+        if (i >= 1 && out.charAt(i) == ',') {
+            final int j = skipSpaces(out, i - 1);
+            if (j >= 0 && out.charAt(j) == '?' && followsInList(out, j)) {
+                out.setLength(j + 1);
+                return;
+            }
+        }
+        out.append('?');
+    }
+
+    /**
+     * Tests if the placeholder at {@code index} is the first item of a parenthesised list
+     * following the keyword {@code IN}.
+     */
+    private static boolean followsInList(StringBuilder out, int index) {
+        final int paren = skipSpaces(out, index - 1);
+        if (paren < 0 || out.charAt(paren) != '(') {
+            return false;
+        }
+        final int n = skipSpaces(out, paren - 1);
+        if (n < 1 || Character.toUpperCase(out.charAt(n)) != 'N'
+            || Character.toUpperCase(out.charAt(n - 1)) != 'I') {
+            return false;
+        }
+        return !isIdentifierPart(out, n - 2);
+    }
+
+    /**
+     * Returns the index of the last character at or before {@code index} which is not a space,
+     * or -1.
+     */
+    private static int skipSpaces(StringBuilder out, int index) {
+        int i = index;
+        while (i >= 0 && out.charAt(i) == ' ') {
+            i--;
+        }
+        return i;
+    }
+
+    private static void appendSpace(StringBuilder out) {
+        if (out.length() > 0 && out.charAt(out.length() - 1) != ' ') {
+            out.append(' ');
+        }
+    }
+
+    private static boolean isIdentifierPart(StringBuilder out) {
+        return isIdentifierPart(out, out.length() - 1);
+    }
+
+    private static boolean isIdentifierPart(StringBuilder out, int index) {
+        if (index < 0) {
+            return false;
+        }
+        final char c = out.charAt(index);
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.internal;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * <h2>Purpose:</h2> Flight Recorder event for the execution of one statement, from sending it
+ * to the driver until its results, if any, have been read.
+ *
+ * @author Marc L. Veary
+ * @since 1.0
+ */
+@Name("org.veary.persist.Statement")
+@Label("Statement Execute")
+@Category({ "Veary Persist", "Statements" })
+@Description("Execution of a SQL statement, including reading its results")
+final class StatementEvent extends Event {
+
+    @Label("SQL")
+    String sql;
+
+    @Label("Operation")
+    @Description("query or update")
+    String operation;
+
+    @Label("Rows")
+    @Description("Rows read by a query, or affected by an update")
+    long rows;
+
+    @Label("Succeeded")
+    boolean succeeded;
+
+    /**
+     * Ends the event and commits it, if it is enabled and over its threshold.
+     *
+     * @param text the SQL text
+     * @param kind {@code "query"} or {@code "update"}
+     * @param count the rows read or affected, or -1 if the statement failed
+     */
+    void complete(String text, String kind, long count) {
+        end();
+        if (shouldCommit()) {
+            this.sql = text;
+            this.operation = kind;
+            this.rows = Math.max(count, 0);
+            this.succeeded = count >= 0;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.internal;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <h2>Purpose:</h2> what is known about a statement: its parsed SQL, whether it is a SELECT,
+ * its result columns and the entity interface its rows are mapped to.
+ *
+ * <p>Named queries are created with their column labels and mapper, read when the catalog
+ * is validated. The entries of a {@link StatementMetadataCache} learn them on first use and
+ * publish them through volatile fields; concurrent first uses may both compute them, which
+ * is harmless.
+ *
+ * @author Marc L. Veary
+ * @since 1.0
+ */
+public final class StatementMetadata {
+
+    private static final String SELECT_STR = "SELECT"; //$NON-NLS-1$
+
+    private final String name;
+    private final String sql;
+    private final ParsedSql parsed;
+    private final boolean select;
+    private volatile String[] columnLabels;
+    private volatile EntityMapper mapper;
+
+    /**
+     * Constructor.
+     *
+     * @param name the statement's name, or its SQL text if it is unnamed
+     * @param sql the SQL text
+     * @param columnLabels the upper case result column labels, or {@code null} if they are
+     *     not yet known or the statement does not return a result set
+     * @param mapper the {@link EntityMapper} for the rows, or {@code null}
+     */
+    public StatementMetadata(String name, String sql, String[] columnLabels,
+        EntityMapper mapper) {
+        this.name = name;
+        this.sql = sql;
+        this.parsed = ParsedSql.of(sql);
+        this.select = sql.toUpperCase().startsWith(SELECT_STR);
+        this.columnLabels = columnLabels;
+        this.mapper = mapper;
+    }
+
+    /**
+     * Constructor for an unnamed statement about which nothing is yet known.
+     *
+     * @param sql the SQL text
+     */
+    public StatementMetadata(String sql) {
+        this(sql, sql, null, null);
+    }
+
+    /**
+     * Returns the statement's name.
+     *
+     * @return {@code String}
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Returns the SQL text, as written.
+     *
+     * @return {@code String}
+     */
+    public String getSql() {
+        return this.sql;
+    }
+
+    /**
+     * Returns the parsed SQL.
+     *
+     * @return {@link ParsedSql}
+     */
+    public ParsedSql getParsedSql() {
+        return this.parsed;
+    }
+
+    /**
+     * Tests if the statement is a SELECT.
+     *
+     * @return {@code true} if it is a SELECT
+     */
+    public boolean isSelect() {
+        return this.select;
+    }
+
+    /**
+     * Returns the number of placeholders.
+     *
+     * @return int
+     */
+    public int getPlaceholderCount() {
+        return this.parsed.getPlaceholderCount();
+    }
+
+    /**
+     * Returns the result column labels.
+     *
+     * @return unmodifiable {@code List<String>}, empty if they are not known
+     */
+    public List<String> getColumnLabels() {
+        final String[] labels = this.columnLabels;
+        return labels == null
+            ? Collections.emptyList()
+            : Collections.unmodifiableList(Arrays.asList(labels));
+    }
+
+    /**
+     * Returns the upper case result column labels. They are built from the metadata the first
+     * time, and again only if the columns differ from those known, as when a table used by a
+     * {@code SELECT *} has been altered. Otherwise the known array is returned, so that its
+     * labels are not upper cased again. The array must not be modified.
+     *
+     * @param md {@link ResultSetMetaData} of the statement's result
+     * @return {@code String[]}
+     * @throws SQLException if a database access error occurs
+     */
+    public String[] getColumnLabels(ResultSetMetaData md) throws SQLException {
+        String[] labels = this.columnLabels;
+        if (labels == null || !matches(labels, md)) {
+            labels = EntityMapper.columnLabels(md);
+            this.columnLabels = labels;
+        }
+        return labels;
+    }
+
+    /**
+     * Returns the entity mapper for the rows.
+     *
+     * @return {@link EntityMapper}, or {@code null} if the rows are not mapped to entities
+     */
+    public EntityMapper getMapper() {
+        return this.mapper;
+    }
+
+    /**
+     * Returns the mapper for the given entity interface, creating it if the last one used was
+     * for another interface.
+     *
+     * @param entityInterface the entity interface
+     * @return {@link EntityMapper}
+     */
+    public EntityMapper getMapper(Class<?> entityInterface) {
+        EntityMapper current = this.mapper;
+        if (current == null || current.getEntityInterface() != entityInterface) {
+            current = EntityMapper.of(entityInterface);
+            this.mapper = current;
+        }
+        return current;
+    }
+
+    /**
+     * Tests if the metadata has the given labels, ignoring case.
+     */
+    private static boolean matches(String[] labels, ResultSetMetaData md) throws SQLException {
+        if (labels.length != md.getColumnCount()) {
+            return false;
+        }
+        for (int i = 0; i < labels.length; i++) {
+            if (!labels[i].equalsIgnoreCase(md.getColumnLabel(i + 1))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
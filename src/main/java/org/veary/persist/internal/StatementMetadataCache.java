@@ -0,0 +1,96 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.internal;
+
+/**
+ * What a factory's managers have learned about each SQL text they have run: whether it is a
+ * SELECT, its number of placeholders, its result column labels and the entity mapper last
+ * used with it. The cache is shared, lock-free, by every manager created from one factory,
+ * so that a new manager does not rediscover any of this.
+ *
+ * @author Marc L. Veary
+ * @since 1.0
+ */
+public final class StatementMetadataCache {
+
+    private final BoundedCache<String, StatementMetadata> entries;
+
+    /**
+     * Constructor.
+     *
+     * @param maxSize the maximum number of SQL texts held. Must be greater than 0.
+     */
+    public StatementMetadataCache(int maxSize) {
+        this.entries = new BoundedCache<>(maxSize);
+    }
+
+    /**
+     * Returns the metadata of the given SQL text, creating it on first use.
+     *
+     * @param sql the SQL text, with '?' placeholders
+     * @return {@link StatementMetadata}
+     */
+    public StatementMetadata get(String sql) {
+        return this.entries.get(sql, StatementMetadata::new);
+    }
+
+    /**
+     * Stores metadata learned elsewhere, such as when a named query is validated, under its
+     * SQL text. An entry already held for the text is kept.
+     *
+     * @param metadata {@link StatementMetadata}
+     * @return the metadata now held for the SQL text
+     */
+    public StatementMetadata putIfAbsent(StatementMetadata metadata) {
+        return this.entries.putIfAbsent(metadata.getSql(), metadata);
+    }
+
+    /**
+     * Returns the number of lookups which found an existing entry.
+     *
+     * @return long
+     */
+    public long getHitCount() {
+        return this.entries.getHitCount();
+    }
+
+    /**
+     * Returns the number of lookups which created a new entry.
+     *
+     * @return long
+     */
+    public long getMissCount() {
+        return this.entries.getMissCount();
+    }
+
+    /**
+     * Returns the number of SQL texts held.
+     *
+     * @return int
+     */
+    public int size() {
+        return this.entries.size();
+    }
+}
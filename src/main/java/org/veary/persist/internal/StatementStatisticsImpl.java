@@ -0,0 +1,275 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.veary.persist.ShapeStatistics;
+import org.veary.persist.StatementStatistics;
+
+/**
+ * Concrete implementation of {@link StatementStatistics}.
+ *
+ * @author Marc L. Veary
+ * @since 1.0
+ */
+public final class StatementStatisticsImpl implements StatementStatistics {
+
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int EVICT_DIVISOR = 20;
+    private static final String HEADER_FORMAT = "%10s %12s %10s %10s %10s %8s  %s%n"; //$NON-NLS-1$
+    private static final Object[] COLUMNS = { "calls", "total_ms", "mean_ms", "max_ms", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+        "rows", "errors", "shape" }; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    private static final String ROW_FORMAT = "%10d %12.3f %10.3f %10.3f %10d %8d  %s%n"; //$NON-NLS-1$
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    private final int maxShapes;
+
+    /**
+     * Constructor.
+     *
+     * @param maxShapes the maximum number of shapes kept. Must be greater than 0.
+     */
+    public StatementStatisticsImpl(int maxShapes) {
+        if (maxShapes < 1) {
+            throw new IllegalArgumentException(
+                Messages.getString("StatementStatisticsImpl.error_msg_max_shapes")); //$NON-NLS-1$
+        }
+        this.maxShapes = maxShapes;
+    }
+
+    /**
+     * Records one execution of a statement.
+     *
+     * @param sql the statement's SQL text
+     * @param nanos how long it took
+     * @param rows the number of rows returned or affected
+     * @param failed {@code true} if it failed with a database error
+     */
+    public void record(String sql, long nanos, long rows, boolean failed) {
+        record(sql, nanos, 1, rows, failed);
+    }
+
+    /**
+     * Records a batch of executions of a statement, each taking an equal share of the
+     * batch's time.
+     *
+     * @param sql the statement's SQL text
+     * @param nanos how long the whole batch took
+     * @param calls the number of statements in the batch. Must be greater than 0.
+     * @param rows the number of rows affected by the whole batch
+     * @param failed {@code true} if it failed with a database error
+     */
+    public void record(String sql, long nanos, int calls, long rows, boolean failed) {
+        final String shape = SqlShape.of(sql);
+        Entry entry = this.entries.get(shape);
+        if (entry == null) {
+            entry = this.entries.computeIfAbsent(shape, Entry::new);
+            if (this.entries.size() > this.maxShapes) {
+                evict(shape);
+            }
+        }
+        entry.latency.record(nanos / calls, calls);
+        if (rows > 0) {
+            entry.rows.add(rows);
+        }
+        if (failed) {
+            entry.errors.increment();
+        }
+    }
+
+    @Override
+    public List<ShapeStatistics> snapshot() {
+        final List<ShapeStatistics> list = new ArrayList<>(this.entries.size());
+        for (final Entry entry : this.entries.values()) {
+            list.add(entry.snapshot());
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    @Override
+    public List<ShapeStatistics> getTop(int limit) {
+        final List<ShapeStatistics> list = new ArrayList<>(snapshot());
+        list.sort(Comparator.comparingDouble(ShapeStatistics::getTotalMillis).reversed());
+        return Collections.unmodifiableList(list.subList(0, Math.min(Math.max(limit, 0),
+            list.size())));
+    }
+
+    @Override
+    public ShapeStatistics get(String sql) {
+        final Entry entry = this.entries.get(SqlShape.of(sql));
+        return entry == null ? null : entry.snapshot();
+    }
+
+    @Override
+    public String dump(int limit) {
+        final StringBuilder builder = new StringBuilder();
+        builder.append(String.format(Locale.ROOT, HEADER_FORMAT, COLUMNS));
+        for (final ShapeStatistics stats : getTop(limit)) {
+            builder.append(String.format(Locale.ROOT, ROW_FORMAT,
+                Long.valueOf(stats.getCalls()), Double.valueOf(stats.getTotalMillis()),
+                Double.valueOf(stats.getMeanMillis()), Double.valueOf(stats.getMaxMillis()),
+                Long.valueOf(stats.getRows()), Long.valueOf(stats.getErrors()),
+                stats.getShape()));
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public void reset() {
+        this.entries.clear();
+    }
+
+    /**
+     * Discards the least frequently executed shapes, other than the one just added, so that
+     * a burst of new shapes does not trigger an eviction per shape. Only one thread evicts at a
+     * time; others carry on recording.
+     */
+    private void evict(String added) {
+        if (!this.evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            final int excess = this.entries.size() - this.maxShapes;
+            if (excess <= 0) {
+                return;
+            }
+            final List<Map.Entry<String, Long>> calls = new ArrayList<>(this.entries.size());
+            for (final Map.Entry<String, Entry> entry : this.entries.entrySet()) {
+                if (!entry.getKey().equals(added)) {
+                    calls.add(Map.entry(entry.getKey(),
+                        Long.valueOf(entry.getValue().latency.getCount())));
+                }
+            }
+            calls.sort(Map.Entry.comparingByValue());
+            final int count = Math.min(calls.size(),
+                Math.max(excess, this.maxShapes / EVICT_DIVISOR));
+            for (int i = 0; i < count; i++) {
+                this.entries.remove(calls.get(i).getKey());
+            }
+        } finally {
+            this.evicting.set(false);
+        }
+    }
+
+    /**
+     * The live statistics of one shape.
+     */
+    private static final class Entry {
+
+        private final String shape;
+        private final LogHistogram latency = new LogHistogram();
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+
+        Entry(String shape) {
+            this.shape = shape;
+        }
+
+        Snapshot snapshot() {
+            return new Snapshot(this.shape, this.latency.copy(), this.rows.sum(),
+                this.errors.sum());
+        }
+    }
+
+    /**
+     * An immutable copy of the statistics of one shape.
+     */
+    private static final class Snapshot implements ShapeStatistics {
+
+        private final String shape;
+        private final LogHistogram latency;
+        private final long rows;
+        private final long errors;
+
+        Snapshot(String shape, LogHistogram latency, long rows, long errors) {
+            this.shape = shape;
+            this.latency = latency;
+            this.rows = rows;
+            this.errors = errors;
+        }
+
+        @Override
+        public String getShape() {
+            return this.shape;
+        }
+
+        @Override
+        public long getCalls() {
+            return this.latency.getCount();
+        }
+
+        @Override
+        public double getTotalMillis() {
+            return this.latency.getSum() / NANOS_PER_MILLI;
+        }
+
+        @Override
+        public double getMinMillis() {
+            return this.latency.getMin() / NANOS_PER_MILLI;
+        }
+
+        @Override
+        public double getMaxMillis() {
+            return this.latency.getMax() / NANOS_PER_MILLI;
+        }
+
+        @Override
+        public double getMeanMillis() {
+            return this.latency.getMean() / NANOS_PER_MILLI;
+        }
+
+        @Override
+        public double getPercentileMillis(double fraction) {
+            return this.latency.getPercentile(fraction) / NANOS_PER_MILLI;
+        }
+
+        @Override
+        public long getRows() {
+            return this.rows;
+        }
+
+        @Override
+        public long getErrors() {
+            return this.errors;
+        }
+
+        @Override
+        public String toString() {
+            return this.shape + " x" + getCalls(); //$NON-NLS-1$
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.internal;
+
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.sql.DataSource;
+
+import org.veary.persist.SqlStatement;
+import org.veary.persist.TransactionManager;
+
+/**
+ * <h2>Purpose:</h2> a {@link TransactionManager} which may be shared by any number of threads,
+ * each of which has its own transaction.
+ *
+ * <p>The transaction state of each thread is held by a {@link TransactionManagerImpl} in a
+ * {@code ThreadLocal}, which is created by {@link #begin()} and removed when the transaction
+ * is committed or rolled back, including the implicit rollback when a statement fails. No
+ * locks are taken.
+ *
+ * <p>Because the state is removed when the transaction ends, {@link #getRowCount()} returns 0
+ * outside of a transaction.
+ *
+ * @author Marc L. Veary
+ * @since 1.0
+ */
+@Singleton
+public final class ThreadLocalTransactionManager implements TransactionManager {
+
+    private final DataSource ds;
+    private final PersistenceContext context;
+    private final ThreadLocal<TransactionManagerImpl> current = new ThreadLocal<>();
+
+    /**
+     * Constructor.
+     *
+     * @param ds {@link DataSource}
+     */
+    @Inject
+    public ThreadLocalTransactionManager(DataSource ds) {
+        this(ds, PersistenceContext.standalone());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param ds {@link DataSource}
+     * @param context the {@link PersistenceContext} shared with the factory's other managers
+     */
+    public ThreadLocalTransactionManager(DataSource ds, PersistenceContext context) {
+        this.ds = ds;
+        this.context = context;
+    }
+
+    @Override
+    public void begin() {
+        if (this.current.get() != null) {
+            throw new IllegalStateException("Transaction already active.");
+        }
+
+        final TransactionManagerImpl manager = new TransactionManagerImpl(this.ds, this.context);
+        manager.begin();
+        this.current.set(manager);
+    }
+
+    @Override
+    public void commit() {
+        final TransactionManagerImpl manager = active();
+        try {
+            manager.commit();
+        } finally {
+            release(manager);
+        }
+    }
+
+    @Override
+    public void rollback() {
+        final TransactionManagerImpl manager = active();
+        try {
+            manager.rollback();
+        } finally {
+            release(manager);
+        }
+    }
+
+    @Override
+    public Long persist(SqlStatement statement) {
+        final TransactionManagerImpl manager = active();
+        try {
+            return manager.persist(statement);
+        } finally {
+            release(manager);
+        }
+    }
+
+    @Override
+    public List<Long> persistBatch(List<SqlStatement> statements) {
+        return persistBatch(statements, false);
+    }
+
+    @Override
+    public List<Long> persistBatch(List<SqlStatement> statements, boolean rewriteInserts) {
+        final TransactionManagerImpl manager = active();
+        try {
+            return manager.persistBatch(statements, rewriteInserts);
+        } finally {
+            release(manager);
+        }
+    }
+
+    @Override
+    public int getRowCount() {
+        final TransactionManagerImpl manager = this.current.get();
+        return manager == null ? 0 : manager.getRowCount();
+    }
+
+    @Override
+    public boolean isActive() {
+        return this.current.get() != null;
+    }
+
+    private TransactionManagerImpl active() {
+        final TransactionManagerImpl manager = this.current.get();
+        if (manager == null) {
+            throw new IllegalStateException("No active transaction.");
+        }
+        return manager;
+    }
+
+    /**
+     * Removes the thread's state once its transaction has ended, by commit, rollback or a
+     * failed statement.
+     */
+    private void release(TransactionManagerImpl manager) {
+        if (!manager.isActive()) {
+            this.current.remove();
+        }
+    }
+}
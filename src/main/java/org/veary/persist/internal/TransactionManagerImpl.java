@@ -28,6 +28,9 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
@@ -36,6 +39,7 @@ import javax.sql.DataSource;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.veary.persist.QueryScope;
 import org.veary.persist.SqlStatement;
 import org.veary.persist.TransactionManager;
 import org.veary.persist.exceptions.PersistenceException;
@@ -56,19 +60,26 @@ import org.veary.persist.exceptions.PersistenceException;
  * manager.commit();
  * </pre>
  *
+ * <p>An instance holds the state of one transaction at a time and is not thread-safe. Use
+ * {@link ThreadLocalTransactionManager} to share a manager between threads.
+ *
  * @author Marc L. Veary
  * @since 1.0
  */
 public final class TransactionManagerImpl implements TransactionManager {
 
     private static final Logger LOG = LogManager.getLogger(TransactionManagerImpl.class);
-    private static final String SELECT_STR = "SELECT"; //$NON-NLS-1$
 
     private final DataSource ds;
     private boolean txActive;
     private boolean persistCalled;
     private int rowCountResult;
     private Connection conn;
+    private int maxParameters;
+    private final PersistenceContext context;
+    private QueryScope scope;
+    private TransactionEvent txEvent;
+    private int statementCount;
 
     /**
      * Constructor.
@@ -77,7 +88,18 @@ public final class TransactionManagerImpl implements TransactionManager {
      */
     @Inject
     public TransactionManagerImpl(DataSource ds) {
+        this(ds, PersistenceContext.standalone());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param ds {@link DataSource}
+     * @param context the {@link PersistenceContext} shared with the factory's other managers
+     */
+    public TransactionManagerImpl(DataSource ds, PersistenceContext context) {
         this.ds = ds;
+        this.context = context;
     }
 
     @Override
@@ -86,17 +108,27 @@ public final class TransactionManagerImpl implements TransactionManager {
             throw new IllegalStateException("Transaction already active.");
         }
 
+        final PersistenceStatistics statistics = this.context.getStatistics();
         try {
-            this.conn = this.ds.getConnection();
+            this.conn = statistics.acquire(this.ds, "transaction"); //$NON-NLS-1$
+            this.conn.setAutoCommit(false);
         } catch (SQLException e) {
-            if (e.getCause() == null) {
-                throw new PersistenceException(e);
+            statistics.recordError();
+            if (this.conn != null) {
+                closeConnection();
             }
-            throw new PersistenceException(e.getCause());
+            throw new PersistenceException(e);
         }
 
         this.rowCountResult = 0;
+        this.statementCount = 0;
+        this.txEvent = new TransactionEvent();
+        this.txEvent.begin();
         this.txActive = true;
+        final RepeatedQueryDetector detector = this.context.getRepeatedQueryDetector();
+        if (detector != null && !detector.hasScope()) {
+            this.scope = detector.open("transaction"); //$NON-NLS-1$
+        }
         this.persistCalled = false;
     }
 
@@ -110,21 +142,31 @@ public final class TransactionManagerImpl implements TransactionManager {
             throw new IllegalStateException("Nothing to commit.");
         }
 
+        final long endStart = System.nanoTime();
         try {
             this.conn.commit();
             this.conn.setAutoCommit(true);
-            this.conn.close();
         } catch (final SQLException e) {
-            rollback();
-            if (e.getCause() == null) {
-                throw new PersistenceException(e);
-            }
-            throw new PersistenceException(e.getCause());
-        } finally {
-            this.conn = null;
+            this.context.getStatistics().recordError();
+            rollbackAndRelease();
+            throw new PersistenceException(e);
         }
+        closeConnection();
 
         this.txActive = false;
+        this.context.getStatistics().record(PersistenceStatistics.Operation.COMMIT,
+            System.nanoTime() - endStart);
+        endTransaction("commit", endStart); //$NON-NLS-1$
+        closeScope();
+    }
+
+    @Override
+    public void rollback() {
+        if (!this.txActive) {
+            throw new IllegalStateException("No active transaction.");
+        }
+
+        rollbackAndRelease();
     }
 
     @Override
@@ -134,11 +176,21 @@ public final class TransactionManagerImpl implements TransactionManager {
         }
 
         Objects.requireNonNull(statement, "Statement cannot be null.");
-        if (statement.toString().toUpperCase().startsWith(SELECT_STR)) {
+        if (this.context.getStatementMetadata().get(statement.toString()).isSelect()) {
             throw new IllegalStateException(
                 Messages.getString("QueryImpl.error_msg_incorrect_query_type")); //$NON-NLS-1$
         }
 
+        final RepeatedQueryDetector detector = this.context.getRepeatedQueryDetector();
+        if (detector != null) {
+            detector.record(statement.toString(), statement.getParameters());
+        }
+
+        final StatementEvent event = new StatementEvent();
+        event.begin();
+        final long start = System.nanoTime();
+        final String sql = statement.toString();
+        long rows = -1;
         Long id = Long.valueOf(0);
         try (PreparedStatement pstmt = this.conn.prepareStatement(statement.toString(),
             PreparedStatement.RETURN_GENERATED_KEYS)) {
@@ -149,20 +201,106 @@ public final class TransactionManagerImpl implements TransactionManager {
             }
 
             this.rowCountResult = pstmt.executeUpdate();
+            rows = this.rowCountResult;
 
             id = getGeneratedKey(pstmt);
         } catch (SQLException e) {
-            rollback();
-            if (e.getCause() == null) {
-                throw new PersistenceException(e);
-            }
-            throw new PersistenceException(e.getCause());
+            this.context.getStatistics().recordError();
+            rollbackAndRelease();
+            // the SQLException, not its cause, carries the SQLState the retry policy reads
+            throw new PersistenceException(e);
+        } finally {
+            final long nanos = System.nanoTime() - start;
+            event.complete(sql, "update", rows); //$NON-NLS-1$
+            this.context.getStatistics().record(PersistenceStatistics.Operation.PERSIST, nanos);
+            this.context.getStatementStatistics().record(sql, nanos, rows, rows < 0);
         }
 
+        this.statementCount++;
         this.persistCalled = true;
         return id;
     }
 
+    @Override
+    public List<Long> persistBatch(List<SqlStatement> statements) {
+        return persistBatch(statements, false);
+    }
+
+    @Override
+    public List<Long> persistBatch(List<SqlStatement> statements, boolean rewriteInserts) {
+        if (!this.txActive) {
+            throw new IllegalStateException("No active transaction.");
+        }
+
+        Objects.requireNonNull(statements, "Statements cannot be null.");
+        if (statements.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        final String[] sql = new String[statements.size()];
+        for (int i = 0; i < sql.length; i++) {
+            sql[i] = Objects.requireNonNull(statements.get(i), "Statement cannot be null.")
+                .toString();
+            if (this.context.getStatementMetadata().get(sql[i]).isSelect()) {
+                throw new IllegalStateException(
+                    Messages.getString("QueryImpl.error_msg_incorrect_query_type")); //$NON-NLS-1$
+            }
+        }
+
+        final BatchFlushEvent event = new BatchFlushEvent();
+        event.begin();
+        final long begun = System.nanoTime();
+        final List<Long> ids = new ArrayList<>(sql.length);
+        int rows = 0;
+        try {
+            int start = 0;
+            while (start < sql.length) {
+                int end = start + 1;
+                while (end < sql.length && sql[end].equals(sql[start])) {
+                    end++;
+                }
+
+                final List<SqlStatement> group = statements.subList(start, end);
+                final MultiRowInsert insert = rewriteInserts && group.size() > 1
+                    ? MultiRowInsert.of(sql[start])
+                    : null;
+                final long groupStart = System.nanoTime();
+                int groupRows = -1;
+                try {
+                    groupRows = insert == null
+                        ? executeBatch(sql[start], group, ids)
+                        : executeMultiRowInsert(insert, group, ids);
+                } finally {
+                    this.context.getStatementStatistics().record(sql[start],
+                        System.nanoTime() - groupStart, group.size(), groupRows,
+                        groupRows < 0);
+                }
+                rows += groupRows;
+                start = end;
+            }
+        } catch (SQLException e) {
+            this.context.getStatistics().recordError();
+            rollbackAndRelease();
+            throw new PersistenceException(e);
+        } finally {
+            this.context.getStatistics().record(PersistenceStatistics.Operation.PERSIST,
+                System.nanoTime() - begun);
+        }
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.statements = sql.length;
+            event.rows = rows;
+            event.rewritten = rewriteInserts;
+            event.commit();
+        }
+
+        this.statementCount += sql.length;
+        this.rowCountResult = rows;
+        this.persistCalled = true;
+        return Collections.unmodifiableList(ids);
+    }
+
     @Override
     public int getRowCount() {
         return this.rowCountResult;
@@ -189,13 +327,174 @@ public final class TransactionManagerImpl implements TransactionManager {
         return Long.valueOf(0);
     }
 
-    private void rollback() {
+    /**
+     * Executes the statements, which all have the same SQL text, as a single JDBC batch.
+     *
+     * @param sql the SQL text
+     * @param group the statements
+     * @param ids the generated ids are appended to this list
+     * @return the total number of rows affected
+     * @throws SQLException if a database access error occurs
+     */
+    private int executeBatch(String sql, List<SqlStatement> group, List<Long> ids)
+        throws SQLException {
+        int rows = 0;
+        try (PreparedStatement pstmt = this.conn.prepareStatement(sql,
+            PreparedStatement.RETURN_GENERATED_KEYS)) {
+
+            for (final SqlStatement statement : group) {
+                for (Map.Entry<Integer, Object> entry : statement.getParameters().entrySet()) {
+                    pstmt.setObject(entry.getKey().intValue(), entry.getValue());
+                }
+                pstmt.addBatch();
+            }
+
+            for (final int count : pstmt.executeBatch()) {
+                if (count > 0) {
+                    rows += count;
+                }
+            }
+
+            addGeneratedKeys(pstmt, group.size(), ids);
+        }
+        return rows;
+    }
+
+    /**
+     * Executes the single-row INSERT statements as multi-row INSERT statements, each holding as
+     * many rows as the database's parameter limit allows.
+     *
+     * @param insert the rewriter for the statements' SQL text
+     * @param group the statements
+     * @param ids the generated ids are appended to this list
+     * @return the total number of rows affected
+     * @throws SQLException if a database access error occurs
+     */
+    private int executeMultiRowInsert(MultiRowInsert insert, List<SqlStatement> group,
+        List<Long> ids) throws SQLException {
+        if (this.maxParameters == 0) {
+            this.maxParameters = MultiRowInsert.getMaxParameters(this.conn.getMetaData());
+        }
+
+        final int width = insert.getParametersPerRow();
+        final int chunk = insert.getRowsPerStatement(this.maxParameters);
+        int rows = 0;
+        for (int start = 0; start < group.size(); start += chunk) {
+            final int count = Math.min(chunk, group.size() - start);
+            try (PreparedStatement pstmt = this.conn.prepareStatement(insert.getSql(count),
+                PreparedStatement.RETURN_GENERATED_KEYS)) {
+
+                for (int row = 0; row < count; row++) {
+                    final int offset = row * width;
+                    for (Map.Entry<Integer, Object> entry : group.get(start + row)
+                        .getParameters().entrySet()) {
+                        pstmt.setObject(offset + entry.getKey().intValue(), entry.getValue());
+                    }
+                }
+
+                rows += pstmt.executeUpdate();
+                addGeneratedKeys(pstmt, count, ids);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Appends exactly {@code count} generated ids to the given list, in the order returned by
+     * the driver. If the driver returns no keys, the ids are 0.
+     *
+     * @param pstmt {@link PreparedStatement}
+     * @param count the number of rows submitted
+     * @param ids the list to append to
+     * @throws SQLException if a database access error occurs, or if the driver returns keys
+     *     for only some of the rows, since they could not be matched to their statements
+     */
+    private void addGeneratedKeys(PreparedStatement pstmt, int count, List<Long> ids)
+        throws SQLException {
+        int added = 0;
+        try (ResultSet rset = pstmt.getGeneratedKeys()) {
+            while (added < count && rset.next()) {
+                ids.add(Long.valueOf(rset.getLong(1)));
+                added++;
+            }
+        }
+        if (added > 0 && added < count) {
+            throw new SQLException(
+                Messages.getString("TransactionManagerImpl.error_msg_missing_keys") //$NON-NLS-1$
+                    + ' ' + added + '/' + count);
+        }
+        for (; added < count; added++) {
+            ids.add(Long.valueOf(0));
+        }
+    }
+
+    /**
+     * Returns {@code true} if anything has been persisted in the current transaction.
+     *
+     * @return boolean
+     */
+    boolean hasPersisted() {
+        return this.persistCalled;
+    }
+
+    /**
+     * Rolls back the current transaction, releases its connection and ends the transaction.
+     * Failures are logged, since this is only called while handling another error or at the
+     * caller's request.
+     */
+    private void rollbackAndRelease() {
+        final long endStart = System.nanoTime();
         try {
             this.conn.rollback();
-            this.conn.close();
-            this.conn = null;
+            this.conn.setAutoCommit(true);
         } catch (SQLException e) {
             LOG.error("Rollback failed: ", e);
+        } finally {
+            closeConnection();
+            this.txActive = false;
+            this.context.getStatistics().record(PersistenceStatistics.Operation.ROLLBACK,
+                System.nanoTime() - endStart);
+            endTransaction("rollback", endStart); //$NON-NLS-1$
+            closeScope();
+        }
+    }
+
+    /**
+     * Ends and commits the transaction's Flight Recorder event.
+     */
+    private void endTransaction(String outcome, long endStart) {
+        if (this.txEvent == null) {
+            return;
+        }
+        this.txEvent.end();
+        if (this.txEvent.shouldCommit()) {
+            this.txEvent.outcome = outcome;
+            this.txEvent.statements = this.statementCount;
+            this.txEvent.endDuration = System.nanoTime() - endStart;
+            this.txEvent.commit();
+        }
+        this.txEvent = null;
+    }
+
+    /**
+     * Closes the transaction's connection. Failures are logged, since the connection is no
+     * longer needed.
+     */
+    private void closeConnection() {
+        try {
+            this.conn.close();
+        } catch (SQLException e) {
+            LOG.error("Close failed: ", e);
+        } finally {
+            this.conn = null;
+            this.context.getStatistics().release();
+        }
+    }
+
+    private void closeScope() {
+        if (this.scope != null) {
+            this.scope.close();
+            this.scope = null;
         }
     }
 }
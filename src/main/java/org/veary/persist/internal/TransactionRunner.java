@@ -0,0 +1,137 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.internal;
+
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import javax.sql.DataSource;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.veary.persist.RetryPolicy;
+import org.veary.persist.TransactionManager;
+import org.veary.persist.exceptions.PersistenceException;
+
+/**
+ * <h2>Purpose:</h2> runs a unit of work in a transaction, retrying it according to a
+ * {@link RetryPolicy} when it fails with a transient error.
+ *
+ * <p>Each attempt uses a new {@link TransactionManagerImpl}. The transaction is committed if
+ * the work persisted anything and is still active, and rolled back if the work throws.
+ *
+ * @author Marc L. Veary
+ * @since 1.0
+ */
+public final class TransactionRunner {
+
+    private static final Logger LOG = LogManager.getLogger(TransactionRunner.class);
+
+    private final DataSource ds;
+    private final PersistenceContext context;
+
+    /**
+     * Constructor.
+     *
+     * @param ds {@link DataSource}
+     * @param context the {@link PersistenceContext}, whose {@link RetryBudget} is shared by
+     *     the factory's transactions
+     */
+    public TransactionRunner(DataSource ds, PersistenceContext context) {
+        this.ds = Objects.requireNonNull(ds,
+            Messages.getString("QueryImpl.error_msg_ds_null")); //$NON-NLS-1$
+        this.context = context;
+    }
+
+    /**
+     * Runs the work.
+     *
+     * @param <T> the type of the result
+     * @param policy {@link RetryPolicy}
+     * @param work the unit of work, which may be called more than once
+     * @return the result of the successful attempt
+     */
+    public <T> T run(RetryPolicy policy, Function<? super TransactionManager, T> work) {
+        Objects.requireNonNull(policy, "Retry policy cannot be null.");
+        Objects.requireNonNull(work, "Work cannot be null.");
+
+        for (int attempt = 1;; attempt++) {
+            try {
+                final T result = attempt(work);
+                this.context.getRetryBudget().onSuccess();
+                return result;
+            } catch (final RuntimeException e) {
+                if (attempt >= policy.getMaxAttempts() || !policy.isRetryable(e)
+                    || !this.context.getRetryBudget().tryRetry()) {
+                    throw e;
+                }
+                LOG.debug("Retrying transaction after attempt {}: {}", attempt, e); //$NON-NLS-1$
+                backoff(policy, attempt, e);
+            }
+        }
+    }
+
+    private <T> T attempt(Function<? super TransactionManager, T> work) {
+        final TransactionManagerImpl manager = new TransactionManagerImpl(this.ds, this.context);
+        manager.begin();
+        try {
+            final T result = work.apply(manager);
+            if (manager.isActive()) {
+                if (manager.hasPersisted()) {
+                    manager.commit();
+                } else {
+                    manager.rollback();
+                }
+            }
+            return result;
+        } catch (final RuntimeException e) {
+            if (manager.isActive()) {
+                manager.rollback();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Sleeps for a random time up to {@code min(maxDelay, baseDelay * 2^(attempt - 1))}.
+     */
+    private static void backoff(RetryPolicy policy, int attempt, RuntimeException cause) {
+        final long max = policy.getMaxDelay().toNanos();
+        final long base = policy.getBaseDelay().toNanos();
+        final int shift = Math.min(attempt - 1, 62);
+        final long ceiling = base > (max >> shift) ? max : Math.min(max, base << shift);
+        if (ceiling <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PersistenceException(cause);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.internal;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sql.DataSource;
+
+import org.veary.persist.SqlStatement;
+import org.veary.persist.TransactionManager;
+import org.veary.persist.WriteBehindBuffer;
+
+/**
+ * Concrete implementation of {@link WriteBehindBuffer}.
+ *
+ * <p>The queue is a {@link ConcurrentLinkedQueue} bounded by a separate atomic count, so that
+ * submitting never blocks. Idle writers park until a statement arrives at an empty queue or
+ * the queue reaches the batch size, and then until the batch is full or the oldest statement's
+ * delay has expired. A submitter which finds the buffer closed once its statement is queued
+ * takes the statement back and fails, so no statement is left behind by {@link #close()}.
+ * Each batch is written by a new {@link TransactionManagerImpl} sharing the factory's context,
+ * using {@link TransactionManager#persistBatch(List, boolean)} with INSERT rewriting.
+ *
+ * @author Marc L. Veary
+ * @since 1.0
+ */
+public final class WriteBehindBufferImpl implements WriteBehindBuffer {
+
+    private static final String SELECT_STR = "SELECT"; //$NON-NLS-1$
+
+    private final DataSource ds;
+    private final PersistenceContext context;
+    private final int capacity;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final Queue<Pending> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final Thread[] writers;
+
+    private volatile boolean closed;
+
+    /**
+     * Constructor. The writer threads are started immediately.
+     *
+     * @param ds {@link DataSource}
+     * @param capacity the maximum number of queued statements
+     * @param maxBatchSize the maximum number of statements committed together
+     * @param maxDelay the longest a statement waits for its batch to fill
+     * @param writerCount the number of writer threads
+     * @param context the {@link PersistenceContext} of the factory, with whose statistics the
+     *     batches are recorded
+     */
+    public WriteBehindBufferImpl(DataSource ds, int capacity, int maxBatchSize,
+        Duration maxDelay, int writerCount, PersistenceContext context) {
+        this.ds = Objects.requireNonNull(ds,
+            Messages.getString("QueryImpl.error_msg_ds_null")); //$NON-NLS-1$
+        this.context = Objects.requireNonNull(context);
+        if (capacity < 1 || maxBatchSize < 1 || writerCount < 1) {
+            throw new IllegalArgumentException(
+                Messages.getString("WriteBehindBufferImpl.error_msg_sizes")); //$NON-NLS-1$
+        }
+        if (maxDelay.isNegative() || maxDelay.isZero()) {
+            throw new IllegalArgumentException(
+                Messages.getString("WriteBehindBufferImpl.error_msg_delay")); //$NON-NLS-1$
+        }
+        this.capacity = capacity;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = maxDelay.toNanos();
+
+        this.writers = new Thread[writerCount];
+        for (int i = 0; i < writerCount; i++) {
+            this.writers[i] = new Thread(this::runWriter, "write-behind-" + i); //$NON-NLS-1$
+            this.writers[i].setDaemon(true);
+            this.writers[i].start();
+        }
+    }
+
+    @Override
+    public CompletableFuture<Long> submit(SqlStatement statement) {
+        Objects.requireNonNull(statement, "Statement cannot be null.");
+        if (statement.toString().toUpperCase().startsWith(SELECT_STR)) {
+            throw new IllegalStateException(
+                Messages.getString("QueryImpl.error_msg_incorrect_query_type")); //$NON-NLS-1$
+        }
+        if (this.closed) {
+            throw new IllegalStateException(
+                Messages.getString("WriteBehindBufferImpl.error_msg_closed")); //$NON-NLS-1$
+        }
+
+        int current;
+        do {
+            current = this.size.get();
+            if (current >= this.capacity) {
+                throw new IllegalStateException(
+                    Messages.getString("WriteBehindBufferImpl.error_msg_full")); //$NON-NLS-1$
+            }
+        } while (!this.size.compareAndSet(current, current + 1));
+
+        final Pending pending = new Pending(statement);
+        this.queue.add(pending);
+        if (this.closed && this.queue.remove(pending)) {
+            // close() began after the check above and may already have drained the queue
+            this.size.decrementAndGet();
+            throw new IllegalStateException(
+                Messages.getString("WriteBehindBufferImpl.error_msg_closed")); //$NON-NLS-1$
+        }
+        if (current == 0 || current + 1 >= this.maxBatchSize) {
+            wakeWriters();
+        }
+        return pending.future;
+    }
+
+    @Override
+    public int getPendingCount() {
+        return this.size.get();
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+        wakeWriters();
+        boolean interrupted = false;
+        for (final Thread writer : this.writers) {
+            while (writer.isAlive()) {
+                try {
+                    writer.join();
+                } catch (final InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+
+        // statements added after the writers finished, by submitters which saw the buffer
+        // open; any later submitter sees it closed and withdraws its statement
+        List<Pending> batch;
+        while (!(batch = takeBatch()).isEmpty()) {
+            write(batch);
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void wakeWriters() {
+        for (final Thread writer : this.writers) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    private void runWriter() {
+        while (true) {
+            final Pending head = this.queue.peek();
+            if (head == null) {
+                if (this.closed) {
+                    return;
+                }
+                // submit() and close() unpark the writers when a statement reaches an empty
+                // queue or the buffer closes
+                LockSupport.park(this);
+                continue;
+            }
+
+            final long wait = head.enqueued + this.maxDelayNanos - System.nanoTime();
+            if (!this.closed && wait > 0 && this.size.get() < this.maxBatchSize) {
+                LockSupport.parkNanos(this, wait);
+                continue;
+            }
+
+            final List<Pending> batch = takeBatch();
+            if (!batch.isEmpty()) {
+                try {
+                    write(batch);
+                } catch (final Throwable e) {
+                    // an Error ends this writer; its statements must not wait for ever. Those
+                    // already completed are unaffected.
+                    for (final Pending pending : batch) {
+                        pending.future.completeExceptionally(e);
+                    }
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private List<Pending> takeBatch() {
+        final List<Pending> batch = new ArrayList<>(Math.min(this.maxBatchSize, 1024));
+        Pending pending;
+        while (batch.size() < this.maxBatchSize && (pending = this.queue.poll()) != null) {
+            batch.add(pending);
+        }
+        this.size.addAndGet(-batch.size());
+        return batch;
+    }
+
+    private void write(List<Pending> batch) {
+        final List<SqlStatement> statements = new ArrayList<>(batch.size());
+        for (final Pending pending : batch) {
+            statements.add(pending.statement);
+        }
+
+        final List<Long> ids;
+        try {
+            ids = persist(statements);
+        } catch (final RuntimeException e) {
+            if (batch.size() == 1) {
+                batch.get(0).future.completeExceptionally(e);
+            } else {
+                for (final Pending pending : batch) {
+                    write(List.of(pending));
+                }
+            }
+            return;
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).future.complete(ids.get(i));
+        }
+    }
+
+    private List<Long> persist(List<SqlStatement> statements) {
+        final TransactionManager manager = new TransactionManagerImpl(this.ds, this.context);
+        manager.begin();
+        final List<Long> ids = manager.persistBatch(statements, true);
+        manager.commit();
+        return ids;
+    }
+
+    /**
+     * A queued statement.
+     */
+    private static final class Pending {
+
+        private final SqlStatement statement;
+        private final CompletableFuture<Long> future = new CompletableFuture<>();
+        private final long enqueued = System.nanoTime();
+
+        Pending(SqlStatement statement) {
+            this.statement = statement;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.tests;
+
+import java.util.Map;
+import java.util.Optional;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import org.veary.persist.PersistenceManagerFactory;
+import org.veary.persist.Query;
+import org.veary.persist.SqlStatement;
+import org.veary.persist.exceptions.NonUniqueResultException;
+
+public class FindFirstTest {
+
+    private PersistenceManagerFactory factory;
+
+    @BeforeClass
+    public void setUp() {
+        this.factory = TestDatabase.factory("findfirst");
+        this.factory.inTransaction(tx -> {
+            tx.persist(SqlStatement.newInstance(
+                "CREATE TABLE IF NOT EXISTS member(id INT PRIMARY KEY, name VARCHAR(20))"));
+            tx.persist(SqlStatement.newInstance("DELETE FROM member"));
+            return tx.persist(SqlStatement.newInstance(
+                "INSERT INTO member SELECT X, 'm' || X FROM SYSTEM_RANGE(1, 100)"));
+        });
+    }
+
+    @Test
+    public void exists() {
+        Assert.assertTrue(query("SELECT id FROM member", null).exists());
+        Assert.assertFalse(query("SELECT id FROM member WHERE id > 100", null).exists());
+        Assert.assertEquals(this.factory.getStatementStatistics()
+            .get("SELECT id FROM member").getRows(), 1);
+    }
+
+    @Test
+    public void findFirst() {
+        final Optional<Object> first = query("SELECT * FROM member ORDER BY id DESC",
+            Member.class).findFirst();
+        Assert.assertEquals(((Member) first.get()).getName(), "m100");
+        Assert.assertEquals(query("SELECT name FROM member ORDER BY id", null).findFirst(),
+            Optional.of("m1"));
+        Assert.assertEquals(query("SELECT name, id FROM member WHERE id = 5", null).findFirst(),
+            Optional.of("m5"));
+        Assert.assertFalse(query("SELECT * FROM member WHERE id = 0", Member.class).findFirst()
+            .isPresent());
+    }
+
+    @Test
+    public void findSingleResult() {
+        final Optional<Object> single = query("SELECT * FROM member WHERE id = 7", Member.class)
+            .findSingleResult();
+        Assert.assertEquals(((Member) single.get()).getName(), "m7");
+        Assert.assertEquals(query("SELECT * FROM member WHERE id = 0", Member.class)
+            .findSingleResult(), Optional.empty());
+        Assert.assertEquals(query("SELECT id, name FROM member WHERE id = 9", null)
+            .findSingleResult(), Optional.of(Integer.valueOf(9)));
+    }
+
+    @Test
+    public void singleResultIsFirstColumn() {
+        final String sql = "SELECT name, id FROM member WHERE id = 3";
+        Assert.assertEquals(query(sql, null).execute().getSingleResult(), "m3");
+        Assert.assertEquals(query(sql, null).setResultMemoryLimit(0).execute()
+            .getSingleResult(), "m3");
+        Assert.assertEquals(query(sql, null).setCacheable(true).execute().getSingleResult(),
+            "m3");
+        Assert.assertEquals(query(sql, null).setCacheable(true).execute().getSingleResult(),
+            "m3");
+    }
+
+    @Test(expectedExceptions = NonUniqueResultException.class)
+    public void findSingleResultNotUnique() {
+        query("SELECT * FROM member WHERE id > 50", Member.class).findSingleResult();
+    }
+
+    private Query query(String sql, Class<?> iface) {
+        final SqlStatement statement = SqlStatement.newInstance(sql);
+        return iface == null
+            ? this.factory.createQueryManager().createQuery(statement)
+            : this.factory.createQueryManager().createQuery(statement, iface);
+    }
+
+    public interface Member {
+
+        String getName();
+
+        static Member newInstance(Map<String, Object> dataMap) {
+            return () -> (String) dataMap.get("NAME");
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.tests;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.veary.persist.PersistenceManagerFactory;
+import org.veary.persist.SqlStatement;
+import org.veary.persist.TransactionManager;
+
+public class JfrEventsTest {
+
+    private static final String[] EVENTS = { "Statement", "ConnectionAcquire", "Transaction",
+        "EntityMapping", "BatchFlush" };
+
+    @Test
+    public void emitsEvents() throws IOException {
+        final PersistenceManagerFactory factory = TestDatabase.factory("jfr");
+
+        final Path file = Files.createTempFile("veary-persist", ".jfr");
+        try (Recording recording = new Recording()) {
+            for (final String name : EVENTS) {
+                recording.enable("org.veary.persist." + name).withoutThreshold();
+            }
+            recording.start();
+
+            final TransactionManager txManager = factory.createTransactionManager();
+            txManager.begin();
+            txManager.persist(SqlStatement.newInstance(
+                "CREATE TABLE IF NOT EXISTS pet(id INT PRIMARY KEY, name VARCHAR(20))"));
+            txManager.persist(SqlStatement.newInstance("DELETE FROM pet"));
+            txManager.persistBatch(List.of(
+                SqlStatement.newInstance("INSERT INTO pet VALUES(1, 'Rex')"),
+                SqlStatement.newInstance("INSERT INTO pet VALUES(2, 'Tom')")), true);
+            txManager.commit();
+
+            final List<?> pets = factory.createQueryManager().createQuery(
+                SqlStatement.newInstance("SELECT * FROM pet"), Pet.class).execute()
+                .getResultList();
+            Assert.assertEquals(pets.size(), 2);
+
+            recording.stop();
+            recording.dump(file);
+
+            final Map<String, RecordedEvent> seen = new HashMap<>();
+            for (final RecordedEvent event : RecordingFile.readAllEvents(file)) {
+                seen.putIfAbsent(event.getEventType().getName(), event);
+            }
+            for (final String name : EVENTS) {
+                Assert.assertTrue(seen.containsKey("org.veary.persist." + name), name);
+            }
+
+            final RecordedEvent tx = seen.get("org.veary.persist.Transaction");
+            Assert.assertEquals(tx.getString("outcome"), "commit");
+            Assert.assertEquals(tx.getInt("statements"), 4);
+
+            final RecordedEvent batch = seen.get("org.veary.persist.BatchFlush");
+            Assert.assertEquals(batch.getLong("rows"), 2);
+            Assert.assertTrue(batch.getBoolean("rewritten"));
+
+            final RecordedEvent mapping = seen.get("org.veary.persist.EntityMapping");
+            Assert.assertEquals(mapping.getInt("count"), 2);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    public interface Pet {
+
+        String getName();
+
+        static Pet newInstance(Map<String, Object> dataMap) {
+            return () -> (String) dataMap.get("NAME");
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.tests;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import org.veary.persist.NamedQueryCatalog;
+import org.veary.persist.PersistenceManagerFactory;
+import org.veary.persist.QueryManager;
+import org.veary.persist.SqlStatement;
+import org.veary.persist.TransactionManager;
+import org.veary.persist.exceptions.PersistenceException;
+
+public class NamedQueryTest {
+
+    private PersistenceManagerFactory factory;
+
+    @BeforeClass
+    public void setUp() {
+        this.factory = TestDatabase.factory("namedquery");
+
+        final TransactionManager txManager = this.factory.createTransactionManager();
+        txManager.begin();
+        txManager.persist(SqlStatement.newInstance("CREATE TABLE IF NOT EXISTS account("
+            + "id INT AUTO_INCREMENT PRIMARY KEY, name VARCHAR(255))"));
+        txManager.commit();
+
+        Assert.assertEquals(this.factory.registerNamedQueries(
+            NamedQueryCatalog.fromResource(NamedQueryTest.class, "/named-queries.properties")),
+            3);
+        Assert.assertEquals(this.factory.registerNamedQueries(
+            NamedQueryCatalog.fromResource(NamedQueryTest.class, "/named-queries.xml")), 1);
+
+        txManager.begin();
+        txManager.persist(this.factory.getNamedStatement("account.insert").setParameter(1, "CASH"));
+        txManager.persist(this.factory.getNamedStatement("account.insert").setParameter(1, "BANK"));
+        txManager.commit();
+    }
+
+    @Test
+    public void namedQueries() {
+        final QueryManager manager = this.factory.createQueryManager();
+        final Account cash = (Account) manager
+            .createNamedQuery("account.byName", Map.of("name", "CASH"))
+            .execute().getSingleResult();
+        Assert.assertEquals(cash.getName(), "CASH");
+
+        final Number count = (Number) manager
+            .createNamedQuery("account.count", Collections.emptyMap())
+            .execute().getSingleResult();
+        Assert.assertEquals(count.intValue(), 2);
+
+        final List<Object> all = manager
+            .createNamedQuery("account.all", Map.of("after", Integer.valueOf(0)))
+            .execute().getResultList();
+        Assert.assertEquals(all.size(), 2);
+        Assert.assertEquals(((Account) all.get(1)).getName(), "BANK");
+    }
+
+    @Test
+    public void registrationFillsStatementCache() {
+        final PersistenceManagerFactory fresh = TestDatabase.factory("namedquery");
+        fresh.registerNamedQueries(NamedQueryCatalog.newInstance()
+            .add("account.byId", "SELECT * FROM account WHERE id = :id", Account.class));
+
+        final List<Object> accounts = fresh.createQueryManager()
+            .createNamedQuery("account.byId", Map.of("id", Integer.valueOf(1)))
+            .execute().getResultList();
+        Assert.assertEquals(accounts.size(), 1);
+        Assert.assertEquals(fresh.getStatistics().getStatementCacheHitRate(), 1.0);
+    }
+
+    @Test(expectedExceptions = NullPointerException.class)
+    public void nullParameters() {
+        this.factory.createQueryManager().createNamedQuery("account.count", null);
+    }
+
+    @Test
+    public void invalidCatalogIsRejected() {
+        final NamedQueryCatalog catalog = NamedQueryCatalog.newInstance()
+            .add("good", "SELECT name FROM account")
+            .add("badTable", "SELECT * FROM no_such_table")
+            .add("badEntity", "INSERT INTO account(name) VALUES(?)", Account.class)
+            .add("noFactory", "SELECT * FROM account", Runnable.class);
+        try {
+            this.factory.registerNamedQueries(catalog);
+            Assert.fail("invalid catalog was registered");
+        } catch (final PersistenceException e) {
+            Assert.assertFalse(e.getMessage().contains("good:"));
+            Assert.assertTrue(e.getMessage().contains("badTable:"));
+            Assert.assertTrue(e.getMessage().contains("badEntity:"));
+            Assert.assertTrue(e.getMessage().contains("noFactory:"));
+        }
+        Assert.assertThrows(IllegalArgumentException.class,
+            () -> this.factory.getNamedStatement("good"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class,
+        expectedExceptionsMessageRegExp = "Duplicate query name: a")
+    public void duplicateName() {
+        NamedQueryCatalog.newInstance().add("a", "SELECT 1").add("a", "SELECT 2");
+    }
+
+    public interface Account {
+
+        String getName();
+
+        static Account newInstance(Map<String, Object> dataMap) {
+            return () -> (String) dataMap.get("NAME");
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.tests;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import org.veary.persist.ParallelScan;
+import org.veary.persist.PersistenceManagerFactory;
+import org.veary.persist.QueryManager;
+import org.veary.persist.SqlStatement;
+import org.veary.persist.TransactionManager;
+
+public class ParallelScanTest {
+
+    private static final int ROWS = 5000;
+
+    private PersistenceManagerFactory factory;
+
+    @BeforeClass
+    public void setUp() {
+        this.factory = TestDatabase.factory("parallel_scan");
+
+        final TransactionManager txManager = this.factory.createTransactionManager();
+        txManager.begin();
+        txManager.persist(SqlStatement.newInstance(
+            "CREATE TABLE IF NOT EXISTS item(id INT PRIMARY KEY, grp INT, created TIMESTAMP)"));
+        txManager.persist(SqlStatement.newInstance("DELETE FROM item"));
+        final List<SqlStatement> inserts = new ArrayList<>();
+        for (int i = 1; i <= ROWS; i++) {
+            inserts.add(SqlStatement.newInstance(
+                "INSERT INTO item(id, grp, created) VALUES(:id, :grp, "
+                    + "DATEADD('MINUTE', :id, TIMESTAMP '2019-01-01 00:00:00'))")
+                .setParameter("id", Integer.valueOf(i))
+                .setParameter("grp", Integer.valueOf(i % 10)));
+        }
+        txManager.persistBatch(inserts);
+        txManager.persist(SqlStatement.newInstance("INSERT INTO item(id) VALUES(0)"));
+        txManager.commit();
+    }
+
+    @Test
+    public void forEachPartition() {
+        final QueryManager manager = this.factory.createQueryManager();
+        final ParallelScan scan = manager.createParallelScan(
+            SqlStatement.newInstance("SELECT id, grp FROM item"), Item.class, "id", 4);
+
+        final Map<Integer, List<Object>> partitions = new ConcurrentHashMap<>();
+        final long rows = scan.forEachPartition(partition -> {
+            final List<Object> items = new ArrayList<>();
+            partitions.put(Integer.valueOf(partition), items);
+            return items::add;
+        });
+
+        Assert.assertEquals(rows, ROWS + 1);
+        Assert.assertEquals(partitions.size(), 4);
+        final Set<Integer> ids = new HashSet<>();
+        for (final List<Object> items : partitions.values()) {
+            Assert.assertFalse(items.isEmpty());
+            items.forEach(item -> ids.add(((Item) item).getId()));
+        }
+        Assert.assertEquals(ids.size(), ROWS + 1);
+    }
+
+    @Test
+    public void partitionsRecordedWithFactory() {
+        final PersistenceManagerFactory recorded = TestDatabase.factory("parallel_scan");
+        final long rows = recorded.createQueryManager().createParallelScan(
+            SqlStatement.newInstance("SELECT id, grp FROM item"), Item.class, "id", 4)
+            .forEachPartition(partition -> item -> {
+            });
+
+        Assert.assertEquals(rows, ROWS + 1);
+        // the boundary query and one query per partition
+        Assert.assertEquals(recorded.getStatistics().getQueryCount(), 5);
+        Assert.assertEquals(recorded.getStatistics().getConnectionsInUse(), 0);
+    }
+
+    @Test
+    public void mergedStreamWithParameters() {
+        final ParallelScan scan = this.factory.createQueryManager().createParallelScan(
+            SqlStatement.newInstance("SELECT id, grp FROM item WHERE grp = :grp")
+                .setParameter("grp", Integer.valueOf(3)),
+            Item.class, "id", 3);
+
+        try (Stream<Object> stream = scan.stream()) {
+            final Set<Integer> ids = stream.map(item -> ((Item) item).getId())
+                .collect(Collectors.toSet());
+            Assert.assertEquals(ids.size(), ROWS / 10);
+        }
+    }
+
+    @Test
+    public void temporalSplitColumn() {
+        final long rows = this.factory.createQueryManager().createParallelScan(
+            SqlStatement.newInstance("SELECT id, grp, created FROM item"), Item.class,
+            "created", 5).forEachPartition(partition -> item -> {
+            });
+        Assert.assertEquals(rows, ROWS + 1);
+    }
+
+    @Test
+    public void closeStreamEarly() {
+        final ParallelScan scan = this.factory.createQueryManager().createParallelScan(
+            SqlStatement.newInstance("SELECT id, grp FROM item"), Item.class, "id", 2);
+        try (Stream<Object> stream = scan.stream()) {
+            Assert.assertEquals(stream.limit(10).count(), 10);
+        }
+    }
+
+    @Test
+    public void concurrentRunsAreIndependent() {
+        final ParallelScan scan = this.factory.createQueryManager().createParallelScan(
+            SqlStatement.newInstance("SELECT id, grp FROM item"), Item.class, "id", 2);
+        final Stream<Object> first = scan.stream();
+        final Iterator<Object> firstItems = first.iterator();
+        firstItems.next();
+
+        try (Stream<Object> second = scan.stream()) {
+            final Iterator<Object> secondItems = second.iterator();
+            long count = 0;
+            for (; count < 10; count++) {
+                secondItems.next();
+            }
+            first.close();
+            while (secondItems.hasNext()) {
+                secondItems.next();
+                count++;
+            }
+            Assert.assertEquals(count, ROWS + 1);
+        }
+    }
+
+    @Test(
+        expectedExceptions = IllegalArgumentException.class,
+        expectedExceptionsMessageRegExp = "Split column must be a column name.")
+    public void invalidSplitColumn() {
+        this.factory.createQueryManager().createParallelScan(
+            SqlStatement.newInstance("SELECT id FROM item"), Item.class, "id; DROP TABLE", 2);
+    }
+
+    public interface Item {
+
+        Integer getId();
+
+        static Item newInstance(Map<String, Object> dataMap) {
+            return () -> (Integer) dataMap.get("ID");
+        }
+    }
+}
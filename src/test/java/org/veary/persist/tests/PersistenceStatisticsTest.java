@@ -0,0 +1,159 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.tests;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.sql.DataSource;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.veary.persist.PersistenceManagerFactory;
+import org.veary.persist.PersistenceStatisticsMXBean;
+import org.veary.persist.SqlStatement;
+import org.veary.persist.TransactionManager;
+import org.veary.persist.exceptions.PersistenceException;
+import org.veary.persist.internal.LogHistogram;
+
+public class PersistenceStatisticsTest {
+
+    private PersistenceManagerFactory factory;
+
+    @BeforeMethod
+    public void setUp() {
+        final DataSource ds = TestDatabase.dataSource("statistics");
+        new PersistenceManagerFactory(ds).inTransaction(tx -> {
+            tx.persist(SqlStatement.newInstance(
+                "CREATE TABLE IF NOT EXISTS tag(id INT PRIMARY KEY, label VARCHAR(20))"));
+            tx.persist(SqlStatement.newInstance("DELETE FROM tag"));
+            return tx.persist(SqlStatement.newInstance("INSERT INTO tag VALUES(1, 'red')"));
+        });
+        this.factory = new PersistenceManagerFactory(ds);
+    }
+
+    @Test
+    public void countsOperations() {
+        final PersistenceStatisticsMXBean stats = this.factory.getStatistics();
+
+        final TransactionManager txManager = this.factory.createTransactionManager();
+        txManager.begin();
+        Assert.assertEquals(stats.getConnectionsInUse(), 1);
+        txManager.persist(SqlStatement.newInstance("INSERT INTO tag VALUES(2, 'blue')"));
+        txManager.commit();
+        txManager.begin();
+        txManager.persist(SqlStatement.newInstance("INSERT INTO tag VALUES(3, 'green')"));
+        txManager.rollback();
+
+        label(1, true);
+        label(1, true);
+        try {
+            this.factory.createQueryManager()
+                .createQuery(SqlStatement.newInstance("SELECT * FROM missing"), Tag.class)
+                .execute();
+            Assert.fail();
+        } catch (final PersistenceException e) {
+            // expected
+        }
+
+        Assert.assertEquals(stats.getPersistCount(), 2);
+        Assert.assertEquals(stats.getCommitCount(), 1);
+        Assert.assertEquals(stats.getRollbackCount(), 1);
+        Assert.assertEquals(stats.getQueryCount(), 3);
+        Assert.assertEquals(stats.getErrorCount(), 1);
+        Assert.assertEquals(stats.getConnectionsInUse(), 0);
+        Assert.assertEquals(stats.getConnectionsWaiting(), 0);
+        Assert.assertEquals(stats.getResultCacheHitRate(), 0.5);
+        Assert.assertTrue(stats.getStatementCacheHitRate() > 0);
+
+        final PersistenceStatisticsMXBean.Latency latency = stats.getQueryLatency();
+        Assert.assertEquals(latency.getCount(), 2);
+        Assert.assertTrue(latency.getP50Millis() > 0);
+        Assert.assertTrue(latency.getP99Millis() <= latency.getMaxMillis());
+
+        stats.resetLatencies();
+        Assert.assertEquals(stats.getQueryLatency().getCount(), 0);
+        Assert.assertEquals(stats.getQueryCount(), 3);
+    }
+
+    @Test
+    public void registersMBean() throws Exception {
+        final ObjectName name = this.factory.registerMBean("orders");
+        try {
+            label(1, false);
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            Assert.assertEquals(server.getAttribute(name, "QueryCount"), Long.valueOf(1));
+            final CompositeData latency = (CompositeData) server.getAttribute(name,
+                "QueryLatency");
+            Assert.assertEquals(latency.get("count"), Long.valueOf(1));
+            Assert.assertEquals(this.factory.registerMBean("orders"), name);
+        } finally {
+            this.factory.unregisterMBean();
+        }
+        Assert.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+
+    @Test
+    public void histogramPercentiles() {
+        final LogHistogram histogram = new LogHistogram();
+        for (int i = 1; i <= 10000; i++) {
+            histogram.record(i * 1000L);
+        }
+        Assert.assertEquals(histogram.getCount(), 10000);
+        Assert.assertEquals(histogram.getMin(), 1000);
+        Assert.assertEquals(histogram.getMax(), 10_000_000);
+        for (final Map.Entry<Double, Long> expected : Map.of(Double.valueOf(0.5),
+            Long.valueOf(5_000_000), Double.valueOf(0.99), Long.valueOf(9_900_000)).entrySet()) {
+            final double actual = histogram.getPercentile(expected.getKey().doubleValue());
+            Assert.assertEquals(actual, expected.getValue().doubleValue(),
+                expected.getValue().doubleValue() * 0.125);
+        }
+        Assert.assertEquals(histogram.getPercentile(1.0), 10_000_000);
+
+        histogram.reset();
+        Assert.assertEquals(histogram.getPercentile(0.5), 0);
+    }
+
+    private String label(int id, boolean cacheable) {
+        final Tag tag = (Tag) this.factory.createQueryManager()
+            .createQuery(SqlStatement.newInstance("SELECT * FROM tag WHERE id = :id")
+                .setParameter("id", Integer.valueOf(id)), Tag.class)
+            .setCacheable(cacheable).execute().getSingleResult();
+        return tag.getLabel();
+    }
+
+    public interface Tag {
+
+        String getLabel();
+
+        static Tag newInstance(Map<String, Object> dataMap) {
+            return () -> (String) dataMap.get("LABEL");
+        }
+    }
+}
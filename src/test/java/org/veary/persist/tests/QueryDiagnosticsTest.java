@@ -0,0 +1,126 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.tests;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.veary.persist.PersistenceManagerFactory;
+import org.veary.persist.QueryDiagnostics;
+import org.veary.persist.QueryPlan;
+import org.veary.persist.SqlStatement;
+import org.veary.persist.TransactionManager;
+
+public class QueryDiagnosticsTest {
+
+    private PersistenceManagerFactory factory;
+    private QueryDiagnostics diagnostics;
+
+    @BeforeClass
+    public void setUp() {
+        this.factory = TestDatabase.factory("diagnostics");
+
+        final TransactionManager txManager = this.factory.createTransactionManager();
+        txManager.begin();
+        txManager.persist(SqlStatement.newInstance("CREATE TABLE IF NOT EXISTS posting("
+            + "id INT PRIMARY KEY, account INT, memo VARCHAR(255))"));
+        txManager.persist(SqlStatement.newInstance("DELETE FROM posting"));
+        final List<SqlStatement> inserts = new ArrayList<>();
+        for (int i = 1; i <= 200; i++) {
+            inserts.add(SqlStatement.newInstance("INSERT INTO posting VALUES(?, ?, 'memo')")
+                .setParameter(1, Integer.valueOf(i))
+                .setParameter(2, Integer.valueOf(i % 7)));
+        }
+        txManager.persistBatch(inserts, true);
+        txManager.persist(SqlStatement.newInstance("ANALYZE"));
+        txManager.commit();
+    }
+
+    @BeforeMethod
+    public void enable() {
+        this.diagnostics = this.factory.enableQueryDiagnostics(100);
+    }
+
+    @Test
+    public void indexedLookup() {
+        for (int i = 1; i <= 3; i++) {
+            run(SqlStatement.newInstance("SELECT * FROM posting WHERE id = ?")
+                .setParameter(1, Integer.valueOf(i)));
+        }
+
+        final QueryPlan plan = this.diagnostics.getPlan("SELECT * FROM posting WHERE id = 42");
+        Assert.assertNotNull(plan);
+        Assert.assertEquals(plan.getExecutionCount(), 3);
+        Assert.assertTrue(plan.isIndexUsed(), plan.getPlan());
+        Assert.assertTrue(plan.getScannedTables().isEmpty(), plan.getPlan());
+        Assert.assertTrue(plan.getWarnings().isEmpty());
+        Assert.assertTrue(this.diagnostics.getWarnings().isEmpty());
+    }
+
+    @Test
+    public void fullScanIsReported() {
+        run(SqlStatement.newInstance("SELECT * FROM posting WHERE account = ?")
+            .setParameter(1, Integer.valueOf(3)));
+        run(SqlStatement.newInstance("SELECT * FROM posting WHERE account IN (:a)")
+            .setParameterList("a", Arrays.asList(Integer.valueOf(1), Integer.valueOf(2))));
+        run(SqlStatement.newInstance("SELECT * FROM posting WHERE account IN (:a)")
+            .setParameterList("a", Arrays.asList(Integer.valueOf(4))));
+
+        final List<QueryPlan> warnings = this.diagnostics.getWarnings();
+        Assert.assertEquals(warnings.size(), 2);
+        final QueryPlan plan = warnings.get(0);
+        Assert.assertEquals(plan.getShape(), "SELECT * FROM posting WHERE account IN (?)");
+        Assert.assertEquals(plan.getExecutionCount(), 2);
+        Assert.assertEquals(plan.getScannedTables(), Arrays.asList("PUBLIC.POSTING"));
+        Assert.assertFalse(plan.isIndexUsed());
+        Assert.assertEquals(plan.getWarnings().size(), 2, plan.getWarnings().toString());
+    }
+
+    @Test
+    public void disabled() {
+        this.factory.disableQueryDiagnostics();
+        Assert.assertNull(this.factory.getQueryDiagnostics());
+        run(SqlStatement.newInstance("SELECT * FROM posting WHERE account = 1"));
+        Assert.assertTrue(this.diagnostics.getPlans().isEmpty());
+    }
+
+    private void run(SqlStatement statement) {
+        this.factory.createQueryManager().createQuery(statement, Posting.class).execute();
+    }
+
+    public interface Posting {
+
+        static Posting newInstance(Map<String, Object> dataMap) {
+            return new Posting() {
+            };
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.tests;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import javax.sql.DataSource;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import org.veary.persist.ExportFormat;
+import org.veary.persist.PersistenceManagerFactory;
+import org.veary.persist.QueryManager;
+import org.veary.persist.SqlStatement;
+import org.veary.persist.TransactionManager;
+
+public class QueryExportTest {
+
+    private PersistenceManagerFactory factory;
+    private Path dir;
+
+    @BeforeClass
+    public void setUp() throws IOException {
+        this.factory = TestDatabase.factory("export");
+        this.dir = Files.createTempDirectory("export-test");
+
+        final TransactionManager txManager = this.factory.createTransactionManager();
+        txManager.begin();
+        txManager.persist(SqlStatement.newInstance("CREATE TABLE IF NOT EXISTS ledger("
+            + "id BIGINT PRIMARY KEY, name VARCHAR(255), amount DOUBLE, posted BOOLEAN)"));
+        txManager.persist(SqlStatement.newInstance("DELETE FROM ledger"));
+        txManager.persist(SqlStatement.newInstance(
+            "INSERT INTO ledger VALUES(-9223372036854775808, 'Cash, \"petty\"', 1.5, TRUE)"));
+        txManager.persist(SqlStatement.newInstance(
+            "INSERT INTO ledger VALUES(2, 'Café 😀', NULL, NULL)"));
+        txManager.persist(SqlStatement.newInstance(
+            "INSERT INTO ledger VALUES(3, NULL, -2.25, FALSE)"));
+        final List<SqlStatement> inserts = new ArrayList<>();
+        for (int i = 100; i < 20_100; i++) {
+            inserts.add(SqlStatement.newInstance(
+                "INSERT INTO ledger VALUES(?, 'bulk entry with some text', 0.5, TRUE)")
+                .setParameter(1, Long.valueOf(i)));
+        }
+        txManager.persistBatch(inserts, true);
+        txManager.commit();
+    }
+
+    @AfterClass
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.list(this.dir)) {
+            for (final Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(this.dir);
+    }
+
+    @Test
+    public void exportCsv() throws IOException {
+        final Path file = this.dir.resolve("ledger.csv");
+        final long rows = manager().createQuery(SqlStatement
+            .newInstance("SELECT * FROM ledger WHERE id < :max ORDER BY id")
+            .setParameter("max", Integer.valueOf(100)))
+            .export(file, ExportFormat.CSV);
+
+        Assert.assertEquals(rows, 3);
+        Assert.assertEquals(new String(Files.readAllBytes(file), StandardCharsets.UTF_8),
+            "ID,NAME,AMOUNT,POSTED\r\n"
+                + "-9223372036854775808,\"Cash, \"\"petty\"\"\",1.5,true\r\n"
+                + "2,Café 😀,,\r\n"
+                + "3,,-2.25,false\r\n");
+    }
+
+    @Test
+    public void exportBinary() throws IOException {
+        final Path file = this.dir.resolve("ledger.bin");
+        final long rows = manager().createQuery(SqlStatement
+            .newInstance("SELECT id, name, amount, posted FROM ledger WHERE id < 100 ORDER BY id"))
+            .export(file, ExportFormat.BINARY);
+        Assert.assertEquals(rows, 3);
+
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            final byte[] magic = new byte[4];
+            in.readFully(magic);
+            Assert.assertEquals(new String(magic, StandardCharsets.US_ASCII), "VPX1");
+            Assert.assertEquals(in.readInt(), 4);
+            Assert.assertEquals(readString(in), "ID");
+            Assert.assertEquals(readString(in), "NAME");
+            Assert.assertEquals(readString(in), "AMOUNT");
+            Assert.assertEquals(readString(in), "POSTED");
+
+            in.readInt();
+            Assert.assertEquals(in.readByte(), 5);
+            Assert.assertEquals(in.readLong(), Long.MIN_VALUE);
+            Assert.assertEquals(in.readByte(), 8);
+            Assert.assertEquals(readString(in), "Cash, \"petty\"");
+            Assert.assertEquals(in.readByte(), 7);
+            Assert.assertEquals(in.readDouble(), 1.5);
+            Assert.assertEquals(in.readByte(), 1);
+            Assert.assertEquals(in.readByte(), 1);
+
+            final int length = in.readInt();
+            final byte[] row = new byte[length];
+            in.readFully(row);
+            Assert.assertEquals(row[length - 1], 0);
+            Assert.assertEquals(row[length - 2], 0);
+
+            in.readInt();
+            Assert.assertEquals(in.readByte(), 5);
+            Assert.assertEquals(in.readLong(), 3);
+            Assert.assertEquals(in.readByte(), 0);
+            Assert.assertEquals(in.readByte(), 7);
+            Assert.assertEquals(in.readDouble(), -2.25);
+            Assert.assertEquals(in.readByte(), 1);
+            Assert.assertEquals(in.readByte(), 0);
+            Assert.assertEquals(in.read(), -1);
+        }
+    }
+
+    @Test
+    public void exportLargerThanBuffer() throws IOException {
+        final Path file = this.dir.resolve("bulk.csv");
+        final long rows = manager().createQuery(SqlStatement
+            .newInstance("SELECT * FROM ledger WHERE id >= 100"))
+            .export(file, ExportFormat.CSV);
+
+        Assert.assertEquals(rows, 20_000);
+        Assert.assertEquals(Files.readAllLines(file).size(), 20_001);
+    }
+
+    @Test
+    public void exportStreamsResult() throws IOException {
+        final List<Object> fetchSizes = new ArrayList<>();
+        final List<Object> autoCommits = new ArrayList<>();
+        final DataSource target = TestDatabase.dataSource("export");
+        final DataSource ds = (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[] { DataSource.class }, (proxy, method, args) -> {
+                final Object result = invoke(target, method, args);
+                if (!"getConnection".equals(method.getName())) {
+                    return result;
+                }
+                return Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[] { Connection.class }, (p, m, a) -> {
+                        if ("setAutoCommit".equals(m.getName())) {
+                            autoCommits.add(a[0]);
+                        }
+                        final Object value = invoke(result, m, a);
+                        if (!"prepareStatement".equals(m.getName())) {
+                            return value;
+                        }
+                        return Proxy.newProxyInstance(getClass().getClassLoader(),
+                            value.getClass().getInterfaces(), (sp, sm, sa) -> {
+                                if ("setFetchSize".equals(sm.getName())) {
+                                    fetchSizes.add(sa[0]);
+                                }
+                                return invoke(value, sm, sa);
+                            });
+                    });
+            });
+
+        final long rows = new PersistenceManagerFactory(ds).createQueryManager()
+            .createQuery(SqlStatement.newInstance("SELECT * FROM ledger WHERE id >= 100"))
+            .export(this.dir.resolve("streamed.csv"), ExportFormat.CSV);
+        Assert.assertEquals(rows, 20_000);
+        Assert.assertEquals(fetchSizes, List.of(Integer.valueOf(1000)));
+        Assert.assertEquals(autoCommits, List.of(Boolean.FALSE, Boolean.TRUE));
+    }
+
+    private QueryManager manager() {
+        return this.factory.createQueryManager();
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        final byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args)
+        throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (final InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
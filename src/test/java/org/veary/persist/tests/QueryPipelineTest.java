@@ -0,0 +1,165 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.tests;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import org.veary.persist.PersistenceManagerFactory;
+import org.veary.persist.QueryPipeline;
+import org.veary.persist.SqlStatement;
+
+public class QueryPipelineTest {
+
+    private final AtomicInteger combinedPrepares = new AtomicInteger();
+    private DataSource ds;
+    private PersistenceManagerFactory factory;
+
+    @BeforeClass
+    public void setUp() {
+        this.ds = TestDatabase.dataSource("pipeline");
+        this.factory = new PersistenceManagerFactory(this.ds);
+        this.factory.inTransaction(tx -> {
+            tx.persist(SqlStatement.newInstance(
+                "CREATE TABLE IF NOT EXISTS product(id INT PRIMARY KEY, name VARCHAR(20))"));
+            tx.persist(SqlStatement.newInstance("DELETE FROM product"));
+            return tx.persist(SqlStatement.newInstance(
+                "INSERT INTO product SELECT X, 'p' || X FROM SYSTEM_RANGE(1, 10)"));
+        });
+    }
+
+    @Test
+    public void sequential() {
+        final QueryPipeline pipeline = this.factory.createQueryManager().createPipeline()
+            .add(SqlStatement.newInstance("SELECT * FROM product WHERE id = ?")
+                .setParameter(1, Integer.valueOf(3)), Product.class)
+            .add(SqlStatement.newInstance("SELECT COUNT(*) FROM product"))
+            .add(SqlStatement.newInstance("SELECT name FROM product WHERE id > :id ORDER BY id")
+                .setParameter("id", Integer.valueOf(8)))
+            .add(SqlStatement.newInstance("SELECT name FROM product WHERE id < 0"));
+        Assert.assertEquals(pipeline.size(), 4);
+
+        final List<List<Object>> results = pipeline.execute();
+        Assert.assertEquals(results.size(), 4);
+        Assert.assertEquals(((Product) results.get(0).get(0)).getName(), "p3");
+        Assert.assertEquals(((Number) results.get(1).get(0)).longValue(), 10L);
+        Assert.assertEquals(results.get(2), List.of("p9", "p10"));
+        Assert.assertTrue(results.get(3).isEmpty());
+        Assert.assertEquals(this.factory.getStatistics().getConnectionsInUse(), 0);
+    }
+
+    @Test
+    public void empty() {
+        Assert.assertTrue(this.factory.createQueryManager().createPipeline().execute()
+            .isEmpty());
+    }
+
+    @Test
+    public void fallsBackWhenCombinedStatementFails() {
+        final PersistenceManagerFactory multi = new PersistenceManagerFactory(
+            reportingMultipleResultSets(this.ds));
+        for (int i = 0; i < 2; i++) {
+            final List<List<Object>> results = multi.createQueryManager().createPipeline()
+                .add(SqlStatement.newInstance("SELECT name FROM product WHERE id = ?")
+                    .setParameter(1, Integer.valueOf(1)))
+                .add(SqlStatement.newInstance("SELECT name FROM product WHERE id = ?")
+                    .setParameter(1, Integer.valueOf(2)))
+                .execute();
+            Assert.assertEquals(results, List.of(List.of("p1"), List.of("p2")));
+        }
+        Assert.assertEquals(this.combinedPrepares.get(), 1);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void notSelect() {
+        this.factory.createQueryManager().createPipeline()
+            .add(SqlStatement.newInstance("DELETE FROM product"));
+    }
+
+    @Test(expectedExceptions = NullPointerException.class)
+    public void nullInterface() {
+        this.factory.createQueryManager().createPipeline()
+            .add(SqlStatement.newInstance("SELECT * FROM product"), null);
+    }
+
+    private DataSource reportingMultipleResultSets(DataSource target) {
+        return (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[] { DataSource.class }, (proxy, method, args) -> {
+                final Object result = invoke(target, method, args);
+                if (!"getConnection".equals(method.getName())) {
+                    return result;
+                }
+                final Connection conn = (Connection) result;
+                return Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[] { Connection.class }, (p, m, a) -> {
+                        if ("prepareStatement".equals(m.getName())
+                            && ((String) a[0]).contains(";")) {
+                            this.combinedPrepares.incrementAndGet();
+                        }
+                        final Object value = invoke(conn, m, a);
+                        if (!"getMetaData".equals(m.getName())) {
+                            return value;
+                        }
+                        final DatabaseMetaData md = (DatabaseMetaData) value;
+                        return Proxy.newProxyInstance(getClass().getClassLoader(),
+                            new Class<?>[] { DatabaseMetaData.class }, (mp, mm, ma) -> {
+                                if ("supportsMultipleResultSets".equals(mm.getName())) {
+                                    return Boolean.TRUE;
+                                }
+                                return invoke(md, mm, ma);
+                            });
+                    });
+            });
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args)
+        throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (final InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    public interface Product {
+
+        String getName();
+
+        static Product newInstance(Map<String, Object> dataMap) {
+            return () -> (String) dataMap.get("NAME");
+        }
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.tests;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import javax.sql.DataSource;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import org.veary.persist.PersistenceManagerFactory;
+import org.veary.persist.QueryManager;
+import org.veary.persist.SqlStatement;
+import org.veary.persist.TransactionManager;
+import org.veary.persist.exceptions.PersistenceException;
+
+public class QueryPublisherTest {
+
+    private static final int ROWS = 500;
+
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final AtomicInteger autoCommitsOff = new AtomicInteger();
+    private final AtomicInteger closedInTransaction = new AtomicInteger();
+    private PersistenceManagerFactory factory;
+    private QueryManager manager;
+
+    @BeforeClass
+    public void setUp() {
+        final DataSource h2 = TestDatabase.dataSource("publisher");
+        this.factory = new PersistenceManagerFactory(counting(h2));
+        this.manager = this.factory.createQueryManager();
+
+        final TransactionManager txManager = this.factory.createTransactionManager();
+        txManager.begin();
+        txManager.persist(SqlStatement.newInstance(
+            "CREATE TABLE IF NOT EXISTS event(id INT PRIMARY KEY)"));
+        txManager.persist(SqlStatement.newInstance("DELETE FROM event"));
+        final List<SqlStatement> inserts = new ArrayList<>();
+        for (int i = 1; i <= ROWS; i++) {
+            inserts.add(SqlStatement.newInstance("INSERT INTO event VALUES(?)")
+                .setParameter(1, Integer.valueOf(i)));
+        }
+        txManager.persistBatch(inserts);
+        txManager.commit();
+    }
+
+    @Test
+    public void publishesInBatchesAndCompletes() throws InterruptedException {
+        final TestSubscriber subscriber = new TestSubscriber(64, Long.MAX_VALUE);
+        this.manager.createPublisher(
+            SqlStatement.newInstance("SELECT * FROM event ORDER BY id"), Event.class)
+            .subscribe(subscriber);
+
+        Assert.assertTrue(subscriber.terminated.await(10, TimeUnit.SECONDS));
+        Assert.assertNull(subscriber.error);
+        Assert.assertTrue(subscriber.completed);
+        Assert.assertEquals(subscriber.ids.size(), ROWS);
+        Assert.assertEquals(subscriber.ids.get(0).intValue(), 1);
+        Assert.assertEquals(subscriber.ids.get(ROWS - 1).intValue(), ROWS);
+        Assert.assertEquals(this.openConnections.get(), 0);
+    }
+
+    @Test
+    public void cursorReadOutsideAutoCommit() throws InterruptedException {
+        final int before = this.autoCommitsOff.get();
+        final TestSubscriber subscriber = new TestSubscriber(Long.MAX_VALUE, Long.MAX_VALUE);
+        this.manager.createPublisher(SqlStatement.newInstance("SELECT * FROM event"),
+            Event.class).subscribe(subscriber);
+
+        Assert.assertTrue(subscriber.terminated.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(subscriber.ids.size(), ROWS);
+        Assert.assertEquals(this.autoCommitsOff.get(), before + 1);
+        Assert.assertEquals(this.closedInTransaction.get(), 0);
+    }
+
+    @Test
+    public void readsOnlyWhatIsRequested() throws InterruptedException {
+        final TestSubscriber subscriber = new TestSubscriber(0, 0);
+        this.manager.createPublisher(
+            SqlStatement.newInstance("SELECT * FROM event ORDER BY id"), Event.class)
+            .subscribe(subscriber);
+
+        Thread.sleep(50);
+        Assert.assertEquals(this.openConnections.get(), 0);
+        subscriber.subscription.request(3);
+        waitFor(() -> subscriber.ids.size() == 3);
+        Thread.sleep(50);
+        Assert.assertEquals(subscriber.ids.size(), 3);
+        Assert.assertEquals(this.openConnections.get(), 1);
+        Assert.assertEquals(this.factory.getStatistics().getConnectionsInUse(), 1);
+
+        subscriber.subscription.cancel();
+        waitFor(() -> this.openConnections.get() == 0
+            && this.factory.getStatistics().getConnectionsInUse() == 0);
+        Assert.assertFalse(subscriber.completed);
+    }
+
+    @Test
+    public void cancelFromOnNext() throws InterruptedException {
+        final TestSubscriber subscriber = new TestSubscriber(Long.MAX_VALUE, 10);
+        this.manager.createPublisher(
+            SqlStatement.newInstance("SELECT * FROM event ORDER BY id"), Event.class)
+            .subscribe(subscriber);
+
+        waitFor(() -> this.openConnections.get() == 0 && subscriber.ids.size() == 10);
+        Thread.sleep(50);
+        Assert.assertEquals(subscriber.ids.size(), 10);
+    }
+
+    @Test
+    public void signalsErrors() throws InterruptedException {
+        final TestSubscriber subscriber = new TestSubscriber(10, Long.MAX_VALUE);
+        this.manager.createPublisher(
+            SqlStatement.newInstance("SELECT * FROM missing_table"), Event.class)
+            .subscribe(subscriber);
+
+        Assert.assertTrue(subscriber.terminated.await(10, TimeUnit.SECONDS));
+        Assert.assertTrue(subscriber.error instanceof PersistenceException);
+        Assert.assertEquals(this.openConnections.get(), 0);
+
+        final TestSubscriber invalid = new TestSubscriber(-1, Long.MAX_VALUE);
+        this.manager.createPublisher(
+            SqlStatement.newInstance("SELECT * FROM event"), Event.class)
+            .subscribe(invalid);
+        Assert.assertTrue(invalid.terminated.await(10, TimeUnit.SECONDS));
+        Assert.assertTrue(invalid.error instanceof IllegalArgumentException);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void rejectsNonSelect() {
+        this.manager.createPublisher(SqlStatement.newInstance("DELETE FROM event"),
+            Event.class);
+    }
+
+    private static void waitFor(BooleanSupplier condition)
+        throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            Assert.assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.sleep(5);
+        }
+    }
+
+    private DataSource counting(DataSource target) {
+        return (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[] { DataSource.class }, (proxy, method, args) -> {
+                final Object result = invoke(target, method, args);
+                if (!"getConnection".equals(method.getName())) {
+                    return result;
+                }
+                this.openConnections.incrementAndGet();
+                final Connection conn = (Connection) result;
+                return Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[] { Connection.class }, (p, m, a) -> {
+                        if ("close".equals(m.getName()) && !conn.isClosed()) {
+                            this.openConnections.decrementAndGet();
+                            if (!conn.getAutoCommit()) {
+                                this.closedInTransaction.incrementAndGet();
+                            }
+                        }
+                        if ("setAutoCommit".equals(m.getName())
+                            && !((Boolean) a[0]).booleanValue()) {
+                            this.autoCommitsOff.incrementAndGet();
+                        }
+                        return invoke(conn, m, a);
+                    });
+            });
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args)
+        throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (final InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Requests {@code initial} rows on subscription and one more after each row, and cancels
+     * after {@code cancelAfter} rows.
+     */
+    private static final class TestSubscriber implements Flow.Subscriber<Object> {
+
+        private final long initial;
+        private final long cancelAfter;
+        private final List<Integer> ids = new CopyOnWriteArrayList<>();
+        private final CountDownLatch terminated = new CountDownLatch(1);
+        private volatile Flow.Subscription subscription;
+        private volatile Throwable error;
+        private volatile boolean completed;
+
+        TestSubscriber(long initial, long cancelAfter) {
+            this.initial = initial;
+            this.cancelAfter = cancelAfter;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (this.initial != 0) {
+                subscription.request(this.initial);
+            }
+        }
+
+        @Override
+        public void onNext(Object item) {
+            this.ids.add(((Event) item).getId());
+            if (this.ids.size() == this.cancelAfter) {
+                this.subscription.cancel();
+            } else if (this.initial != 0 && this.initial != Long.MAX_VALUE) {
+                this.subscription.request(1);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            this.error = throwable;
+            this.terminated.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            this.completed = true;
+            this.terminated.countDown();
+        }
+    }
+
+    public interface Event {
+
+        Integer getId();
+
+        static Event newInstance(Map<String, Object> dataMap) {
+            return () -> (Integer) dataMap.get("ID");
+        }
+    }
+}
@@ -130,6 +130,37 @@ public class QueryTest {
         Assert.assertTrue(Account.class.isInstance(list.get(0)));
     }
 
+    @Test
+    public void inListResults() {
+        final PersistenceManagerFactory factory = this.injector
+            .getInstance(PersistenceManagerFactory.class);
+        final QueryManager manager = factory.createQueryManager();
+
+        SqlStatement statement = SqlStatement
+            .newInstance("SELECT * FROM DEBS.ACCOUNT WHERE NAME IN (:names)");
+        statement.setParameterList("names", List.of("CASH", "EXPENSE", "NONE"));
+
+        List<Object> list = manager.createQuery(statement, Account.class).execute()
+            .getResultList();
+        Assert.assertEquals(list.size(), 2);
+    }
+
+    @Test
+    public void spilledResultsList() {
+        final PersistenceManagerFactory factory = this.injector
+            .getInstance(PersistenceManagerFactory.class);
+        final QueryManager manager = factory.createQueryManager();
+
+        SqlStatement statement = SqlStatement
+            .newInstance("SELECT * FROM DEBS.ACCOUNT ORDER BY ID");
+        List<Object> list = manager.createQuery(statement, Account.class)
+            .setResultMemoryLimit(0).execute().getResultList();
+
+        Assert.assertEquals(list.size(), 2);
+        Assert.assertEquals(((Account) list.get(0)).getName(), "CASH");
+        Assert.assertEquals(((Account) list.get(1)).getName(), "EXPENSE");
+    }
+
     public interface Account {
 
         Long getId();
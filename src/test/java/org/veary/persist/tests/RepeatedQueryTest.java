@@ -0,0 +1,189 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.tests;
+
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import org.veary.persist.PersistenceManagerFactory;
+import org.veary.persist.QueryManager;
+import org.veary.persist.QueryScope;
+import org.veary.persist.SqlStatement;
+import org.veary.persist.TransactionManager;
+import org.veary.persist.exceptions.RepeatedQueryException;
+
+public class RepeatedQueryTest {
+
+    private PersistenceManagerFactory factory;
+
+    @BeforeClass
+    public void setUp() {
+        this.factory = TestDatabase.factory("repeated");
+
+        final TransactionManager txManager = this.factory.createTransactionManager();
+        txManager.begin();
+        txManager.persist(SqlStatement.newInstance(
+            "CREATE TABLE IF NOT EXISTS owner(id INT PRIMARY KEY, name VARCHAR(255))"));
+        txManager.persist(SqlStatement.newInstance("DELETE FROM owner"));
+        for (int i = 1; i <= 10; i++) {
+            txManager.persist(SqlStatement.newInstance("INSERT INTO owner VALUES(?, 'name')")
+                .setParameter(1, Integer.valueOf(i)));
+        }
+        txManager.commit();
+    }
+
+    @AfterMethod
+    public void disable() {
+        this.factory.disableRepeatedQueryDetection();
+    }
+
+    @Test
+    public void strictModeThrowsWithCallSite() {
+        this.factory.enableRepeatedQueryDetection(3, true);
+        try (QueryScope scope = this.factory.openScope("strict")) {
+            for (int i = 1; i <= 3; i++) {
+                findOwner(i);
+            }
+            try {
+                findOwner(4);
+                Assert.fail("fourth query was not reported");
+            } catch (final RepeatedQueryException e) {
+                Assert.assertTrue(e.getMessage().contains("RepeatedQueryTest.findOwner"),
+                    e.getMessage());
+                Assert.assertTrue(e.getMessage().endsWith("SELECT * FROM owner WHERE id = ?"));
+            }
+            Assert.assertEquals(scope.getFindings().size(), 1);
+        }
+    }
+
+    @Test
+    public void repeatedParametersAndOtherScopesAreNotCounted() {
+        this.factory.enableRepeatedQueryDetection(3, true);
+        try (QueryScope scope = this.factory.openScope("same parameters")) {
+            for (int i = 0; i < 10; i++) {
+                findOwner(1);
+            }
+            Assert.assertTrue(scope.getFindings().isEmpty());
+        }
+
+        for (int i = 1; i <= 10; i++) {
+            findOwner(i);
+        }
+
+        try (QueryScope outer = this.factory.openScope("outer")) {
+            for (int i = 1; i <= 3; i++) {
+                try (QueryScope inner = this.factory.openScope("inner")) {
+                    findOwner(i);
+                    findOwner(i + 3);
+                }
+            }
+            Assert.assertTrue(outer.getFindings().isEmpty());
+        }
+    }
+
+    @Test
+    public void inlineValuesAreDistinct() {
+        this.factory.enableRepeatedQueryDetection(3, false);
+        try (QueryScope scope = this.factory.openScope("inline")) {
+            for (int i = 1; i <= 3; i++) {
+                findOwnerInline(i);
+            }
+            Assert.assertTrue(scope.getFindings().isEmpty());
+            findOwnerInline(1);
+            Assert.assertTrue(scope.getFindings().isEmpty());
+            findOwnerInline(4);
+            Assert.assertEquals(scope.getFindings().size(), 1);
+            Assert.assertTrue(scope.getFindings().get(0)
+                .endsWith("SELECT * FROM owner WHERE id = ?"));
+        }
+    }
+
+    @Test
+    public void logsWhenNotStrict() {
+        this.factory.enableRepeatedQueryDetection(2, false);
+        try (QueryScope scope = this.factory.openScope("lenient")) {
+            for (int i = 1; i <= 10; i++) {
+                findOwner(i);
+            }
+            Assert.assertEquals(scope.getFindings().size(), 1);
+            Assert.assertTrue(scope.getFindings().get(0).startsWith("lenient: "));
+        }
+    }
+
+    @Test
+    public void transactionIsAScope() {
+        this.factory.enableRepeatedQueryDetection(5, true);
+        final TransactionManager txManager = this.factory.createTransactionManager();
+        txManager.begin();
+        try {
+            for (int i = 1; i <= 6; i++) {
+                txManager.persist(SqlStatement
+                    .newInstance("UPDATE owner SET name = 'renamed' WHERE id = ?")
+                    .setParameter(1, Integer.valueOf(i)));
+            }
+            Assert.fail("sixth update was not reported");
+        } catch (final RepeatedQueryException e) {
+            txManager.rollback();
+        }
+
+        txManager.begin();
+        txManager.persist(
+            SqlStatement.newInstance("UPDATE owner SET name = 'renamed' WHERE id = 1"));
+        txManager.commit();
+    }
+
+    @Test
+    public void disabledScopeIsInert() {
+        try (QueryScope scope = this.factory.openScope("disabled")) {
+            for (int i = 1; i <= 10; i++) {
+                findOwner(i);
+            }
+            Assert.assertTrue(scope.getFindings().isEmpty());
+        }
+    }
+
+    private void findOwner(int id) {
+        final QueryManager manager = this.factory.createQueryManager();
+        manager.createQuery(SqlStatement.newInstance("SELECT * FROM owner WHERE id = ?")
+            .setParameter(1, Integer.valueOf(id)), Owner.class).execute().getSingleResult();
+    }
+
+    private void findOwnerInline(int id) {
+        final QueryManager manager = this.factory.createQueryManager();
+        manager.createQuery(SqlStatement.newInstance("SELECT * FROM owner WHERE id = " + id),
+            Owner.class).execute().getSingleResult();
+    }
+
+    public interface Owner {
+
+        static Owner newInstance(Map<String, Object> dataMap) {
+            return new Owner() {
+            };
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.tests;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import org.veary.persist.PersistenceManagerFactory;
+import org.veary.persist.QueryManager;
+import org.veary.persist.ReplicaSelection;
+import org.veary.persist.SqlStatement;
+import org.veary.persist.TransactionManager;
+
+public class ReplicaRoutingTest {
+
+    private DataSource primary;
+    private DataSource replicaOne;
+    private DataSource replicaTwo;
+
+    @BeforeClass
+    public void setUp() {
+        this.primary = createDatabase("replica_primary", "PRIMARY");
+        this.replicaOne = createDatabase("replica_one", "ONE");
+        this.replicaTwo = createDatabase("replica_two", "TWO");
+    }
+
+    @Test
+    public void roundRobinReads() {
+        final PersistenceManagerFactory factory = new PersistenceManagerFactory(this.primary,
+            List.of(this.replicaOne, this.replicaTwo), ReplicaSelection.ROUND_ROBIN);
+
+        final QueryManager manager = factory.createQueryManager();
+        final Set<String> seen = new HashSet<>();
+        for (int i = 0; i < 4; i++) {
+            seen.add(readName(manager));
+        }
+        Assert.assertEquals(seen, Set.of("ONE", "TWO"));
+    }
+
+    @Test
+    public void leastOutstandingReads() {
+        final PersistenceManagerFactory factory = new PersistenceManagerFactory(this.primary,
+            List.of(this.replicaOne, this.replicaTwo), ReplicaSelection.LEAST_OUTSTANDING);
+
+        final String name = readName(factory.createQueryManager());
+        Assert.assertTrue(Set.of("ONE", "TWO").contains(name));
+    }
+
+    @Test
+    public void primaryForWritesAndReadYourWrites() {
+        final PersistenceManagerFactory factory = new PersistenceManagerFactory(this.primary,
+            List.of(this.replicaOne), ReplicaSelection.ROUND_ROBIN);
+
+        final TransactionManager txManager = factory.createTransactionManager();
+        txManager.begin();
+        txManager.persist(SqlStatement.newInstance("UPDATE source SET name = 'PRIMARY'"));
+        txManager.commit();
+        Assert.assertEquals(txManager.getRowCount(), 1);
+
+        Assert.assertEquals(readName(factory.createPrimaryQueryManager()), "PRIMARY");
+        Assert.assertEquals(readName(factory.createQueryManager()), "ONE");
+    }
+
+    @Test
+    public void unhealthyReplicaEjected() {
+        final JdbcDataSource missing = new JdbcDataSource();
+        missing.setURL("jdbc:h2:mem:replica_missing;IFEXISTS=TRUE");
+
+        final PersistenceManagerFactory factory = new PersistenceManagerFactory(this.primary,
+            List.of(missing, this.replicaTwo), ReplicaSelection.ROUND_ROBIN);
+
+        final QueryManager manager = factory.createQueryManager();
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals(readName(manager), "TWO");
+        }
+    }
+
+    @Test
+    public void allReplicasEjectedFallsBackToPrimary() {
+        final JdbcDataSource missing = new JdbcDataSource();
+        missing.setURL("jdbc:h2:mem:replica_missing;IFEXISTS=TRUE");
+
+        final PersistenceManagerFactory factory = new PersistenceManagerFactory(this.primary,
+            List.of(missing), ReplicaSelection.LEAST_OUTSTANDING);
+
+        Assert.assertEquals(readName(factory.createQueryManager()), "PRIMARY");
+    }
+
+    @Test(expectedExceptions = NullPointerException.class,
+        expectedExceptionsMessageRegExp = "Replicas parameter is null.")
+    public void nullReplicas() {
+        new PersistenceManagerFactory(this.primary, null, ReplicaSelection.ROUND_ROBIN);
+    }
+
+    @Test(expectedExceptions = NullPointerException.class,
+        expectedExceptionsMessageRegExp = "Replica DataSource parameter is null.")
+    public void nullReplica() {
+        new PersistenceManagerFactory(this.primary, Arrays.asList(this.replicaOne, null),
+            ReplicaSelection.ROUND_ROBIN);
+    }
+
+    private static String readName(QueryManager manager) {
+        return (String) manager.createQuery(SqlStatement.newInstance("SELECT name FROM source"))
+            .execute().getSingleResult();
+    }
+
+    private static DataSource createDatabase(String name, String value) {
+        final DataSource ds = TestDatabase.dataSource(name);
+
+        final PersistenceManagerFactory factory = new PersistenceManagerFactory(ds);
+        final TransactionManager txManager = factory.createTransactionManager();
+        txManager.begin();
+        txManager.persist(SqlStatement
+            .newInstance("CREATE TABLE IF NOT EXISTS source(name VARCHAR(32))"));
+        txManager.persist(SqlStatement.newInstance("DELETE FROM source"));
+        txManager.persist(SqlStatement.newInstance("INSERT INTO source(name) VALUES(:name)")
+            .setParameter("name", value));
+        txManager.commit();
+        return ds;
+    }
+}
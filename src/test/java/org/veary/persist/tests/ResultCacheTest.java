@@ -0,0 +1,256 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.tests;
+
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.veary.persist.PersistenceManagerFactory;
+import org.veary.persist.Query;
+import org.veary.persist.ResultCacheSnapshot;
+import org.veary.persist.SqlStatement;
+import org.veary.persist.TransactionManager;
+import org.veary.persist.exceptions.PersistenceException;
+import org.veary.persist.internal.RowCodec;
+
+public class ResultCacheTest {
+
+    private DataSource ds;
+    private PersistenceManagerFactory factory;
+    private Path file;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        this.ds = TestDatabase.dataSource("resultcache");
+        this.factory = new PersistenceManagerFactory(this.ds);
+        this.file = Files.createTempFile("result-cache", ".bin");
+        Files.delete(this.file);
+
+        final TransactionManager txManager = this.factory.createTransactionManager();
+        txManager.begin();
+        txManager.persist(SqlStatement.newInstance(
+            "CREATE TABLE IF NOT EXISTS currency(code VARCHAR(3) PRIMARY KEY, name VARCHAR(255))"));
+        txManager.persist(SqlStatement.newInstance("DELETE FROM currency"));
+        txManager.persist(SqlStatement.newInstance(
+            "INSERT INTO currency VALUES('GBP', 'Pound'), ('EUR', 'Euro'), ('JPY', NULL)"));
+        txManager.commit();
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(this.file);
+    }
+
+    @Test
+    public void cachedUntilCleared() {
+        Assert.assertEquals(names(this.factory, "GBP"), List.of("Pound"));
+        rename("GBP", "Sterling");
+        Assert.assertEquals(names(this.factory, "GBP"), List.of("Pound"));
+        Assert.assertEquals(uncachedName("GBP"), "Sterling");
+
+        this.factory.clearResultCache();
+        Assert.assertEquals(names(this.factory, "GBP"), List.of("Sterling"));
+    }
+
+    @Test
+    public void expires() {
+        this.factory.setResultCacheTtl(Duration.ZERO);
+        names(this.factory, "EUR");
+        rename("EUR", "Euro (new)");
+        sleep();
+        Assert.assertEquals(names(this.factory, "EUR"), List.of("Euro (new)"));
+    }
+
+    @Test
+    public void snapshotRoundTrip() {
+        for (final boolean compress : new boolean[] { false, true }) {
+            names(this.factory, "GBP");
+            names(this.factory, "JPY");
+            Assert.assertEquals(this.factory.saveResultCache(this.file, "1.2", compress), 2);
+
+            rename("GBP", "Changed");
+            final PersistenceManagerFactory restarted = new PersistenceManagerFactory(this.ds);
+            Assert.assertEquals(
+                restarted.loadResultCache(this.file, "1.2", Duration.ofHours(1)), 2);
+            Assert.assertEquals(names(restarted, "GBP"), List.of("Pound"));
+            Assert.assertEquals(names(restarted, "JPY"), Collections.singletonList(null));
+            rename("GBP", "Pound");
+            this.factory.clearResultCache();
+        }
+    }
+
+    @Test
+    public void snapshotChecks() throws IOException {
+        names(this.factory, "GBP");
+        this.factory.saveResultCache(this.file, "1.2", true);
+
+        final PersistenceManagerFactory restarted = new PersistenceManagerFactory(this.ds);
+        Assert.assertEquals(restarted.loadResultCache(this.file, "1.3", Duration.ofHours(1)), 0);
+        sleep();
+        Assert.assertEquals(restarted.loadResultCache(this.file, "1.2", Duration.ZERO), 0);
+        restarted.setResultCacheTtl(Duration.ZERO);
+        Assert.assertEquals(restarted.loadResultCache(this.file, "1.2", Duration.ofHours(1)), 0);
+        Assert.assertEquals(restarted.loadResultCache(this.file.resolveSibling("missing.bin"),
+            "1.2", Duration.ofHours(1)), 0);
+
+        Files.write(this.file, new byte[] { 'j', 'u', 'n', 'k' });
+        Assert.assertEquals(restarted.loadResultCache(this.file, "1.2", Duration.ofHours(1)), 0);
+    }
+
+    @Test
+    public void snapshotLoadedAtStartup() {
+        final ResultCacheSnapshot snapshot = ResultCacheSnapshot
+            .newInstance(this.file, "1.2", Duration.ofHours(1)).withCompression(true);
+        final PersistenceManagerFactory first = new PersistenceManagerFactory(this.ds, snapshot);
+        names(first, "EUR");
+        Assert.assertEquals(first.saveResultCache(), 1);
+
+        rename("EUR", "Changed");
+        final PersistenceManagerFactory restarted = new PersistenceManagerFactory(this.ds,
+            snapshot);
+        Assert.assertEquals(names(restarted, "EUR"), List.of("Euro"));
+    }
+
+    @Test
+    public void corruptSnapshotIgnored() throws IOException {
+        names(this.factory, "EUR");
+        Assert.assertEquals(this.factory.saveResultCache(this.file, "1.2", false), 1);
+        final byte[] saved = Files.readAllBytes(this.file);
+
+        // the length of the first entry's SQL follows the header, version, time and count
+        final int sqlLength = 4 + 4 + 1 + 4 + "1.2".length() + 8 + 4;
+        final ResultCacheSnapshot snapshot = ResultCacheSnapshot.newInstance(this.file, "1.2",
+            Duration.ofHours(1));
+        for (final int length : new int[] { Integer.MAX_VALUE - 8, -1 }) {
+            Files.write(this.file, ByteBuffer.wrap(saved.clone()).putInt(sqlLength, length)
+                .array());
+            Assert.assertEquals(this.factory.loadResultCache(this.file, "1.2",
+                Duration.ofHours(1)), 0);
+            Assert.assertEquals(new PersistenceManagerFactory(this.ds, snapshot)
+                .saveResultCache(), 0);
+        }
+
+        Files.write(this.file, Arrays.copyOf(saved, saved.length - 3));
+        Assert.assertEquals(this.factory.loadResultCache(this.file, "1.2",
+            Duration.ofHours(1)), 0);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void saveWithoutSnapshot() {
+        this.factory.saveResultCache();
+    }
+
+    @Test
+    public void serializedValuesNotSaved() {
+        this.factory.createQueryManager().createQuery(SqlStatement
+            .newInstance("SELECT code, ARRAY[1, 2] AS pair FROM currency"))
+            .setCacheable(true).execute();
+        names(this.factory, "GBP");
+        Assert.assertEquals(this.factory.saveResultCache(this.file, "1.2", false), 1);
+    }
+
+    @Test
+    public void serializedValuesRestricted() {
+        final ByteBuffer list = new RowCodec().encode(new Object[] { new ArrayList<>() });
+        Assert.assertEquals(RowCodec.decode(list.duplicate(), 1)[0], List.of());
+        try {
+            RowCodec.decodePortable(list, 1);
+            Assert.fail();
+        } catch (final PersistenceException e) {
+            // expected
+        }
+
+        final ByteBuffer custom = new RowCodec().encode(new Object[] { new Custom() });
+        try {
+            RowCodec.decode(custom, 1);
+            Assert.fail();
+        } catch (final PersistenceException e) {
+            Assert.assertTrue(e.getCause() instanceof InvalidClassException, e.toString());
+        }
+    }
+
+    private static List<Object> names(PersistenceManagerFactory factory, String code) {
+        final Query query = factory.createQueryManager().createQuery(SqlStatement
+            .newInstance("SELECT * FROM currency WHERE code = :code")
+            .setParameter("code", code), Currency.class);
+        final List<Object> names = new ArrayList<>();
+        for (final Object currency : query.setCacheable(true).execute().getResultList()) {
+            names.add(((Currency) currency).getName());
+        }
+        return names;
+    }
+
+    private Object uncachedName(String code) {
+        return this.factory.createQueryManager().createQuery(SqlStatement
+            .newInstance("SELECT name FROM currency WHERE code = ?")
+            .setParameter(1, code)).execute().getSingleResult();
+    }
+
+    private void rename(String code, String name) {
+        final TransactionManager txManager = this.factory.createTransactionManager();
+        txManager.begin();
+        txManager.persist(SqlStatement.newInstance("UPDATE currency SET name = ? WHERE code = ?")
+            .setParameter(1, name).setParameter(2, code));
+        txManager.commit();
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(5);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Custom implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    public interface Currency {
+
+        String getName();
+
+        static Currency newInstance(Map<String, Object> dataMap) {
+            return () -> (String) dataMap.get("NAME");
+        }
+    }
+}
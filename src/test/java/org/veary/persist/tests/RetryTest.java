@@ -0,0 +1,219 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.tests;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransactionRollbackException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.veary.persist.PersistenceManagerFactory;
+import org.veary.persist.RetryPolicy;
+import org.veary.persist.SqlStatement;
+import org.veary.persist.TransactionManager;
+import org.veary.persist.exceptions.PersistenceException;
+
+public class RetryTest {
+
+    private static final RetryPolicy FAST = RetryPolicy.newInstance(4, Duration.ofMillis(1),
+        Duration.ofMillis(5));
+
+    private PersistenceManagerFactory factory;
+
+    @BeforeMethod
+    public void setUp() {
+        this.factory = TestDatabase.factory("retry");
+        this.factory.inTransaction(tx -> {
+            tx.persist(SqlStatement.newInstance(
+                "CREATE TABLE IF NOT EXISTS counter(id INT PRIMARY KEY, val INT)"));
+            tx.persist(SqlStatement.newInstance("DELETE FROM counter"));
+            return tx.persist(SqlStatement.newInstance("INSERT INTO counter VALUES(1, 0)"));
+        });
+    }
+
+    @Test
+    public void retriesTransientFailures() {
+        final AtomicInteger attempts = new AtomicInteger();
+        final Integer result = this.factory.inTransaction(FAST, tx -> {
+            tx.persist(increment());
+            if (attempts.incrementAndGet() < 3) {
+                throw new PersistenceException(new SQLException("conflict", "40001"));
+            }
+            return Integer.valueOf(attempts.get());
+        });
+
+        Assert.assertEquals(result.intValue(), 3);
+        Assert.assertEquals(value(), 1);
+    }
+
+    @Test
+    public void doesNotRetryPermanentFailures() {
+        final AtomicInteger attempts = new AtomicInteger();
+        try {
+            this.factory.inTransaction(FAST, tx -> {
+                attempts.incrementAndGet();
+                tx.persist(increment());
+                return tx.persist(SqlStatement.newInstance("INSERT INTO counter VALUES(1, 0)"));
+            });
+            Assert.fail("duplicate key was written");
+        } catch (final PersistenceException e) {
+            Assert.assertFalse(RetryPolicy.isTransient(e));
+        }
+        Assert.assertEquals(attempts.get(), 1);
+        Assert.assertEquals(value(), 0);
+    }
+
+    @Test
+    public void stopsAfterMaxAttempts() {
+        final AtomicInteger attempts = new AtomicInteger();
+        Assert.assertThrows(PersistenceException.class,
+            () -> this.factory.inTransaction(FAST, tx -> {
+                attempts.incrementAndGet();
+                tx.persist(increment());
+                throw new PersistenceException(
+                    new SQLTransactionRollbackException("deadlock", "40P01"));
+            }));
+        Assert.assertEquals(attempts.get(), 4);
+        Assert.assertEquals(value(), 0);
+    }
+
+    @Test
+    public void retriesDriverFailureInPersist() {
+        retriesDriverFailure("prepareStatement");
+    }
+
+    @Test
+    public void retriesDriverFailureInCommit() {
+        retriesDriverFailure("commit");
+    }
+
+    private void retriesDriverFailure(String failingMethod) {
+        final AtomicInteger failures = new AtomicInteger();
+        final PersistenceManagerFactory failing = new PersistenceManagerFactory(
+            failOnce(TestDatabase.dataSource("retry"), failingMethod, failures));
+        final AtomicInteger attempts = new AtomicInteger();
+        failing.inTransaction(FAST, tx -> {
+            attempts.incrementAndGet();
+            return tx.persist(increment());
+        });
+
+        Assert.assertEquals(failures.get(), 1);
+        Assert.assertEquals(attempts.get(), 2);
+        Assert.assertEquals(value(), 1);
+    }
+
+    @Test
+    public void customClassifier() {
+        final AtomicInteger attempts = new AtomicInteger();
+        final RetryPolicy policy = FAST
+            .withClassifier(e -> e instanceof IllegalStateException);
+        this.factory.inTransaction(policy, tx -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new IllegalStateException();
+            }
+            return tx.persist(increment());
+        });
+        Assert.assertEquals(attempts.get(), 2);
+        Assert.assertEquals(value(), 1);
+    }
+
+    @Test
+    public void explicitRollback() {
+        final TransactionManager manager = this.factory.createTransactionManager();
+        manager.begin();
+        manager.persist(increment());
+        manager.rollback();
+        Assert.assertFalse(manager.isActive());
+        Assert.assertEquals(value(), 0);
+
+        manager.begin();
+        Assert.assertThrows(PersistenceException.class, () -> manager
+            .persist(SqlStatement.newInstance("INSERT INTO counter VALUES(1, 0)")));
+        Assert.assertFalse(manager.isActive());
+        Assert.assertThrows(IllegalStateException.class, manager::rollback);
+    }
+
+    @Test
+    public void classifiesCauseChain() {
+        Assert.assertTrue(RetryPolicy.isTransient(new PersistenceException(
+            new RuntimeException(new SQLException("deadlock", "40P01")))));
+        Assert.assertFalse(RetryPolicy.isTransient(new SQLException("syntax", "42000")));
+        Assert.assertFalse(RetryPolicy.isTransient(null));
+    }
+
+    /**
+     * Fails the first call of the named {@link Connection} method as a driver would: with a
+     * serialization failure chained to the underlying cause.
+     */
+    private static DataSource failOnce(DataSource target, String failingMethod,
+        AtomicInteger failures) {
+        return (DataSource) Proxy.newProxyInstance(RetryTest.class.getClassLoader(),
+            new Class<?>[] { DataSource.class }, (proxy, method, args) -> {
+                final Object result = invoke(target, method, args);
+                if (!"getConnection".equals(method.getName())) {
+                    return result;
+                }
+                final Connection conn = (Connection) result;
+                return Proxy.newProxyInstance(RetryTest.class.getClassLoader(),
+                    new Class<?>[] { Connection.class }, (p, m, a) -> {
+                        if (failingMethod.equals(m.getName())
+                            && failures.compareAndSet(0, 1)) {
+                            throw new SQLException("could not serialize access", "40001",
+                                new IOException("conflict on row"));
+                        }
+                        return invoke(conn, m, a);
+                    });
+            });
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args)
+        throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (final InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static SqlStatement increment() {
+        return SqlStatement.newInstance("UPDATE counter SET val = val + 1 WHERE id = 1");
+    }
+
+    private int value() {
+        return ((Number) this.factory.createQueryManager()
+            .createQuery(SqlStatement.newInstance("SELECT val FROM counter WHERE id = 1"))
+            .execute().getSingleResult()).intValue();
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.tests;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import org.veary.persist.PersistenceManagerFactory;
+import org.veary.persist.ReusableQuery;
+import org.veary.persist.SqlStatement;
+import org.veary.persist.exceptions.PersistenceException;
+
+public class ReusableQueryTest {
+
+    private PersistenceManagerFactory factory;
+
+    @BeforeClass
+    public void setUp() {
+        this.factory = TestDatabase.factory("reusable");
+        this.factory.inTransaction(tx -> {
+            tx.persist(SqlStatement.newInstance(
+                "CREATE TABLE IF NOT EXISTS product(id INT PRIMARY KEY, name VARCHAR(20))"));
+            tx.persist(SqlStatement.newInstance("DELETE FROM product"));
+            return tx.persist(SqlStatement.newInstance(
+                "INSERT INTO product SELECT X, 'p' || X FROM SYSTEM_RANGE(1, 100)"));
+        });
+    }
+
+    @Test
+    public void preparesOnce() {
+        final ReusableQuery query = this.factory.createQueryManager().createReusableQuery(
+            SqlStatement.newInstance("SELECT * FROM product WHERE id = :id"), Product.class);
+        try (query) {
+            for (int i = 1; i <= 100; i++) {
+                final Optional<Object> product = query.setParameter("id", Integer.valueOf(i))
+                    .findFirst();
+                Assert.assertEquals(((Product) product.get()).getName(), "p" + i);
+            }
+            Assert.assertFalse(query.setParameter("id", Integer.valueOf(0)).findFirst()
+                .isPresent());
+            Assert.assertEquals(query.getPrepareCount(), 1);
+            Assert.assertEquals(this.factory.getStatistics().getConnectionsInUse(), 1);
+        }
+        Assert.assertEquals(this.factory.getStatistics().getConnectionsInUse(), 0);
+    }
+
+    @Test
+    public void resultListAndMapper() {
+        try (ReusableQuery query = this.factory.createQueryManager().createReusableQuery(
+            SqlStatement.newInstance("SELECT name, id FROM product WHERE id <= ? ORDER BY id")
+                .setParameter(1, Integer.valueOf(3)))) {
+            Assert.assertEquals(query.getResultList(), List.of("p1", "p2", "p3"));
+            final List<Long> ids = query.setParameter(1, Integer.valueOf(2))
+                .map(row -> Long.valueOf(row.getLong("id")));
+            Assert.assertEquals(ids, List.of(Long.valueOf(1), Long.valueOf(2)));
+            Assert.assertEquals(query.getPrepareCount(), 1);
+        }
+    }
+
+    @Test
+    public void recoversFromErrors() {
+        try (ReusableQuery query = this.factory.createQueryManager().createReusableQuery(
+            SqlStatement.newInstance("SELECT name FROM product WHERE id = ?"))) {
+            Assert.assertEquals(query.setParameter(1, Integer.valueOf(5)).findFirst(),
+                Optional.of("p5"));
+            try {
+                query.setParameter(1, "five").findFirst();
+                Assert.fail();
+            } catch (final PersistenceException e) {
+                // expected
+            }
+            Assert.assertEquals(this.factory.getStatistics().getConnectionsInUse(), 0);
+            Assert.assertEquals(query.setParameter(1, Integer.valueOf(6)).findFirst(),
+                Optional.of("p6"));
+            Assert.assertEquals(query.getPrepareCount(), 2);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class,
+        expectedExceptionsMessageRegExp = "Query has been closed.")
+    public void closed() {
+        final ReusableQuery query = this.factory.createQueryManager().createReusableQuery(
+            SqlStatement.newInstance("SELECT name FROM product"));
+        query.close();
+        query.close();
+        query.getResultList();
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void notSelect() {
+        this.factory.createQueryManager().createReusableQuery(
+            SqlStatement.newInstance("DELETE FROM product"));
+    }
+
+    public interface Product {
+
+        String getName();
+
+        static Product newInstance(Map<String, Object> dataMap) {
+            return () -> (String) dataMap.get("NAME");
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.tests;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import org.veary.persist.PersistenceManagerFactory;
+import org.veary.persist.Query;
+import org.veary.persist.SqlStatement;
+import org.veary.persist.exceptions.PersistenceException;
+
+public class RowMapperTest {
+
+    private static final int ROWS = 150;
+
+    private PersistenceManagerFactory factory;
+
+    @BeforeClass
+    public void setUp() {
+        this.factory = TestDatabase.factory("rowmapper");
+        this.factory.inTransaction(tx -> {
+            tx.persist(SqlStatement.newInstance("CREATE TABLE IF NOT EXISTS reading("
+                + "id BIGINT PRIMARY KEY, sensor INT, val DOUBLE, ok BOOLEAN, "
+                + "note VARCHAR(20), amount DECIMAL(10, 2))"));
+            tx.persist(SqlStatement.newInstance("DELETE FROM reading"));
+            final List<SqlStatement> inserts = new ArrayList<>();
+            for (int i = 1; i <= ROWS; i++) {
+                inserts.add(SqlStatement.newInstance("INSERT INTO reading VALUES(?, ?, ?, ?, ?, ?)")
+                    .setParameter(1, Long.valueOf(i))
+                    .setParameter(2, Integer.valueOf(i % 7))
+                    .setParameter(3, Double.valueOf(i / 2.0))
+                    .setParameter(4, Boolean.valueOf(i % 2 == 0))
+                    .setParameter(5, "n" + i)
+                    .setParameter(6, new BigDecimal(i + ".25")));
+            }
+            tx.persistBatch(inserts);
+            return tx.persist(SqlStatement.newInstance(
+                "UPDATE reading SET sensor = NULL, val = NULL, note = NULL WHERE id = 1"));
+        });
+    }
+
+    @Test
+    public void mapsPrimitiveColumns() {
+        final List<Reading> readings = query("SELECT * FROM reading ORDER BY id").map(row -> {
+            final long id = row.getLong(1);
+            final int sensor = row.getInt("sensor");
+            final boolean sensorNull = row.wasNull();
+            return new Reading(id, sensor, sensorNull, row.getDouble("VAL"),
+                row.getBoolean(4), row.getString(5), row.getDouble("amount"));
+        });
+
+        Assert.assertEquals(readings.size(), ROWS);
+        final Reading first = readings.get(0);
+        Assert.assertEquals(first.sensor, 0);
+        Assert.assertTrue(first.sensorNull);
+        Assert.assertEquals(first.val, 0.0);
+        Assert.assertNull(first.note);
+
+        final Reading last = readings.get(ROWS - 1);
+        Assert.assertEquals(last.id, ROWS);
+        Assert.assertEquals(last.sensor, ROWS % 7);
+        Assert.assertFalse(last.sensorNull);
+        Assert.assertEquals(last.val, ROWS / 2.0);
+        Assert.assertTrue(last.ok);
+        Assert.assertEquals(last.note, "n" + ROWS);
+        Assert.assertEquals(last.amount, ROWS + 0.25);
+    }
+
+    @Test
+    public void boxesObjects() {
+        final List<Object[]> rows = query("SELECT * FROM reading WHERE id IN (1, 2)").map(row -> {
+            final Object[] values = new Object[row.getColumnCount()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = row.getObject(i + 1);
+            }
+            return values;
+        });
+
+        Assert.assertEquals(rows.size(), 2);
+        final Object[] second = rows.get(1);
+        Assert.assertEquals(second[0], Long.valueOf(2));
+        Assert.assertEquals(second[1], Integer.valueOf(2));
+        Assert.assertEquals(second[2], Double.valueOf(1.0));
+        Assert.assertEquals(second[3], Boolean.TRUE);
+        Assert.assertEquals(second[4], "n2");
+        Assert.assertEquals(second[5], new BigDecimal("2.25"));
+        Assert.assertNull(rows.get(0)[1]);
+    }
+
+    @Test
+    public void emptyResult() {
+        Assert.assertTrue(query("SELECT * FROM reading WHERE id < 0")
+            .map(row -> Long.valueOf(row.getLong(1))).isEmpty());
+    }
+
+    @Test(expectedExceptions = PersistenceException.class,
+        expectedExceptionsMessageRegExp = "Column cannot be read as a number: NOTE")
+    public void notNumeric() {
+        query("SELECT note FROM reading WHERE id = 2").map(row -> Long.valueOf(row.getLong(1)));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class,
+        expectedExceptionsMessageRegExp = "No such column: missing")
+    public void unknownColumn() {
+        query("SELECT id FROM reading WHERE id = 2").map(row -> row.getObject("missing"));
+    }
+
+    private Query query(String sql) {
+        return this.factory.createQueryManager().createQuery(SqlStatement.newInstance(sql));
+    }
+
+    private static final class Reading {
+
+        final long id;
+        final int sensor;
+        final boolean sensorNull;
+        final double val;
+        final boolean ok;
+        final String note;
+        final double amount;
+
+        Reading(long id, int sensor, boolean sensorNull, double val, boolean ok, String note,
+            double amount) {
+            this.id = id;
+            this.sensor = sensor;
+            this.sensorNull = sensorNull;
+            this.val = val;
+            this.ok = ok;
+            this.note = note;
+            this.amount = amount;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.tests;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import org.veary.persist.PersistenceManagerFactory;
+import org.veary.persist.Query;
+import org.veary.persist.SqlStatement;
+import org.veary.persist.exceptions.NoResultException;
+import org.veary.persist.exceptions.NonUniqueResultException;
+
+public class ScalarQueryTest {
+
+    private static final int ROWS = 1000;
+
+    private PersistenceManagerFactory factory;
+
+    @BeforeClass
+    public void setUp() {
+        this.factory = TestDatabase.factory("scalar");
+        this.factory.inTransaction(tx -> {
+            tx.persist(SqlStatement.newInstance(
+                "CREATE TABLE IF NOT EXISTS job(id BIGINT PRIMARY KEY, name VARCHAR(20))"));
+            tx.persist(SqlStatement.newInstance("DELETE FROM job"));
+            final List<SqlStatement> inserts = new ArrayList<>();
+            for (int i = 1; i <= ROWS; i++) {
+                inserts.add(SqlStatement.newInstance("INSERT INTO job VALUES(?, ?)")
+                    .setParameter(1, Long.valueOf(i)).setParameter(2, "job" + i));
+            }
+            tx.persistBatch(inserts, true);
+            return tx.persist(SqlStatement.newInstance("UPDATE job SET name = NULL WHERE id = 2"));
+        });
+    }
+
+    @Test
+    public void singleLong() {
+        Assert.assertEquals(query("SELECT COUNT(*) FROM job").getSingleLong(), ROWS);
+        Assert.assertEquals(query("SELECT MAX(id) FROM job WHERE id < 0").getSingleLong(), 0);
+    }
+
+    @Test(expectedExceptions = NoResultException.class)
+    public void singleLongNoRows() {
+        query("SELECT id FROM job WHERE id < 0").getSingleLong();
+    }
+
+    @Test(expectedExceptions = NonUniqueResultException.class)
+    public void singleLongManyRows() {
+        query("SELECT id FROM job").getSingleLong();
+    }
+
+    @Test
+    public void primitiveArrays() {
+        final long[] ids = query("SELECT id FROM job ORDER BY id").getLongArray();
+        Assert.assertEquals(ids.length, ROWS);
+        Assert.assertEquals(ids[0], 1);
+        Assert.assertEquals(ids[ROWS - 1], ROWS);
+
+        final int[] small = query("SELECT id FROM job WHERE id <= 3 ORDER BY id DESC")
+            .getIntArray();
+        Assert.assertTrue(Arrays.equals(small, new int[] { 3, 2, 1 }));
+
+        Assert.assertEquals(query("SELECT id FROM job WHERE id < 0").getLongArray().length, 0);
+        Assert.assertEquals(query("SELECT id FROM job WHERE id < 0").getIntArray().length, 0);
+    }
+
+    @Test
+    public void stringList() {
+        final List<String> names = query("SELECT name FROM job WHERE id <= 3 ORDER BY id")
+            .getStringList();
+        Assert.assertEquals(names, Arrays.asList("job1", null, "job3"));
+        Assert.assertTrue(query("SELECT name FROM job WHERE id < 0").getStringList().isEmpty());
+    }
+
+    @Test
+    public void singleResultWithoutEntity() {
+        final Query query = query("SELECT name FROM job WHERE id = 5").execute();
+        Assert.assertEquals(query.getSingleResult(), "job5");
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void notSelect() {
+        query("DELETE FROM job").getLongArray();
+    }
+
+    private Query query(String sql) {
+        return this.factory.createQueryManager().createQuery(SqlStatement.newInstance(sql));
+    }
+}
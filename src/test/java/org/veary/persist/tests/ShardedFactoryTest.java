@@ -0,0 +1,177 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.tests;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Collectors;
+
+import javax.sql.DataSource;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import org.veary.persist.PersistenceManagerFactory;
+import org.veary.persist.ShardedPersistenceManagerFactory;
+import org.veary.persist.SqlStatement;
+import org.veary.persist.TransactionManager;
+
+public class ShardedFactoryTest {
+
+    private ShardedPersistenceManagerFactory<Long> factory;
+
+    @BeforeClass
+    public void setUp() {
+        final List<DataSource> shards = List.of(createShard("shard_zero"),
+            createShard("shard_one"), createShard("shard_two"));
+        this.factory = new ShardedPersistenceManagerFactory<>(shards, Long::intValue);
+
+        for (long id = 1; id <= 30; id++) {
+            final TransactionManager txManager = this.factory
+                .createTransactionManager(Long.valueOf(id));
+            txManager.begin();
+            txManager.persist(SqlStatement
+                .newInstance("INSERT INTO customer(id, name) VALUES(:id, :name)")
+                .setParameter("id", Long.valueOf(id))
+                .setParameter("name", "CUSTOMER" + id));
+            txManager.commit();
+        }
+    }
+
+    @AfterClass
+    public void tearDown() {
+        this.factory.close();
+    }
+
+    @Test(expectedExceptions = RejectedExecutionException.class)
+    public void closeShutsDownOwnPool() {
+        final ShardedPersistenceManagerFactory<Long> closed =
+            new ShardedPersistenceManagerFactory<>(List.of(createShard("shard_closed")),
+                Long::intValue);
+        closed.close();
+        closed.queryAllShards(SqlStatement.newInstance("SELECT * FROM customer"),
+            Customer.class);
+    }
+
+    @Test
+    public void closeLeavesGivenExecutor() {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            new ShardedPersistenceManagerFactory<Long>(List.of(createShard("shard_given")),
+                Long::intValue, executor).close();
+            Assert.assertFalse(executor.isShutdown());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void pointQueryOnOwningShard() {
+        final Long id = Long.valueOf(7);
+        Assert.assertEquals(this.factory.shardFor(id), 1);
+
+        final Customer customer = (Customer) this.factory.createQueryManager(id)
+            .createQuery(SqlStatement.newInstance("SELECT * FROM customer WHERE id = :id")
+                .setParameter("id", id), Customer.class)
+            .execute().getSingleResult();
+        Assert.assertEquals(customer.getName(), "CUSTOMER7");
+
+        final long count = this.factory.createQueryManager(Long.valueOf(8))
+            .createQuery(SqlStatement.newInstance("SELECT * FROM customer"), Customer.class)
+            .execute().getResultList().stream()
+            .filter(c -> ((Customer) c).getId().longValue() == 7).count();
+        Assert.assertEquals(count, 0);
+    }
+
+    @Test
+    public void scatterGatherConcatenation() {
+        final List<Object> all = this.factory.queryAllShards(
+            SqlStatement.newInstance("SELECT * FROM customer"), Customer.class)
+            .collect(Collectors.toList());
+        Assert.assertEquals(all.size(), 30);
+    }
+
+    @Test
+    public void scatterGatherMerge() {
+        final List<Long> ids = this.factory.queryAllShards(
+            SqlStatement.newInstance("SELECT * FROM customer WHERE id > :min ORDER BY id DESC")
+                .setParameter("min", Integer.valueOf(10)),
+            Customer.class,
+            Comparator.comparing(c -> ((Customer) c).getId(), Comparator.reverseOrder()))
+            .map(c -> ((Customer) c).getId())
+            .collect(Collectors.toList());
+
+        Assert.assertEquals(ids.size(), 20);
+        for (int i = 0; i < ids.size(); i++) {
+            Assert.assertEquals(ids.get(i).longValue(), 30 - i);
+        }
+    }
+
+    @Test
+    public void scatterGatherEmptyShards() {
+        Assert.assertEquals(this.factory.queryAllShards(
+            SqlStatement.newInstance("SELECT * FROM customer WHERE id < 0"), Customer.class,
+            Comparator.comparing(c -> ((Customer) c).getId())).count(), 0);
+    }
+
+    private static DataSource createShard(String name) {
+        final DataSource ds = TestDatabase.dataSource(name);
+        final TransactionManager txManager = new PersistenceManagerFactory(ds)
+            .createTransactionManager();
+        txManager.begin();
+        txManager.persist(SqlStatement.newInstance(
+            "CREATE TABLE IF NOT EXISTS customer(id BIGINT PRIMARY KEY, name VARCHAR(255))"));
+        txManager.persist(SqlStatement.newInstance("DELETE FROM customer"));
+        txManager.commit();
+        return ds;
+    }
+
+    public interface Customer {
+
+        Long getId();
+
+        String getName();
+
+        static Customer newInstance(Map<String, Object> dataMap) {
+            return new Customer() {
+
+                @Override
+                public Long getId() {
+                    return (Long) dataMap.get("ID");
+                }
+
+                @Override
+                public String getName() {
+                    return (String) dataMap.get("NAME");
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.tests;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import org.veary.persist.PersistenceManagerFactory;
+import org.veary.persist.SqlStatement;
+import org.veary.persist.TransactionManager;
+
+public class SharedTransactionManagerTest {
+
+    private PersistenceManagerFactory factory;
+
+    @BeforeClass
+    public void setUp() {
+        this.factory = TestDatabase.factory("sharedtx");
+
+        final TransactionManager manager = this.factory.getSharedTransactionManager();
+        manager.begin();
+        manager.persist(SqlStatement.newInstance(
+            "CREATE TABLE IF NOT EXISTS request_log(id INT AUTO_INCREMENT PRIMARY KEY, "
+                + "worker INT)"));
+        manager.persist(SqlStatement.newInstance("DELETE FROM request_log"));
+        manager.commit();
+        Assert.assertFalse(manager.isActive());
+    }
+
+    @Test
+    public void sameInstance() {
+        Assert.assertSame(this.factory.getSharedTransactionManager(),
+            this.factory.getSharedTransactionManager());
+    }
+
+    @Test
+    public void concurrentTransactions() throws Exception {
+        final TransactionManager manager = this.factory.getSharedTransactionManager();
+        final int workers = 8;
+        final CountDownLatch allBegun = new CountDownLatch(workers);
+        final ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            final List<Future<Boolean>> results = new ArrayList<>();
+            for (int w = 0; w < workers; w++) {
+                final int worker = w;
+                results.add(pool.submit(() -> {
+                    manager.begin();
+                    allBegun.countDown();
+                    allBegun.await(10, TimeUnit.SECONDS);
+                    for (int i = 0; i < 10; i++) {
+                        manager.persist(SqlStatement
+                            .newInstance("INSERT INTO request_log(worker) VALUES(?)")
+                            .setParameter(1, Integer.valueOf(worker)));
+                    }
+                    Assert.assertEquals(manager.getRowCount(), 1);
+                    if (worker % 2 == 0) {
+                        manager.commit();
+                    } else {
+                        manager.rollback();
+                    }
+                    return Boolean.valueOf(manager.isActive());
+                }));
+            }
+            for (final Future<Boolean> result : results) {
+                Assert.assertFalse(result.get().booleanValue());
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        Assert.assertFalse(manager.isActive());
+        final Number rows = (Number) this.factory.createQueryManager()
+            .createQuery(SqlStatement.newInstance(
+                "SELECT COUNT(*) FROM request_log WHERE MOD(worker, 2) = 0"))
+            .execute().getSingleResult();
+        Assert.assertEquals(rows.intValue(), workers / 2 * 10);
+        final Number rolledBack = (Number) this.factory.createQueryManager()
+            .createQuery(SqlStatement.newInstance(
+                "SELECT COUNT(*) FROM request_log WHERE MOD(worker, 2) = 1"))
+            .execute().getSingleResult();
+        Assert.assertEquals(rolledBack.intValue(), 0);
+    }
+
+    @Test
+    public void failedStatementEndsTransaction() {
+        final TransactionManager manager = this.factory.getSharedTransactionManager();
+        manager.begin();
+        Assert.assertThrows(RuntimeException.class,
+            () -> manager.persist(SqlStatement.newInstance("INSERT INTO missing VALUES(1)")));
+        Assert.assertFalse(manager.isActive());
+        Assert.assertThrows(IllegalStateException.class, manager::commit);
+    }
+}
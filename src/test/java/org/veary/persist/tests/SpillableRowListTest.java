@@ -0,0 +1,89 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.tests;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.veary.persist.internal.SpillableRowList;
+
+public class SpillableRowListTest {
+
+    private static final String[] LABELS = { "ID", "NAME", "AMOUNT", "CREATED", "DAY", "REF",
+        "NOTE" };
+
+    @Test
+    public void rowsStayInMemoryUnderLimit() {
+        final SpillableRowList list = new SpillableRowList(LABELS, Long.MAX_VALUE);
+        for (int i = 0; i < 100; i++) {
+            list.append(row(i));
+        }
+        list.finish();
+        Assert.assertFalse(list.isSpilled());
+        Assert.assertEquals(list.size(), 100);
+        Assert.assertEquals(list.get(42), row(42));
+    }
+
+    @Test
+    public void rowsSpillAboveLimit() {
+        final SpillableRowList list = new SpillableRowList(LABELS, 64 * 1024);
+        for (int i = 0; i < 50_000; i++) {
+            list.append(row(i));
+        }
+        list.finish();
+
+        Assert.assertTrue(list.isSpilled());
+        Assert.assertEquals(list.size(), 50_000);
+        for (final int i : new int[] { 0, 1, 999, 25_000, 49_999 }) {
+            Assert.assertEquals(list.get(i), row(i));
+        }
+    }
+
+    @Test(expectedExceptions = IndexOutOfBoundsException.class)
+    public void spilledIndexOutOfBounds() {
+        final SpillableRowList list = new SpillableRowList(LABELS, 0);
+        list.append(row(1));
+        list.finish();
+        list.get(1);
+    }
+
+    private static Map<String, Object> row(int i) {
+        final Map<String, Object> row = new HashMap<>();
+        row.put("ID", Long.valueOf(i));
+        row.put("NAME", "ROW-" + i + "-é");
+        row.put("AMOUNT", new BigDecimal(i).movePointLeft(2));
+        row.put("CREATED", new Timestamp(1_500_000_000_000L + i));
+        row.put("DAY", LocalDate.ofEpochDay(i));
+        row.put("REF", new UUID(i, i));
+        row.put("NOTE", i % 2 == 0 ? null : Integer.valueOf(i));
+        return row;
+    }
+}
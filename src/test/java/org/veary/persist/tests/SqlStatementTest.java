@@ -24,8 +24,13 @@
 
 package org.veary.persist.tests;
 
+import java.util.List;
+import java.util.Map;
+
+import org.testng.Assert;
 import org.testng.annotations.Test;
 import org.veary.persist.SqlStatement;
+import org.veary.persist.internal.ParsedSql;
 
 public class SqlStatementTest {
 
@@ -42,4 +47,91 @@ public class SqlStatementTest {
     public void emptyParameterException() {
         SqlStatement.newInstance("");
     }
+
+    @Test
+    public void namedParameterBindsEveryOccurrence() {
+        SqlStatement statement = SqlStatement.newInstance(
+            "SELECT * FROM debs.account WHERE id = :id OR parent = :id AND name = ?");
+        statement.setParameter("id", Long.valueOf(5));
+        statement.setParameter(3, "CASH");
+
+        Assert.assertEquals(statement.toString(),
+            "SELECT * FROM debs.account WHERE id = ? OR parent = ? AND name = ?");
+
+        Map<Integer, Object> params = statement.getParameters();
+        Assert.assertEquals(params.size(), 3);
+        Assert.assertEquals(params.get(Integer.valueOf(1)), Long.valueOf(5));
+        Assert.assertEquals(params.get(Integer.valueOf(2)), Long.valueOf(5));
+        Assert.assertEquals(params.get(Integer.valueOf(3)), "CASH");
+    }
+
+    @Test
+    public void namedParametersIgnoredInLiteralsAndComments() {
+        SqlStatement statement = SqlStatement.newInstance(
+            "SELECT x::int, ':skip', \":also\" FROM t -- :comment\n"
+                + "WHERE a = :a /* :block */");
+
+        Assert.assertEquals(statement.toString(),
+            "SELECT x::int, ':skip', \":also\" FROM t -- :comment\nWHERE a = ? /* :block */");
+        statement.setParameter("a", "A");
+        Assert.assertEquals(statement.getParameters().size(), 1);
+    }
+
+    @Test
+    public void parsedOncePerSqlText() {
+        final String sql = "SELECT * FROM debs.account WHERE name = :parsedOnce";
+        SqlStatement.newInstance(sql);
+        ParsedSql first = ParsedSql.of(sql);
+        SqlStatement.newInstance(sql).setParameter("parsedOnce", "CASH");
+        Assert.assertSame(ParsedSql.of(sql), first);
+    }
+
+    @Test(
+        expectedExceptions = IllegalArgumentException.class,
+        expectedExceptionsMessageRegExp = "Unknown parameter name: missing")
+    public void unknownNamedParameterException() {
+        SqlStatement.newInstance("SELECT * FROM t WHERE a = :a").setParameter("missing", "X");
+    }
+
+    @Test
+    public void parameterListPaddedToBucket() {
+        SqlStatement statement = SqlStatement.newInstance(
+            "SELECT * FROM t WHERE a = :a AND id IN (:ids) AND b = ?");
+        statement.setParameter("a", "A");
+        statement.setParameterList("ids", List.of(Long.valueOf(1), Long.valueOf(2),
+            Long.valueOf(3)));
+        statement.setParameter(3, "B");
+
+        Assert.assertEquals(statement.toString(),
+            "SELECT * FROM t WHERE a = ? AND id IN (?, ?, ?, ?) AND b = ?");
+
+        Map<Integer, Object> params = statement.getParameters();
+        Assert.assertEquals(params.size(), 6);
+        Assert.assertEquals(params.get(Integer.valueOf(1)), "A");
+        Assert.assertEquals(params.get(Integer.valueOf(2)), Long.valueOf(1));
+        Assert.assertEquals(params.get(Integer.valueOf(4)), Long.valueOf(3));
+        Assert.assertEquals(params.get(Integer.valueOf(5)), Long.valueOf(3));
+        Assert.assertEquals(params.get(Integer.valueOf(6)), "B");
+    }
+
+    @Test
+    public void parameterListSizesShareShape() {
+        SqlStatement three = SqlStatement.newInstance("SELECT * FROM t WHERE id IN (?)");
+        three.setParameterList(1, List.of("A", "B", "C"));
+        SqlStatement four = SqlStatement.newInstance("SELECT * FROM t WHERE id IN (?)");
+        four.setParameterList(1, List.of("A", "B", "C", "D"));
+
+        Assert.assertEquals(three.toString(), four.toString());
+        Assert.assertEquals(ParsedSql.bucketSize(1), 1);
+        Assert.assertEquals(ParsedSql.bucketSize(5), 8);
+        Assert.assertEquals(ParsedSql.bucketSize(1025), 2048);
+    }
+
+    @Test(
+        expectedExceptions = IllegalArgumentException.class,
+        expectedExceptionsMessageRegExp = "Collection parameter must be non-empty.")
+    public void emptyParameterListException() {
+        SqlStatement.newInstance("SELECT * FROM t WHERE id IN (:ids)")
+            .setParameterList("ids", List.of());
+    }
 }
@@ -0,0 +1,109 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.tests;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import org.veary.persist.PersistenceManagerFactory;
+import org.veary.persist.PersistenceStatisticsMXBean;
+import org.veary.persist.SqlStatement;
+import org.veary.persist.internal.StatementMetadata;
+import org.veary.persist.internal.StatementMetadataCache;
+
+public class StatementMetadataCacheTest {
+
+    private DataSource ds;
+
+    @BeforeClass
+    public void setUp() {
+        this.ds = TestDatabase.dataSource("metadata");
+        new PersistenceManagerFactory(this.ds).inTransaction(tx -> {
+            tx.persist(SqlStatement.newInstance(
+                "CREATE TABLE IF NOT EXISTS color(id INT PRIMARY KEY, name VARCHAR(20))"));
+            tx.persist(SqlStatement.newInstance("DELETE FROM color"));
+            return tx.persist(SqlStatement.newInstance("INSERT INTO color VALUES(1, 'red')"));
+        });
+    }
+
+    @Test
+    public void sharedByManagers() {
+        final PersistenceManagerFactory factory = new PersistenceManagerFactory(this.ds);
+        final PersistenceStatisticsMXBean stats = factory.getStatistics();
+        for (int i = 0; i < 4; i++) {
+            final Color color = (Color) factory.createQueryManager().createQuery(
+                SqlStatement.newInstance("SELECT * FROM color WHERE id = 1"), Color.class)
+                .execute().getSingleResult();
+            Assert.assertEquals(color.getName(), "red");
+        }
+        Assert.assertEquals(stats.getStatementCacheHitRate(), 0.75);
+    }
+
+    @Test
+    public void entries() throws SQLException {
+        final StatementMetadataCache cache = new StatementMetadataCache(16);
+        final String sql = "SELECT * FROM color WHERE id = ?";
+        final StatementMetadata entry = cache.get(sql);
+        Assert.assertSame(cache.get(sql), entry);
+        Assert.assertTrue(entry.isSelect());
+        Assert.assertEquals(entry.getPlaceholderCount(), 1);
+        Assert.assertFalse(cache.get("DELETE FROM color WHERE id = ?").isSelect());
+        Assert.assertEquals(cache.size(), 2);
+        Assert.assertEquals(cache.getHitCount(), 1);
+        Assert.assertEquals(cache.getMissCount(), 2);
+
+        try (Connection conn = this.ds.getConnection();
+            PreparedStatement wide = conn.prepareStatement("SELECT * FROM color");
+            PreparedStatement narrow = conn.prepareStatement("SELECT name FROM color");
+            PreparedStatement renamed = conn.prepareStatement("SELECT id FROM color")) {
+            final String[] labels = entry.getColumnLabels(wide.getMetaData());
+            Assert.assertEquals(labels, new String[] { "ID", "NAME" });
+            Assert.assertSame(entry.getColumnLabels(wide.getMetaData()), labels);
+            Assert.assertEquals(entry.getColumnLabels(narrow.getMetaData()),
+                new String[] { "NAME" });
+            Assert.assertEquals(entry.getColumnLabels(renamed.getMetaData()),
+                new String[] { "ID" });
+        }
+
+        Assert.assertSame(entry.getMapper(Color.class), entry.getMapper(Color.class));
+        Assert.assertEquals(entry.getMapper(Color.class).getEntityInterface(), Color.class);
+    }
+
+    public interface Color {
+
+        String getName();
+
+        static Color newInstance(Map<String, Object> dataMap) {
+            return () -> (String) dataMap.get("NAME");
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.tests;
+
+import java.util.List;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.veary.persist.PersistenceManagerFactory;
+import org.veary.persist.ShapeStatistics;
+import org.veary.persist.SqlStatement;
+import org.veary.persist.StatementStatistics;
+import org.veary.persist.exceptions.PersistenceException;
+import org.veary.persist.internal.StatementStatisticsImpl;
+
+public class StatementStatisticsTest {
+
+    private PersistenceManagerFactory factory;
+
+    @BeforeMethod
+    public void setUp() {
+        this.factory = TestDatabase.factory("shapes");
+        this.factory.inTransaction(tx -> {
+            tx.persist(SqlStatement.newInstance(
+                "CREATE TABLE IF NOT EXISTS city(id INT PRIMARY KEY, name VARCHAR(20))"));
+            tx.persist(SqlStatement.newInstance("DELETE FROM city"));
+            return tx.persistBatch(List.of(
+                SqlStatement.newInstance("INSERT INTO city VALUES(?, ?)")
+                    .setParameter(1, Integer.valueOf(1)).setParameter(2, "Oslo"),
+                SqlStatement.newInstance("INSERT INTO city VALUES(?, ?)")
+                    .setParameter(1, Integer.valueOf(2)).setParameter(2, "Rome")));
+        });
+    }
+
+    @Test
+    public void aggregatesByShape() {
+        final StatementStatistics stats = this.factory.getStatementStatistics();
+        stats.reset();
+
+        name("SELECT * FROM city WHERE id = 1");
+        name("SELECT * FROM city WHERE id = 2");
+        try {
+            name("SELECT * FROM city WHERE nope = 3");
+            Assert.fail();
+        } catch (final PersistenceException e) {
+            // expected
+        }
+        this.factory.inTransaction(tx -> tx.persist(SqlStatement.newInstance(
+            "UPDATE city SET name = 'Roma' WHERE id = 2")));
+
+        final ShapeStatistics select = stats.get("SELECT * FROM city WHERE id = 99");
+        Assert.assertEquals(select.getShape(), "SELECT * FROM city WHERE id = ?");
+        Assert.assertEquals(select.getCalls(), 2);
+        Assert.assertEquals(select.getRows(), 2);
+        Assert.assertEquals(select.getErrors(), 0);
+        Assert.assertTrue(select.getMinMillis() <= select.getMeanMillis());
+        Assert.assertTrue(select.getMeanMillis() <= select.getMaxMillis());
+        Assert.assertTrue(select.getPercentileMillis(0.5) <= select.getMaxMillis());
+        Assert.assertEquals(select.getTotalMillis(), select.getMeanMillis() * 2, 1e-6);
+
+        Assert.assertEquals(stats.get("SELECT * FROM city WHERE nope = 0").getErrors(), 1);
+        Assert.assertEquals(stats.get("UPDATE city SET name = 'x' WHERE id = 1").getRows(), 1);
+        Assert.assertEquals(stats.snapshot().size(), 3);
+
+        final List<ShapeStatistics> top = stats.getTop(2);
+        Assert.assertEquals(top.size(), 2);
+        Assert.assertTrue(top.get(0).getTotalMillis() >= top.get(1).getTotalMillis());
+        final String dump = stats.dump(10);
+        Assert.assertTrue(dump.startsWith(String.format("%10s", "calls")));
+        Assert.assertTrue(dump.contains("SELECT * FROM city WHERE id = ?"));
+
+        stats.reset();
+        Assert.assertTrue(stats.snapshot().isEmpty());
+        Assert.assertNull(stats.get("SELECT * FROM city WHERE id = 1"));
+    }
+
+    @Test
+    public void countsEachStatementOfABatch() {
+        final ShapeStatistics insert = this.factory.getStatementStatistics()
+            .get("INSERT INTO city VALUES(?, ?)");
+        Assert.assertEquals(insert.getCalls(), 2);
+        Assert.assertEquals(insert.getRows(), 2);
+        Assert.assertEquals(insert.getTotalMillis(), insert.getMeanMillis() * 2, 1e-6);
+    }
+
+    @Test
+    public void collapsesOnlyInLists() {
+        final StatementStatisticsImpl stats = new StatementStatisticsImpl(10);
+        stats.record("SELECT * FROM city WHERE id IN (?, ?, ?) AND name = 'Oslo'", 1000, 1,
+            false);
+        stats.record("SELECT * FROM city WHERE id IN (4) AND name = 'Rome'", 1000, 1, false);
+        stats.record("INSERT INTO city VALUES(?, ?)", 1000, 1, false);
+        stats.record("SELECT 1, 2", 1000, 1, false);
+        stats.record("SELECT * FROM city WHERE min(id, 2) > ?", 1000, 1, false);
+        stats.record("SELECT name FROM city WHERE id not in(1, 2)", 1000, 1, false);
+
+        Assert.assertEquals(stats.get("SELECT * FROM city WHERE id IN (1) AND name = 'x'")
+            .getCalls(), 2);
+        Assert.assertEquals(stats.get("INSERT INTO city VALUES(1, 'x')").getShape(),
+            "INSERT INTO city VALUES(?, ?)");
+        Assert.assertEquals(stats.get("SELECT 3, 4").getShape(), "SELECT ?, ?");
+        Assert.assertEquals(stats.get("SELECT * FROM city WHERE min(id, 1) > 0").getShape(),
+            "SELECT * FROM city WHERE min(id, ?) > ?");
+        Assert.assertEquals(stats.get("SELECT name FROM city WHERE id not in(3)").getShape(),
+            "SELECT name FROM city WHERE id not in(?)");
+        Assert.assertEquals(stats.snapshot().size(), 5);
+    }
+
+    @Test
+    public void evictsRareShapes() {
+        final StatementStatisticsImpl stats = new StatementStatisticsImpl(10);
+        for (int i = 0; i < 100; i++) {
+            stats.record("SELECT * FROM hot WHERE id = " + i, 1000, 1, false);
+        }
+        for (int i = 0; i < 50; i++) {
+            stats.record("SELECT * FROM cold_" + i, 1000, 1, false);
+        }
+        Assert.assertTrue(stats.snapshot().size() <= 10);
+        Assert.assertEquals(stats.get("SELECT * FROM hot WHERE id = 0").getCalls(), 100);
+        Assert.assertNotNull(stats.get("SELECT * FROM cold_49"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class,
+        expectedExceptionsMessageRegExp = "Maximum number of shapes must be at least 1.")
+    public void invalidLimit() {
+        new StatementStatisticsImpl(0);
+    }
+
+    private void name(String sql) {
+        this.factory.createQueryManager()
+            .createQuery(SqlStatement.newInstance(sql), City.class).execute().getSingleResult();
+    }
+
+    public interface City {
+
+        String getName();
+
+        static City newInstance(Map<String, Object> dataMap) {
+            return () -> (String) dataMap.get("NAME");
+        }
+    }
+}
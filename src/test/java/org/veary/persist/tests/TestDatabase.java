@@ -0,0 +1,62 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.tests;
+
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.veary.persist.PersistenceManagerFactory;
+
+/**
+ * Named in-memory H2 databases for the tests which need a {@code DataSource} of their own
+ * rather than the JNDI one bound by {@link GuicePersistTestModule}. A database lives until
+ * the JVM exits, so tests which share a name share its tables.
+ */
+final class TestDatabase {
+
+    private TestDatabase() {}
+
+    /**
+     * Returns a {@code DataSource} for the named in-memory database.
+     *
+     * @param name the database name
+     * @return {@link DataSource}
+     */
+    static DataSource dataSource(String name) {
+        final JdbcDataSource ds = new JdbcDataSource();
+        ds.setURL("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+        return ds;
+    }
+
+    /**
+     * Returns a new factory for the named in-memory database.
+     *
+     * @param name the database name
+     * @return {@link PersistenceManagerFactory}
+     */
+    static PersistenceManagerFactory factory(String name) {
+        return new PersistenceManagerFactory(dataSource(name));
+    }
+}
@@ -28,6 +28,16 @@ import com.google.inject.Guice;
 import com.google.inject.Injector;
 
 import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import javax.sql.DataSource;
 
 import org.testng.Assert;
 import org.testng.annotations.AfterClass;
@@ -36,6 +46,7 @@ import org.testng.annotations.Test;
 import org.veary.persist.PersistenceManagerFactory;
 import org.veary.persist.SqlStatement;
 import org.veary.persist.TransactionManager;
+import org.veary.persist.exceptions.PersistenceException;
 
 import hthurow.tomcatjndi.TomcatJNDI;
 
@@ -92,6 +103,76 @@ public class TransactionManagerTest {
         Assert.assertTrue(manager.getRowCount() == 1);
     }
 
+    @Test
+    public void persistBatch() {
+        assertBatch("debs.batch_plain", false);
+    }
+
+    @Test
+    public void persistBatchRewriteInserts() {
+        assertBatch("debs.batch_rewrite", true);
+    }
+
+    @Test
+    public void persistBatchFailureLeavesNoRows() {
+        final PersistenceManagerFactory factory = this.injector
+            .getInstance(PersistenceManagerFactory.class);
+        final TransactionManager manager = factory.createTransactionManager();
+
+        manager.begin();
+        manager.persist(SqlStatement.newInstance("CREATE TABLE IF NOT EXISTS debs.batch_fail"
+            + "(id INT PRIMARY KEY, name VARCHAR(255))"));
+        manager.commit();
+
+        final List<SqlStatement> statements = new ArrayList<>();
+        for (final int id : new int[] { 1, 2, 1 }) {
+            statements.add(SqlStatement
+                .newInstance("INSERT INTO debs.batch_fail(id, name) VALUES(:id, :name)")
+                .setParameter("id", Integer.valueOf(id))
+                .setParameter("name", "ROW" + id));
+        }
+
+        manager.begin();
+        try {
+            manager.persistBatch(statements);
+            Assert.fail("Duplicate key accepted");
+        } catch (final PersistenceException e) {
+            // expected
+        }
+
+        Assert.assertEquals(factory.createQueryManager()
+            .createQuery(SqlStatement.newInstance("SELECT COUNT(*) FROM debs.batch_fail"))
+            .execute().getSingleResult(), Long.valueOf(0));
+    }
+
+    private void assertBatch(String table, boolean rewrite) {
+        final PersistenceManagerFactory factory = this.injector
+            .getInstance(PersistenceManagerFactory.class);
+        final TransactionManager manager = factory.createTransactionManager();
+
+        manager.begin();
+        manager.persist(SqlStatement.newInstance("CREATE TABLE IF NOT EXISTS " + table
+            + "(id INT PRIMARY KEY AUTO_INCREMENT, name VARCHAR(255), amount INT)"));
+
+        final List<SqlStatement> statements = new ArrayList<>();
+        for (int i = 0; i < 1500; i++) {
+            statements.add(SqlStatement
+                .newInstance("INSERT INTO " + table + "(name, amount) VALUES(:name, :amount)")
+                .setParameter("name", "ROW" + i)
+                .setParameter("amount", Integer.valueOf(i)));
+        }
+
+        final List<Long> ids = manager.persistBatch(statements, rewrite);
+        Assert.assertEquals(manager.getRowCount(), 1500);
+        manager.commit();
+
+        Assert.assertEquals(ids.size(), 1500);
+        Assert.assertEquals(new HashSet<>(ids).size(), 1500);
+        for (int i = 1; i < ids.size(); i++) {
+            Assert.assertTrue(ids.get(i).longValue() > ids.get(i - 1).longValue());
+        }
+    }
+
     @Test(
         expectedExceptions = IllegalStateException.class,
         expectedExceptionsMessageRegExp = "No active transaction.")
@@ -147,6 +228,34 @@ public class TransactionManagerTest {
         manager.commit();
     }
 
+    @Test
+    public void persistBatchMissingKeys() {
+        final PersistenceManagerFactory factory = new PersistenceManagerFactory(
+            returningOneKey(this.injector.getInstance(DataSource.class)));
+        final TransactionManager manager = factory.createTransactionManager();
+
+        manager.begin();
+        manager.persist(SqlStatement.newInstance("CREATE TABLE IF NOT EXISTS debs.batch_keys"
+            + "(id INT PRIMARY KEY AUTO_INCREMENT, name VARCHAR(255))"));
+        manager.commit();
+
+        final List<SqlStatement> statements = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            statements.add(SqlStatement
+                .newInstance("INSERT INTO debs.batch_keys(name) VALUES(?)")
+                .setParameter(1, "ROW" + i));
+        }
+
+        manager.begin();
+        try {
+            manager.persistBatch(statements);
+            Assert.fail();
+        } catch (final PersistenceException e) {
+            Assert.assertTrue(e.getMessage().contains("1/3"), e.getMessage());
+        }
+        Assert.assertFalse(manager.isActive());
+    }
+
     @Test(
         expectedExceptions = IllegalStateException.class,
         expectedExceptionsMessageRegExp = "Incorrect query type.")
@@ -159,4 +268,43 @@ public class TransactionManagerTest {
         SqlStatement find = SqlStatement.newInstance("SELECT * FROM debs.account");
         manager.persist(find);
     }
+
+    /**
+     * Wraps the data source so that generated keys hold one row, however many rows were
+     * inserted.
+     */
+    private DataSource returningOneKey(DataSource target) {
+        return (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[] { DataSource.class }, (proxy, method, args) -> {
+                final Object result = invoke(target, method, args);
+                if (!"getConnection".equals(method.getName())) {
+                    return result;
+                }
+                final Connection conn = (Connection) result;
+                return Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[] { Connection.class }, (p, m, a) -> {
+                        final Object value = invoke(conn, m, a);
+                        if (!"prepareStatement".equals(m.getName())) {
+                            return value;
+                        }
+                        final PreparedStatement pstmt = (PreparedStatement) value;
+                        return Proxy.newProxyInstance(getClass().getClassLoader(),
+                            new Class<?>[] { PreparedStatement.class }, (sp, sm, sa) -> {
+                                if ("getGeneratedKeys".equals(sm.getName())) {
+                                    return conn.createStatement().executeQuery("SELECT 1");
+                                }
+                                return invoke(pstmt, sm, sa);
+                            });
+                    });
+            });
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args)
+        throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (final InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
 }
@@ -0,0 +1,264 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2019 ColonelBlimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.veary.persist.tests;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.veary.persist.PersistenceManagerFactory;
+import org.veary.persist.SqlStatement;
+import org.veary.persist.TransactionManager;
+import org.veary.persist.WriteBehindBuffer;
+import org.veary.persist.exceptions.PersistenceException;
+
+public class WriteBehindBufferTest {
+
+    private PersistenceManagerFactory factory;
+
+    @BeforeMethod
+    public void setUp() {
+        this.factory = TestDatabase.factory("writebehind");
+
+        final TransactionManager txManager = this.factory.createTransactionManager();
+        txManager.begin();
+        txManager.persist(SqlStatement.newInstance("CREATE TABLE IF NOT EXISTS audit("
+            + "id BIGINT AUTO_INCREMENT PRIMARY KEY, source INT, seq INT, "
+            + "UNIQUE(source, seq))"));
+        txManager.persist(SqlStatement.newInstance("DELETE FROM audit"));
+        txManager.commit();
+    }
+
+    @Test
+    public void concurrentSubmitters() throws Exception {
+        final int threads = 8;
+        final int perThread = 500;
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try (WriteBehindBuffer buffer = this.factory.createWriteBehindBuffer(10_000, 200,
+            Duration.ofMillis(5), 2)) {
+            final List<Future<List<CompletableFuture<Long>>>> submitted = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int source = t;
+                submitted.add(pool.submit(() -> {
+                    final List<CompletableFuture<Long>> futures = new ArrayList<>();
+                    for (int i = 0; i < perThread; i++) {
+                        futures.add(buffer.submit(insert(source, i)));
+                    }
+                    return futures;
+                }));
+            }
+
+            for (final Future<List<CompletableFuture<Long>>> result : submitted) {
+                for (final CompletableFuture<Long> future : result.get()) {
+                    Assert.assertTrue(future.get(10, TimeUnit.SECONDS).longValue() > 0);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        Assert.assertEquals(count(), threads * perThread);
+    }
+
+    @Test
+    public void flushesAfterDelay() throws Exception {
+        try (WriteBehindBuffer buffer = this.factory.createWriteBehindBuffer(100, 100,
+            Duration.ofMillis(20), 1)) {
+            final CompletableFuture<Long> future = buffer.submit(insert(1, 1));
+            Assert.assertNotNull(future.get(5, TimeUnit.SECONDS));
+            Assert.assertEquals(buffer.getPendingCount(), 0);
+        }
+        Assert.assertEquals(count(), 1);
+    }
+
+    @Test
+    public void onlyFailingStatementsFail() throws Exception {
+        final List<CompletableFuture<Long>> futures = new ArrayList<>();
+        try (WriteBehindBuffer buffer = this.factory.createWriteBehindBuffer(100, 100,
+            Duration.ofSeconds(10), 1)) {
+            futures.add(buffer.submit(insert(1, 1)));
+            futures.add(buffer.submit(insert(1, 1)));
+            futures.add(buffer.submit(insert(1, 2)));
+        }
+
+        Assert.assertTrue(futures.get(0).get().longValue() > 0);
+        try {
+            futures.get(1).get();
+            Assert.fail("duplicate key was written");
+        } catch (final ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof PersistenceException);
+        }
+        Assert.assertTrue(futures.get(2).get().longValue() > 0);
+        Assert.assertEquals(count(), 2);
+    }
+
+    @Test
+    public void batchesRecordedWithFactory() throws Exception {
+        final long commits = this.factory.getStatistics().getCommitCount();
+        try (WriteBehindBuffer buffer = this.factory.createWriteBehindBuffer(100, 100,
+            Duration.ofMillis(5), 1)) {
+            buffer.submit(insert(1, 1)).get(5, TimeUnit.SECONDS);
+        }
+        Assert.assertEquals(this.factory.getStatistics().getCommitCount(), commits + 1);
+        Assert.assertEquals(this.factory.getStatementStatistics()
+            .get("INSERT INTO audit(source, seq) VALUES(?, ?)").getRows(), 1);
+    }
+
+    @Test
+    public void errorCompletesBatch() throws Exception {
+        final PersistenceManagerFactory failing = new PersistenceManagerFactory(
+            failingPrepare(TestDatabase.dataSource("writebehind")));
+        final WriteBehindBuffer buffer = failing.createWriteBehindBuffer(100, 100,
+            Duration.ofMillis(5), 1);
+        try {
+            buffer.submit(insert(1, 1)).get(5, TimeUnit.SECONDS);
+            Assert.fail("statement was written");
+        } catch (final ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof AssertionError);
+        } finally {
+            buffer.close();
+        }
+    }
+
+    @Test
+    public void rejectsWhenFullOrClosed() {
+        final WriteBehindBuffer buffer = this.factory.createWriteBehindBuffer(2, 100,
+            Duration.ofSeconds(10), 1);
+        buffer.submit(insert(1, 1));
+        buffer.submit(insert(1, 2));
+        Assert.assertThrows(IllegalStateException.class, () -> buffer.submit(insert(1, 3)));
+
+        buffer.close();
+        Assert.assertEquals(count(), 2);
+        Assert.assertThrows(IllegalStateException.class, () -> buffer.submit(insert(1, 4)));
+    }
+
+    @Test
+    public void submitRacingClose() throws Exception {
+        final int threads = 4;
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for (int round = 0; round < 10; round++) {
+                final WriteBehindBuffer buffer = this.factory.createWriteBehindBuffer(1000, 50,
+                    Duration.ofMillis(1), 2);
+                final CountDownLatch started = new CountDownLatch(threads);
+                final List<Future<List<CompletableFuture<Long>>>> submitted = new ArrayList<>();
+                for (int t = 0; t < threads; t++) {
+                    final int source = round * threads + t;
+                    submitted.add(pool.submit(() -> {
+                        final List<CompletableFuture<Long>> futures = new ArrayList<>();
+                        started.countDown();
+                        for (int i = 0;; i++) {
+                            try {
+                                futures.add(buffer.submit(insert(source, i)));
+                            } catch (final IllegalStateException e) {
+                                if (e.getMessage().endsWith("closed.")) {
+                                    return futures;
+                                }
+                                Thread.yield();
+                            }
+                        }
+                    }));
+                }
+                started.await();
+                buffer.close();
+
+                long accepted = 0;
+                for (final Future<List<CompletableFuture<Long>>> future : submitted) {
+                    for (final CompletableFuture<Long> id : future.get()) {
+                        Assert.assertTrue(id.isDone(), "statement left behind by close()");
+                        Assert.assertNotNull(id.get());
+                        accepted++;
+                    }
+                }
+                Assert.assertEquals(count(), accepted);
+                setUp();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class,
+        expectedExceptionsMessageRegExp = "Maximum delay must be positive.")
+    public void rejectsZeroDelay() {
+        this.factory.createWriteBehindBuffer(100, 10, Duration.ZERO, 1);
+    }
+
+    private static DataSource failingPrepare(DataSource target) {
+        return (DataSource) Proxy.newProxyInstance(WriteBehindBufferTest.class.getClassLoader(),
+            new Class<?>[] { DataSource.class }, (proxy, method, args) -> {
+                final Object result = invoke(target, method, args);
+                if (!"getConnection".equals(method.getName())) {
+                    return result;
+                }
+                final Connection conn = (Connection) result;
+                return Proxy.newProxyInstance(WriteBehindBufferTest.class.getClassLoader(),
+                    new Class<?>[] { Connection.class }, (p, m, a) -> {
+                        if ("prepareStatement".equals(m.getName())) {
+                            throw new AssertionError("driver failure");
+                        }
+                        return invoke(conn, m, a);
+                    });
+            });
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args)
+        throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (final InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static SqlStatement insert(int source, int seq) {
+        return SqlStatement.newInstance("INSERT INTO audit(source, seq) VALUES(?, ?)")
+            .setParameter(1, Integer.valueOf(source))
+            .setParameter(2, Integer.valueOf(seq));
+    }
+
+    private long count() {
+        return ((Number) this.factory.createQueryManager()
+            .createQuery(SqlStatement.newInstance("SELECT COUNT(*) FROM audit"))
+            .execute().getSingleResult()).longValue();
+    }
+}